@@ -0,0 +1,177 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.Almacenamiento;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.ListaArreglo;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de {@link Lista} contra {@link ListaArreglo}, y de
+ * {@link BaseDeDatosTarjetas} con cada {@link Almacenamiento}. Las pruebas
+ * de las listas usan enteros en cajas, para medir la estructura y no los
+ * elementos; las de la base de datos usan tarjetas aleatorias con todos los
+ * índices de la base de datos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BenchmarkAlmacenamiento {
+
+    /** El almacenamiento de las listas y de la base de datos. */
+    @Param({ "LISTA", "ARREGLO" })
+    public Almacenamiento almacenamiento;
+
+    /** El número de elementos en las listas y en la base de datos. */
+    @Param({ "100000" })
+    public int elementos;
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* Los elementos, en orden aleatorio. */
+    private Integer[] enteros;
+    /* La lista ligada con los elementos. */
+    private Lista<Integer> lista;
+    /* La lista en arreglo con los elementos. */
+    private ListaArreglo<Integer> arreglo;
+    /* Las tarjetas de la base de datos. */
+    private Tarjeta[] tarjetas;
+    /* La base de datos. */
+    private BaseDeDatosTarjetas bdd;
+
+    /**
+     * Genera los elementos, las listas y la base de datos.
+     */
+    @Setup public void prepara() {
+        random = new Random(0);
+        enteros = new Integer[elementos];
+        lista = new Lista<Integer>();
+        arreglo = new ListaArreglo<Integer>();
+        for (int i = 0; i < elementos; i++) {
+            enteros[i] = random.nextInt();
+            lista.agregaFinal(enteros[i]);
+            arreglo.agregaFinal(enteros[i]);
+        }
+        tarjetas = new GeneradorTarjetas().tarjetas(elementos);
+        bdd = new BaseDeDatosTarjetas(almacenamiento);
+        for (Tarjeta t : tarjetas)
+            bdd.agregaRegistro(t);
+    }
+
+    /**
+     * Agrega todos los elementos al final de una lista vacía.
+     *
+     * @return el número de elementos agregados.
+     */
+    @Benchmark public int agregaFinal() {
+        if (almacenamiento == Almacenamiento.LISTA) {
+            Lista<Integer> l = new Lista<Integer>();
+            for (Integer e : enteros)
+                l.agregaFinal(e);
+            return l.getLongitud();
+        }
+        ListaArreglo<Integer> l = new ListaArreglo<Integer>();
+        for (Integer e : enteros)
+            l.agregaFinal(e);
+        return l.getLongitud();
+    }
+
+    /**
+     * Obtiene un elemento en una posición aleatoria.
+     *
+     * @return el elemento.
+     */
+    @Benchmark public Integer get() {
+        int i = random.nextInt(elementos);
+        return almacenamiento == Almacenamiento.LISTA ?
+            lista.get(i) : arreglo.get(i);
+    }
+
+    /**
+     * Recorre todos los elementos con el iterador.
+     *
+     * @return la suma de los elementos.
+     */
+    @Benchmark public long recorre() {
+        long suma = 0;
+        if (almacenamiento == Almacenamiento.LISTA)
+            for (Integer e : lista)
+                suma += e;
+        else
+            for (Integer e : arreglo)
+                suma += e;
+        return suma;
+    }
+
+    /**
+     * Busca un elemento que no está, recorriendo toda la lista.
+     *
+     * @return si la lista contiene el elemento.
+     */
+    @Benchmark public boolean contiene() {
+        Integer ausente = Integer.valueOf(0);
+        return almacenamiento == Almacenamiento.LISTA ?
+            lista.contiene(ausente) : arreglo.contiene(ausente);
+    }
+
+    /**
+     * Ordena la lista con mergeSort.
+     *
+     * @return el primer elemento de la lista ordenada.
+     */
+    @Benchmark public Integer mergeSort() {
+        return almacenamiento == Almacenamiento.LISTA ?
+            lista.mergeSort((a, b) -> a.compareTo(b)).getPrimero() :
+            arreglo.mergeSort((a, b) -> a.compareTo(b)).getPrimero();
+    }
+
+    /**
+     * Carga todas las tarjetas en una base de datos vacía.
+     *
+     * @return el número de registros en la base de datos.
+     */
+    @Benchmark public int cargaBaseDeDatos() {
+        BaseDeDatosTarjetas b = new BaseDeDatosTarjetas(almacenamiento);
+        for (Tarjeta t : tarjetas)
+            b.agregaRegistro(t);
+        return b.getNumRegistros();
+    }
+
+    /**
+     * Busca una tarjeta aleatoria por su número de tarjeta.
+     *
+     * @return la tarjeta.
+     */
+    @Benchmark public Tarjeta buscaRegistro() {
+        return bdd.buscaRegistro(tarjetas[random.nextInt(elementos)]
+                                 .getNumeroDeTarjeta());
+    }
+
+    /**
+     * Elimina una tarjeta aleatoria y la vuelve a agregar.
+     *
+     * @return el número de registros en la base de datos.
+     */
+    @Benchmark public int eliminaRegistro() {
+        Tarjeta t = tarjetas[random.nextInt(elementos)];
+        bdd.eliminaRegistro(t);
+        bdd.agregaRegistro(t);
+        return bdd.getNumRegistros();
+    }
+}
@@ -0,0 +1,190 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de {@link BaseDeDatosTarjetas}: búsquedas por
+ * llave y por campo, modificaciones, y guardar y cargar la base de datos
+ * completa, con tarjetas sintéticas y para varios tamaños de la base de
+ * datos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BenchmarkBaseDeDatos {
+
+    /**
+     * Clase para las búsquedas por campo: cada campo es un caso de la
+     * prueba, con un valor que cazan pocas tarjetas.
+     */
+    @State(Scope.Benchmark)
+    public static class Busqueda {
+
+        /** El campo de la búsqueda. */
+        @Param({ "NOMBRE_DEL_PROPIETARIO", "NUMERO_DE_TARJETA",
+                 "FECHA_DE_VENCIMIENTO", "CODIGO_DE_SEGURIDAD", "SALDO" })
+        public CampoTarjeta campo;
+
+        /* El valor de la búsqueda. */
+        private Object valor;
+
+        /**
+         * Elige el valor de la búsqueda para el campo.
+         */
+        @Setup public void prepara() {
+            switch (campo) {
+            case NOMBRE_DEL_PROPIETARIO:
+                valor = "Rebeca Moscote";
+                break;
+            case NUMERO_DE_TARJETA:
+                valor = "0000999";
+                break;
+            case FECHA_DE_VENCIMIENTO:
+                valor = "12/99";
+                break;
+            case CODIGO_DE_SEGURIDAD:
+                valor = Integer.valueOf(995);
+                break;
+            default:
+                valor = Double.valueOf(199000.0);
+            }
+        }
+    }
+
+    /** El número de tarjetas en la base de datos. */
+    @Param({ "1000", "100000" })
+    public int registros;
+
+    /* Generador de números aleatorios para las posiciones. */
+    private Random random;
+    /* Las tarjetas, como están en la base de datos. */
+    private Tarjeta[] originales;
+    /* Las tarjetas con otro saldo. */
+    private Tarjeta[] modificadas;
+    /* Qué tarjetas están modificadas en la base de datos. */
+    private boolean[] modificada;
+    /* La base de datos. */
+    private BaseDeDatosTarjetas bdd;
+    /* La base de datos guardada. */
+    private String guardada;
+
+    /**
+     * Genera las tarjetas y la base de datos, y la guarda en una cadena.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Setup public void prepara() throws IOException {
+        random = new Random(GeneradorTarjetas.SEMILLA);
+        Tarjeta[] tarjetas = new GeneradorTarjetas().tarjetas(registros);
+        originales = new Tarjeta[registros];
+        modificadas = new Tarjeta[registros];
+        modificada = new boolean[registros];
+        bdd = new BaseDeDatosTarjetas();
+        bdd.indexaSubcadenas();
+        for (int i = 0; i < registros; i++) {
+            Tarjeta t = tarjetas[i];
+            bdd.agregaRegistro(t);
+            originales[i] = conSaldo(t, t.getSaldo());
+            modificadas[i] = conSaldo(t, t.getSaldo() + 1);
+        }
+        StringWriter cadena = new StringWriter();
+        BufferedWriter out = new BufferedWriter(cadena);
+        bdd.guarda(out);
+        out.close();
+        guardada = cadena.toString();
+    }
+
+    /* Regresa una tarjeta igual a la recibida con otro saldo. */
+    private static Tarjeta conSaldo(Tarjeta t, double saldo) {
+        return new Tarjeta(t.getNombreDelPropietario(),
+                           t.getNumeroDeTarjeta(),
+                           t.getCodigoDeSeguridad(),
+                           t.getFechaDeVencimiento(), saldo);
+    }
+
+    /**
+     * Busca una tarjeta aleatoria por su número de tarjeta.
+     *
+     * @return la tarjeta.
+     */
+    @Benchmark public Tarjeta buscaRegistro() {
+        return bdd.buscaRegistro(
+            GeneradorTarjetas.numeroDeTarjeta(random.nextInt(registros)));
+    }
+
+    /**
+     * Busca las tarjetas que cazan el valor de la búsqueda en su campo.
+     *
+     * @param busqueda la búsqueda.
+     * @return las tarjetas encontradas.
+     */
+    @Benchmark public Lista<Tarjeta> buscaRegistros(Busqueda busqueda) {
+        return bdd.buscaRegistros(busqueda.campo, busqueda.valor);
+    }
+
+    /**
+     * Cambia el saldo de una tarjeta aleatoria, o lo regresa a su valor
+     * original si ya estaba cambiado.
+     *
+     * @return la versión de la base de datos.
+     */
+    @Benchmark public long modificaRegistro() {
+        int i = random.nextInt(registros);
+        if (modificada[i])
+            bdd.modificaRegistro(modificadas[i], originales[i]);
+        else
+            bdd.modificaRegistro(originales[i], modificadas[i]);
+        modificada[i] = !modificada[i];
+        return bdd.getVersion();
+    }
+
+    /**
+     * Guarda la base de datos completa en una salida que descarta lo que
+     * recibe.
+     *
+     * @return el número de registros guardados.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public int guarda() throws IOException {
+        BufferedWriter out = new BufferedWriter(Writer.nullWriter());
+        bdd.guarda(out);
+        out.close();
+        return bdd.getNumRegistros();
+    }
+
+    /**
+     * Carga la base de datos completa en una base de datos nueva.
+     *
+     * @return el número de registros cargados.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public int carga() throws IOException {
+        BaseDeDatosTarjetas b = new BaseDeDatosTarjetas();
+        b.carga(new BufferedReader(new StringReader(guardada)));
+        return b.getNumRegistros();
+    }
+}
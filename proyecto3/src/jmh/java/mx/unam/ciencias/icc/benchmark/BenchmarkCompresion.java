@@ -0,0 +1,245 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.red.Conexion;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de la transferencia de la base de datos completa y
+ * de las instantáneas en disco, en texto, en binario y comprimidas. Cada
+ * prueba genera una base de datos de tarjetas aleatorias, reporta cuántos
+ * bytes ocupa una transferencia y su razón contra el texto plano, y mide
+ * cuánto tarda un cliente en recibirla y cuánto tarda en guardarse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BenchmarkCompresion {
+
+    /**
+     * Formatos de la transferencia. En el disco, {@link #TEXTO} y {@link
+     * #BINARIO} guardan la misma instantánea sin comprimir.
+     */
+    public enum Formato {
+        /** El protocolo de texto. */
+        TEXTO,
+        /** El protocolo binario. */
+        BINARIO,
+        /** El protocolo binario con compresión. */
+        COMPRIMIDO;
+    }
+
+    /** El formato de la transferencia. */
+    @Param({ "TEXTO", "BINARIO", "COMPRIMIDO" })
+    public Formato formato;
+
+    /** El número de tarjetas en la base de datos. */
+    @Param({ "1000000" })
+    public int registros;
+
+    /* El puerto del servidor. */
+    private int puerto;
+    /* El archivo de la base de datos. */
+    private File archivo;
+    /* El archivo para las instantáneas. */
+    private File instantanea;
+    /* La base de datos del cliente. */
+    private BaseDeDatosTarjetas copia;
+    /* El enchufe del cliente. */
+    private EnchufeContado enchufe;
+    /* La conexión del cliente. */
+    private Conexion<Tarjeta> conexion;
+    /* Se libera cada vez que el cliente termina de recibir la base. */
+    private Semaphore recibida;
+
+    /* Enchufe que cuenta los bytes que lee. */
+    private static class EnchufeContado extends Socket {
+
+        /* Los bytes leídos. */
+        private volatile long leidos;
+        /* La entrada. */
+        private InputStream entrada;
+
+        /* Conecta el enchufe. */
+        public EnchufeContado(int puerto) throws IOException {
+            super("localhost", puerto);
+            entrada = new FilterInputStream(super.getInputStream()) {
+                @Override public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1)
+                        leidos++;
+                    return b;
+                }
+                @Override public int read(byte[] b, int i, int n)
+                    throws IOException {
+                    int r = super.read(b, i, n);
+                    if (r > 0)
+                        leidos += r;
+                    return r;
+                }
+            };
+        }
+
+        /* Regresa la entrada que cuenta. */
+        @Override public InputStream getInputStream() {
+            return entrada;
+        }
+    }
+
+    /**
+     * Genera la base de datos, arranca el servidor y conecta al cliente.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws InterruptedException si se interrumpe la espera del servidor.
+     */
+    @Setup(Level.Trial) public void arma()
+        throws IOException, InterruptedException {
+        GeneradorTarjetas generador = new GeneradorTarjetas(registros);
+        copia = new BaseDeDatosTarjetas();
+        for (int i = 0; i < registros; i++)
+            copia.agregaRegistro(generador.tarjeta());
+        archivo = File.createTempFile("benchmark-compresion", ".db");
+        instantanea = File.createTempFile("benchmark-compresion", ".db");
+        guarda(archivo, false);
+        copia.limpia();
+
+        ServerSocket s = new ServerSocket(0);
+        puerto = s.getLocalPort();
+        s.close();
+        ServidorBaseDeDatosTarjetas servidor =
+            new ServidorBaseDeDatosTarjetas(puerto, archivo.getPath());
+        if (formato == Formato.COMPRIMIDO)
+            servidor.comprimeInstantaneas();
+        new Thread(() -> servidor.sirve()).start();
+
+        enchufe = conecta();
+        conexion = new Conexion<Tarjeta>(copia, enchufe);
+        recibida = new Semaphore(0);
+        conexion.agregaEscucha((c, m) -> {
+                if (m != Mensaje.BASE_DE_DATOS)
+                    return;
+                try {
+                    c.recibeBaseDeDatos();
+                } catch (IOException ioe) {
+                    c.desconecta();
+                }
+                recibida.release();
+            });
+        if (formato != Formato.TEXTO)
+            conexion.activaProtocoloBinario();
+        if (formato == Formato.COMPRIMIDO)
+            conexion.activaCompresion();
+        new Thread(() -> conexion.recibeMensajes()).start();
+
+        transfiere();
+        long antes = enchufe.leidos;
+        transfiere();
+        long bytes = enchufe.leidos - antes;
+        long texto = archivo.length();
+        guarda(instantanea, formato == Formato.COMPRIMIDO);
+        System.out.printf("%n%s: %d bytes por transferencia " +
+                          "(%.2f de texto), %d bytes en disco (%.2f).%n",
+                          formato, bytes, (double)bytes / texto,
+                          instantanea.length(),
+                          (double)instantanea.length() / texto);
+    }
+
+    /**
+     * Detiene el servidor, desconecta al cliente y borra los archivos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws InterruptedException si se interrumpe la espera del servidor.
+     */
+    @TearDown(Level.Trial) public void desarma()
+        throws IOException, InterruptedException {
+        conexion.desconecta();
+        Socket s = conecta();
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(s.getOutputStream()));
+        out.write(Mensaje.DETENER_SERVICIO.toString());
+        out.newLine();
+        out.flush();
+        s.close();
+        archivo.delete();
+        instantanea.delete();
+    }
+
+    /**
+     * Pide la base de datos completa al servidor y espera a recibirla.
+     * @return el número de registros recibidos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    @Benchmark public int transfiere()
+        throws IOException, InterruptedException {
+        conexion.enviaMensaje(Mensaje.BASE_DE_DATOS);
+        recibida.acquire();
+        return copia.getNumRegistros();
+    }
+
+    /**
+     * Guarda en una instantánea en disco la base de datos que recibió el
+     * cliente, que es igual a la del servidor.
+     * @return el tamaño de la instantánea.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public long guarda() throws IOException {
+        guarda(instantanea, formato == Formato.COMPRIMIDO);
+        return instantanea.length();
+    }
+
+    /* Guarda la base de datos en el archivo, comprimida si se pide, como lo
+     * hace el servidor. */
+    private void guarda(File archivo, boolean comprime) throws IOException {
+        OutputStream salida = new FileOutputStream(archivo);
+        if (comprime)
+            salida = new GZIPOutputStream(salida, 64 * 1024);
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(salida, "UTF-8"));
+        copia.guarda(out);
+        out.close();
+    }
+
+    /* Conecta con el servidor, reintentando mientras arranca. */
+    private EnchufeContado conecta()
+        throws IOException, InterruptedException {
+        for (int i = 0; ; i++) {
+            try {
+                return new EnchufeContado(puerto);
+            } catch (IOException ioe) {
+                if (i == 100)
+                    throw ioe;
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.ModeloConexiones;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de los modelos de conexiones del servidor. Cada
+ * prueba abre un número de conexiones ociosas, reporta cuántos hilos de
+ * ejecución tiene la máquina virtual para sostenerlas, y mide cuántos
+ * mensajes por segundo atiende el servidor con varios clientes activos
+ * mandando ecos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(4)
+public class BenchmarkConexiones {
+
+    /** El modelo de conexiones del servidor. */
+    @Param({ "HILO_POR_CONEXION", "HILOS_VIRTUALES", "REACTOR" })
+    public ModeloConexiones modelo;
+
+    /** El número de conexiones ociosas. */
+    @Param({ "100", "1000" })
+    public int conexiones;
+
+    /* El puerto del servidor. */
+    private static volatile int puerto;
+
+    /* El servidor. */
+    private ServidorBaseDeDatosTarjetas servidor;
+    /* El archivo de la base de datos. */
+    private File archivo;
+    /* Las conexiones ociosas. */
+    private Socket[] ociosas;
+
+    /**
+     * Clase para los clientes activos; cada hilo de la prueba tiene uno.
+     */
+    @State(Scope.Thread)
+    public static class Cliente {
+
+        /* El enchufe. */
+        private Socket enchufe;
+        /* La entrada. */
+        private BufferedReader in;
+        /* La salida. */
+        private BufferedWriter out;
+
+        /**
+         * Conecta al cliente con el servidor.
+         * @param b la prueba, que arranca el servidor.
+         * @throws IOException si no se puede conectar.
+         */
+        @Setup(Level.Trial) public void conecta(BenchmarkConexiones b)
+            throws IOException {
+            enchufe = new Socket("localhost", puerto);
+            in = new BufferedReader(
+                new InputStreamReader(enchufe.getInputStream()));
+            out = new BufferedWriter(
+                new OutputStreamWriter(enchufe.getOutputStream()));
+        }
+
+        /**
+         * Desconecta al cliente.
+         * @throws IOException si ocurre un error al desconectar.
+         */
+        @TearDown(Level.Trial) public void desconecta() throws IOException {
+            enchufe.close();
+        }
+    }
+
+    /**
+     * Arranca el servidor y abre las conexiones ociosas.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws InterruptedException si se interrumpe la espera del servidor.
+     */
+    @Setup(Level.Trial) public void arma()
+        throws IOException, InterruptedException {
+        archivo = File.createTempFile("benchmark-conexiones", ".db");
+        ServerSocket s = new ServerSocket(0);
+        puerto = s.getLocalPort();
+        s.close();
+        servidor = new ServidorBaseDeDatosTarjetas(puerto, archivo.getPath());
+        new Thread(() -> servidor.sirve(modelo)).start();
+
+        ociosas = new Socket[conexiones];
+        for (int i = 0; i < conexiones; i++)
+            ociosas[i] = conecta();
+        /* Un eco por la última conexión garantiza que el servidor ya aceptó
+         * todas las anteriores. */
+        Socket s2 = conecta();
+        eco(new BufferedReader(new InputStreamReader(s2.getInputStream())),
+            new BufferedWriter(new OutputStreamWriter(s2.getOutputStream())));
+        s2.close();
+        int hilos = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.out.printf("%n%s: %d conexiones ociosas, %d hilos.%n",
+                          modelo, conexiones, hilos);
+    }
+
+    /**
+     * Detiene el servidor y cierra las conexiones ociosas.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @TearDown(Level.Trial) public void desarma()
+        throws IOException, InterruptedException {
+        Socket s = conecta();
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(s.getOutputStream()));
+        out.write(Mensaje.DETENER_SERVICIO.toString());
+        out.newLine();
+        out.flush();
+        s.close();
+        for (Socket o : ociosas)
+            o.close();
+        archivo.delete();
+    }
+
+    /**
+     * Manda un eco y espera la respuesta.
+     * @param cliente el cliente activo del hilo.
+     * @return la respuesta del servidor.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public String eco(Cliente cliente) throws IOException {
+        return eco(cliente.in, cliente.out);
+    }
+
+    /* Conecta con el servidor, reintentando mientras arranca. */
+    private static Socket conecta() throws IOException, InterruptedException {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("localhost", puerto);
+            } catch (IOException ioe) {
+                if (i == 100)
+                    throw ioe;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /* Manda un eco y espera la respuesta. */
+    private static String eco(BufferedReader in, BufferedWriter out)
+        throws IOException {
+        out.write(Mensaje.ECO.toString());
+        out.newLine();
+        out.flush();
+        return in.readLine();
+    }
+}
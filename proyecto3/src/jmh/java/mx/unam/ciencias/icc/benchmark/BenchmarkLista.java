@@ -0,0 +1,151 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de las operaciones de {@link Lista} con tarjetas
+ * sintéticas, para varios tamaños de lista. La comparación de {@link Lista}
+ * contra la lista en arreglo está en {@link BenchmarkAlmacenamiento}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BenchmarkLista {
+
+    /** El número de elementos en la lista. */
+    @Param({ "1000", "100000" })
+    public int elementos;
+
+    /* Generador de números aleatorios para las posiciones. */
+    private Random random;
+    /* Las tarjetas, en el orden de la lista. */
+    private Tarjeta[] tarjetas;
+    /* Una tarjeta que no está en la lista. */
+    private Tarjeta ausente;
+    /* La lista. */
+    private Lista<Tarjeta> lista;
+
+    /**
+     * Genera las tarjetas y la lista.
+     */
+    @Setup public void prepara() {
+        random = new Random(GeneradorTarjetas.SEMILLA);
+        GeneradorTarjetas generador = new GeneradorTarjetas();
+        tarjetas = generador.tarjetas(elementos);
+        ausente = generador.tarjeta();
+        lista = new Lista<Tarjeta>();
+        for (Tarjeta t : tarjetas)
+            lista.agregaFinal(t);
+    }
+
+    /**
+     * Agrega todas las tarjetas al final de una lista vacía.
+     *
+     * @return el número de elementos agregados.
+     */
+    @Benchmark public int agregaFinal() {
+        Lista<Tarjeta> l = new Lista<Tarjeta>();
+        for (Tarjeta t : tarjetas)
+            l.agregaFinal(t);
+        return l.getLongitud();
+    }
+
+    /**
+     * Agrega todas las tarjetas al inicio de una lista vacía.
+     *
+     * @return el número de elementos agregados.
+     */
+    @Benchmark public int agregaInicio() {
+        Lista<Tarjeta> l = new Lista<Tarjeta>();
+        for (Tarjeta t : tarjetas)
+            l.agregaInicio(t);
+        return l.getLongitud();
+    }
+
+    /**
+     * Obtiene la tarjeta en una posición aleatoria.
+     *
+     * @return la tarjeta.
+     */
+    @Benchmark public Tarjeta get() {
+        return lista.get(random.nextInt(elementos));
+    }
+
+    /**
+     * Recorre toda la lista con el iterador.
+     *
+     * @return la suma de los saldos.
+     */
+    @Benchmark public double recorre() {
+        double suma = 0;
+        for (Tarjeta t : lista)
+            suma += t.getSaldo();
+        return suma;
+    }
+
+    /**
+     * Busca una tarjeta que no está, comparando con todas.
+     *
+     * @return si la lista contiene la tarjeta.
+     */
+    @Benchmark public boolean contiene() {
+        return lista.contiene(ausente);
+    }
+
+    /**
+     * Elimina una tarjeta aleatoria y la vuelve a agregar al final.
+     *
+     * @return el número de elementos en la lista.
+     */
+    @Benchmark public int elimina() {
+        Tarjeta t = tarjetas[random.nextInt(elementos)];
+        lista.elimina(t);
+        lista.agregaFinal(t);
+        return lista.getLongitud();
+    }
+
+    /**
+     * Copia la lista.
+     *
+     * @return la copia.
+     */
+    @Benchmark public Lista<Tarjeta> copia() {
+        return lista.copia();
+    }
+
+    /**
+     * Regresa la reversa de la lista.
+     *
+     * @return la reversa.
+     */
+    @Benchmark public Lista<Tarjeta> reversa() {
+        return lista.reversa();
+    }
+
+    /**
+     * Ordena la lista por saldo con mergeSort.
+     *
+     * @return la lista ordenada.
+     */
+    @Benchmark public Lista<Tarjeta> mergeSort() {
+        return lista.mergeSort((a, b) -> Double.compare(a.getSaldo(),
+                                                        b.getSaldo()));
+    }
+}
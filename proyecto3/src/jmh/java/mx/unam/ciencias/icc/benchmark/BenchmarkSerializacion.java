@@ -0,0 +1,189 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.red.Mensaje;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pruebas de rendimiento de la serialización de tarjetas, en texto y en
+ * binario, y de la traducción de mensajes del protocolo. Cada prueba procesa
+ * todas las tarjetas o todas las líneas de mensajes, para varios tamaños.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BenchmarkSerializacion {
+
+    /** El número de tarjetas y de líneas de mensajes. */
+    @Param({ "1000", "100000" })
+    public int registros;
+
+    /* Las tarjetas. */
+    private Tarjeta[] tarjetas;
+    /* Las tarjetas serializadas en texto. */
+    private String[] lineas;
+    /* Las tarjetas serializadas en binario. */
+    private byte[] binario;
+    /* Las líneas de mensajes, con algunas inválidas. */
+    private String[] mensajes;
+    /* Los códigos binarios de los mensajes, con algunos inválidos. */
+    private byte[] codigos;
+    /* El búfer para la serialización en texto. */
+    private StringBuilder bufer;
+    /* El búfer para la serialización en binario. */
+    private ByteArrayOutputStream bytes;
+    /* La tarjeta en la que se deserializa. */
+    private Tarjeta tarjeta;
+
+    /**
+     * Genera las tarjetas, sus serializaciones y las líneas de mensajes.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Setup public void prepara() throws IOException {
+        tarjetas = new GeneradorTarjetas().tarjetas(registros);
+        lineas = new String[registros];
+        bytes = new ByteArrayOutputStream();
+        DataOutputStream salida = new DataOutputStream(bytes);
+        for (int i = 0; i < registros; i++) {
+            lineas[i] = tarjetas[i].serializa();
+            tarjetas[i].escribe(salida);
+        }
+        salida.flush();
+        binario = bytes.toByteArray();
+
+        Mensaje[] valores = Mensaje.values();
+        mensajes = new String[registros];
+        codigos = new byte[registros];
+        for (int i = 0; i < registros; i++) {
+            Mensaje m = valores[i % valores.length];
+            if (i % 4 == 3) {
+                mensajes[i] = lineas[i];
+                codigos[i] = (byte)-1;
+                continue;
+            }
+            mensajes[i] = m.isLote() ? m + ":" + (1 + i % 100) : m.toString();
+            codigos[i] = m.getCodigo();
+        }
+
+        bufer = new StringBuilder(128);
+        tarjeta = new Tarjeta(null, null, 0, null, 0);
+    }
+
+    /**
+     * Serializa todas las tarjetas en cadenas nuevas.
+     *
+     * @return la suma de las longitudes de las cadenas.
+     */
+    @Benchmark public long serializa() {
+        long n = 0;
+        for (Tarjeta t : tarjetas)
+            n += t.serializa().length();
+        return n;
+    }
+
+    /**
+     * Serializa todas las tarjetas en un mismo búfer que se reutiliza.
+     *
+     * @return la suma de las longitudes de las serializaciones.
+     */
+    @Benchmark public long serializaBufer() {
+        long n = 0;
+        for (Tarjeta t : tarjetas) {
+            bufer.setLength(0);
+            t.serializa(bufer);
+            n += bufer.length();
+        }
+        return n;
+    }
+
+    /**
+     * Deserializa todas las líneas en una misma tarjeta.
+     *
+     * @return la suma de los saldos.
+     */
+    @Benchmark public double deserializa() {
+        double suma = 0;
+        for (String linea : lineas) {
+            tarjeta.deserializa(linea);
+            suma += tarjeta.getSaldo();
+        }
+        return suma;
+    }
+
+    /**
+     * Escribe todas las tarjetas en binario.
+     *
+     * @return el número de bytes escritos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public int escribe() throws IOException {
+        bytes.reset();
+        DataOutputStream salida = new DataOutputStream(bytes);
+        for (Tarjeta t : tarjetas)
+            t.escribe(salida);
+        salida.flush();
+        return bytes.size();
+    }
+
+    /**
+     * Lee todas las tarjetas en binario en una misma tarjeta.
+     *
+     * @return la suma de los saldos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Benchmark public double lee() throws IOException {
+        DataInputStream entrada =
+            new DataInputStream(new ByteArrayInputStream(binario));
+        double suma = 0;
+        for (int i = 0; i < registros; i++) {
+            tarjeta.lee(entrada);
+            suma += tarjeta.getSaldo();
+        }
+        return suma;
+    }
+
+    /**
+     * Traduce todas las líneas de mensajes del protocolo de texto.
+     *
+     * @return el número de mensajes válidos.
+     */
+    @Benchmark public int getMensajeTexto() {
+        int validos = 0;
+        for (String linea : mensajes)
+            if (Mensaje.getMensaje(linea) != Mensaje.INVALIDO)
+                validos++;
+        return validos;
+    }
+
+    /**
+     * Traduce todos los códigos de mensajes del protocolo binario.
+     *
+     * @return el número de mensajes válidos.
+     */
+    @Benchmark public int getMensajeBinario() {
+        int validos = 0;
+        for (byte codigo : codigos)
+            if (Mensaje.getMensaje(codigo) != Mensaje.INVALIDO)
+                validos++;
+        return validos;
+    }
+}
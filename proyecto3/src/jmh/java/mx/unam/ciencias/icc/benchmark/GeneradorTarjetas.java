@@ -0,0 +1,89 @@
+package mx.unam.ciencias.icc.benchmark;
+
+import java.util.Random;
+import mx.unam.ciencias.icc.Tarjeta;
+
+/**
+ * Generador de tarjetas sintéticas para las pruebas de rendimiento. Las
+ * tarjetas sólo dependen de la semilla, así que dos corridas con la misma
+ * semilla generan las mismas tarjetas, en el mismo orden, y sus resultados
+ * se pueden comparar. Cada tarjeta tiene un número de tarjeta único de
+ * dieciséis dígitos.
+ */
+public class GeneradorTarjetas {
+
+    /** La semilla por omisión. */
+    public static final long SEMILLA = 0;
+
+    /* El primer número de tarjeta. */
+    private static final long PRIMER_NUMERO = 1000000000000000L;
+    /* Los nombres de los propietarios. */
+    private static final String[] NOMBRES = {
+        "José Arcadio", "Úrsula", "Aureliano", "Amaranta", "Rebeca",
+        "Remedios"
+    };
+    /* Los apellidos de los propietarios. */
+    private static final String[] APELLIDOS = {
+        "Buendía", "Iguarán", "Cotes", "Ternera", "Moscote", "Babilonia"
+    };
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El número de tarjetas generadas. */
+    private int generadas;
+
+    /**
+     * Construye un generador con la semilla por omisión.
+     */
+    public GeneradorTarjetas() {
+        this(SEMILLA);
+    }
+
+    /**
+     * Construye un generador con la semilla recibida.
+     *
+     * @param semilla la semilla del generador.
+     */
+    public GeneradorTarjetas(long semilla) {
+        random = new Random(semilla);
+    }
+
+    /**
+     * Regresa el número de tarjeta de la <em>i</em>-ésima tarjeta generada.
+     *
+     * @param i la posición de la tarjeta.
+     * @return el número de tarjeta.
+     */
+    public static String numeroDeTarjeta(int i) {
+        return String.valueOf(PRIMER_NUMERO + i);
+    }
+
+    /**
+     * Regresa la siguiente tarjeta.
+     *
+     * @return una tarjeta sintética con un número de tarjeta nuevo.
+     */
+    public Tarjeta tarjeta() {
+        String nombre = NOMBRES[random.nextInt(NOMBRES.length)] + " " +
+            APELLIDOS[random.nextInt(APELLIDOS.length)] + " " +
+            APELLIDOS[random.nextInt(APELLIDOS.length)];
+        String fecha = String.format("%02d/%02d", 1 + random.nextInt(12),
+                                     22 + random.nextInt(78));
+        return new Tarjeta(nombre, numeroDeTarjeta(generadas++),
+                           100 + random.nextInt(900), fecha,
+                           random.nextInt(2000000) / 10.0);
+    }
+
+    /**
+     * Regresa las siguientes tarjetas.
+     *
+     * @param n el número de tarjetas.
+     * @return un arreglo con <code>n</code> tarjetas sintéticas.
+     */
+    public Tarjeta[] tarjetas(int n) {
+        Tarjeta[] tarjetas = new Tarjeta[n];
+        for (int i = 0; i < n; i++)
+            tarjetas[i] = tarjeta();
+        return tarjetas;
+    }
+}
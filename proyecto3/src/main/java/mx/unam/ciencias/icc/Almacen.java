@@ -0,0 +1,320 @@
+package mx.unam.ciencias.icc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+/**
+ * Clase abstracta para los registros de una {@link BaseDeDatos} y su índice
+ * de dispersión por llave. Cada implementación identifica a sus registros
+ * con una manija propia: el nodo de la {@link Lista}, el registro mismo en
+ * la {@link ListaArreglo}, o la ranura de un {@link AlmacenPersistente}. El
+ * índice por llave guarda las manijas, para poder eliminar el registro que
+ * encuentra sin volver a buscarlo.
+ *
+ * @param <R> El tipo de los registros.
+ * @param <C> El tipo de los campos de los registros.
+ * @param <M> El tipo de las manijas de los registros.
+ */
+abstract class Almacen<R extends Registro<R, C>, C extends Enum, M>
+    implements Iterable<R> {
+
+    /* Almacén sobre una lista doblemente ligada. */
+    private static class DeLista<R extends Registro<R, C>, C extends Enum>
+        extends Almacen<R, C, Lista<R>.Nodo> {
+
+        /* Los registros. */
+        private Lista<R> registros = new Lista<R>();
+
+        @Override public int getLongitud() {
+            return registros.getLongitud();
+        }
+
+        @Override public Iterator<R> iterator() {
+            return registros.iterator();
+        }
+
+        @Override public Lista<R> copia() {
+            return registros.copia();
+        }
+
+        @Override protected Lista<R>.Nodo agregaManija(R registro) {
+            return registros.agregaFinalNodo(registro);
+        }
+
+        @Override protected void eliminaManija(Lista<R>.Nodo nodo) {
+            registros.eliminaNodo(nodo);
+        }
+
+        @Override protected R registro(Lista<R>.Nodo nodo) {
+            return nodo.getElemento();
+        }
+
+        @Override protected R modificaManija(Lista<R>.Nodo nodo, R guardado,
+                                             R registro) {
+            guardado.actualiza(registro);
+            return guardado;
+        }
+
+        @Override protected Lista<R>.Nodo buscaManija(R registro) {
+            return registros.buscaNodo(registro);
+        }
+
+        @Override protected void limpiaRegistros() {
+            registros.limpia();
+        }
+
+        @Override protected void indexaTodas() {
+            for (Lista<R>.Nodo nodo = registros.getPrimerNodo(); nodo != null;
+                 nodo = nodo.getSiguiente())
+                agregaLlave(nodo);
+        }
+    }
+
+    /* Almacén sobre un arreglo; la manija es el registro mismo. */
+    private static class DeArreglo<R extends Registro<R, C>, C extends Enum>
+        extends Almacen<R, C, R> {
+
+        /* Los registros. */
+        private ListaArreglo<R> registros = new ListaArreglo<R>();
+
+        @Override public int getLongitud() {
+            return registros.getLongitud();
+        }
+
+        @Override public Iterator<R> iterator() {
+            return registros.iterator();
+        }
+
+        @Override public Lista<R> copia() {
+            Lista<R> copia = new Lista<R>();
+            for (R registro : registros)
+                copia.agregaFinal(registro);
+            return copia;
+        }
+
+        @Override protected R agregaManija(R registro) {
+            registros.agregaFinal(registro);
+            return registro;
+        }
+
+        @Override protected void eliminaManija(R registro) {
+            registros.eliminaIdentico(registro);
+        }
+
+        @Override protected R registro(R registro) {
+            return registro;
+        }
+
+        @Override protected R modificaManija(R manija, R guardado,
+                                             R registro) {
+            guardado.actualiza(registro);
+            return guardado;
+        }
+
+        @Override protected R buscaManija(R registro) {
+            int i = registros.indiceDe(registro);
+            return i == -1 ? null : registros.get(i);
+        }
+
+        @Override protected void limpiaRegistros() {
+            registros.limpia();
+        }
+
+        @Override protected void indexaTodas() {
+            for (R registro : registros)
+                agregaLlave(registro);
+        }
+    }
+
+    /* El campo llave de los registros, o null si no tienen llave. */
+    private C campoLlave;
+    /* Las manijas de los registros, indexadas por su llave. */
+    private HashMap<Object, Lista<M>> llaves;
+
+    /* Crea un almacén vacío del tipo recibido; la fábrica crea los registros
+     * en blanco del almacén persistente. */
+    static <R extends Registro<R, C>, C extends Enum>
+    Almacen<R, C, ?> crea(Almacenamiento almacenamiento, Supplier<R> fabrica) {
+        if (almacenamiento == null)
+            throw new IllegalArgumentException();
+        switch (almacenamiento) {
+        case ARREGLO:
+            return new DeArreglo<R, C>();
+        case PERSISTENTE:
+            return new AlmacenPersistente<R, C>(fabrica);
+        default:
+            return new DeLista<R, C>();
+        }
+    }
+
+    /* Regresa el número de registros. */
+    public abstract int getLongitud();
+
+    /* Regresa una lista ligada con los registros, en orden. */
+    public abstract Lista<R> copia();
+
+    /* Agrega el registro al final y regresa su manija. */
+    protected abstract M agregaManija(R registro);
+
+    /* Elimina el registro de la manija. */
+    protected abstract void eliminaManija(M manija);
+
+    /* Regresa el registro de la manija. */
+    protected abstract R registro(M manija);
+
+    /* Actualiza el registro guardado de la manija con los valores del
+     * recibido, y regresa el registro que queda guardado. La manija es null
+     * si no hay índice por llave. */
+    protected abstract R modificaManija(M manija, R guardado, R registro);
+
+    /* Regresa la manija del primer registro igual al recibido, o null,
+     * recorriendo los registros. */
+    protected abstract M buscaManija(R registro);
+
+    /* Elimina todos los registros. */
+    protected abstract void limpiaRegistros();
+
+    /* Agrega todas las manijas al índice por llave. */
+    protected abstract void indexaTodas();
+
+    /* Nos dice si no hay registros. */
+    public boolean esVacia() {
+        return getLongitud() == 0;
+    }
+
+    /* Regresa una instantánea de los registros en la versión recibida. Por
+     * omisión copia los registros a un arreglo. */
+    public Instantanea<R> instantanea(long version) {
+        ListaArreglo<R> copia = new ListaArreglo<R>(Math.max(getLongitud(), 1));
+        for (R registro : this)
+            copia.agregaFinal(registro);
+        return new Instantanea<R>(version, copia.getLongitud(), copia);
+    }
+
+    /* Publica las modificaciones hechas hasta la versión recibida de la base
+     * de datos. Por omisión no hace nada. */
+    public void publica(long version) {}
+
+    /* Declara el campo llave y construye el índice por llave. */
+    public void indexaLlave(C campo) {
+        campoLlave = campo;
+        llaves = new HashMap<Object, Lista<M>>();
+        indexaTodas();
+    }
+
+    /* Nos dice si hay índice por llave. */
+    public boolean tieneLlave() {
+        return llaves != null;
+    }
+
+    /* Agrega el registro al final. */
+    public void agrega(R registro) {
+        agregaLlave(agregaManija(registro));
+    }
+
+    /* Regresa el primer registro igual al recibido, o null. */
+    public R busca(R registro) {
+        M manija = manija(registro);
+        return manija == null ? null : registro(manija);
+    }
+
+    /* Elimina el primer registro igual al recibido y lo regresa, o regresa
+     * null si no hay ninguno. */
+    public R elimina(R registro) {
+        M manija = manija(registro);
+        if (manija == null)
+            return null;
+        R eliminado = registro(manija);
+        eliminaLlave(manija);
+        eliminaManija(manija);
+        return eliminado;
+    }
+
+    /* Actualiza el registro guardado con los valores del recibido,
+     * manteniendo el índice por llave, y regresa el registro que queda
+     * guardado. */
+    public R actualiza(R guardado, R registro) {
+        M manija = llaves == null ? null : manijaIdentica(guardado);
+        if (manija != null)
+            eliminaLlave(manija);
+        R actualizado = modificaManija(manija, guardado, registro);
+        if (manija != null)
+            agregaLlave(manija);
+        return actualizado;
+    }
+
+    /* Regresa el primer registro con la llave recibida, o null. */
+    public R buscaLlave(Object llave) {
+        Lista<M> cubeta = llaves.get(llave);
+        return cubeta == null ? null : registro(cubeta.getPrimero());
+    }
+
+    /* Elimina todos los registros y vacía el índice por llave. */
+    public void limpia() {
+        limpiaRegistros();
+        if (llaves != null)
+            llaves.clear();
+    }
+
+    /* Regresa la manija del primer registro igual al recibido, o null. */
+    private M manija(R registro) {
+        if (llaves == null)
+            return buscaManija(registro);
+        if (registro == null)
+            return null;
+        Lista<M> cubeta = llaves.get(registro.getValor(campoLlave));
+        if (cubeta == null)
+            return null;
+        for (M manija : cubeta)
+            if (registro(manija).equals(registro))
+                return manija;
+        return null;
+    }
+
+    /* Regresa la manija del mismo registro recibido en el índice por
+     * llave. */
+    private M manijaIdentica(R registro) {
+        Lista<M> cubeta = llaves.get(registro.getValor(campoLlave));
+        if (cubeta != null)
+            for (M manija : cubeta)
+                if (registro(manija) == registro)
+                    return manija;
+        return null;
+    }
+
+    /* Reconstruye el índice por llave, si lo hay, con las manijas
+     * actuales. */
+    protected void reindexa() {
+        if (llaves == null)
+            return;
+        llaves.clear();
+        indexaTodas();
+    }
+
+    /* Agrega la manija al índice por llave. */
+    protected void agregaLlave(M manija) {
+        if (llaves == null)
+            return;
+        Object llave = registro(manija).getValor(campoLlave);
+        Lista<M> cubeta = llaves.get(llave);
+        if (cubeta == null) {
+            cubeta = new Lista<M>();
+            llaves.put(llave, cubeta);
+        }
+        cubeta.agregaFinal(manija);
+    }
+
+    /* Elimina la manija del índice por llave. */
+    private void eliminaLlave(M manija) {
+        if (llaves == null)
+            return;
+        Object llave = registro(manija).getValor(campoLlave);
+        Lista<M> cubeta = llaves.get(llave);
+        if (cubeta == null)
+            return;
+        cubeta.elimina(manija);
+        if (cubeta.esVacia())
+            llaves.remove(llave);
+    }
+}
@@ -0,0 +1,281 @@
+package mx.unam.ciencias.icc;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Almacén multiversión para los registros de una {@link BaseDeDatos}. Cada
+ * registro vive en una ranura con la cadena de sus versiones, de la más nueva
+ * a la más vieja; modificar un registro le agrega a su ranura una versión con
+ * un registro nuevo, y eliminarlo le agrega una versión vacía, sin tocar las
+ * versiones anteriores. Las ranuras están en bloques que sólo crecen.
+ *
+ * Cada modificación publicada deja un estado inmutable con los bloques, el
+ * número de ranuras y la versión interna hasta la que son visibles. Una
+ * instantánea es sólo ese estado, así que tomarla es O(1), y recorrerla
+ * desde otro hilo mientras la base de datos se modifica es seguro: sólo ve las
+ * versiones que existían al publicarse el estado. Cuando las versiones
+ * muertas superan a los registros vivos, el almacén copia los registros vivos
+ * a bloques nuevos; las instantáneas anteriores se quedan con los bloques
+ * viejos.
+ *
+ * @param <R> El tipo de los registros.
+ * @param <C> El tipo de los campos de los registros.
+ */
+class AlmacenPersistente<R extends Registro<R, C>, C extends Enum>
+    extends Almacen<R, C, AlmacenPersistente.Ranura<R>> {
+
+    /* Una versión de un registro. */
+    private static final class Version<R> {
+
+        /* El registro, o null si se eliminó. */
+        private final R registro;
+        /* La versión interna desde la que es visible. */
+        private final long desde;
+        /* La versión anterior. */
+        private final Version<R> anterior;
+
+        /* Construye una versión. */
+        private Version(R registro, long desde, Version<R> anterior) {
+            this.registro = registro;
+            this.desde = desde;
+            this.anterior = anterior;
+        }
+    }
+
+    /* La ranura de un registro, con su versión más nueva. */
+    static final class Ranura<R> {
+
+        /* La versión más nueva. */
+        private volatile Version<R> version;
+
+        /* Construye una ranura con una versión. */
+        private Ranura(Version<R> version) {
+            this.version = version;
+        }
+    }
+
+    /* Un estado publicado del almacén. */
+    private static final class Estado<R> {
+
+        /* Los bloques de las ranuras. */
+        private final Ranura<R>[][] bloques;
+        /* El número de ranuras. */
+        private final int ranuras;
+        /* El número de registros vivos. */
+        private final int vivos;
+        /* La versión interna visible. */
+        private final long interna;
+        /* La versión de la base de datos. */
+        private final long version;
+
+        /* Construye un estado. */
+        private Estado(Ranura<R>[][] bloques, int ranuras, int vivos,
+                       long interna, long version) {
+            this.bloques = bloques;
+            this.ranuras = ranuras;
+            this.vivos = vivos;
+            this.interna = interna;
+            this.version = version;
+        }
+    }
+
+    /* Iterador para los registros visibles en un estado. */
+    private static final class Iterador<R> implements Iterator<R> {
+
+        /* El estado. */
+        private final Estado<R> estado;
+        /* La siguiente ranura por revisar. */
+        private int i;
+        /* El siguiente registro, o null. */
+        private R siguiente;
+
+        /* Construye un iterador para el estado. */
+        private Iterador(Estado<R> estado) {
+            this.estado = estado;
+            avanza();
+        }
+
+        /* Avanza al siguiente registro visible. */
+        private void avanza() {
+            siguiente = null;
+            while (siguiente == null && i < estado.ranuras) {
+                Ranura<R> ranura = estado.bloques[i >> BITS][i & MASCARA];
+                Version<R> v = ranura.version;
+                while (v != null && v.desde > estado.interna)
+                    v = v.anterior;
+                if (v != null)
+                    siguiente = v.registro;
+                i++;
+            }
+        }
+
+        @Override public boolean hasNext() {
+            return siguiente != null;
+        }
+
+        @Override public R next() {
+            if (siguiente == null)
+                throw new NoSuchElementException();
+            R r = siguiente;
+            avanza();
+            return r;
+        }
+    }
+
+    /* Bits del índice dentro de un bloque. */
+    private static final int BITS = 10;
+    /* Número de ranuras por bloque. */
+    private static final int BLOQUE = 1 << BITS;
+    /* Máscara del índice dentro de un bloque. */
+    private static final int MASCARA = BLOQUE - 1;
+
+    /* La fábrica de registros en blanco. */
+    private Supplier<R> fabrica;
+    /* Los bloques de las ranuras. */
+    private Ranura<R>[][] bloques;
+    /* El número de ranuras usadas. */
+    private int ranuras;
+    /* El número de registros vivos. */
+    private int vivos;
+    /* El número de versiones muertas: las reemplazadas y las ranuras de
+     * registros eliminados. */
+    private int muertas;
+    /* La versión interna de la última modificación. */
+    private long interna;
+    /* El último estado publicado. */
+    private volatile Estado<R> estado;
+
+    /* Construye un almacén persistente vacío. */
+    AlmacenPersistente(Supplier<R> fabrica) {
+        if (fabrica == null)
+            throw new IllegalArgumentException();
+        this.fabrica = fabrica;
+        vacia();
+        estado = new Estado<R>(bloques, 0, 0, 0, 0);
+    }
+
+    @Override public int getLongitud() {
+        return estado.vivos;
+    }
+
+    @Override public Iterator<R> iterator() {
+        return new Iterador<R>(estado);
+    }
+
+    @Override public Lista<R> copia() {
+        Lista<R> copia = new Lista<R>();
+        for (R registro : this)
+            copia.agregaFinal(registro);
+        return copia;
+    }
+
+    @Override public Instantanea<R> instantanea(long version) {
+        Estado<R> e = estado;
+        return new Instantanea<R>(e.version, e.vivos,
+                                  () -> new Iterador<R>(e));
+    }
+
+    @Override public void publica(long version) {
+        if (muertas > BLOQUE && muertas > vivos)
+            compacta();
+        estado = new Estado<R>(bloques, ranuras, vivos, interna, version);
+    }
+
+    @Override protected Ranura<R> agregaManija(R registro) {
+        if (ranuras == bloques.length * BLOQUE) {
+            @SuppressWarnings("unchecked") Ranura<R>[][] nuevos =
+                new Ranura[2 * bloques.length][];
+            System.arraycopy(bloques, 0, nuevos, 0, bloques.length);
+            bloques = nuevos;
+        }
+        if (bloques[ranuras >> BITS] == null)
+            bloques[ranuras >> BITS] = nuevoBloque();
+        Ranura<R> ranura =
+            new Ranura<R>(new Version<R>(registro, ++interna, null));
+        bloques[ranuras >> BITS][ranuras & MASCARA] = ranura;
+        ranuras++;
+        vivos++;
+        return ranura;
+    }
+
+    @Override protected void eliminaManija(Ranura<R> ranura) {
+        ranura.version = new Version<R>(null, ++interna, ranura.version);
+        vivos--;
+        muertas += 2;
+    }
+
+    @Override protected R registro(Ranura<R> ranura) {
+        return ranura.version.registro;
+    }
+
+    @Override protected R modificaManija(Ranura<R> ranura, R guardado,
+                                         R registro) {
+        if (ranura == null)
+            ranura = buscaIdentica(guardado);
+        R nuevo = fabrica.get();
+        nuevo.actualiza(registro);
+        ranura.version = new Version<R>(nuevo, ++interna, ranura.version);
+        muertas++;
+        return nuevo;
+    }
+
+    @Override protected Ranura<R> buscaManija(R registro) {
+        for (int i = 0; i < ranuras; i++) {
+            Ranura<R> ranura = bloques[i >> BITS][i & MASCARA];
+            R r = ranura.version.registro;
+            if (r != null && r.equals(registro))
+                return ranura;
+        }
+        return null;
+    }
+
+    @Override protected void limpiaRegistros() {
+        vacia();
+    }
+
+    @Override protected void indexaTodas() {
+        for (int i = 0; i < ranuras; i++) {
+            Ranura<R> ranura = bloques[i >> BITS][i & MASCARA];
+            if (ranura.version.registro != null)
+                agregaLlave(ranura);
+        }
+    }
+
+    /* Regresa la ranura del mismo registro recibido. */
+    private Ranura<R> buscaIdentica(R registro) {
+        for (int i = 0; i < ranuras; i++) {
+            Ranura<R> ranura = bloques[i >> BITS][i & MASCARA];
+            if (ranura.version.registro == registro)
+                return ranura;
+        }
+        throw new IllegalStateException();
+    }
+
+    /* Empieza con bloques nuevos y vacíos. */
+    private void vacia() {
+        @SuppressWarnings("unchecked") Ranura<R>[][] nuevos = new Ranura[1][];
+        bloques = nuevos;
+        ranuras = vivos = muertas = 0;
+    }
+
+    /* Copia las versiones más nuevas de los registros vivos a bloques
+     * nuevos, y reconstruye el índice por llave con sus ranuras. */
+    private void compacta() {
+        Ranura<R>[][] viejos = bloques;
+        int n = ranuras;
+        vacia();
+        for (int i = 0; i < n; i++) {
+            R registro = viejos[i >> BITS][i & MASCARA].version.registro;
+            if (registro != null)
+                agregaManija(registro);
+        }
+        reindexa();
+    }
+
+    /* Regresa un bloque nuevo. */
+    @SuppressWarnings("unchecked") private Ranura<R>[] nuevoBloque() {
+        return new Ranura[BLOQUE];
+    }
+}
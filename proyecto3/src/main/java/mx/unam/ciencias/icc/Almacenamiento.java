@@ -0,0 +1,33 @@
+package mx.unam.ciencias.icc;
+
+/**
+ * Enumeración para las estructuras donde una {@link BaseDeDatos} guarda sus
+ * registros. Todas guardan los registros en el orden en que se agregaron y
+ * se comportan igual, salvo al modificar registros con {@link #PERSISTENTE};
+ * sólo cambia lo que cuesta cada operación.
+ */
+public enum Almacenamiento {
+
+    /**
+     * Una {@link Lista} doblemente ligada, con un nodo por registro. Si la
+     * base de datos tiene campo llave, eliminar o modificar un registro toma
+     * tiempo constante.
+     */
+    LISTA,
+
+    /**
+     * Una {@link ListaArreglo}, con los registros contiguos en un arreglo.
+     * Agregar registros no crea nodos y recorrerlos es más rápido, pero
+     * eliminar un registro recorre los que le siguen.
+     */
+    ARREGLO,
+
+    /**
+     * Un almacén multiversión, donde modificar o eliminar un registro agrega
+     * una versión nueva sin cambiar las anteriores. Tomar una instantánea de
+     * la base de datos es O(1), y las lecturas de otros hilos no bloquean a
+     * las modificaciones. Modificar un registro lo reemplaza por uno nuevo en
+     * lugar de cambiar el registro guardado.
+     */
+    PERSISTENTE;
+}
@@ -3,6 +3,8 @@ package mx.unam.ciencias.icc;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Clase abstracta para bases de datos genéricas. Provee métodos para agregar y
@@ -14,7 +16,26 @@ import java.io.IOException;
  * #creaRegistro}, que crea un registro genérico en blanco.
  *
  * Las modificaciones a la base de datos son notificadas a los escuchas {@link
- * EscuchaBaseDeDatos}.
+ * EscuchaBaseDeDatos}. Cada modificación incrementa además la versión de la
+ * base de datos, que sirve para saber si dos copias tienen los mismos cambios.
+ *
+ * Las clases que extiendan a BaseDeDatos pueden declarar un campo llave con
+ * {@link #indexaLlave}; en ese caso la base de datos mantiene un índice de
+ * dispersión de los registros por su llave, y localizar un registro para
+ * eliminarlo o modificarlo toma tiempo constante en lugar de recorrer todos
+ * los registros. También pueden declarar índices secundarios sobre otros
+ * campos con {@link #agregaIndice}, que {@link #buscaRegistros} usa para
+ * obtener candidatos en lugar de recorrer toda la base de datos; los
+ * candidatos se ordenan en el orden de la base de datos.
+ *
+ * Los registros se guardan en una {@link Lista} o en una {@link
+ * ListaArreglo}, según el {@link Almacenamiento} con el que se construye la
+ * base de datos. En una {@link ListaArreglo} localizar un registro por su
+ * llave sigue tomando tiempo constante, pero eliminarlo recorre los registros
+ * que le siguen. Con el almacenamiento {@link Almacenamiento#PERSISTENTE},
+ * {@link #getInstantanea}, {@link #getRegistros} y {@link #guarda} leen una
+ * versión inmutable de los registros, y pueden llamarse desde otros hilos de
+ * ejecución mientras un hilo modifica la base de datos.
  *
  * @param <R> El tipo de los registros, que deben implementar la interfaz {@link
  *            Registro}.
@@ -23,18 +44,38 @@ import java.io.IOException;
  */
 public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
 
-    /* Lista de registros en la base de datos. */
-    private Lista<R> registros;
+    /* Los registros en la base de datos y su índice por llave. */
+    private Almacen<R, C, ?> registros;
     /* Lista de escuchas de la base de datos. */
     private Lista<EscuchaBaseDeDatos<R>> escuchas;
+    /* Los índices secundarios, por campo. */
+    private HashMap<C, Indice<R>> indices;
+    /* El orden de los registros, para los candidatos de los índices. */
+    private OrdenDeInsercion<R> orden;
+    /* La versión de la base de datos. */
+    private volatile long version;
 
     /**
-     * Constructor único.
+     * Constructor que guarda los registros en una {@link Lista}.
      */
     public BaseDeDatos() {
+
+        this(Almacenamiento.LISTA);
+    }
+
+    /**
+     * Constructor que guarda los registros en el almacenamiento recibido.
+     *
+     * @param almacenamiento dónde guardar los registros.
+     * @throws IllegalArgumentException si el almacenamiento es
+     *                                  <code>null</code>.
+     */
+    protected BaseDeDatos(Almacenamiento almacenamiento) {
         
-        registros = new Lista<R>();
+        registros = Almacen.crea(almacenamiento, this::creaRegistro);
         escuchas = new Lista<EscuchaBaseDeDatos<R>>();
+        indices = new HashMap<C, Indice<R>>();
+        orden = new OrdenDeInsercion<R>();
     }
 
     /**
@@ -58,7 +99,47 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
         return registros.copia();
     }
 
-    private void activarEscuchas(EventoBaseDeDatos e, R r1, R r2) {
+    /**
+     * Regresa una instantánea de la base de datos: sus registros y su versión
+     * en este momento, que no cambian cuando la base de datos se modifica.
+     * Con el almacenamiento {@link Almacenamiento#PERSISTENTE} tomar la
+     * instantánea es O(1), y puede tomarse y recorrerse en otro hilo de
+     * ejecución mientras un hilo modifica la base de datos; con los otros
+     * almacenamientos se copian los registros. Las clases que extiendan a
+     * BaseDeDatos y guarden sus registros por su cuenta deben sobrecargarlo.
+     * 
+     * @return una instantánea de la base de datos.
+     */
+    public Instantanea<R> getInstantanea() {
+
+        return registros.instantanea(version);
+    }
+
+    /**
+     * Regresa la versión de la base de datos: el número de modificaciones que
+     * ha tenido desde que se creó. Agregar un registro, eliminar o modificar
+     * un registro que está en la base de datos, y limpiarla, incrementan la
+     * versión en uno; eliminar o modificar un registro que no está en la
+     * base de datos no la cambia.
+     * 
+     * @return la versión de la base de datos.
+     */
+    public long getVersion() {
+
+        return version;
+    }
+
+    /**
+     * Notifica a los escuchas de la base de datos con {@link
+     * EscuchaBaseDeDatos#baseDeDatosModificada}. Las clases que extiendan a
+     * BaseDeDatos y guarden sus registros por su cuenta lo usan para notificar
+     * sus modificaciones.
+     * 
+     * @param e  el evento.
+     * @param r1 el primer registro del evento, o <code>null</code>.
+     * @param r2 el segundo registro del evento, o <code>null</code>.
+     */
+    protected void activarEscuchas(EventoBaseDeDatos e, R r1, R r2) {
         for (EscuchaBaseDeDatos<R> escucha : escuchas)
             escucha.baseDeDatosModificada(e, r1, r2);
     }
@@ -72,7 +153,10 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
      */
     public void agregaRegistro(R registro) {
         
-        registros.agregaFinal(registro);
+        registros.agrega(registro);
+        indexa(registro);
+        agregaEnOrden(registro);
+        registros.publica(++version);
         activarEscuchas(EventoBaseDeDatos.REGISTRO_AGREGADO, registro, null);
     }
 
@@ -85,7 +169,12 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
      */
     public void eliminaRegistro(R registro) {
         
-        registros.elimina(registro);
+        R eliminado = registros.elimina(registro);
+        if (eliminado != null) {
+            desindexa(eliminado);
+            orden.elimina(eliminado);
+            registros.publica(++version);
+        }
         activarEscuchas(EventoBaseDeDatos.REGISTRO_ELIMINADO, registro, null);
     }
 
@@ -96,6 +185,9 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
      * EventoBaseDeDatos#REGISTRO_MODIFICADO} y las versiones original y
      * modificada del registro. Si el primer registro no está en la base de
      * datos, ésta no es modificada y no se notifica de nada a los escuchas.
+     * Con el almacenamiento {@link Almacenamiento#PERSISTENTE}, el registro
+     * guardado se reemplaza por uno nuevo en la misma posición en lugar de
+     * modificarse, para que las instantáneas anteriores no cambien.
      * 
      * @param registro1 un registro igual al que hay que modificar en la base de
      *                  datos.
@@ -108,17 +200,17 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
         if (registro1 == null || registro2 == null)
             throw new IllegalArgumentException();
 
-        if (!registros.contiene(registro1))
+        R registro = registros.busca(registro1);
+        if (registro == null)
             return;
 
         activarEscuchas(EventoBaseDeDatos.REGISTRO_MODIFICADO, registro1, registro2);
 
-        for (Registro<R, C> registro : registros) {
-            if (registro1.equals(registro)) {
-                registro.actualiza(registro2);
-                break;
-            }
-        }
+        desindexa(registro);
+        R actualizado = registros.actualiza(registro, registro2);
+        indexa(actualizado);
+        orden.reemplaza(registro, actualizado);
+        registros.publica(++version);
     }
 
     /**
@@ -129,11 +221,17 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
     public void limpia() {
         
         registros.limpia();
+        for (Indice<R> indice : indices.values())
+            indice.limpia();
+        orden.limpia();
+        registros.publica(++version);
         activarEscuchas(EventoBaseDeDatos.BASE_LIMPIADA, null, null);
     }
 
     /**
      * Guarda todos los registros en la base de datos en la salida recibida.
+     * Los registros se serializan uno por uno en un mismo búfer que se
+     * reutiliza, y se escriben en la salida conforme se serializan.
      * 
      * @param out la salida donde hay que guardar los registos.
      * @throws IOException si ocurre un error de entrada/salida.
@@ -141,14 +239,7 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
     public void guarda(BufferedWriter out) throws IOException {
         
         try {
-
-            String sRes = "";
-
-            for (Registro<R, C> registro : registros)
-                sRes += registro.serializa();
-
-            out.write(sRes);
-
+            Instantanea.guarda(registros, out);
         } catch (IOException e) {
             throw new IOException();
         }
@@ -189,7 +280,41 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
     }
 
     /**
-     * Busca registros por un campo específico.
+     * Carga en bloque los registros de la lista recibida en la base de datos.
+     * Si antes de llamar el método había registros en la base de datos, estos
+     * son eliminados. A diferencia de {@link #carga}, los escuchas no son
+     * notificados por cada registro: son notificados una vez con {@link
+     * EscuchaBaseDeDatos#baseDeDatosModificada} con el evento {@link
+     * EventoBaseDeDatos#BASE_LIMPIADA}, y una vez con el evento {@link
+     * EventoBaseDeDatos#BASE_CARGADA} al terminar; para entonces los
+     * registros ya pueden obtenerse con {@link #getRegistros}. La versión de
+     * la base de datos queda igual que si se hubiera limpiado y luego se
+     * hubieran agregado los registros uno por uno.
+     * 
+     * @param registros los registros que hay que cargar, en orden.
+     * @throws IllegalArgumentException si la lista es <code>null</code>.
+     */
+    public void cargaMasiva(Lista<R> registros) {
+
+        if (registros == null)
+            throw new IllegalArgumentException();
+
+        limpia();
+        for (R registro : registros) {
+            this.registros.agrega(registro);
+            indexa(registro);
+            agregaEnOrden(registro);
+        }
+        version += registros.getLongitud();
+        this.registros.publica(version);
+        activarEscuchas(EventoBaseDeDatos.BASE_CARGADA, null, null);
+    }
+
+    /**
+     * Busca registros por un campo específico. Si la base de datos tiene un
+     * índice secundario para el campo, sólo se verifican los candidatos del
+     * índice. Los registros encontrados aparecen en el orden de la base de
+     * datos.
      * 
      * @param campo el campo del registro por el cuál buscar.
      * @param valor el valor a buscar.
@@ -201,16 +326,136 @@ public abstract class BaseDeDatos<R extends Registro<R, C>, C extends Enum> {
     public Lista<R> buscaRegistros(C campo, Object valor) {
         
         Lista<R> newLista = new Lista<R>();
-        IteradorLista<R> iterador = registros.iteradorLista();
 
-        while (iterador.hasNext()) {
-            R registro = (R) iterador.next();
+        Lista<R> candidatos = candidatosIndice(campo, valor);
+        if (candidatos != null) {
+            for (R registro : candidatos)
+                if (registro.caza(campo, valor))
+                    newLista.agregaFinal(registro);
+            return newLista;
+        }
+
+        for (R registro : registros)
             if (registro.caza(campo, valor))
                 newLista.agregaFinal(registro);
-        }
         return newLista;
     }
 
+    /**
+     * Regresa una lista con los registros candidatos a cazar el campo
+     * especificado con el valor dado: los candidatos del índice secundario
+     * del campo, si la base de datos tiene uno que pueda responder la
+     * búsqueda, o todos los registros. Los candidatos que cazan el valor con
+     * {@link Registro#caza} son exactamente los que regresa {@link
+     * #buscaRegistros}, en el mismo orden. La lista es nueva, así que ya
+     * tomada puede recorrerse para verificar los candidatos en otro hilo de
+     * ejecución, sin detener al que modifica la base de datos; tomarla sí lee
+     * la base de datos, y no debe hacerse mientras otro hilo la modifica.
+     * 
+     * @param campo el campo del registro por el cuál buscar.
+     * @param valor el valor a buscar.
+     * @return una lista con los registros candidatos.
+     */
+    public Lista<R> getCandidatos(C campo, Object valor) {
+
+        Lista<R> candidatos = candidatosIndice(campo, valor);
+        return candidatos != null ? candidatos : getRegistros();
+    }
+
+    /* Regresa los candidatos del índice secundario del campo, o null si no
+     * hay índice o no puede responder la búsqueda. */
+    private Lista<R> candidatosIndice(C campo, Object valor) {
+
+        Indice<R> indice = campo == null ? null : indices.get(campo);
+        Lista<R> candidatos = indice == null ? null : indice.candidatos(valor);
+        return candidatos == null ? null : orden.ordena(candidatos);
+    }
+
+    /**
+     * Regresa el primer registro de la base de datos cuyo campo llave es igual
+     * a la llave recibida, en tiempo constante.
+     * 
+     * @param llave la llave del registro.
+     * @return el primer registro con la llave recibida, o <code>null</code> si
+     *         no hay ninguno o la base de datos no declaró un campo llave con
+     *         {@link #indexaLlave}.
+     */
+    public R buscaRegistro(Object llave) {
+
+        if (!registros.tieneLlave())
+            return null;
+
+        return registros.buscaLlave(llave);
+    }
+
+    /**
+     * Declara el campo llave de los registros, y construye el índice de
+     * dispersión de los registros por ese campo. Las clases que extiendan a
+     * BaseDeDatos deben llamarlo en su constructor. La llave no tiene que ser
+     * única: los registros con la misma llave comparten una cubeta del índice.
+     * 
+     * @param campo el campo llave de los registros.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    protected void indexaLlave(C campo) {
+
+        if (campo == null)
+            throw new IllegalArgumentException();
+
+        registros.indexaLlave(campo);
+    }
+
+    /**
+     * Agrega un índice secundario sobre un campo de los registros, y le agrega
+     * los registros que ya estén en la base de datos. A partir de entonces la
+     * base de datos mantiene el índice al agregar, eliminar y modificar
+     * registros. Las clases que extiendan a BaseDeDatos deben llamarlo en su
+     * constructor, o antes de que otro hilo de ejecución use la base de
+     * datos.
+     * 
+     * @param campo el campo indexado.
+     * @param indice el índice del campo.
+     * @throws IllegalArgumentException si el campo o el índice son
+     *                                  <code>null</code>.
+     */
+    protected void agregaIndice(C campo, Indice<R> indice) {
+
+        if (campo == null || indice == null)
+            throw new IllegalArgumentException();
+
+        if (indices.isEmpty())
+            for (R registro : registros)
+                orden.agrega(registro);
+        Indice<R> anterior = indices.put(campo, indice);
+        if (anterior != null)
+            anterior.limpia();
+
+        for (R registro : registros)
+            indice.agrega(registro.getValor(campo), registro);
+    }
+
+    /* Agrega el registro a los índices secundarios. */
+    private void indexa(R registro) {
+
+        for (Map.Entry<C, Indice<R>> e : indices.entrySet())
+            e.getValue().agrega(registro.getValor(e.getKey()), registro);
+    }
+
+    /* Elimina el registro de los índices secundarios. */
+    private void desindexa(R registro) {
+
+        for (Map.Entry<C, Indice<R>> e : indices.entrySet())
+            e.getValue().elimina(registro.getValor(e.getKey()), registro);
+    }
+
+    /* Registra el registro al final del orden de la base de datos, si hay
+     * índices secundarios que lo necesiten. */
+    private void agregaEnOrden(R registro) {
+
+        if (!indices.isEmpty())
+            orden.agrega(registro);
+    }
+
     /**
      * Crea un registro en blanco.
      * 
@@ -0,0 +1,487 @@
+package mx.unam.ciencias.icc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Clase abstracta para bases de datos que pueden usarse desde varios hilos
+ * de ejecución a la vez. Los registros se indexan por su campo llave, y las
+ * modificaciones toman sólo el candado de la franja de su llave: agregar,
+ * eliminar o modificar registros con llaves en franjas distintas ocurre en
+ * paralelo. Las modificaciones de registros con la misma llave, y la
+ * notificación a los escuchas de cada una, ocurren en el orden de sus
+ * candados. {@link #limpia} y {@link #cargaMasiva} toman todas las
+ * franjas.</p>
+ *
+ * <p>Las lecturas no toman candados: {@link #getRegistros}, {@link
+ * #buscaRegistros}, {@link #buscaRegistro} y {@link #guarda} recorren los
+ * registros mientras otros hilos los modifican, y ven todas las
+ * modificaciones que terminaron antes de empezar a leer. Un registro dentro
+ * de la base de datos nunca cambia: {@link #modificaRegistro} lo reemplaza
+ * por un registro nuevo en la misma posición, así que cada registro leído
+ * está completo, aunque no se modifique el registro que se agregó. Los
+ * registros agregados no deben modificarse después de agregarse.</p>
+ *
+ * <p>Las modificaciones en paralelo sólo ocurren si varios hilos modifican
+ * la base de datos directamente. Quien serialice sus modificaciones, como el
+ * servidor de bases de datos, sólo gana las lecturas sin candados.</p>
+ *
+ * <p>La base de datos no usa índices secundarios; {@link #buscaRegistros}
+ * siempre recorre todos los registros.</p>
+ *
+ * @param <R> El tipo de los registros, que deben implementar la interfaz {@link
+ *            Registro}.
+ * @param <C> El tipo de los campos de los registros, que debe ser una
+ *            enumeración {@link Enum}.
+ */
+public abstract class BaseDeDatosConcurrente<R extends Registro<R, C>,
+                                             C extends Enum>
+    extends BaseDeDatos<R, C> {
+
+    /** El número de franjas por omisión. */
+    public static final int FRANJAS = 64;
+
+    /* La llave de los registros con llave null. */
+    private static final Object NULA = new Object();
+
+    /* El campo llave de los registros. */
+    private C campoLlave;
+    /* Los registros, por su número de secuencia. */
+    private ConcurrentSkipListMap<Long, R> registros;
+    /* Los números de secuencia de los registros, por su llave. */
+    private ConcurrentHashMap<Object, long[]> llaves;
+    /* Los candados de las franjas. */
+    private ReentrantLock[] candados;
+    /* El siguiente número de secuencia. */
+    private AtomicLong secuencia;
+    /* El número de registros. */
+    private AtomicInteger longitud;
+    /* La versión de la base de datos. */
+    private AtomicLong version;
+
+    /**
+     * Construye una base de datos concurrente con {@link #FRANJAS} franjas.
+     *
+     * @param campoLlave el campo llave de los registros.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    protected BaseDeDatosConcurrente(C campoLlave) {
+
+        this(campoLlave, FRANJAS);
+    }
+
+    /**
+     * Construye una base de datos concurrente con el número de franjas
+     * recibido, redondeado a la siguiente potencia de dos.
+     *
+     * @param campoLlave el campo llave de los registros.
+     * @param franjas el número de franjas.
+     * @throws IllegalArgumentException si el campo es <code>null</code> o el
+     *                                  número de franjas no es positivo.
+     */
+    protected BaseDeDatosConcurrente(C campoLlave, int franjas) {
+
+        if (campoLlave == null || franjas < 1 || franjas > (1 << 16))
+            throw new IllegalArgumentException();
+
+        this.campoLlave = campoLlave;
+        registros = new ConcurrentSkipListMap<Long, R>();
+        llaves = new ConcurrentHashMap<Object, long[]>();
+        int n = Integer.highestOneBit(franjas);
+        candados = new ReentrantLock[n < franjas ? 2 * n : n];
+        for (int i = 0; i < candados.length; i++)
+            candados[i] = new ReentrantLock();
+        secuencia = new AtomicLong();
+        longitud = new AtomicInteger();
+        version = new AtomicLong();
+    }
+
+    /**
+     * Regresa el número de registros en la base de datos.
+     *
+     * @return el número de registros en la base de datos.
+     */
+    @Override public int getNumRegistros() {
+
+        return longitud.get();
+    }
+
+    /**
+     * Regresa una lista con los registros en la base de datos, en el orden en
+     * que se agregaron, sin tomar candados. Modificar esta lista no cambia a
+     * la información en la base de datos.
+     *
+     * @return una lista con los registros en la base de datos.
+     */
+    @Override public Lista<R> getRegistros() {
+
+        Lista<R> lista = new Lista<R>();
+        for (R registro : registros.values())
+            lista.agregaFinal(registro);
+        return lista;
+    }
+
+    /**
+     * Regresa una instantánea de la base de datos, copiando los registros con
+     * los candados de todas las franjas para que correspondan a una sola
+     * versión.
+     *
+     * @return una instantánea de la base de datos.
+     */
+    @Override public Instantanea<R> getInstantanea() {
+
+        bloqueaTodas();
+        try {
+            ListaArreglo<R> copia =
+                new ListaArreglo<R>(Math.max(longitud.get(), 1));
+            for (R registro : registros.values())
+                copia.agregaFinal(registro);
+            return new Instantanea<R>(version.get(), copia.getLongitud(),
+                                      copia);
+        } finally {
+            desbloqueaTodas();
+        }
+    }
+
+    /**
+     * Regresa la versión de la base de datos.
+     *
+     * @return la versión de la base de datos.
+     */
+    @Override public long getVersion() {
+
+        return version.get();
+    }
+
+    /**
+     * Agrega el registro recibido a la base de datos, con el candado de la
+     * franja de su llave. Los escuchas son notificados con el evento {@link
+     * EventoBaseDeDatos#REGISTRO_AGREGADO}.
+     *
+     * @param registro el registro que hay que agregar a la base de datos.
+     */
+    @Override public void agregaRegistro(R registro) {
+
+        Object llave = llave(registro);
+        ReentrantLock candado = candado(llave);
+        candado.lock();
+        try {
+            agrega(llave, registro);
+            version.incrementAndGet();
+            activarEscuchas(EventoBaseDeDatos.REGISTRO_AGREGADO, registro, null);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Elimina el primer registro igual al recibido de la base de datos, con
+     * el candado de la franja de su llave. Los escuchas son notificados con
+     * el evento {@link EventoBaseDeDatos#REGISTRO_ELIMINADO}.
+     *
+     * @param registro el registro que hay que eliminar de la base de datos.
+     */
+    @Override public void eliminaRegistro(R registro) {
+
+        if (registro == null) {
+            activarEscuchas(EventoBaseDeDatos.REGISTRO_ELIMINADO, null, null);
+            return;
+        }
+        Object llave = llave(registro);
+        ReentrantLock candado = candado(llave);
+        candado.lock();
+        try {
+            long s = busca(llave, registro);
+            if (s != -1) {
+                quitaLlave(llave, s);
+                registros.remove(s);
+                longitud.decrementAndGet();
+                version.incrementAndGet();
+            }
+            activarEscuchas(EventoBaseDeDatos.REGISTRO_ELIMINADO, registro, null);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Reemplaza el primer registro igual al primero por un registro nuevo
+     * idéntico al segundo, en la misma posición, con los candados de las
+     * franjas de las dos llaves. Antes de reemplazarlo, los escuchas son
+     * notificados con el evento {@link EventoBaseDeDatos#REGISTRO_MODIFICADO}.
+     * Si el primer registro no está en la base de datos, ésta no es
+     * modificada y no se notifica de nada a los escuchas. A diferencia de
+     * {@link BaseDeDatos#modificaRegistro}, el registro que estaba en la base
+     * de datos no cambia.
+     *
+     * @param registro1 un registro igual al que hay que modificar en la base de
+     *                  datos.
+     * @param registro2 el registro con los nuevos valores.
+     * @throws IllegalArgumentException si registro1 o registro2 son
+     *                                  <code>null</code>.
+     */
+    @Override public void modificaRegistro(R registro1, R registro2) {
+
+        if (registro1 == null || registro2 == null)
+            throw new IllegalArgumentException();
+
+        Object llave1 = llave(registro1);
+        Object llave2 = llave(registro2);
+        int f1 = franja(llave1), f2 = franja(llave2);
+        candados[Math.min(f1, f2)].lock();
+        if (f1 != f2)
+            candados[Math.max(f1, f2)].lock();
+        try {
+            long s = busca(llave1, registro1);
+            if (s == -1)
+                return;
+
+            activarEscuchas(EventoBaseDeDatos.REGISTRO_MODIFICADO,
+                            registro1, registro2);
+
+            R nuevo = creaRegistro();
+            nuevo.actualiza(registro2);
+            quitaLlave(llave1, s);
+            registros.put(s, nuevo);
+            agregaLlave(llave2, s);
+            version.incrementAndGet();
+        } finally {
+            if (f1 != f2)
+                candados[Math.max(f1, f2)].unlock();
+            candados[Math.min(f1, f2)].unlock();
+        }
+    }
+
+    /**
+     * Limpia la base de datos con los candados de todas las franjas. Los
+     * escuchas son notificados con el evento {@link
+     * EventoBaseDeDatos#BASE_LIMPIADA}.
+     */
+    @Override public void limpia() {
+
+        bloqueaTodas();
+        try {
+            vacia();
+            version.incrementAndGet();
+            activarEscuchas(EventoBaseDeDatos.BASE_LIMPIADA, null, null);
+        } finally {
+            desbloqueaTodas();
+        }
+    }
+
+    /**
+     * Guarda todos los registros en la base de datos en la salida recibida,
+     * sin tomar candados.
+     *
+     * @param out la salida donde hay que guardar los registos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override public void guarda(BufferedWriter out) throws IOException {
+
+        StringBuilder linea = new StringBuilder(128);
+        for (R registro : registros.values()) {
+            linea.setLength(0);
+            registro.serializa(linea);
+            out.append(linea);
+        }
+    }
+
+    /**
+     * Carga los registros de la entrada recibida en la base de datos. Si antes
+     * de llamar el método había registros en la base de datos, estos son
+     * eliminados. Cada registro se agrega con {@link #agregaRegistro}.
+     *
+     * @param in la entrada de donde hay que cargar los registos.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override public void carga(BufferedReader in) throws IOException {
+
+        if (getNumRegistros() > 0)
+            limpia();
+        String linea;
+        while ((linea = in.readLine()) != null) {
+            R registro = creaRegistro();
+            try {
+                registro.deserializa(linea);
+            } catch (ExcepcionLineaInvalida eli) {
+                break;
+            }
+            agregaRegistro(registro);
+        }
+    }
+
+    /**
+     * Carga en bloque los registros de la lista recibida en la base de datos,
+     * con los candados de todas las franjas. Los escuchas son notificados con
+     * los eventos {@link EventoBaseDeDatos#BASE_LIMPIADA} y {@link
+     * EventoBaseDeDatos#BASE_CARGADA}.
+     *
+     * @param registros los registros que hay que cargar, en orden.
+     * @throws IllegalArgumentException si la lista es <code>null</code>.
+     */
+    @Override public void cargaMasiva(Lista<R> registros) {
+
+        if (registros == null)
+            throw new IllegalArgumentException();
+
+        bloqueaTodas();
+        try {
+            vacia();
+            version.incrementAndGet();
+            activarEscuchas(EventoBaseDeDatos.BASE_LIMPIADA, null, null);
+            for (R registro : registros)
+                agrega(llave(registro), registro);
+            version.addAndGet(registros.getLongitud());
+            activarEscuchas(EventoBaseDeDatos.BASE_CARGADA, null, null);
+        } finally {
+            desbloqueaTodas();
+        }
+    }
+
+    /**
+     * Busca registros por un campo específico, recorriendo todos los
+     * registros sin tomar candados.
+     *
+     * @param campo el campo del registro por el cuál buscar.
+     * @param valor el valor a buscar.
+     * @return una lista con los registros tales que cazan el campo especificado
+     *         con el valor dado.
+     * @throws IllegalArgumentException si el campo no es de la enumeración
+     *                                  correcta.
+     */
+    @Override public Lista<R> buscaRegistros(C campo, Object valor) {
+
+        Lista<R> lista = new Lista<R>();
+        for (R registro : registros.values())
+            if (registro.caza(campo, valor))
+                lista.agregaFinal(registro);
+        return lista;
+    }
+
+    /**
+     * Regresa el primer registro de la base de datos cuyo campo llave es igual
+     * a la llave recibida, sin tomar candados.
+     *
+     * @param llave la llave del registro.
+     * @return el primer registro con la llave recibida, o <code>null</code> si
+     *         no hay ninguno.
+     */
+    @Override public R buscaRegistro(Object llave) {
+
+        Object k = llave == null ? NULA : llave;
+        while (true) {
+            long[] cubeta = llaves.get(k);
+            if (cubeta == null)
+                return null;
+            R registro = registros.get(cubeta[0]);
+            /* Si otro hilo lo eliminó entre las dos lecturas, reintentamos
+             * con la cubeta nueva. */
+            if (registro != null)
+                return registro;
+        }
+    }
+
+    /* Regresa la llave del registro en el índice. */
+    private Object llave(R registro) {
+
+        Object llave = registro.getValor(campoLlave);
+        return llave == null ? NULA : llave;
+    }
+
+    /* Regresa la franja de la llave. */
+    private int franja(Object llave) {
+
+        int h = llave.hashCode();
+        return (h ^ (h >>> 16)) & (candados.length - 1);
+    }
+
+    /* Regresa el candado de la franja de la llave. */
+    private ReentrantLock candado(Object llave) {
+
+        return candados[franja(llave)];
+    }
+
+    /* Toma los candados de todas las franjas, en orden. */
+    private void bloqueaTodas() {
+
+        for (ReentrantLock candado : candados)
+            candado.lock();
+    }
+
+    /* Suelta los candados de todas las franjas. */
+    private void desbloqueaTodas() {
+
+        for (int i = candados.length - 1; i >= 0; i--)
+            candados[i].unlock();
+    }
+
+    /* Agrega el registro con un número de secuencia nuevo; con el candado de
+     * la franja de su llave. */
+    private void agrega(Object llave, R registro) {
+
+        long s = secuencia.incrementAndGet();
+        registros.put(s, registro);
+        agregaLlave(llave, s);
+        longitud.incrementAndGet();
+    }
+
+    /* Elimina todos los registros; con todos los candados. */
+    private void vacia() {
+
+        llaves.clear();
+        registros.clear();
+        longitud.set(0);
+    }
+
+    /* Regresa el número de secuencia del primer registro con la llave igual
+     * al recibido, o -1; con el candado de la franja de la llave. */
+    private long busca(Object llave, R registro) {
+
+        long[] cubeta = llaves.get(llave);
+        if (cubeta != null)
+            for (long s : cubeta)
+                if (registros.get(s).equals(registro))
+                    return s;
+        return -1;
+    }
+
+    /* Agrega el número de secuencia al final de la cubeta de la llave; con el
+     * candado de su franja. Las cubetas no se modifican, se reemplazan, para
+     * que las lecturas sin candados no las vean a medias. */
+    private void agregaLlave(Object llave, long s) {
+
+        long[] cubeta = llaves.get(llave);
+        long[] nueva;
+        if (cubeta == null) {
+            nueva = new long[] { s };
+        } else {
+            nueva = new long[cubeta.length + 1];
+            System.arraycopy(cubeta, 0, nueva, 0, cubeta.length);
+            nueva[cubeta.length] = s;
+        }
+        llaves.put(llave, nueva);
+    }
+
+    /* Quita el número de secuencia de la cubeta de la llave; con el candado
+     * de su franja. */
+    private void quitaLlave(Object llave, long s) {
+
+        long[] cubeta = llaves.get(llave);
+        if (cubeta.length == 1) {
+            llaves.remove(llave);
+            return;
+        }
+        long[] nueva = new long[cubeta.length - 1];
+        int j = 0;
+        for (long t : cubeta)
+            if (t != s)
+                nueva[j++] = t;
+        llaves.put(llave, nueva);
+    }
+}
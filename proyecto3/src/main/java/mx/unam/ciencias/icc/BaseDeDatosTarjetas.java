@@ -6,6 +6,47 @@ package mx.unam.ciencias.icc;
 public class BaseDeDatosTarjetas
         extends BaseDeDatos<Tarjeta, CampoTarjeta> {
 
+    /**
+     * Construye una base de datos de tarjetas, indexada por el número de
+     * tarjeta y con índices ordenados para el código de seguridad y el saldo.
+     * Los índices de subcadenas se agregan con {@link #indexaSubcadenas}.
+     */
+    public BaseDeDatosTarjetas() {
+        this(Almacenamiento.LISTA);
+    }
+
+    /**
+     * Construye una base de datos de tarjetas como {@link
+     * #BaseDeDatosTarjetas()}, guardando los registros en el almacenamiento
+     * recibido.
+     *
+     * @param almacenamiento dónde guardar los registros.
+     * @throws IllegalArgumentException si el almacenamiento es
+     *                                  <code>null</code>.
+     */
+    public BaseDeDatosTarjetas(Almacenamiento almacenamiento) {
+        super(almacenamiento);
+        indexaLlave(CampoTarjeta.NUMERO_DE_TARJETA);
+        agregaIndice(CampoTarjeta.CODIGO_DE_SEGURIDAD,
+                     new IndiceOrdenado<Tarjeta>(Integer.class));
+        agregaIndice(CampoTarjeta.SALDO,
+                     new IndiceOrdenado<Tarjeta>(Double.class));
+    }
+
+    /**
+     * Agrega índices de subcadenas para el nombre del propietario y el número
+     * de tarjeta, con los que {@link #buscaRegistros} responde búsquedas de
+     * tres caracteres o más sin recorrer la base de datos. Los índices guardan
+     * cada trigrama de cada registro, así que sólo conviene agregarlos donde
+     * se busca, como en el cliente.
+     */
+    public void indexaSubcadenas() {
+        agregaIndice(CampoTarjeta.NOMBRE_DEL_PROPIETARIO,
+                     new IndiceSubcadenas<Tarjeta>());
+        agregaIndice(CampoTarjeta.NUMERO_DE_TARJETA,
+                     new IndiceSubcadenas<Tarjeta>());
+    }
+
     /**
      * Crea una tarjeta en blanco.
      * 
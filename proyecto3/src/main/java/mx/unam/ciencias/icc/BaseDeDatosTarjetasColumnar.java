@@ -0,0 +1,938 @@
+package mx.unam.ciencias.icc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Clase para bases de datos de tarjetas guardadas por columnas en un
+ * archivo mapeado a memoria, pensada para el servidor. En lugar de un objeto
+ * {@link TarjetaCompacta} por registro, la base de datos guarda cada campo en
+ * su propia columna fuera del montículo: el número de tarjeta con
+ * ancho fijo, el código de seguridad como entero, el saldo como doble, y el
+ * nombre del propietario y la fecha de vencimiento como identificadores de un
+ * diccionario de cadenas, que se repiten mucho. Los números de tarjeta que no
+ * caben en su columna, o que no son ASCII, también van al diccionario.</p>
+ *
+ * <p>Las tarjetas sólo se materializan cuando se piden, con {@link
+ * #getRegistros}, {@link #buscaRegistros} o {@link #buscaRegistro}; modificar
+ * las tarjetas regresadas no cambia a la base de datos. Para {@link #guarda}
+ * y {@link #buscaRegistros} se recorren las columnas con una sola tarjeta que
+ * se reutiliza. En el montículo sólo quedan el diccionario y una tabla de
+ * dispersión de enteros que indexa las filas por su número de tarjeta.</p>
+ *
+ * <p>Las columnas se modifican directamente en el archivo, así que la base de
+ * datos se conserva entre ejecuciones: si la última vez se cerró con {@link
+ * #close}, al abrirla de nuevo tiene los mismos registros y la misma versión
+ * sin tener que cargarlos; si no se cerró, se abre vacía. El diccionario se
+ * guarda en el archivo con el mismo nombre más la extensión
+ * <code>.diccionario</code>. Mientras la base de datos está abierta, el
+ * archivo está bloqueado y no puede abrirse otra vez.</p>
+ *
+ * <p>A diferencia del almacenamiento {@link Almacenamiento#PERSISTENTE},
+ * aquí {@link #getInstantanea} no es de tiempo constante: copia las filas
+ * usadas de las columnas, 52 bytes por fila, y es O(<em>n</em>) en tiempo y
+ * memoria. Como cualquier lectura de la base de datos, la copia debe hacerse
+ * con los escritores excluidos; el servidor la toma bajo su candado, así que
+ * con muchas filas detiene las modificaciones mientras copia.</p>
+ *
+ * <p>Eliminar un registro sólo lo marca como borrado; las filas se compactan
+ * cuando la mitad están borradas, y con ellas el diccionario, que se queda
+ * sólo con las cadenas de las filas vivas. La base de datos no admite
+ * tarjetas con campos <code>null</code>, y tiene a lo más {@link
+ * #CAPACIDAD_MAXIMA} filas. Como los métodos de {@link BaseDeDatos} no lanzan
+ * excepciones de entrada/salida, los errores al escribir el diccionario se
+ * lanzan como {@link UncheckedIOException}.</p>
+ */
+public class BaseDeDatosTarjetasColumnar
+    extends BaseDeDatos<TarjetaCompacta, CampoTarjeta> implements Closeable {
+
+    /* Iterador para las tarjetas de una copia de las columnas. */
+    private static class IteradorCopia implements Iterator<TarjetaCompacta> {
+
+        /* La copia de las columnas, una tras otra. */
+        private ByteBuffer copia;
+        /* El número de filas en la copia. */
+        private int filas;
+        /* Las cadenas del diccionario. */
+        private String[] cadenas;
+        /* La siguiente fila. */
+        private int fila;
+
+        /* Construye un iterador para la copia. */
+        private IteradorCopia(byte[] copia, int filas, String[] cadenas) {
+            this.copia = ByteBuffer.wrap(copia);
+            this.filas = filas;
+            this.cadenas = cadenas;
+            avanza();
+        }
+
+        /* Avanza a la siguiente fila no borrada. */
+        private void avanza() {
+            while (fila < filas &&
+                   copia.getInt(filas * (ANCHO_NUMERO + 12) + fila * 4)
+                   == BORRADA)
+                fila++;
+        }
+
+        @Override public boolean hasNext() {
+            return fila < filas;
+        }
+
+        @Override public TarjetaCompacta next() {
+            if (fila >= filas)
+                throw new NoSuchElementException();
+            int p = fila * ANCHO_NUMERO;
+            byte n = copia.get(p);
+            String numero;
+            if (n == DESBORDADO) {
+                numero = cadenas[copia.getInt(p + 1)];
+            } else {
+                char[] c = new char[n];
+                for (int i = 0; i < n; i++)
+                    c[i] = (char)copia.get(p + 1 + i);
+                numero = new String(c);
+            }
+            TarjetaCompacta t = new TarjetaCompacta(
+                cadenas[copia.getInt(filas * (ANCHO_NUMERO + 12) + fila * 4)],
+                numero,
+                copia.getInt(filas * ANCHO_NUMERO + fila * 4),
+                cadenas[copia.getInt(filas * (ANCHO_NUMERO + 16) + fila * 4)],
+                copia.getDouble(filas * (ANCHO_NUMERO + 4) + fila * 8));
+            fila++;
+            avanza();
+            return t;
+        }
+    }
+
+    /* Número mágico del archivo. */
+    private static final int MAGICO = 0x54434f4c;
+    /* Tamaño de la cabecera del archivo. */
+    private static final int CABECERA = 64;
+    /* Posiciones de los campos de la cabecera. */
+    private static final int POS_CAPACIDAD = 4;
+    private static final int POS_FILAS = 8;
+    private static final int POS_VIVAS = 12;
+    private static final int POS_VERSION = 16;
+    private static final int POS_CADENAS = 24;
+    private static final int POS_ABIERTA = 28;
+    /* Ancho de la columna de números de tarjeta: un byte con la longitud y
+     * hasta 31 caracteres ASCII. */
+    private static final int ANCHO_NUMERO = 32;
+    /* Longitud que marca un número de tarjeta guardado en el diccionario. */
+    private static final byte DESBORDADO = (byte)0xff;
+    /* Bytes de una fila, sumando todas las columnas. */
+    private static final int ANCHO_FILA = ANCHO_NUMERO + 4 + 8 + 4 + 4;
+    /* Capacidad inicial. */
+    private static final int CAPACIDAD_INICIAL = 1024;
+    /* Identificador de nombre que marca una fila borrada. */
+    private static final int BORRADA = -1;
+    /* Entrada liberada de la tabla de dispersión. */
+    private static final int LIBERADA = -1;
+
+    /** Máximo número de filas: el archivo mapeado no puede pasar de 2 GiB. */
+    public static final int CAPACIDAD_MAXIMA =
+        (Integer.MAX_VALUE - CABECERA) / ANCHO_FILA;
+
+    /* El archivo de las columnas. */
+    private RandomAccessFile datos;
+    /* El canal del archivo de las columnas. */
+    private FileChannel canal;
+    /* Las columnas mapeadas a memoria. */
+    private MappedByteBuffer mapa;
+    /* El archivo del diccionario. */
+    private File diccionario;
+    /* La salida del diccionario. */
+    private DataOutputStream salidaDiccionario;
+    /* La capacidad de las columnas. */
+    private int capacidad;
+    /* Las filas usadas, incluyendo las borradas. */
+    private int filas;
+    /* Las filas no borradas. */
+    private int vivas;
+    /* La versión de la base de datos. */
+    private long version;
+    /* Las cadenas del diccionario, por identificador. */
+    private String[] cadenas;
+    /* El número de cadenas en el diccionario. */
+    private int numCadenas;
+    /* Los identificadores de las cadenas del diccionario. */
+    private HashMap<String, Integer> identificadores;
+    /* Tabla de dispersión de las filas por número de tarjeta; cada entrada
+     * es la fila más uno, 0 si está vacía o LIBERADA. */
+    private int[] tabla;
+    /* Entradas de la tabla que no están vacías. */
+    private int ocupadas;
+    /* Tarjeta que se reutiliza para serializar y cazar filas. */
+    private TarjetaCompacta muestra;
+
+    /**
+     * Abre la base de datos guardada en el archivo recibido. Si el archivo no
+     * existe, o si la última vez no se cerró con {@link #close}, la base de
+     * datos queda vacía.
+     * @param archivo el archivo de las columnas.
+     * @throws IOException si ocurre un error de entrada/salida, o si otra
+     *         base de datos tiene abierto el archivo.
+     * @throws IllegalArgumentException si el archivo es <code>null</code>.
+     */
+    public BaseDeDatosTarjetasColumnar(File archivo) throws IOException {
+        if (archivo == null)
+            throw new IllegalArgumentException();
+        diccionario = new File(archivo.getPath() + ".diccionario");
+        muestra = new TarjetaCompacta("", "", 0, "", 0);
+        identificadores = new HashMap<String, Integer>();
+        datos = new RandomAccessFile(archivo, "rw");
+        canal = datos.getChannel();
+        bloquea();
+        if (!abre())
+            inicializa();
+        mapa.putInt(POS_ABIERTA, 1);
+        mapa.force();
+    }
+
+    /* Bloquea el archivo de las columnas, para que otra base de datos no
+     * las modifique mientras ésta está abierta. */
+    private void bloquea() throws IOException {
+        FileLock cerrojo = null;
+        try {
+            cerrojo = canal.tryLock();
+        } catch (OverlappingFileLockException ofle) {}
+        if (cerrojo == null) {
+            datos.close();
+            throw new IOException("El archivo de las columnas está en uso.");
+        }
+    }
+
+    /* Abre las columnas y el diccionario guardados; regresa false si no
+     * existen, no son válidos o no se cerraron. */
+    private boolean abre() throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+        if (canal.size() < CABECERA || canal.read(cabecera, 0) != CABECERA)
+            return false;
+        int c = cabecera.getInt(POS_CAPACIDAD);
+        int f = cabecera.getInt(POS_FILAS);
+        int v = cabecera.getInt(POS_VIVAS);
+        int n = cabecera.getInt(POS_CADENAS);
+        if (cabecera.getInt(0) != MAGICO ||
+            cabecera.getInt(POS_ABIERTA) != 0 ||
+            c < 1 || c > CAPACIDAD_MAXIMA ||
+            canal.size() != CABECERA + (long)c * ANCHO_FILA ||
+            f < 0 || f > c || v < 0 || v > f || n < 0 ||
+            !diccionario.exists())
+            return false;
+
+        String[] leidas = new String[Math.max(n, 16)];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(diccionario)));
+        try {
+            for (int i = 0; i < n; i++)
+                leidas[i] = in.readUTF();
+            if (in.read() != -1)
+                return false;
+        } catch (IOException ioe) {
+            return false;
+        } finally {
+            in.close();
+        }
+
+        capacidad = c;
+        filas = f;
+        vivas = v;
+        version = cabecera.getLong(POS_VERSION);
+        cadenas = leidas;
+        numCadenas = n;
+        for (int i = 0; i < n; i++)
+            identificadores.put(cadenas[i], i);
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+        salidaDiccionario = abreDiccionario(true);
+        reindexa();
+        return true;
+    }
+
+    /* Inicializa columnas y diccionario vacíos. */
+    private void inicializa() throws IOException {
+        capacidad = CAPACIDAD_INICIAL;
+        canal.truncate(0);
+        datos.setLength(CABECERA + (long)capacidad * ANCHO_FILA);
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+        mapa.putInt(0, MAGICO);
+        mapa.putInt(POS_CAPACIDAD, capacidad);
+        filas = vivas = 0;
+        version = 0;
+        limpiaDiccionario();
+        tabla = new int[16];
+        ocupadas = 0;
+        guardaCabecera();
+    }
+
+    /* Abre la salida del diccionario. */
+    private DataOutputStream abreDiccionario(boolean agrega)
+        throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(diccionario, agrega)));
+    }
+
+    /* Vacía el diccionario. */
+    private void limpiaDiccionario() throws IOException {
+        if (salidaDiccionario != null)
+            salidaDiccionario.close();
+        salidaDiccionario = abreDiccionario(false);
+        cadenas = new String[16];
+        numCadenas = 0;
+        identificadores.clear();
+    }
+
+    /* Escribe los contadores en la cabecera. */
+    private void guardaCabecera() {
+        mapa.putInt(POS_FILAS, filas);
+        mapa.putInt(POS_VIVAS, vivas);
+        mapa.putLong(POS_VERSION, version);
+        mapa.putInt(POS_CADENAS, numCadenas);
+    }
+
+    /* Posiciones de los campos de una fila en sus columnas. */
+    private int posNumero(int fila) {
+        return CABECERA + fila * ANCHO_NUMERO;
+    }
+
+    private int posCodigo(int fila) {
+        return CABECERA + capacidad * ANCHO_NUMERO + fila * 4;
+    }
+
+    private int posSaldo(int fila) {
+        return CABECERA + capacidad * (ANCHO_NUMERO + 4) + fila * 8;
+    }
+
+    private int posNombre(int fila) {
+        return CABECERA + capacidad * (ANCHO_NUMERO + 12) + fila * 4;
+    }
+
+    private int posFecha(int fila) {
+        return CABECERA + capacidad * (ANCHO_NUMERO + 16) + fila * 4;
+    }
+
+    /* Regresa el identificador de la cadena en el diccionario, agregándola
+     * si no está. */
+    private int identificador(String cadena) {
+        Integer id = identificadores.get(cadena);
+        if (id != null)
+            return id;
+        try {
+            salidaDiccionario.writeUTF(cadena);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        if (numCadenas == cadenas.length) {
+            String[] nuevas = new String[2 * cadenas.length];
+            System.arraycopy(cadenas, 0, nuevas, 0, numCadenas);
+            cadenas = nuevas;
+        }
+        cadenas[numCadenas] = cadena;
+        identificadores.put(cadena, numCadenas);
+        return numCadenas++;
+    }
+
+    /* Nos dice si el número de tarjeta cabe en su columna. */
+    private static boolean cabe(String numero) {
+        if (numero.length() >= ANCHO_NUMERO)
+            return false;
+        for (int i = 0; i < numero.length(); i++)
+            if (numero.charAt(i) >= 0x80)
+                return false;
+        return true;
+    }
+
+    /* Escribe el número de tarjeta de la fila. */
+    private void escribeNumero(int fila, String numero) {
+        int p = posNumero(fila);
+        if (!cabe(numero)) {
+            mapa.put(p, DESBORDADO);
+            mapa.putInt(p + 1, identificador(numero));
+            return;
+        }
+        mapa.put(p, (byte)numero.length());
+        for (int i = 0; i < numero.length(); i++)
+            mapa.put(p + 1 + i, (byte)numero.charAt(i));
+    }
+
+    /* Regresa el número de tarjeta de la fila. */
+    private String numero(int fila) {
+        int p = posNumero(fila);
+        byte n = mapa.get(p);
+        if (n == DESBORDADO)
+            return cadenas[mapa.getInt(p + 1)];
+        char[] c = new char[n];
+        for (int i = 0; i < n; i++)
+            c[i] = (char)mapa.get(p + 1 + i);
+        return new String(c);
+    }
+
+    /* Nos dice si el número de tarjeta de la fila es el recibido. */
+    private boolean numeroIgual(int fila, String numero) {
+        int p = posNumero(fila);
+        byte n = mapa.get(p);
+        if (n == DESBORDADO)
+            return cadenas[mapa.getInt(p + 1)].equals(numero);
+        if (n != numero.length())
+            return false;
+        for (int i = 0; i < n; i++)
+            if (mapa.get(p + 1 + i) != numero.charAt(i))
+                return false;
+        return true;
+    }
+
+    /* Regresa la dispersión del número de tarjeta de la fila, que es la de
+     * la cadena del número. */
+    private int dispersionNumero(int fila) {
+        int p = posNumero(fila);
+        byte n = mapa.get(p);
+        if (n == DESBORDADO)
+            return cadenas[mapa.getInt(p + 1)].hashCode();
+        int h = 0;
+        for (int i = 0; i < n; i++)
+            h = 31 * h + mapa.get(p + 1 + i);
+        return h;
+    }
+
+    /* Regresa la primera entrada de la tabla para una dispersión. */
+    private int entrada(int dispersion) {
+        int h = dispersion * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (tabla.length - 1);
+    }
+
+    /* Reconstruye la tabla de dispersión si agregarle una entrada la
+     * dejaría más que medio llena. */
+    private void reservaEntrada() {
+        if (2 * (ocupadas + 1) > tabla.length)
+            redimensionaTabla(vivas + 1);
+    }
+
+    /* Agrega la fila a la tabla de dispersión, que debe tener espacio. */
+    private void indexaFila(int fila) {
+        int i = entrada(dispersionNumero(fila));
+        while (tabla[i] > 0)
+            i = (i + 1) & (tabla.length - 1);
+        if (tabla[i] == 0)
+            ocupadas++;
+        tabla[i] = fila + 1;
+    }
+
+    /* Elimina la fila de la tabla de dispersión. */
+    private void desindexaFila(int fila) {
+        int i = entrada(dispersionNumero(fila));
+        while (tabla[i] != 0) {
+            if (tabla[i] == fila + 1) {
+                tabla[i] = LIBERADA;
+                return;
+            }
+            i = (i + 1) & (tabla.length - 1);
+        }
+    }
+
+    /* Reconstruye la tabla de dispersión con espacio para el número de
+     * filas recibido. */
+    private void redimensionaTabla(int n) {
+        int longitud = 16;
+        while (longitud < 2 * n)
+            longitud *= 2;
+        tabla = new int[longitud];
+        ocupadas = 0;
+        for (int f = 0; f < filas; f++)
+            if (mapa.getInt(posNombre(f)) != BORRADA)
+                indexaFila(f);
+    }
+
+    /* Reconstruye la tabla de dispersión con todas las filas vivas. */
+    private void reindexa() {
+        tabla = new int[16];
+        redimensionaTabla(vivas);
+    }
+
+    /* Regresa la primera fila viva con el número de tarjeta recibido que
+     * además tenga los campos de la tarjeta, si no es null; o -1. */
+    private int buscaFila(String numero, TarjetaCompacta tarjeta) {
+        int mejor = -1;
+        int i = entrada(numero.hashCode());
+        while (tabla[i] != 0) {
+            int f = tabla[i] - 1;
+            if (f >= 0 && (mejor == -1 || f < mejor) &&
+                numeroIgual(f, numero) &&
+                (tarjeta == null || filaIgual(f, tarjeta)))
+                mejor = f;
+            i = (i + 1) & (tabla.length - 1);
+        }
+        return mejor;
+    }
+
+    /* Nos dice si los campos de la fila, salvo el número, son los de la
+     * tarjeta. */
+    private boolean filaIgual(int fila, TarjetaCompacta tarjeta) {
+        return mapa.getInt(posCodigo(fila)) == tarjeta.getCodigoDeSeguridad() &&
+            mapa.getDouble(posSaldo(fila)) == tarjeta.getSaldo() &&
+            cadenas[mapa.getInt(posNombre(fila))]
+            .equals(tarjeta.getNombreDelPropietario()) &&
+            cadenas[mapa.getInt(posFecha(fila))]
+            .equals(tarjeta.getFechaDeVencimiento());
+    }
+
+    /* Lanza IllegalArgumentException si la tarjeta o alguno de sus campos
+     * es null. */
+    private static void valida(TarjetaCompacta tarjeta) {
+        if (tarjeta == null || tarjeta.getNombreDelPropietario() == null ||
+            tarjeta.getNumeroDeTarjeta() == null ||
+            tarjeta.getFechaDeVencimiento() == null)
+            throw new IllegalArgumentException();
+    }
+
+    /* Escribe la tarjeta en la fila. */
+    private void escribeFila(int fila, TarjetaCompacta tarjeta) {
+        escribeNumero(fila, tarjeta.getNumeroDeTarjeta());
+        mapa.putInt(posCodigo(fila), tarjeta.getCodigoDeSeguridad());
+        mapa.putDouble(posSaldo(fila), tarjeta.getSaldo());
+        mapa.putInt(posNombre(fila),
+                    identificador(tarjeta.getNombreDelPropietario()));
+        mapa.putInt(posFecha(fila),
+                    identificador(tarjeta.getFechaDeVencimiento()));
+    }
+
+    /* Pone los campos de la fila en la tarjeta. */
+    private void leeFila(int fila, TarjetaCompacta tarjeta) {
+        tarjeta.asigna(cadenas[mapa.getInt(posNombre(fila))], numero(fila),
+                       mapa.getInt(posCodigo(fila)),
+                       cadenas[mapa.getInt(posFecha(fila))],
+                       mapa.getDouble(posSaldo(fila)));
+    }
+
+    /* Materializa la tarjeta de la fila. */
+    private TarjetaCompacta tarjeta(int fila) {
+        TarjetaCompacta t = new TarjetaCompacta(null, null, 0, null, 0);
+        leeFila(fila, t);
+        return t;
+    }
+
+    /* Agrega la tarjeta al final de las columnas, sin notificar ni cambiar
+     * la versión. */
+    private void agregaFila(TarjetaCompacta tarjeta) {
+        if (filas == capacidad)
+            crece();
+        reservaEntrada();
+        escribeFila(filas, tarjeta);
+        indexaFila(filas);
+        filas++;
+        vivas++;
+    }
+
+    /* Duplica la capacidad de las columnas, moviendo cada columna a su nueva
+     * posición. */
+    private void crece() {
+        if (capacidad == CAPACIDAD_MAXIMA)
+            throw new IllegalStateException();
+        int nueva = (int)Math.min(2L * capacidad, CAPACIDAD_MAXIMA);
+        try {
+            datos.setLength(CABECERA + (long)nueva * ANCHO_FILA);
+            MappedByteBuffer m = canal.map(FileChannel.MapMode.READ_WRITE,
+                                           0, canal.size());
+            /* Las columnas se mueven de la última a la primera, porque cada
+             * una se recorre hacia adelante. */
+            int[] anchos = { ANCHO_NUMERO, 4, 8, 4, 4 };
+            int viejo = CABECERA + capacidad * ANCHO_FILA;
+            int nuevo = CABECERA + nueva * ANCHO_FILA;
+            for (int c = anchos.length - 1; c > 0; c--) {
+                viejo -= capacidad * anchos[c];
+                nuevo -= nueva * anchos[c];
+                byte[] columna = new byte[filas * anchos[c]];
+                ByteBuffer origen = m.duplicate();
+                origen.position(viejo);
+                origen.get(columna);
+                ByteBuffer destino = m.duplicate();
+                destino.position(nuevo);
+                destino.put(columna);
+            }
+            mapa = m;
+            capacidad = nueva;
+            mapa.putInt(POS_CAPACIDAD, capacidad);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /* Marca la fila como borrada, y compacta las filas si la mitad están
+     * borradas. */
+    private void borraFila(int fila) {
+        desindexaFila(fila);
+        mapa.putInt(posNombre(fila), BORRADA);
+        vivas--;
+        if (filas - vivas > CAPACIDAD_INICIAL && 2 * vivas < filas)
+            compacta();
+    }
+
+    /* Recorre las filas vivas al inicio de las columnas, conservando su
+     * orden, y reconstruye la tabla de dispersión. */
+    private void compacta() {
+        int destino = 0;
+        for (int f = 0; f < filas; f++) {
+            if (mapa.getInt(posNombre(f)) == BORRADA)
+                continue;
+            if (destino != f) {
+                for (int i = 0; i < ANCHO_NUMERO; i += 8)
+                    mapa.putLong(posNumero(destino) + i,
+                                 mapa.getLong(posNumero(f) + i));
+                mapa.putInt(posCodigo(destino), mapa.getInt(posCodigo(f)));
+                mapa.putLong(posSaldo(destino), mapa.getLong(posSaldo(f)));
+                mapa.putInt(posNombre(destino), mapa.getInt(posNombre(f)));
+                mapa.putInt(posFecha(destino), mapa.getInt(posFecha(f)));
+            }
+            destino++;
+        }
+        filas = destino;
+        reindexa();
+        compactaDiccionario();
+    }
+
+    /* Deja en el diccionario sólo las cadenas que usan las filas, y
+     * reescribe su archivo. Las cadenas quedan en un arreglo nuevo, porque
+     * las instantáneas comparten el anterior. */
+    private void compactaDiccionario() {
+        int[] nuevos = new int[numCadenas];
+        for (int f = 0; f < filas; f++) {
+            nuevos[mapa.getInt(posNombre(f))] = 1;
+            nuevos[mapa.getInt(posFecha(f))] = 1;
+            if (mapa.get(posNumero(f)) == DESBORDADO)
+                nuevos[mapa.getInt(posNumero(f) + 1)] = 1;
+        }
+        /* Las cadenas usadas conservan su orden relativo. */
+        int n = 0;
+        for (int i = 0; i < numCadenas; i++)
+            nuevos[i] = nuevos[i] == 0 ? -1 : n++;
+        if (n == numCadenas)
+            return;
+        for (int f = 0; f < filas; f++) {
+            mapa.putInt(posNombre(f), nuevos[mapa.getInt(posNombre(f))]);
+            mapa.putInt(posFecha(f), nuevos[mapa.getInt(posFecha(f))]);
+            if (mapa.get(posNumero(f)) == DESBORDADO)
+                mapa.putInt(posNumero(f) + 1,
+                            nuevos[mapa.getInt(posNumero(f) + 1)]);
+        }
+        String[] usadas = new String[Math.max(16, 2 * n)];
+        identificadores = new HashMap<String, Integer>();
+        for (int i = 0; i < numCadenas; i++) {
+            if (nuevos[i] == -1)
+                continue;
+            usadas[nuevos[i]] = cadenas[i];
+            identificadores.put(cadenas[i], nuevos[i]);
+        }
+        cadenas = usadas;
+        numCadenas = n;
+        try {
+            salidaDiccionario.close();
+            salidaDiccionario = abreDiccionario(false);
+            for (int i = 0; i < n; i++)
+                salidaDiccionario.writeUTF(cadenas[i]);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Regresa el número de registros en la base de datos.
+     * @return el número de registros en la base de datos.
+     */
+    @Override public int getNumRegistros() {
+        return vivas;
+    }
+
+    /**
+     * Regresa una lista con las tarjetas de la base de datos, materializadas.
+     * Modificar la lista o sus tarjetas no cambia a la base de datos.
+     * @return una lista con las tarjetas de la base de datos.
+     */
+    @Override public Lista<TarjetaCompacta> getRegistros() {
+        Lista<TarjetaCompacta> lista = new Lista<TarjetaCompacta>();
+        for (int f = 0; f < filas; f++)
+            if (mapa.getInt(posNombre(f)) != BORRADA)
+                lista.agregaFinal(tarjeta(f));
+        return lista;
+    }
+
+    /**
+     * Regresa una instantánea de la base de datos. Las filas usadas de cada
+     * columna se copian en bloque a un arreglo, sin materializar las
+     * tarjetas; la instantánea las materializa una por una al recorrerla. La
+     * copia es O(<em>n</em>), y quien llama al método debe excluir a los
+     * escritores mientras dura. El diccionario no se copia, porque sus
+     * cadenas no cambian: al compactarse se reemplaza por un arreglo nuevo.
+     * @return una instantánea de la base de datos.
+     */
+    @Override public Instantanea<TarjetaCompacta> getInstantanea() {
+        int n = filas;
+        byte[] copia = new byte[n * ANCHO_FILA];
+        int[] anchos = { ANCHO_NUMERO, 4, 8, 4, 4 };
+        ByteBuffer origen = mapa.duplicate();
+        int columna = CABECERA, destino = 0;
+        for (int ancho : anchos) {
+            origen.position(columna);
+            origen.get(copia, destino, n * ancho);
+            columna += capacidad * ancho;
+            destino += n * ancho;
+        }
+        String[] diccionario = cadenas;
+        return new Instantanea<TarjetaCompacta>(
+            version, vivas, () -> new IteradorCopia(copia, n, diccionario));
+    }
+
+    /**
+     * Regresa la versión de la base de datos, que se conserva entre
+     * ejecuciones.
+     * @return la versión de la base de datos.
+     */
+    @Override public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Agrega la tarjeta recibida a la base de datos. Los escuchas son
+     * notificados con el evento {@link EventoBaseDeDatos#REGISTRO_AGREGADO} y
+     * la tarjeta recibida; la base de datos no la conserva.
+     * @param tarjeta la tarjeta que hay que agregar a la base de datos.
+     * @throws IllegalArgumentException si la tarjeta o alguno de sus campos
+     *         es <code>null</code>.
+     */
+    @Override public void agregaRegistro(TarjetaCompacta tarjeta) {
+        valida(tarjeta);
+        agregaFila(tarjeta);
+        version++;
+        guardaCabecera();
+        activarEscuchas(EventoBaseDeDatos.REGISTRO_AGREGADO, tarjeta, null);
+    }
+
+    /**
+     * Elimina la primera tarjeta igual a la recibida de la base de datos. Los
+     * escuchas son notificados con el evento {@link
+     * EventoBaseDeDatos#REGISTRO_ELIMINADO}.
+     * @param tarjeta la tarjeta que hay que eliminar de la base de datos.
+     */
+    @Override public void eliminaRegistro(TarjetaCompacta tarjeta) {
+        int fila = -1;
+        if (tarjeta != null && tarjeta.getNumeroDeTarjeta() != null)
+            fila = buscaFila(tarjeta.getNumeroDeTarjeta(), tarjeta);
+        if (fila != -1) {
+            borraFila(fila);
+            version++;
+            guardaCabecera();
+        }
+        activarEscuchas(EventoBaseDeDatos.REGISTRO_ELIMINADO, tarjeta, null);
+    }
+
+    /**
+     * Modifica la primera tarjeta igual a la primera recibida para que sea
+     * idéntica a la segunda. Antes de modificarla, los escuchas son
+     * notificados con el evento {@link EventoBaseDeDatos#REGISTRO_MODIFICADO}
+     * y las dos tarjetas recibidas. Si la primera tarjeta no está en la base
+     * de datos, ésta no es modificada y no se notifica de nada a los
+     * escuchas.
+     * @param tarjeta1 una tarjeta igual a la que hay que modificar.
+     * @param tarjeta2 la tarjeta con los nuevos valores.
+     * @throws IllegalArgumentException si alguna de las tarjetas es
+     *         <code>null</code>, o si alguno de los campos de la segunda lo
+     *         es.
+     */
+    @Override public void modificaRegistro(TarjetaCompacta tarjeta1,
+                                           TarjetaCompacta tarjeta2) {
+        if (tarjeta1 == null)
+            throw new IllegalArgumentException();
+        valida(tarjeta2);
+        if (tarjeta1.getNumeroDeTarjeta() == null)
+            return;
+        int fila = buscaFila(tarjeta1.getNumeroDeTarjeta(), tarjeta1);
+        if (fila == -1)
+            return;
+
+        activarEscuchas(EventoBaseDeDatos.REGISTRO_MODIFICADO,
+                        tarjeta1, tarjeta2);
+
+        reservaEntrada();
+        desindexaFila(fila);
+        escribeFila(fila, tarjeta2);
+        indexaFila(fila);
+        version++;
+        guardaCabecera();
+    }
+
+    /**
+     * Limpia la base de datos y su diccionario. Los escuchas son notificados
+     * con el evento {@link EventoBaseDeDatos#BASE_LIMPIADA}.
+     */
+    @Override public void limpia() {
+        filas = vivas = 0;
+        reindexa();
+        try {
+            limpiaDiccionario();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        version++;
+        guardaCabecera();
+        activarEscuchas(EventoBaseDeDatos.BASE_LIMPIADA, null, null);
+    }
+
+    /**
+     * Guarda todas las tarjetas de la base de datos en la salida recibida, en
+     * el mismo formato que {@link BaseDeDatos#guarda}, sin materializarlas.
+     * @param out la salida donde hay que guardar las tarjetas.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override public void guarda(BufferedWriter out) throws IOException {
+        StringBuilder linea = new StringBuilder(128);
+        char[] bufer = new char[128];
+        for (int f = 0; f < filas; f++) {
+            if (mapa.getInt(posNombre(f)) == BORRADA)
+                continue;
+            leeFila(f, muestra);
+            linea.setLength(0);
+            muestra.serializa(linea);
+            int n = linea.length();
+            if (n > bufer.length)
+                bufer = new char[Math.max(n, 2 * bufer.length)];
+            linea.getChars(0, n, bufer, 0);
+            out.write(bufer, 0, n);
+        }
+    }
+
+    /**
+     * Carga las tarjetas de la entrada recibida en la base de datos, como
+     * {@link BaseDeDatos#carga}.
+     * @param in la entrada de donde hay que cargar las tarjetas.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override public void carga(BufferedReader in) throws IOException {
+        if (vivas > 0)
+            limpia();
+        /* La lista de la clase base siempre está vacía, así que su carga
+         * sólo agrega las tarjetas con agregaRegistro. */
+        super.carga(in);
+    }
+
+    /**
+     * Carga en bloque las tarjetas de la lista recibida en la base de datos,
+     * como {@link BaseDeDatos#cargaMasiva}.
+     * @param tarjetas las tarjetas que hay que cargar, en orden.
+     * @throws IllegalArgumentException si la lista, alguna de sus tarjetas o
+     *         alguno de sus campos es <code>null</code>.
+     */
+    @Override public void cargaMasiva(Lista<TarjetaCompacta> tarjetas) {
+        if (tarjetas == null)
+            throw new IllegalArgumentException();
+        for (TarjetaCompacta tarjeta : tarjetas)
+            valida(tarjeta);
+        limpia();
+        for (TarjetaCompacta tarjeta : tarjetas)
+            agregaFila(tarjeta);
+        version += tarjetas.getLongitud();
+        guardaCabecera();
+        activarEscuchas(EventoBaseDeDatos.BASE_CARGADA, null, null);
+    }
+
+    /**
+     * Busca tarjetas por un campo específico, recorriendo las columnas. Para
+     * el nombre del propietario y la fecha de vencimiento, cada cadena del
+     * diccionario se caza una sola vez.
+     * @param campo el campo de la tarjeta por el cual buscar.
+     * @param valor el valor a buscar.
+     * @return una lista con las tarjetas materializadas que cazan el campo
+     *         especificado con el valor dado.
+     * @throws IllegalArgumentException si el campo es <code>null</code> y la
+     *         base de datos no es vacía.
+     */
+    @Override public Lista<TarjetaCompacta> buscaRegistros(CampoTarjeta campo,
+                                                  Object valor) {
+        Lista<TarjetaCompacta> lista = new Lista<TarjetaCompacta>();
+        if (vivas == 0)
+            return lista;
+        if (campo == null)
+            throw new IllegalArgumentException();
+
+        boolean porDiccionario =
+            campo == CampoTarjeta.NOMBRE_DEL_PROPIETARIO ||
+            campo == CampoTarjeta.FECHA_DE_VENCIMIENTO;
+        /* Para cada cadena: 0 si no se ha cazado, 1 si caza y 2 si no. */
+        byte[] cazadas = porDiccionario ? new byte[numCadenas] : null;
+        for (int f = 0; f < filas; f++) {
+            int nombre = mapa.getInt(posNombre(f));
+            if (nombre == BORRADA)
+                continue;
+            boolean caza;
+            if (porDiccionario) {
+                int id = campo == CampoTarjeta.NOMBRE_DEL_PROPIETARIO ?
+                    nombre : mapa.getInt(posFecha(f));
+                if (cazadas[id] == 0) {
+                    leeFila(f, muestra);
+                    cazadas[id] = (byte)(muestra.caza(campo, valor) ? 1 : 2);
+                }
+                caza = cazadas[id] == 1;
+            } else {
+                leeFila(f, muestra);
+                caza = muestra.caza(campo, valor);
+            }
+            if (caza)
+                lista.agregaFinal(tarjeta(f));
+        }
+        return lista;
+    }
+
+    /**
+     * Regresa la primera tarjeta de la base de datos cuyo número es igual a
+     * la llave recibida, materializada.
+     * @param llave el número de tarjeta.
+     * @return la primera tarjeta con el número recibido, o <code>null</code>
+     *         si no hay ninguna.
+     */
+    @Override public TarjetaCompacta buscaRegistro(Object llave) {
+        if (!(llave instanceof String))
+            return null;
+        int fila = buscaFila((String)llave, null);
+        return fila == -1 ? null : tarjeta(fila);
+    }
+
+    /**
+     * Crea una tarjeta en blanco.
+     * @return una tarjeta en blanco.
+     */
+    @Override public TarjetaCompacta creaRegistro() {
+        return new TarjetaCompacta(null, null, 0, null, 0);
+    }
+
+    /**
+     * Cierra la base de datos, dejándola en el disco duro para abrirla de
+     * nuevo. La base de datos no debe usarse después de cerrarla.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override public void close() throws IOException {
+        if (!canal.isOpen())
+            return;
+        salidaDiccionario.close();
+        guardaCabecera();
+        mapa.force();
+        mapa.putInt(POS_ABIERTA, 0);
+        mapa.force();
+        canal.close();
+        datos.close();
+    }
+}
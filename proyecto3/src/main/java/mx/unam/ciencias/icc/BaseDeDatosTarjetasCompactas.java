@@ -0,0 +1,61 @@
+package mx.unam.ciencias.icc;
+
+/**
+ * Clase para bases de datos de tarjetas compactas, para el servidor. Tiene
+ * los mismos índices que {@link BaseDeDatosTarjetas}.
+ */
+public class BaseDeDatosTarjetasCompactas
+        extends BaseDeDatos<TarjetaCompacta, CampoTarjeta> {
+
+    /**
+     * Construye una base de datos de tarjetas compactas, indexada por el
+     * número de tarjeta y con índices ordenados para el código de seguridad y
+     * el saldo. Los índices de subcadenas se agregan con {@link
+     * #indexaSubcadenas}.
+     */
+    public BaseDeDatosTarjetasCompactas() {
+        this(Almacenamiento.LISTA);
+    }
+
+    /**
+     * Construye una base de datos de tarjetas compactas como {@link
+     * #BaseDeDatosTarjetasCompactas()}, guardando los registros en el
+     * almacenamiento recibido.
+     *
+     * @param almacenamiento dónde guardar los registros.
+     * @throws IllegalArgumentException si el almacenamiento es
+     *                                  <code>null</code>.
+     */
+    public BaseDeDatosTarjetasCompactas(Almacenamiento almacenamiento) {
+        super(almacenamiento);
+        indexaLlave(CampoTarjeta.NUMERO_DE_TARJETA);
+        agregaIndice(CampoTarjeta.CODIGO_DE_SEGURIDAD,
+                     new IndiceOrdenado<TarjetaCompacta>(Integer.class));
+        agregaIndice(CampoTarjeta.SALDO,
+                     new IndiceOrdenado<TarjetaCompacta>(Double.class));
+    }
+
+    /**
+     * Agrega índices de subcadenas para el nombre del propietario y el número
+     * de tarjeta, con los que {@link #buscaRegistros} responde búsquedas de
+     * tres caracteres o más sin recorrer la base de datos. Los índices guardan
+     * cada trigrama de cada registro, así que sólo conviene agregarlos donde
+     * se busca, como en el cliente.
+     */
+    public void indexaSubcadenas() {
+        agregaIndice(CampoTarjeta.NOMBRE_DEL_PROPIETARIO,
+                     new IndiceSubcadenas<TarjetaCompacta>());
+        agregaIndice(CampoTarjeta.NUMERO_DE_TARJETA,
+                     new IndiceSubcadenas<TarjetaCompacta>());
+    }
+
+    /**
+     * Crea una tarjeta compacta en blanco.
+     * 
+     * @return un tarjeta compacta en blanco.
+     */
+    @Override
+    public TarjetaCompacta creaRegistro() {
+        return new TarjetaCompacta(null, null, 0, null, 0);
+    }
+}
@@ -0,0 +1,42 @@
+package mx.unam.ciencias.icc;
+
+/**
+ * Clase para bases de datos concurrentes de tarjetas compactas, indexadas por
+ * el número de tarjeta. El servidor {@link
+ * mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetasConcurrente} la usa
+ * sólo por sus lecturas sin candados; sus modificaciones siguen siendo una
+ * por una.
+ */
+public class BaseDeDatosTarjetasConcurrente
+        extends BaseDeDatosConcurrente<TarjetaCompacta, CampoTarjeta> {
+
+    /**
+     * Construye una base de datos concurrente de tarjetas compactas con
+     * {@link BaseDeDatosConcurrente#FRANJAS} franjas.
+     */
+    public BaseDeDatosTarjetasConcurrente() {
+        super(CampoTarjeta.NUMERO_DE_TARJETA);
+    }
+
+    /**
+     * Construye una base de datos concurrente de tarjetas compactas con el
+     * número de franjas recibido.
+     *
+     * @param franjas el número de franjas.
+     * @throws IllegalArgumentException si el número de franjas no es
+     *                                  positivo.
+     */
+    public BaseDeDatosTarjetasConcurrente(int franjas) {
+        super(CampoTarjeta.NUMERO_DE_TARJETA, franjas);
+    }
+
+    /**
+     * Crea una tarjeta compacta en blanco.
+     * 
+     * @return un tarjeta compacta en blanco.
+     */
+    @Override
+    public TarjetaCompacta creaRegistro() {
+        return new TarjetaCompacta(null, null, 0, null, 0);
+    }
+}
@@ -0,0 +1,201 @@
+package mx.unam.ciencias.icc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Random;
+import mx.unam.ciencias.icc.red.GeneradorDeCarga;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.ModeloConexiones;
+import mx.unam.ciencias.icc.red.PoliticaDeSaturacion;
+import mx.unam.ciencias.icc.red.PoliticaDeSincronizacion;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+
+/**
+ * CargaProyecto3: prueba de carga del servidor del proyecto 3. Arranca un
+ * servidor de tarjetas local, con bitácora y lotes de modificaciones como el
+ * de {@link ServidorProyecto3}, en un directorio temporal; lo carga con
+ * clientes simulados y reporta el rendimiento y los percentiles de las
+ * latencias y de la propagación. Con otra política de sincronización que no
+ * sea la de cada operación, las modificaciones no se agrupan en lotes.
+ */
+public class CargaProyecto3 {
+
+    /* Número de tarjetas iniciales en la base de datos. */
+    private static final int TARJETAS = 1000;
+    /* Tiempo de calentamiento, en milisegundos. */
+    private static final long CALENTAMIENTO = 2000;
+    /* Intervalo de sincronización periódica, en milisegundos. */
+    private static final long INTERVALO = 100;
+    /* Tamaño máximo de los lotes de modificaciones. */
+    private static final int TAMANO_LOTE = 64;
+    /* Espera máxima por modificaciones para un lote, en milisegundos. */
+    private static final long ESPERA_LOTE = 2;
+    /* Máximo de envíos pendientes por conexión. */
+    private static final int CAPACIDAD_SALIDA = 1024;
+
+    /* Imprime un mensaje de cómo usar el programa. */
+    private static void uso() {
+        System.out.println("Uso: ./bin/carga-proyecto3 clientes segundos " +
+                           "[MENSAJE=peso,...] [modelo] [política] " +
+                           "[binario]");
+        System.out.println("Mensajes: ECO, BASE_DE_DATOS, " +
+                           "REGISTRO_AGREGADO, REGISTRO_ELIMINADO, " +
+                           "REGISTRO_MODIFICADO.");
+        System.out.println("Modelos: HILO_POR_CONEXION, HILOS_VIRTUALES, " +
+                           "REACTOR.");
+        System.out.println("Políticas: CADA_OPERACION, PERIODICA, " +
+                           "SISTEMA_OPERATIVO.");
+        System.exit(0);
+    }
+
+    /* Escribe la base de datos inicial en el archivo. */
+    private static void baseDeDatosInicial(File archivo) throws IOException {
+        Random random = new Random(0);
+        BaseDeDatosTarjetas bdd = new BaseDeDatosTarjetas();
+        for (int i = 0; i < TARJETAS; i++)
+            bdd.agregaRegistro(new Tarjeta(
+                "Propietario " + random.nextInt(TARJETAS),
+                String.format("%016d", i), 100 + random.nextInt(900),
+                String.format("%02d/%02d", 1 + random.nextInt(12),
+                              22 + random.nextInt(78)),
+                random.nextInt(2000000) / 10.0));
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(archivo), "UTF-8"));
+        bdd.guarda(out);
+        out.close();
+    }
+
+    /* Borra el directorio temporal con sus archivos. */
+    private static void borra(File directorio) {
+        File[] archivos = directorio.listFiles();
+        if (archivos != null)
+            for (File archivo : archivos)
+                archivo.delete();
+        directorio.delete();
+    }
+
+    /* Regresa un puerto libre. */
+    private static int puertoLibre() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        int puerto = s.getLocalPort();
+        s.close();
+        return puerto;
+    }
+
+    /* Espera a que el servidor acepte conexiones. */
+    private static void esperaServidor(int puerto)
+        throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            try {
+                new Socket("localhost", puerto).close();
+                return;
+            } catch (IOException ioe) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /* Detiene el servidor. */
+    private static void detieneServidor(int puerto) throws IOException {
+        Socket s = new Socket("localhost", puerto);
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(s.getOutputStream()));
+        out.write(Mensaje.DETENER_SERVICIO.toString());
+        out.newLine();
+        out.flush();
+        s.close();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2)
+            uso();
+
+        int clientes = 0;
+        long segundos = 0;
+        try {
+            clientes = Integer.parseInt(args[0]);
+            segundos = Long.parseLong(args[1]);
+        } catch (NumberFormatException nfe) {
+            uso();
+        }
+        if (clientes < 1 || segundos < 1)
+            uso();
+
+        ModeloConexiones modelo = ModeloConexiones.HILO_POR_CONEXION;
+        PoliticaDeSincronizacion politica =
+            PoliticaDeSincronizacion.CADA_OPERACION;
+        boolean binaria = false;
+        String mezcla = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("binario"))
+                binaria = true;
+            else if (args[i].contains("="))
+                mezcla = args[i];
+            else
+                try {
+                    modelo = ModeloConexiones.valueOf(args[i]);
+                } catch (IllegalArgumentException iae) {
+                    try {
+                        politica = PoliticaDeSincronizacion.valueOf(args[i]);
+                    } catch (IllegalArgumentException iae2) {
+                        uso();
+                    }
+                }
+        }
+
+        File directorio = null;
+        try {
+            int puerto = puertoLibre();
+            GeneradorDeCarga carga =
+                new GeneradorDeCarga("localhost", puerto, clientes);
+            if (mezcla != null) {
+                for (Mensaje m : Mensaje.values())
+                    try {
+                        carga.setPeso(m, 0);
+                    } catch (IllegalArgumentException iae) {}
+                for (String peso : mezcla.split(",")) {
+                    String[] partes = peso.split("=");
+                    if (partes.length != 2)
+                        uso();
+                    carga.setPeso(Mensaje.valueOf(partes[0]),
+                                  Integer.parseInt(partes[1]));
+                }
+            }
+            if (binaria)
+                carga.activaProtocoloBinario();
+
+            directorio =
+                Files.createTempDirectory("carga-proyecto3").toFile();
+            File archivo = new File(directorio, "tarjetas.db");
+            baseDeDatosInicial(archivo);
+            ServidorBaseDeDatosTarjetas servidor =
+                new ServidorBaseDeDatosTarjetas(puerto, archivo.getPath(),
+                                                politica, INTERVALO);
+            if (politica == PoliticaDeSincronizacion.CADA_OPERACION)
+                servidor.agrupaOperaciones(TAMANO_LOTE, ESPERA_LOTE);
+            servidor.usaColasDeSalida(CAPACIDAD_SALIDA,
+                                      PoliticaDeSaturacion.RESINCRONIZAR);
+            ModeloConexiones m = modelo;
+            new Thread(() -> servidor.sirve(m)).start();
+            esperaServidor(puerto);
+
+            carga.corre(CALENTAMIENTO, segundos * 1000);
+            carga.imprime(System.out);
+            detieneServidor(puerto);
+        } catch (IllegalArgumentException iae) {
+            uso();
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error al correr la carga: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            if (directorio != null)
+                borra(directorio);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package mx.unam.ciencias.icc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Clase para cargar una base de datos en paralelo. El cargador lee la entrada
+ * en bloques grandes cortados en saltos de línea, deserializa los registros de
+ * cada bloque en una alberca de hilos {@link ForkJoinPool}, y los agrega a la
+ * base de datos en bloque con {@link BaseDeDatos#cargaMasiva}, así que los
+ * escuchas de la base de datos no son notificados por cada registro.
+ *
+ * El resultado es el mismo que el de {@link BaseDeDatos#carga}: los registros
+ * quedan en el orden de la entrada, y la carga se detiene en la primera línea
+ * que no sea la serialización válida de un registro. Como los registros se
+ * crean en los hilos de la alberca, el método {@link BaseDeDatos#creaRegistro}
+ * de la base de datos debe poder llamarse desde varios hilos a la vez.
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class CargadorParalelo<R extends Registro<R, ?>> {
+
+    /** Tamaño por omisión de los bloques en que se divide la entrada. */
+    public static final int TAMANO_BLOQUE = 1024 * 1024;
+
+    /* Un bloque ya deserializado. */
+    private class Bloque {
+
+        /* Los registros del bloque. */
+        private Lista<R> registros;
+        /* Si el bloque tiene una línea inválida después de sus registros. */
+        private boolean invalido;
+
+        /* Deserializa las líneas del bloque. */
+        public Bloque(byte[] bytes, int n) {
+            registros = new Lista<R>();
+            String texto = new String(bytes, 0, n, codificacion);
+            int i = 0;
+            while (i < texto.length()) {
+                int j = texto.indexOf('\n', i);
+                if (j == -1)
+                    j = texto.length();
+                int k = (j > i && texto.charAt(j - 1) == '\r') ? j - 1 : j;
+                R registro = bdd.creaRegistro();
+                try {
+                    registro.deserializa(texto.substring(i, k));
+                } catch (ExcepcionLineaInvalida eli) {
+                    invalido = true;
+                    return;
+                }
+                registros.agregaFinal(registro);
+                i = j + 1;
+            }
+        }
+    }
+
+    /* La base de datos. */
+    private BaseDeDatos<R, ?> bdd;
+    /* La alberca de hilos. */
+    private ForkJoinPool alberca;
+    /* El tamaño de los bloques. */
+    private int tamanoBloque;
+    /* La codificación de la entrada. */
+    private Charset codificacion;
+
+    /**
+     * Construye un cargador para la base de datos recibida, que usa la
+     * alberca común de hilos, bloques de {@link #TAMANO_BLOQUE} bytes y la
+     * codificación por omisión del sistema.
+     * @param bdd la base de datos.
+     * @throws IllegalArgumentException si la base de datos es
+     *         <code>null</code>.
+     */
+    public CargadorParalelo(BaseDeDatos<R, ?> bdd) {
+        this(bdd, ForkJoinPool.commonPool(), TAMANO_BLOQUE);
+    }
+
+    /**
+     * Construye un cargador para la base de datos recibida, con la alberca de
+     * hilos y el tamaño de bloque recibidos, y la codificación por omisión
+     * del sistema.
+     * @param bdd la base de datos.
+     * @param alberca la alberca de hilos donde se deserializan los bloques.
+     * @param tamanoBloque el tamaño de los bloques en bytes; un bloque crece
+     *        si una línea no cabe en él.
+     * @throws IllegalArgumentException si la base de datos o la alberca son
+     *         <code>null</code>, o si el tamaño de bloque no es positivo.
+     */
+    public CargadorParalelo(BaseDeDatos<R, ?> bdd, ForkJoinPool alberca,
+                            int tamanoBloque) {
+        if (bdd == null || alberca == null || tamanoBloque < 1)
+            throw new IllegalArgumentException();
+        this.bdd = bdd;
+        this.alberca = alberca;
+        this.tamanoBloque = tamanoBloque;
+        codificacion = Charset.defaultCharset();
+    }
+
+    /**
+     * Carga los registros de la entrada recibida en la base de datos, que
+     * pierde los registros que tuviera antes. La entrada no se cierra.
+     * @param entrada la entrada de donde hay que cargar los registros.
+     * @return el número de registros cargados.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public int carga(InputStream entrada) throws IOException {
+        /* Se mantienen a lo más unos cuantos bloques pendientes por hilo,
+         * para no tener toda la entrada en memoria además de los
+         * registros. */
+        int maximo = 2 * alberca.getParallelism() + 1;
+        ArrayDeque<ForkJoinTask<Bloque>> pendientes = new ArrayDeque<>();
+        Lista<R> registros = new Lista<R>();
+        boolean invalido = false;
+
+        byte[] bufer = new byte[tamanoBloque];
+        int n = 0;
+        try {
+            while (!invalido) {
+                int r = entrada.read(bufer, n, bufer.length - n);
+                if (r == -1)
+                    break;
+                n += r;
+                if (n < bufer.length)
+                    continue;
+                int fin = n - 1;
+                while (fin >= 0 && bufer[fin] != '\n')
+                    fin--;
+                if (fin == -1) {
+                    bufer = Arrays.copyOf(bufer, 2 * bufer.length);
+                    continue;
+                }
+                byte[] bloque = Arrays.copyOf(bufer, fin + 1);
+                pendientes.addLast(alberca.submit(
+                    () -> new Bloque(bloque, bloque.length)));
+                n -= fin + 1;
+                System.arraycopy(bufer, fin + 1, bufer, 0, n);
+                while (!invalido && pendientes.size() >= maximo)
+                    invalido = junta(pendientes.removeFirst(), registros);
+            }
+            if (!invalido && n > 0) {
+                byte[] bloque = Arrays.copyOf(bufer, n);
+                pendientes.addLast(alberca.submit(
+                    () -> new Bloque(bloque, bloque.length)));
+            }
+            while (!invalido && !pendientes.isEmpty())
+                invalido = junta(pendientes.removeFirst(), registros);
+        } finally {
+            for (ForkJoinTask<Bloque> pendiente : pendientes)
+                pendiente.cancel(false);
+        }
+
+        bdd.cargaMasiva(registros);
+        return registros.getLongitud();
+    }
+
+    /* Espera a que el bloque termine de deserializarse y agrega sus
+     * registros a la lista; regresa si el bloque tenía una línea
+     * inválida. */
+    private boolean junta(ForkJoinTask<Bloque> tarea, Lista<R> registros) {
+        Bloque bloque = tarea.join();
+        for (R registro : bloque.registros)
+            registros.agregaFinal(registro);
+        return bloque.invalido;
+    }
+}
@@ -13,5 +13,7 @@ public enum EventoBaseDeDatos {
     /** Un registro fue eliminado. */
     REGISTRO_ELIMINADO,
     /** Un registro fue modificado. */
-    REGISTRO_MODIFICADO;
+    REGISTRO_MODIFICADO,
+    /** La base de datos fue cargada en bloque. */
+    BASE_CARGADA;
 }
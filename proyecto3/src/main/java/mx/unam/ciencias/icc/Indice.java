@@ -0,0 +1,47 @@
+package mx.unam.ciencias.icc;
+
+/**
+ * Interfaz para índices secundarios de una {@link BaseDeDatos}. Un índice
+ * asocia cada registro con el valor de uno de sus campos, y dado un valor de
+ * búsqueda regresa los registros candidatos a cazarlo, sin tener que recorrer
+ * toda la base de datos.
+ *
+ * Los candidatos no tienen que cazar el valor; la base de datos los verifica
+ * con {@link Registro#caza}. Pero todo registro que cace el valor debe estar
+ * entre los candidatos. Los candidatos pueden salir en cualquier orden; la
+ * base de datos los ordena.
+ *
+ * @param <R> El tipo de los registros.
+ */
+public interface Indice<R> {
+
+    /**
+     * Agrega un registro al índice.
+     * @param valor el valor del campo indexado del registro.
+     * @param registro el registro a agregar.
+     */
+    public void agrega(Object valor, R registro);
+
+    /**
+     * Elimina un registro del índice. El registro se compara por identidad,
+     * no con {@link Object#equals}.
+     * @param valor el valor del campo indexado del registro, el mismo con el
+     *              que fue agregado.
+     * @param registro el registro a eliminar.
+     */
+    public void elimina(Object valor, R registro);
+
+    /**
+     * Elimina todos los registros del índice.
+     */
+    public void limpia();
+
+    /**
+     * Regresa los registros candidatos a cazar el valor recibido.
+     * @param valor el valor a buscar.
+     * @return una lista con los registros candidatos, o <code>null</code> si
+     *         el índice no puede responder la búsqueda y hay que recorrer toda
+     *         la base de datos.
+     */
+    public Lista<R> candidatos(Object valor);
+}
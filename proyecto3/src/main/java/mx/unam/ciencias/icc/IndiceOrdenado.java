@@ -0,0 +1,121 @@
+package mx.unam.ciencias.icc;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>Clase para índices ordenados. El índice guarda los registros en un árbol
+ * rojinegro ordenado por el valor de su campo, y sus candidatos para un valor
+ * son los registros cuyo campo es mayor o igual a él; esto corresponde a los
+ * campos numéricos de {@link Tarjeta#caza}, donde el valor buscado debe ser
+ * menor o igual al del campo.</p>
+ *
+ * <p>Agregar y eliminar registros toma tiempo <em>O</em>(log <em>n</em>), y
+ * obtener los <em>k</em> candidatos de un valor toma tiempo <em>O</em>(log
+ * <em>n</em> + <em>k</em>). Los registros salen ordenados por el valor de su
+ * campo.</p>
+ *
+ * <p>El árbol compara los valores con {@link Comparable#compareTo}, que para
+ * los números de punto flotante distingue <code>-0.0</code> de
+ * <code>0.0</code>; los comparadores primitivos de {@link Tarjeta#caza} no
+ * lo hacen, así que el índice guarda y busca los dos ceros como
+ * <code>0.0</code>.</p>
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class IndiceOrdenado<R> implements Indice<R> {
+
+    /* El tipo de los valores del campo indexado. */
+    private Class<? extends Comparable> tipo;
+    /* Los registros, agrupados y ordenados por el valor de su campo. */
+    private TreeMap<Object, Set<R>> arbol;
+
+    /**
+     * Construye un índice ordenado para valores del tipo recibido.
+     * @param tipo el tipo de los valores del campo indexado. Los valores de
+     *             búsqueda de otro tipo no se responden con el índice.
+     * @throws IllegalArgumentException si el tipo es <code>null</code>.
+     */
+    public IndiceOrdenado(Class<? extends Comparable> tipo) {
+        if (tipo == null)
+            throw new IllegalArgumentException();
+
+        this.tipo = tipo;
+        arbol = new TreeMap<Object, Set<R>>();
+    }
+
+    /**
+     * Agrega un registro al índice. Los registros cuyo valor no es del tipo
+     * del índice (por ejemplo <code>null</code>) no se agregan, y nunca son
+     * candidatos.
+     * @param valor el valor del campo indexado del registro.
+     * @param registro el registro a agregar.
+     */
+    @Override public void agrega(Object valor, R registro) {
+        if (!tipo.isInstance(valor))
+            return;
+
+        valor = normaliza(valor);
+        Set<R> cubeta = arbol.get(valor);
+        if (cubeta == null) {
+            cubeta = Collections.newSetFromMap(new IdentityHashMap<R, Boolean>(4));
+            arbol.put(valor, cubeta);
+        }
+        cubeta.add(registro);
+    }
+
+    /**
+     * Elimina un registro del índice.
+     * @param valor el valor del campo indexado del registro.
+     * @param registro el registro a eliminar.
+     */
+    @Override public void elimina(Object valor, R registro) {
+        if (!tipo.isInstance(valor))
+            return;
+
+        valor = normaliza(valor);
+        Set<R> cubeta = arbol.get(valor);
+        if (cubeta == null)
+            return;
+
+        cubeta.remove(registro);
+        if (cubeta.isEmpty())
+            arbol.remove(valor);
+    }
+
+    /**
+     * Elimina todos los registros del índice.
+     */
+    @Override public void limpia() {
+        arbol.clear();
+    }
+
+    /**
+     * Regresa los registros cuyo campo indexado es mayor o igual al valor
+     * recibido.
+     * @param valor el valor a buscar.
+     * @return una lista con los registros cuyo campo es mayor o igual al
+     *         valor, o <code>null</code> si el valor no es del tipo del índice.
+     */
+    @Override public Lista<R> candidatos(Object valor) {
+        if (!tipo.isInstance(valor))
+            return null;
+
+        Lista<R> candidatos = new Lista<R>();
+        for (Set<R> cubeta : arbol.tailMap(normaliza(valor), true).values())
+            for (R registro : cubeta)
+                candidatos.agregaFinal(registro);
+        return candidatos;
+    }
+
+    /* Regresa el valor con -0.0 convertido en 0.0, como lo compara caza. */
+    private static Object normaliza(Object valor) {
+        if (valor instanceof Double && (Double)valor == 0.0)
+            return Double.valueOf(0.0);
+        if (valor instanceof Float && (Float)valor == 0.0f)
+            return Float.valueOf(0.0f);
+        return valor;
+    }
+}
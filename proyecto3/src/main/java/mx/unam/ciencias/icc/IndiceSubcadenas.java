@@ -0,0 +1,127 @@
+package mx.unam.ciencias.icc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * <p>Clase para índices de subcadenas. El índice parte el valor de cada
+ * registro en sus trigramas (las subcadenas de longitud 3) y guarda, para cada
+ * trigrama, el conjunto de registros que lo contienen; esto corresponde a los
+ * campos de cadena de {@link Tarjeta#caza}, donde el valor buscado debe ser
+ * una subcadena del campo.</p>
+ *
+ * <p>Una cadena de longitud tres o más sólo puede ser subcadena de un valor
+ * que contenga todos sus trigramas, así que los candidatos de una búsqueda son
+ * la intersección de los conjuntos de sus trigramas, que se calcula
+ * recorriendo el conjunto más pequeño. Las cadenas de longitud menor a tres
+ * no tienen trigramas y el índice no puede responderlas.</p>
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class IndiceSubcadenas<R> implements Indice<R> {
+
+    /* La longitud de los n-gramas. */
+    private static final int N = 3;
+
+    /* Los registros que contienen cada trigrama. */
+    private HashMap<String, Set<R>> trigramas;
+
+    /**
+     * Construye un índice de subcadenas vacío.
+     */
+    public IndiceSubcadenas() {
+        trigramas = new HashMap<String, Set<R>>();
+    }
+
+    /**
+     * Agrega un registro al índice. Los valores que no son cadenas, o que
+     * tienen longitud menor a tres, no tienen trigramas y no se agregan.
+     * @param valor el valor del campo indexado del registro.
+     * @param registro el registro a agregar.
+     */
+    @Override public void agrega(Object valor, R registro) {
+        if (!(valor instanceof String))
+            return;
+
+        String cadena = (String)valor;
+        for (int i = 0; i + N <= cadena.length(); i++) {
+            String trigrama = cadena.substring(i, i + N);
+            Set<R> conjunto = trigramas.get(trigrama);
+            if (conjunto == null) {
+                conjunto = Collections.newSetFromMap(
+                    new IdentityHashMap<R, Boolean>(4));
+                trigramas.put(trigrama, conjunto);
+            }
+            conjunto.add(registro);
+        }
+    }
+
+    /**
+     * Elimina un registro del índice.
+     * @param valor el valor del campo indexado del registro.
+     * @param registro el registro a eliminar.
+     */
+    @Override public void elimina(Object valor, R registro) {
+        if (!(valor instanceof String))
+            return;
+
+        String cadena = (String)valor;
+        for (int i = 0; i + N <= cadena.length(); i++) {
+            String trigrama = cadena.substring(i, i + N);
+            Set<R> conjunto = trigramas.get(trigrama);
+            if (conjunto == null)
+                continue;
+            conjunto.remove(registro);
+            if (conjunto.isEmpty())
+                trigramas.remove(trigrama);
+        }
+    }
+
+    /**
+     * Elimina todos los registros del índice.
+     */
+    @Override public void limpia() {
+        trigramas.clear();
+    }
+
+    /**
+     * Regresa los registros que contienen todos los trigramas del valor
+     * recibido.
+     * @param valor el valor a buscar.
+     * @return una lista con los registros que contienen todos los trigramas
+     *         del valor, o <code>null</code> si el valor no es una cadena de
+     *         longitud mayor o igual a tres.
+     */
+    @Override public Lista<R> candidatos(Object valor) {
+        if (!(valor instanceof String) || ((String)valor).length() < N)
+            return null;
+
+        String cadena = (String)valor;
+        int n = cadena.length() - N + 1;
+        @SuppressWarnings("unchecked") Set<R>[] conjuntos = new Set[n];
+        int menor = 0;
+        for (int i = 0; i < n; i++) {
+            conjuntos[i] = trigramas.get(cadena.substring(i, i + N));
+            if (conjuntos[i] == null)
+                return new Lista<R>();
+            if (conjuntos[i].size() < conjuntos[menor].size())
+                menor = i;
+        }
+
+        Lista<R> candidatos = new Lista<R>();
+        for (R registro : conjuntos[menor])
+            if (enTodos(conjuntos, registro))
+                candidatos.agregaFinal(registro);
+        return candidatos;
+    }
+
+    /* Nos dice si el registro está en todos los conjuntos. */
+    private boolean enTodos(Set<R>[] conjuntos, R registro) {
+        for (Set<R> conjunto : conjuntos)
+            if (!conjunto.contains(registro))
+                return false;
+        return true;
+    }
+}
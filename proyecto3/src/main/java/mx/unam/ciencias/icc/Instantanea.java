@@ -0,0 +1,98 @@
+package mx.unam.ciencias.icc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Clase para instantáneas de una base de datos: los registros que tenía en
+ * una versión, en orden. Una instantánea no cambia cuando la base de datos se
+ * modifica después de tomarla, así que puede recorrerse en otro hilo de
+ * ejecución mientras la base de datos sigue modificándose; sus registros no
+ * deben modificarse.
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class Instantanea<R extends Registro<R, ?>> implements Iterable<R> {
+
+    /* La versión de la base de datos. */
+    private long version;
+    /* El número de registros. */
+    private int longitud;
+    /* Los registros. */
+    private Iterable<R> registros;
+
+    /**
+     * Construye una instantánea con los registros recibidos. Los registros
+     * no deben cambiar después de construirla.
+     *
+     * @param version la versión de la base de datos.
+     * @param longitud el número de registros.
+     * @param registros los registros, en orden.
+     * @throws IllegalArgumentException si los registros son
+     *                                  <code>null</code>.
+     */
+    public Instantanea(long version, int longitud, Iterable<R> registros) {
+        if (registros == null)
+            throw new IllegalArgumentException();
+        this.version = version;
+        this.longitud = longitud;
+        this.registros = registros;
+    }
+
+    /**
+     * Regresa la versión de la base de datos cuando se tomó la instantánea.
+     *
+     * @return la versión de la base de datos.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Regresa el número de registros en la instantánea.
+     *
+     * @return el número de registros.
+     */
+    public int getLongitud() {
+        return longitud;
+    }
+
+    /**
+     * Regresa un iterador para los registros de la instantánea, en orden.
+     *
+     * @return un iterador para los registros.
+     */
+    @Override public Iterator<R> iterator() {
+        return registros.iterator();
+    }
+
+    /**
+     * Guarda los registros de la instantánea en la salida recibida, igual que
+     * {@link BaseDeDatos#guarda}.
+     *
+     * @param out la salida donde hay que guardar los registros.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public void guarda(BufferedWriter out) throws IOException {
+        guarda(registros, out);
+    }
+
+    /* Guarda los registros en la salida, serializándolos uno por uno en un
+     * mismo búfer que se reutiliza. */
+    static <R extends Registro<R, ?>> void guarda(Iterable<R> registros,
+                                                   BufferedWriter out)
+        throws IOException {
+        StringBuilder linea = new StringBuilder(128);
+        char[] bufer = new char[128];
+        for (R registro : registros) {
+            linea.setLength(0);
+            registro.serializa(linea);
+            int n = linea.length();
+            if (n > bufer.length)
+                bufer = new char[Math.max(n, 2 * bufer.length)];
+            linea.getChars(0, n, bufer, 0);
+            out.write(bufer, 0, n);
+        }
+    }
+}
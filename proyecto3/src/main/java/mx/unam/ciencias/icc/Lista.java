@@ -11,16 +11,20 @@ import java.util.NoSuchElementException;
  * eliminar elementos de la lista, comprobar si un elemento está o no en la
  * lista, y otras operaciones básicas.</p>
  *
- * <p>Las listas implementan la interfaz {@link Iterable}, y por lo tanto se
- * pueden recorrer usando la estructura de control <em>for-each</em>. Las listas
- * no aceptan a <code>null</code> como elemento.</p>
+ * <p>Las listas implementan la interfaz {@link Secuencia}, que extiende a
+ * {@link Iterable}, y por lo tanto se pueden recorrer usando la estructura de
+ * control <em>for-each</em>. Las listas no aceptan a <code>null</code> como
+ * elemento.</p>
  *
  * @param <T> El tipo de los elementos de la lista.
  */
-public class Lista<T> implements Iterable<T> {
+public class Lista<T> implements Secuencia<T> {
 
-    /* Clase interna privada para nodos. */
-    private class Nodo {
+    /*
+     * Clase interna para nodos. Es visible en el paquete para que {@link
+     * BaseDeDatos} pueda indexar los nodos de sus registros.
+     */
+    class Nodo {
         /* El elemento del nodo. */
         private T elemento;
         /* El nodo anterior. */
@@ -33,6 +37,16 @@ public class Lista<T> implements Iterable<T> {
              
             this.elemento = elemento;
         }
+
+        /* Regresa el elemento del nodo. */
+        T getElemento() {
+            return elemento;
+        }
+
+        /* Regresa el nodo siguiente. */
+        Nodo getSiguiente() {
+            return siguiente;
+        }
     }
 
     /* Clase Iterador privada para iteradores. */
@@ -139,6 +153,11 @@ public class Lista<T> implements Iterable<T> {
      */
     public void agregaFinal(T elemento) {
          
+        agregaFinalNodo(elemento);
+    }
+
+    /* Agrega un elemento al final de la lista y regresa su nodo. */
+    Nodo agregaFinalNodo(T elemento) {
         if (elemento == null)
             throw new IllegalArgumentException();
 
@@ -152,6 +171,8 @@ public class Lista<T> implements Iterable<T> {
             rabo = n;
         }
         longitud++;
+
+        return n;
     }
 
     /**
@@ -253,19 +274,7 @@ public class Lista<T> implements Iterable<T> {
         if (aux == null)
             return;
 
-        if (cabeza.equals(aux)) {
-            eliminaPrimero();
-        } else if (rabo.equals(aux)) {
-            eliminaUltimo();
-        } else {
-
-            aux.siguiente = aux.siguiente;
-            aux.siguiente.anterior = aux.anterior;
-            aux.anterior = aux.anterior;
-            aux.anterior.siguiente = aux.siguiente;
-
-            longitud--;
-        }
+        eliminaNodo(aux);
     }
 
     private Nodo auxElimina(Nodo n, Object elemento) {
@@ -278,6 +287,37 @@ public class Lista<T> implements Iterable<T> {
         return n;
     }
 
+    /*
+     * Elimina el nodo recibido de la lista en tiempo constante. El nodo debe
+     * pertenecer a la lista y no haber sido eliminado antes.
+     */
+    void eliminaNodo(Nodo n) {
+        if (n == cabeza) {
+            eliminaPrimero();
+        } else if (n == rabo) {
+            eliminaUltimo();
+        } else {
+            n.siguiente.anterior = n.anterior;
+            n.anterior.siguiente = n.siguiente;
+
+            longitud--;
+        }
+        n.anterior = n.siguiente = null;
+    }
+
+    /* Regresa el primer nodo de la lista, o null si es vacía. */
+    Nodo getPrimerNodo() {
+        return cabeza;
+    }
+
+    /* Regresa el primer nodo cuyo elemento es igual al recibido, o null. */
+    Nodo buscaNodo(T elemento) {
+        if (cabeza == null || elemento == null)
+            return null;
+
+        return auxElimina(cabeza, elemento);
+    }
+
     /**
      * Elimina el primer elemento de la lista y lo regresa.
      * @return el primer elemento de la lista antes de eliminarlo.
@@ -0,0 +1,440 @@
+package mx.unam.ciencias.icc;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Clase para listas genéricas sobre un arreglo que crece.</p>
+ *
+ * <p>Las listas sobre arreglos tienen las mismas operaciones que {@link Lista},
+ * con la misma semántica, pero guardan sus elementos contiguos en un arreglo
+ * en lugar de en nodos ligados: agregar al final no crea un objeto por
+ * elemento, obtener el <em>i</em>-ésimo elemento toma tiempo constante, y
+ * recorrer la lista no persigue referencias. A cambio, agregar o eliminar en
+ * cualquier lugar que no sea el final recorre los elementos siguientes.</p>
+ *
+ * <p>Las listas implementan la interfaz {@link Secuencia}, que extiende a
+ * {@link Iterable}, y por lo tanto se pueden recorrer usando la estructura de
+ * control <em>for-each</em>. Las listas no aceptan a <code>null</code> como
+ * elemento.</p>
+ *
+ * @param <T> El tipo de los elementos de la lista.
+ */
+public class ListaArreglo<T> implements Secuencia<T> {
+
+    /* Capacidad inicial del arreglo. */
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    /* Clase Iterador privada para iteradores. */
+    private class Iterador implements IteradorLista<T> {
+        /* El índice del elemento siguiente. */
+        private int siguiente;
+
+        /* Nos dice si hay un elemento siguiente. */
+        @Override public boolean hasNext() {
+            return siguiente < longitud;
+        }
+
+        /* Nos da el elemento siguiente. */
+        @Override public T next() {
+            if (siguiente >= longitud)
+                throw new NoSuchElementException();
+            return elemento(siguiente++);
+        }
+
+        /* Nos dice si hay un elemento anterior. */
+        @Override public boolean hasPrevious() {
+            return siguiente > 0;
+        }
+
+        /* Nos da el elemento anterior. */
+        @Override public T previous() {
+            if (siguiente <= 0)
+                throw new NoSuchElementException();
+            return elemento(--siguiente);
+        }
+
+        /* Mueve el iterador al inicio de la lista. */
+        @Override public void start() {
+            siguiente = 0;
+        }
+
+        /* Mueve el iterador al final de la lista. */
+        @Override public void end() {
+            siguiente = longitud;
+        }
+    }
+
+    /* Los elementos de la lista. */
+    private Object[] elementos;
+    /* Número de elementos en la lista. */
+    private int longitud;
+
+    /**
+     * Construye una lista vacía.
+     */
+    public ListaArreglo() {
+        this(CAPACIDAD_INICIAL);
+    }
+
+    /**
+     * Construye una lista vacía con espacio para el número de elementos
+     * recibido antes de tener que crecer.
+     * @param capacidad el número de elementos para el que hay espacio.
+     * @throws IllegalArgumentException si la capacidad es negativa.
+     */
+    public ListaArreglo(int capacidad) {
+        if (capacidad < 0)
+            throw new IllegalArgumentException();
+        elementos = new Object[capacidad];
+    }
+
+    /* Regresa el i-ésimo elemento, sin revisar el índice. */
+    @SuppressWarnings("unchecked") private T elemento(int i) {
+        return (T)elementos[i];
+    }
+
+    /* Se asegura de que quepa un elemento más, duplicando el arreglo. */
+    private void reserva() {
+        if (longitud == elementos.length)
+            elementos = Arrays.copyOf(elementos,
+                                      Math.max(CAPACIDAD_INICIAL,
+                                               2 * elementos.length));
+    }
+
+    /**
+     * Regresa la longitud de la lista.
+     * @return la longitud de la lista, el número de elementos que contiene.
+     */
+    public int getLongitud() {
+        return longitud;
+    }
+
+    /**
+     * Nos dice si la lista es vacía.
+     * @return <code>true</code> si la lista es vacía, <code>false</code> en
+     *         otro caso.
+     */
+    public boolean esVacia() {
+        return longitud == 0;
+    }
+
+    /**
+     * Agrega un elemento al final de la lista, en tiempo constante amortizado.
+     * @param elemento el elemento a agregar.
+     * @throws IllegalArgumentException si <code>elemento</code> es
+     *         <code>null</code>.
+     */
+    public void agregaFinal(T elemento) {
+        if (elemento == null)
+            throw new IllegalArgumentException();
+        reserva();
+        elementos[longitud++] = elemento;
+    }
+
+    /**
+     * Agrega un elemento al inicio de la lista, recorriendo los demás.
+     * @param elemento el elemento a agregar.
+     * @throws IllegalArgumentException si <code>elemento</code> es
+     *         <code>null</code>.
+     */
+    public void agregaInicio(T elemento) {
+        inserta(0, elemento);
+    }
+
+    /**
+     * Inserta un elemento en un índice explícito, como {@link Lista#inserta}.
+     * @param i el índice dónde insertar el elemento. Si es menor que 0 el
+     *          elemento se agrega al inicio de la lista, y si es mayor o igual
+     *          que el número de elementos en la lista se agrega al final.
+     * @param elemento el elemento a insertar.
+     * @throws IllegalArgumentException si <code>elemento</code> es
+     *         <code>null</code>.
+     */
+    public void inserta(int i, T elemento) {
+        if (elemento == null)
+            throw new IllegalArgumentException();
+        i = Math.max(0, Math.min(i, longitud));
+        reserva();
+        System.arraycopy(elementos, i, elementos, i + 1, longitud - i);
+        elementos[i] = elemento;
+        longitud++;
+    }
+
+    /* Elimina el i-ésimo elemento, recorriendo los siguientes, y lo
+     * regresa. */
+    private T eliminaIndice(int i) {
+        T t = elemento(i);
+        System.arraycopy(elementos, i + 1, elementos, i, longitud - i - 1);
+        elementos[--longitud] = null;
+        return t;
+    }
+
+    /**
+     * Elimina un elemento de la lista. Si el elemento no está contenido en la
+     * lista, el método no la modifica.
+     * @param elemento el elemento a eliminar.
+     */
+    public void elimina(T elemento) {
+        int i = indiceDe(elemento);
+        if (i != -1)
+            eliminaIndice(i);
+    }
+
+    /*
+     * Elimina la primera aparición del mismo objeto recibido, comparando
+     * referencias en lugar de usar equals; regresa si lo encontró.
+     */
+    boolean eliminaIdentico(T elemento) {
+        for (int i = 0; i < longitud; i++) {
+            if (elementos[i] == elemento) {
+                eliminaIndice(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Elimina el primer elemento de la lista y lo regresa.
+     * @return el primer elemento de la lista antes de eliminarlo.
+     * @throws NoSuchElementException si la lista es vacía.
+     */
+    public T eliminaPrimero() {
+        if (longitud == 0)
+            throw new NoSuchElementException();
+        return eliminaIndice(0);
+    }
+
+    /**
+     * Elimina el último elemento de la lista y lo regresa, en tiempo
+     * constante.
+     * @return el último elemento de la lista antes de eliminarlo.
+     * @throws NoSuchElementException si la lista es vacía.
+     */
+    public T eliminaUltimo() {
+        if (longitud == 0)
+            throw new NoSuchElementException();
+        return eliminaIndice(longitud - 1);
+    }
+
+    /**
+     * Nos dice si un elemento está en la lista.
+     * @param elemento el elemento que queremos saber si está en la lista.
+     * @return <code>true</code> si <code>elemento</code> está en la lista,
+     *         <code>false</code> en otro caso.
+     */
+    public boolean contiene(T elemento) {
+        return indiceDe(elemento) != -1;
+    }
+
+    /**
+     * Regresa la reversa de la lista.
+     * @return una nueva lista que es la reversa la que manda llamar el método.
+     */
+    public ListaArreglo<T> reversa() {
+        ListaArreglo<T> reversa = new ListaArreglo<T>(longitud);
+        for (int i = longitud - 1; i >= 0; i--)
+            reversa.elementos[reversa.longitud++] = elementos[i];
+        return reversa;
+    }
+
+    /**
+     * Regresa una copia de la lista. La copia tiene los mismos elementos que la
+     * lista que manda llamar el método, en el mismo orden.
+     * @return una copia de la lista.
+     */
+    public ListaArreglo<T> copia() {
+        ListaArreglo<T> copia = new ListaArreglo<T>(longitud);
+        System.arraycopy(elementos, 0, copia.elementos, 0, longitud);
+        copia.longitud = longitud;
+        return copia;
+    }
+
+    /**
+     * Limpia la lista de elementos, dejándola vacía.
+     */
+    public void limpia() {
+        Arrays.fill(elementos, 0, longitud, null);
+        longitud = 0;
+    }
+
+    /**
+     * Regresa el primer elemento de la lista.
+     * @return el primer elemento de la lista.
+     * @throws NoSuchElementException si la lista es vacía.
+     */
+    public T getPrimero() {
+        if (longitud == 0)
+            throw new NoSuchElementException();
+        return elemento(0);
+    }
+
+    /**
+     * Regresa el último elemento de la lista.
+     * @return el último elemento de la lista.
+     * @throws NoSuchElementException si la lista es vacía.
+     */
+    public T getUltimo() {
+        if (longitud == 0)
+            throw new NoSuchElementException();
+        return elemento(longitud - 1);
+    }
+
+    /**
+     * Regresa el <em>i</em>-ésimo elemento de la lista, en tiempo constante.
+     * @param i el índice del elemento que queremos.
+     * @return el <em>i</em>-ésimo elemento de la lista.
+     * @throws ExcepcionIndiceInvalido si <em>i</em> es menor que cero o mayor o
+     *         igual que el número de elementos en la lista.
+     */
+    public T get(int i) {
+        if (i < 0 || i >= longitud)
+            throw new ExcepcionIndiceInvalido();
+        return elemento(i);
+    }
+
+    /**
+     * Regresa el índice del elemento recibido en la lista.
+     * @param elemento el elemento del que se busca el índice.
+     * @return el índice del elemento recibido en la lista, o -1 si el elemento
+     *         no está contenido en la lista.
+     */
+    public int indiceDe(T elemento) {
+        if (elemento == null)
+            return -1;
+        for (int i = 0; i < longitud; i++)
+            if (elementos[i].equals(elemento))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Regresa una representación en cadena de la lista.
+     * @return una representación en cadena de la lista.
+     */
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < longitud; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(elementos[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Nos dice si la lista es igual al objeto recibido.
+     * @param objeto el objeto con el que hay que comparar.
+     * @return <code>true</code> si la lista es igual al objeto recibido;
+     *         <code>false</code> en otro caso.
+     */
+    @Override public boolean equals(Object objeto) {
+        if (objeto == null || getClass() != objeto.getClass())
+            return false;
+        @SuppressWarnings("unchecked") ListaArreglo<T> lista =
+            (ListaArreglo<T>)objeto;
+        if (longitud != lista.longitud)
+            return false;
+        for (int i = 0; i < longitud; i++)
+            if (!elementos[i].equals(lista.elementos[i]))
+                return false;
+        return true;
+    }
+
+    /**
+     * Regresa un iterador para recorrer la lista en una dirección.
+     * @return un iterador para recorrer la lista en una dirección.
+     */
+    @Override public Iterator<T> iterator() {
+        return new Iterador();
+    }
+
+    /**
+     * Regresa un iterador para recorrer la lista en ambas direcciones.
+     * @return un iterador para recorrer la lista en ambas direcciones.
+     */
+    public IteradorLista<T> iteradorLista() {
+        return new Iterador();
+    }
+
+    /**
+     * Regresa una copia de la lista, pero ordenada. El ordenamiento es
+     * estable, como el de {@link Lista#mergeSort}, y mezcla de abajo hacia
+     * arriba entre dos arreglos, sin crear listas intermedias.
+     * @param comparador el comparador que la lista usará para hacer el
+     *                   ordenamiento.
+     * @return una copia de la lista, pero ordenada.
+     */
+    @SuppressWarnings("unchecked")
+    public ListaArreglo<T> mergeSort(Comparator<T> comparador) {
+        Object[] a = Arrays.copyOf(elementos, longitud);
+        Object[] b = new Object[longitud];
+        for (int ancho = 1; ancho < longitud; ancho *= 2) {
+            for (int i = 0; i < longitud; i += 2 * ancho) {
+                int m = Math.min(i + ancho, longitud);
+                int f = Math.min(i + 2 * ancho, longitud);
+                int p = i, q = m, k = i;
+                while (p < m && q < f)
+                    b[k++] = comparador.compare((T)a[p], (T)a[q]) <= 0 ?
+                        a[p++] : a[q++];
+                while (p < m)
+                    b[k++] = a[p++];
+                while (q < f)
+                    b[k++] = a[q++];
+            }
+            Object[] t = a;
+            a = b;
+            b = t;
+        }
+        ListaArreglo<T> ordenada = new ListaArreglo<T>(0);
+        ordenada.elementos = a;
+        ordenada.longitud = longitud;
+        return ordenada;
+    }
+
+    /**
+     * Regresa una copia de la lista recibida, pero ordenada. La lista recibida
+     * tiene que contener nada más elementos que implementan la interfaz {@link
+     * Comparable}.
+     * @param <T> tipo del que puede ser la lista.
+     * @param lista la lista que se ordenará.
+     * @return una copia de la lista recibida, pero ordenada.
+     */
+    public static <T extends Comparable<T>>
+    ListaArreglo<T> mergeSort(ListaArreglo<T> lista) {
+        return lista.mergeSort((a, b) -> a.compareTo(b));
+    }
+
+    /**
+     * Busca un elemento en la lista ordenada, usando el comparador recibido. El
+     * método supone que la lista está ordenada usando el mismo comparador.
+     * @param elemento el elemento a buscar.
+     * @param comparador el comparador con el que la lista está ordenada.
+     * @return <code>true</code> si el elemento está contenido en la lista,
+     *         <code>false</code> en otro caso.
+     */
+    public boolean busquedaLineal(T elemento, Comparator<T> comparador) {
+        for (int i = 0; i < longitud; i++)
+            if (comparador.compare(elemento(i), elemento) == 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Busca un elemento en una lista ordenada. La lista recibida tiene que
+     * contener nada más elementos que implementan la interfaz {@link
+     * Comparable}, y se da por hecho que está ordenada.
+     * @param <T> tipo del que puede ser la lista.
+     * @param lista la lista donde se buscará.
+     * @param elemento el elemento a buscar.
+     * @return <code>true</code> si el elemento está contenido en la lista,
+     *         <code>false</code> en otro caso.
+     */
+    public static <T extends Comparable<T>>
+    boolean busquedaLineal(ListaArreglo<T> lista, T elemento) {
+        return lista.busquedaLineal(elemento, (a, b) -> a.compareTo(b));
+    }
+}
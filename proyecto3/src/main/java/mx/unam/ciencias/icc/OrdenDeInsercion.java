@@ -0,0 +1,64 @@
+package mx.unam.ciencias.icc;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Clase para recordar el orden de los registros de una base de datos. Los
+ * índices guardan sus registros en conjuntos por identidad, que se recorren
+ * en un orden que cambia de una ejecución a otra; con esta clase la base de
+ * datos ordena los candidatos de un índice en el orden en que se agregaron
+ * los registros. Modificar un registro no cambia su lugar, así que es el
+ * mismo orden en que la base de datos guarda sus registros.
+ *
+ * @param <R> El tipo de los registros.
+ */
+class OrdenDeInsercion<R> {
+
+    /* El número de inserción de cada registro. */
+    private IdentityHashMap<R, Long> orden;
+    /* El número de la siguiente inserción. */
+    private long siguiente;
+
+    /* Construye un orden de inserción vacío. */
+    OrdenDeInsercion() {
+        orden = new IdentityHashMap<R, Long>();
+    }
+
+    /* Registra la inserción de un registro al final. */
+    void agrega(R registro) {
+        orden.put(registro, siguiente++);
+    }
+
+    /* Olvida la inserción de un registro. */
+    void elimina(R registro) {
+        orden.remove(registro);
+    }
+
+    /* Le da al registro nuevo el número de inserción del anterior. */
+    void reemplaza(R anterior, R nuevo) {
+        Long n = orden.remove(anterior);
+        if (n != null)
+            orden.put(nuevo, n);
+    }
+
+    /* Olvida todas las inserciones. */
+    void limpia() {
+        orden.clear();
+        siguiente = 0;
+    }
+
+    /* Regresa una lista con los registros en el orden en que se
+     * insertaron. */
+    Lista<R> ordena(Lista<R> registros) {
+        if (registros.getLongitud() < 2)
+            return registros;
+        return registros.mergeSort((a, b) -> Long.compare(numero(a),
+                                                          numero(b)));
+    }
+
+    /* Regresa el número de inserción de un registro. */
+    private long numero(R registro) {
+        Long n = orden.get(registro);
+        return n == null ? Long.MAX_VALUE : n;
+    }
+}
@@ -1,5 +1,9 @@
 package mx.unam.ciencias.icc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Interfaz para registros. Los registros deben de poder serializarse a y
  * deserializarse de una línea de texto. También deben poder determinar si sus
@@ -21,6 +25,17 @@ public interface Registro<R, C extends Enum> {
      */
     public String serializa();
 
+    /**
+     * Agrega el registro serializado al final del búfer recibido. La línea
+     * agregada es la misma que regresa {@link Registro#serializa}; las clases
+     * que implementen la interfaz pueden sobrecargar este método para no crear
+     * una cadena nueva por cada registro.
+     * @param bufer el búfer al que se agrega la serialización del registro.
+     */
+    public default void serializa(StringBuilder bufer) {
+        bufer.append(serializa());
+    }
+
     /**
      * Deserializa una línea de texto en las propiedades del registro. La
      * serialización producida por el método {@link Registro#serializa} debe
@@ -31,12 +46,48 @@ public interface Registro<R, C extends Enum> {
      */
     public void deserializa(String linea);
 
+    /**
+     * Escribe el registro en una salida binaria. Lo escrito debe ser aceptado
+     * por el método {@link Registro#lee}. Por omisión se escribe la
+     * serialización del registro; las clases que implementen la interfaz
+     * pueden sobrecargar este método para escribir sus campos con un ancho
+     * fijo.
+     * @param salida la salida binaria.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public default void escribe(DataOutput salida) throws IOException {
+        salida.writeUTF(serializa());
+    }
+
+    /**
+     * Lee las propiedades del registro de una entrada binaria. Lo escrito por
+     * el método {@link Registro#escribe} debe ser aceptado por este método.
+     * @param entrada la entrada binaria.
+     * @throws IOException si ocurre un error de entrada/salida, o si lo leído
+     *         no es un registro válido.
+     */
+    public default void lee(DataInput entrada) throws IOException {
+        try {
+            deserializa(entrada.readUTF());
+        } catch (ExcepcionLineaInvalida eli) {
+            throw new IOException(eli);
+        }
+    }
+
     /**
      * Actualiza los valores del registro con los del registro recibido.
      * @param registro el registro con el cual actualizar los valores.
      */
     public void actualiza(R registro);
 
+    /**
+     * Regresa el valor del campo especificado del registro.
+     * @param campo el campo del que se quiere el valor.
+     * @return el valor del campo especificado.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    public Object getValor(C campo);
+
     /**
      * Nos dice si el registro caza el valor dado en el campo especificado.
      * @param campo el campo que hay que cazar.
@@ -3,6 +3,9 @@ package mx.unam.ciencias.icc;
 import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import mx.unam.ciencias.icc.red.ModeloConexiones;
+import mx.unam.ciencias.icc.red.PoliticaDeSaturacion;
+import mx.unam.ciencias.icc.red.PoliticaDeSincronizacion;
 import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
 
 /**
@@ -11,6 +14,13 @@ import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
  */
 public class ServidorProyecto3 {
 
+    /* Tamaño máximo de los lotes de modificaciones. */
+    private static final int TAMANO_LOTE = 64;
+    /* Espera máxima por modificaciones para un lote, en milisegundos. */
+    private static final long ESPERA_LOTE = 2;
+    /* Máximo de envíos pendientes por conexión. */
+    private static final int CAPACIDAD_SALIDA = 1024;
+
     /* Imprime un mensaje de cómo usar el programa. */
     private static void uso() {
         System.out.println("Uso: ./bin/cliente-proyecto3 " +
@@ -40,9 +50,14 @@ public class ServidorProyecto3 {
 
         try {
             ServidorBaseDeDatosTarjetas servidor;
-            servidor = new ServidorBaseDeDatosTarjetas(puerto, archivo);
+            servidor = new ServidorBaseDeDatosTarjetas(
+                puerto, archivo, PoliticaDeSincronizacion.CADA_OPERACION, 0);
+            servidor.agrupaOperaciones(TAMANO_LOTE, ESPERA_LOTE);
+            servidor.usaColasDeSalida(CAPACIDAD_SALIDA,
+                                      PoliticaDeSaturacion.RESINCRONIZAR);
+            servidor.comprimeInstantaneas();
             servidor.agregaEscucha((f, p) -> bitacora(f, p));
-            servidor.sirve();
+            servidor.sirve(ModeloConexiones.HILOS_VIRTUALES);
         } catch (IOException ioe) {
             bitacora("Error al crear el servidor.");
         }
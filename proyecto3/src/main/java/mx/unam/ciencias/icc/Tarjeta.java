@@ -1,5 +1,8 @@
 package mx.unam.ciencias.icc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleDoubleProperty;
@@ -15,6 +18,10 @@ import javafx.beans.property.StringProperty;
  * puede serializarse en una línea de texto y deserializarse de una línea de
  * texto; además de determinar si sus campos cazan valores arbitrarios y
  * actualizarse con los valores de otra tarjeta.
+ *
+ * Las propiedades de JavaFX permiten a la interfaz gráfica observar la
+ * tarjeta; el servidor usa en su lugar {@link TarjetaCompacta}, con los mismos
+ * campos y la misma serialización.
  */
 public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
 
@@ -51,6 +58,42 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
         this.saldo = new SimpleDoubleProperty(saldo);
     }
 
+    /**
+     * Define el estado inicial de una tarjeta con los campos de la tarjeta
+     * compacta recibida, como la recibe el cliente del servidor.
+     *
+     * @param tarjeta la tarjeta compacta.
+     * @throws IllegalArgumentException si la tarjeta es <code>null</code>.
+     */
+    public Tarjeta(TarjetaCompacta tarjeta) {
+        this(null, null, 0, null, 0);
+        if (tarjeta == null)
+            throw new IllegalArgumentException();
+        asigna(tarjeta);
+    }
+
+    /* Asigna a las propiedades los campos de la tarjeta compacta. */
+    private void asigna(TarjetaCompacta t) {
+        nombreDelPropietario.set(t.getNombreDelPropietario());
+        numeroDeTarjeta.set(t.getNumeroDeTarjeta());
+        codigoDeSeguridad.set(t.getCodigoDeSeguridad());
+        fechaDeVencimiento.set(t.getFechaDeVencimiento());
+        saldo.set(t.getSaldo());
+    }
+
+    /**
+     * Regresa una tarjeta compacta con los mismos campos que la tarjeta, sin
+     * las propiedades de JavaFX.
+     *
+     * @return una tarjeta compacta con los mismos campos.
+     */
+    public TarjetaCompacta compacta() {
+        return new TarjetaCompacta(nombreDelPropietario.get(),
+                                   numeroDeTarjeta.get(),
+                                   codigoDeSeguridad.get(),
+                                   fechaDeVencimiento.get(), saldo.get());
+    }
+
     /**
      * Regresa el nombre del propietario.
      * 
@@ -232,6 +275,21 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
                 && tNew.saldo.get() == saldo.get());
     }
 
+    /**
+     * Regresa un código de dispersión para la tarjeta, congruente con {@link
+     * #equals}.
+     *
+     * @return un código de dispersión para la tarjeta.
+     */
+    @Override
+    public int hashCode() {
+
+        String numero = numeroDeTarjeta.get();
+        int h = numero == null ? 0 : numero.hashCode();
+        h = 31 * h + codigoDeSeguridad.get();
+        return 31 * h + Double.hashCode(saldo.get());
+    }
+
     /**
      * Regresa la tarjeta serializada en una línea de texto. La línea de texto
      * que este método regresa debe ser aceptada por el método
@@ -241,19 +299,31 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
      */
     @Override
     public String serializa() {
-        String linea = String.format("%s\t%s\t%d\t%s\t%2.2f\n",
-                nombreDelPropietario.get(),
-                numeroDeTarjeta.get(),
-                codigoDeSeguridad.get(),
-                fechaDeVencimiento.get(),
-                saldo.get());
-        return linea;
+        StringBuilder linea = new StringBuilder(64);
+        serializa(linea);
+        return linea.toString();
+    }
+
+    /**
+     * Agrega la tarjeta serializada al final del búfer recibido, sin crear
+     * cadenas intermedias. La línea agregada es la misma que regresa
+     * {@link Tarjeta#serializa}.
+     *
+     * @param bufer el búfer al que se agrega la serialización de la tarjeta.
+     */
+    @Override
+    public void serializa(StringBuilder bufer) {
+        TarjetaCompacta.serializa(bufer, nombreDelPropietario.get(),
+                                  numeroDeTarjeta.get(),
+                                  codigoDeSeguridad.get(),
+                                  fechaDeVencimiento.get(), saldo.get());
     }
 
     /**
      * Deserializa una línea de texto en las propiedades de la tarjeta. La
      * serialización producida por el método {@link Tarjeta#serializa} debe ser
-     * aceptada por este método.
+     * aceptada por este método. La línea se separa igual que en {@link
+     * TarjetaCompacta#deserializa}.
      * 
      * @param linea la línea a deserializar.
      * @throws ExcepcionLineaInvalida si la línea recibida es nula, vacía o no es
@@ -261,25 +331,44 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
      */
     @Override
     public void deserializa(String linea) {
+        TarjetaCompacta t = new TarjetaCompacta(null, null, 0, null, 0);
+        t.deserializa(linea);
+        asigna(t);
+    }
 
-        if (linea == null || linea.equals(""))
-            throw new ExcepcionLineaInvalida();
-        try {
-
-            String[] Newliena = linea.split("\t");
+    /**
+     * Escribe la tarjeta en una salida binaria: las cadenas en UTF-8
+     * modificado, el código de seguridad en cuatro bytes y el saldo en ocho.
+     * Lo escrito debe ser aceptado por el método {@link Tarjeta#lee}.
+     * 
+     * @param salida la salida binaria.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override
+    public void escribe(DataOutput salida) throws IOException {
 
-            if (Newliena.length != 5)
-                throw new ExcepcionLineaInvalida();
+        salida.writeUTF(nombreDelPropietario.get());
+        salida.writeUTF(numeroDeTarjeta.get());
+        salida.writeInt(codigoDeSeguridad.get());
+        salida.writeUTF(fechaDeVencimiento.get());
+        salida.writeDouble(saldo.get());
+    }
 
-            nombreDelPropietario.set(Newliena[0].strip());
-            numeroDeTarjeta.set(Newliena[1].strip());
-            codigoDeSeguridad.set(Integer.parseInt(Newliena[2].strip()));
-            fechaDeVencimiento.set(Newliena[3].strip());
-            saldo.set(Double.parseDouble(Newliena[4].strip()));
+    /**
+     * Lee las propiedades de la tarjeta de una entrada binaria. Lo escrito por
+     * el método {@link Tarjeta#escribe} debe ser aceptado por este método.
+     * 
+     * @param entrada la entrada binaria.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override
+    public void lee(DataInput entrada) throws IOException {
 
-        } catch (NumberFormatException e) {
-            throw new ExcepcionLineaInvalida();
-        }
+        nombreDelPropietario.set(entrada.readUTF());
+        numeroDeTarjeta.set(entrada.readUTF());
+        codigoDeSeguridad.set(entrada.readInt());
+        fechaDeVencimiento.set(entrada.readUTF());
+        saldo.set(entrada.readDouble());
     }
 
     /**
@@ -301,6 +390,38 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
         saldo.set(t.saldo.get());
     }
 
+    /**
+     * Regresa el valor del campo especificado de la tarjeta.
+     * 
+     * @param campo el campo del que se quiere el valor.
+     * @return el valor del campo especificado: una {@link String} para el
+     *         nombre del propietario, el número de tarjeta y la fecha de
+     *         vencimiento; un {@link Integer} para el código de seguridad y un
+     *         {@link Double} para el saldo.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    @Override
+    public Object getValor(CampoTarjeta campo) {
+        if (campo == null)
+            throw new IllegalArgumentException();
+
+        switch (campo) {
+
+            case NOMBRE_DEL_PROPIETARIO:
+                return nombreDelPropietario.get();
+            case NUMERO_DE_TARJETA:
+                return numeroDeTarjeta.get();
+            case CODIGO_DE_SEGURIDAD:
+                return codigoDeSeguridad.get();
+            case FECHA_DE_VENCIMIENTO:
+                return fechaDeVencimiento.get();
+            case SALDO:
+                return saldo.get();
+            default:
+                return null;
+        }
+    }
+
     /**
      * Nos dice si la tarjeta caza el valor dado en el campo especificado.
      * 
@@ -331,33 +452,9 @@ public class Tarjeta implements Registro<Tarjeta, CampoTarjeta> {
      */
     @Override
     public boolean caza(CampoTarjeta campo, Object valor) {
-        if (campo == null)
-            throw new IllegalArgumentException();
-        if (valor == null)
-            return false;
-
-        CampoTarjeta enumeracion = (CampoTarjeta) campo;
-
-        switch (enumeracion) {
-
-            case NOMBRE_DEL_PROPIETARIO:
-                return (valor instanceof String
-                        && !valor.equals("")
-                        && this.nombreDelPropietario.get().contains((String) valor));
-            case NUMERO_DE_TARJETA:
-                return (valor instanceof String
-                        && !valor.equals("")
-                        && this.numeroDeTarjeta.get().contains((String) valor));
-            case CODIGO_DE_SEGURIDAD:
-                return (valor instanceof Integer && ((Integer) valor) <= this.codigoDeSeguridad.get());
-            case FECHA_DE_VENCIMIENTO:
-                return (valor instanceof String
-                        && !valor.equals("")
-                        && this.fechaDeVencimiento.get().contains((String) valor));
-            case SALDO:
-                return (valor instanceof Double && ((Double) valor) <= this.saldo.get());
-            default:
-                return false;
-        }
+        return TarjetaCompacta.caza(campo, valor, nombreDelPropietario.get(),
+                                    numeroDeTarjeta.get(),
+                                    codigoDeSeguridad.get(),
+                                    fechaDeVencimiento.get(), saldo.get());
     }
 }
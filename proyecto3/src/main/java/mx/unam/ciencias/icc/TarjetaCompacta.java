@@ -0,0 +1,431 @@
+package mx.unam.ciencias.icc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * Clase para representar tarjetas bancarias de débito en el servidor. Tiene
+ * los mismos campos, la misma serialización y la misma forma de cazar valores
+ * que {@link Tarjeta}, pero sus campos son cadenas y primitivos en lugar de
+ * propiedades de JavaFX, así que ocupa mucho menos memoria y no depende de
+ * JavaFX. {@link Tarjeta} se queda para el cliente, donde la interfaz gráfica
+ * necesita las propiedades, y se convierte de y a esta clase con {@link
+ * Tarjeta#Tarjeta(TarjetaCompacta)} y {@link Tarjeta#compacta}.
+ *
+ * Los campos de la tarjeta no tienen métodos para definirse: sólo cambian con
+ * los métodos de {@link Registro} que la base de datos usa para cargarla o
+ * modificarla.
+ */
+public class TarjetaCompacta implements Registro<TarjetaCompacta, CampoTarjeta> {
+
+    /* Clase interna privada para los símbolos de formato de un lugar. */
+    private static class Simbolos {
+
+        /* El lugar de los símbolos. */
+        private Locale lugar;
+        /* El dígito cero. */
+        private char cero;
+        /* El separador decimal. */
+        private char separador;
+
+        /* Obtiene los símbolos de formato del lugar recibido. */
+        private Simbolos(Locale lugar) {
+            DecimalFormatSymbols simbolos =
+                DecimalFormatSymbols.getInstance(lugar);
+            this.lugar = lugar;
+            cero = simbolos.getZeroDigit();
+            separador = simbolos.getDecimalSeparator();
+        }
+    }
+
+    /* Los símbolos del último lugar de formato usado para serializar; se
+     * vuelven a obtener sólo si el lugar por omisión cambia. */
+    private static volatile Simbolos simbolos =
+        new Simbolos(Locale.getDefault(Locale.Category.FORMAT));
+
+    /* Nombre del propietario. */
+    private String nombreDelPropietario;
+    /* Número de tarjeta. */
+    private String numeroDeTarjeta;
+    /* Código de seguridad. */
+    private int codigoDeSeguridad;
+    /* Fecha de vencimiento. */
+    private String fechaDeVencimiento;
+    /* Saldo de la tarjeta. */
+    private double saldo;
+
+    /**
+     * Define el estado inicial de una tarjeta.
+     *
+     * @param nombreDelPropietario el nombre del propietario.
+     * @param numeroDeTarjeta      el número de tarjeta.
+     * @param codigoDeSeguridad    el código de seguridad.
+     * @param fechaDeVencimiento   la fecha de vencimiento.
+     * @param saldo                el saldo de la tarjeta.
+     */
+    public TarjetaCompacta(String nombreDelPropietario,
+                           String numeroDeTarjeta,
+                           int codigoDeSeguridad,
+                           String fechaDeVencimiento,
+                           double saldo) {
+        asigna(nombreDelPropietario, numeroDeTarjeta, codigoDeSeguridad,
+               fechaDeVencimiento, saldo);
+    }
+
+    /* Asigna todos los campos de la tarjeta. */
+    void asigna(String nombreDelPropietario, String numeroDeTarjeta,
+                int codigoDeSeguridad, String fechaDeVencimiento,
+                double saldo) {
+        this.nombreDelPropietario = nombreDelPropietario;
+        this.numeroDeTarjeta = numeroDeTarjeta;
+        this.codigoDeSeguridad = codigoDeSeguridad;
+        this.fechaDeVencimiento = fechaDeVencimiento;
+        this.saldo = saldo;
+    }
+
+    /**
+     * Regresa el nombre del propietario.
+     *
+     * @return el nombre del propietario.
+     */
+    public String getNombreDelPropietario() {
+        return nombreDelPropietario;
+    }
+
+    /**
+     * Regresa el número de tarjeta.
+     *
+     * @return el número de tarjeta.
+     */
+    public String getNumeroDeTarjeta() {
+        return numeroDeTarjeta;
+    }
+
+    /**
+     * Regresa el código de seguridad.
+     *
+     * @return el código de seguridad.
+     */
+    public int getCodigoDeSeguridad() {
+        return codigoDeSeguridad;
+    }
+
+    /**
+     * Regresa la fecha de vencimiento.
+     *
+     * @return la fecha de vencimiento.
+     */
+    public String getFechaDeVencimiento() {
+        return fechaDeVencimiento;
+    }
+
+    /**
+     * Regresa el saldo.
+     *
+     * @return el saldo.
+     */
+    public double getSaldo() {
+        return saldo;
+    }
+
+    /**
+     * Regresa una representación en cadena de la tarjeta, la misma que la de
+     * {@link Tarjeta#toString}.
+     *
+     * @return una representación en cadena de la tarjeta.
+     */
+    @Override
+    public String toString() {
+        return String.format("Nombre del propietario : %s\n" +
+                             "Número de tarjeta      : %s\n" +
+                             "Código de seguridad    : %03d\n" +
+                             "Fecha de vencimiento   : %s\n" +
+                             "Saldo                  : %2.2f",
+                             nombreDelPropietario, numeroDeTarjeta,
+                             codigoDeSeguridad, fechaDeVencimiento, saldo);
+    }
+
+    /**
+     * Nos dice si el objeto recibido es una tarjeta compacta igual a la que
+     * manda llamar el método.
+     *
+     * @param objeto el objeto con el que la tarjeta se comparará.
+     * @return <code>true</code> si el objeto recibido es una tarjeta compacta
+     *         con los mismos campos que el objeto que manda llamar al método,
+     *         <code>false</code> en otro caso.
+     */
+    @Override
+    public boolean equals(Object objeto) {
+        if (!(objeto instanceof TarjetaCompacta))
+            return false;
+        TarjetaCompacta t = (TarjetaCompacta) objeto;
+        return t.nombreDelPropietario.equals(nombreDelPropietario)
+            && t.numeroDeTarjeta.equals(numeroDeTarjeta)
+            && t.codigoDeSeguridad == codigoDeSeguridad
+            && t.fechaDeVencimiento.equals(fechaDeVencimiento)
+            && t.saldo == saldo;
+    }
+
+    /**
+     * Regresa un código de dispersión para la tarjeta, congruente con {@link
+     * #equals}.
+     *
+     * @return un código de dispersión para la tarjeta.
+     */
+    @Override
+    public int hashCode() {
+        int h = numeroDeTarjeta == null ? 0 : numeroDeTarjeta.hashCode();
+        h = 31 * h + codigoDeSeguridad;
+        return 31 * h + Double.hashCode(saldo);
+    }
+
+    /**
+     * Regresa la tarjeta serializada en una línea de texto, igual a la de
+     * {@link Tarjeta#serializa}.
+     *
+     * @return la serialización de la tarjeta en una línea de texto.
+     */
+    @Override
+    public String serializa() {
+        StringBuilder linea = new StringBuilder(64);
+        serializa(linea);
+        return linea.toString();
+    }
+
+    /**
+     * Agrega la tarjeta serializada al final del búfer recibido, sin crear
+     * cadenas intermedias.
+     *
+     * @param bufer el búfer al que se agrega la serialización de la tarjeta.
+     */
+    @Override
+    public void serializa(StringBuilder bufer) {
+        serializa(bufer, nombreDelPropietario, numeroDeTarjeta,
+                  codigoDeSeguridad, fechaDeVencimiento, saldo);
+    }
+
+    /* Agrega al búfer la serialización de una tarjeta con los campos
+     * recibidos; la comparten las dos clases de tarjetas. */
+    static void serializa(StringBuilder bufer, String nombreDelPropietario,
+                          String numeroDeTarjeta, int codigoDeSeguridad,
+                          String fechaDeVencimiento, double saldo) {
+        bufer.append(nombreDelPropietario).append('\t')
+             .append(numeroDeTarjeta).append('\t')
+             .append(codigoDeSeguridad).append('\t')
+             .append(fechaDeVencimiento).append('\t');
+        agregaSaldo(bufer, saldo);
+        bufer.append('\n');
+    }
+
+    /* Agrega el saldo con dos decimales al búfer, como lo haría el formato
+     * %2.2f. Si el saldo es no negativo y tiene a lo más dos decimales, los
+     * centavos se escriben directamente; en otro caso se usa un formateador. */
+    private static void agregaSaldo(StringBuilder bufer, double saldo) {
+        Locale lugar = Locale.getDefault(Locale.Category.FORMAT);
+        Simbolos simbolos = TarjetaCompacta.simbolos;
+        if (!simbolos.lugar.equals(lugar)) {
+            simbolos = new Simbolos(lugar);
+            TarjetaCompacta.simbolos = simbolos;
+        }
+        long centavos = Math.round(saldo * 100);
+        if (saldo >= 0 && saldo < 1e13 && centavos / 100.0 == saldo &&
+            Double.doubleToRawLongBits(saldo) != Double.doubleToRawLongBits(-0.0)
+            && simbolos.cero == '0') {
+            long decimales = centavos % 100;
+            bufer.append(centavos / 100).append(simbolos.separador);
+            if (decimales < 10)
+                bufer.append('0');
+            bufer.append(decimales);
+            return;
+        }
+        new Formatter(bufer).format("%2.2f", saldo);
+    }
+
+    /**
+     * Deserializa una línea de texto en los campos de la tarjeta. Acepta las
+     * mismas líneas que {@link Tarjeta#deserializa}: los campos se separan
+     * recorriendo la línea una sola vez, sin expresiones regulares ni
+     * arreglos intermedios.
+     *
+     * @param linea la línea a deserializar.
+     * @throws ExcepcionLineaInvalida si la línea recibida es nula, vacía o no es
+     *                                una serialización válida de una tarjeta.
+     */
+    @Override
+    public void deserializa(String linea) {
+
+        if (linea == null || linea.equals(""))
+            throw new ExcepcionLineaInvalida();
+
+        /* Como split, se ignoran los tabuladores al final de la línea. */
+        int fin = linea.length();
+        while (fin > 0 && linea.charAt(fin - 1) == '\t')
+            fin--;
+
+        int t1 = separador(linea, 0, fin);
+        int t2 = separador(linea, t1 + 1, fin);
+        int t3 = separador(linea, t2 + 1, fin);
+        int t4 = separador(linea, t3 + 1, fin);
+        int t5 = linea.indexOf('\t', t4 + 1);
+        if (t5 != -1 && t5 < fin)
+            throw new ExcepcionLineaInvalida();
+
+        try {
+            String nombre = campo(linea, 0, t1);
+            String numero = campo(linea, t1 + 1, t2);
+            int codigo = Integer.parseInt(campo(linea, t2 + 1, t3));
+            String fecha = campo(linea, t3 + 1, t4);
+            double s = Double.parseDouble(campo(linea, t4 + 1, fin));
+            asigna(nombre, numero, codigo, fecha, s);
+        } catch (NumberFormatException e) {
+            throw new ExcepcionLineaInvalida();
+        }
+    }
+
+    /* Regresa el índice del siguiente tabulador de la línea a partir de i y
+     * antes de fin. */
+    private static int separador(String linea, int i, int fin) {
+        int t = linea.indexOf('\t', i);
+        if (t == -1 || t >= fin)
+            throw new ExcepcionLineaInvalida();
+        return t;
+    }
+
+    /* Regresa el campo de la línea entre i y j, sin espacios al inicio ni al
+     * final, como lo haría strip. */
+    private static String campo(String linea, int i, int j) {
+        while (i < j && Character.isWhitespace(linea.charAt(i)))
+            i++;
+        while (j > i && Character.isWhitespace(linea.charAt(j - 1)))
+            j--;
+        return linea.substring(i, j);
+    }
+
+    /**
+     * Escribe la tarjeta en una salida binaria, igual que {@link
+     * Tarjeta#escribe}.
+     *
+     * @param salida la salida binaria.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override
+    public void escribe(DataOutput salida) throws IOException {
+        salida.writeUTF(nombreDelPropietario);
+        salida.writeUTF(numeroDeTarjeta);
+        salida.writeInt(codigoDeSeguridad);
+        salida.writeUTF(fechaDeVencimiento);
+        salida.writeDouble(saldo);
+    }
+
+    /**
+     * Lee los campos de la tarjeta de una entrada binaria, escritos por
+     * {@link #escribe} o por {@link Tarjeta#escribe}.
+     *
+     * @param entrada la entrada binaria.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override
+    public void lee(DataInput entrada) throws IOException {
+        String nombre = entrada.readUTF();
+        String numero = entrada.readUTF();
+        int codigo = entrada.readInt();
+        String fecha = entrada.readUTF();
+        asigna(nombre, numero, codigo, fecha, entrada.readDouble());
+    }
+
+    /**
+     * Actualiza los campos de la tarjeta con los de la tarjeta recibida.
+     *
+     * @param t la tarjeta con la cual actualizar los campos.
+     * @throws IllegalArgumentException si la tarjeta es <code>null</code>.
+     */
+    @Override
+    public void actualiza(TarjetaCompacta t) {
+        if (t == null)
+            throw new IllegalArgumentException();
+        asigna(t.nombreDelPropietario, t.numeroDeTarjeta, t.codigoDeSeguridad,
+               t.fechaDeVencimiento, t.saldo);
+    }
+
+    /**
+     * Regresa el valor del campo especificado de la tarjeta, como {@link
+     * Tarjeta#getValor}.
+     *
+     * @param campo el campo del que se quiere el valor.
+     * @return el valor del campo especificado.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    @Override
+    public Object getValor(CampoTarjeta campo) {
+        if (campo == null)
+            throw new IllegalArgumentException();
+        switch (campo) {
+            case NOMBRE_DEL_PROPIETARIO:
+                return nombreDelPropietario;
+            case NUMERO_DE_TARJETA:
+                return numeroDeTarjeta;
+            case CODIGO_DE_SEGURIDAD:
+                return codigoDeSeguridad;
+            case FECHA_DE_VENCIMIENTO:
+                return fechaDeVencimiento;
+            case SALDO:
+                return saldo;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Nos dice si la tarjeta caza el valor dado en el campo especificado, con
+     * las mismas reglas que {@link Tarjeta#caza}.
+     *
+     * @param campo el campo que hay que cazar.
+     * @param valor el valor con el que debe cazar el campo del registro.
+     * @return <code>true</code> si el campo de la tarjeta caza el valor,
+     *         <code>false</code> en otro caso.
+     * @throws IllegalArgumentException si el campo es <code>null</code>.
+     */
+    @Override
+    public boolean caza(CampoTarjeta campo, Object valor) {
+        return caza(campo, valor, nombreDelPropietario, numeroDeTarjeta,
+                    codigoDeSeguridad, fechaDeVencimiento, saldo);
+    }
+
+    /* Nos dice si una tarjeta con los campos recibidos caza el valor en el
+     * campo; lo comparten las dos clases de tarjetas. */
+    static boolean caza(CampoTarjeta campo, Object valor,
+                        String nombreDelPropietario, String numeroDeTarjeta,
+                        int codigoDeSeguridad, String fechaDeVencimiento,
+                        double saldo) {
+        if (campo == null)
+            throw new IllegalArgumentException();
+        if (valor == null)
+            return false;
+
+        switch (campo) {
+            case NOMBRE_DEL_PROPIETARIO:
+                return (valor instanceof String
+                        && !valor.equals("")
+                        && nombreDelPropietario.contains((String) valor));
+            case NUMERO_DE_TARJETA:
+                return (valor instanceof String
+                        && !valor.equals("")
+                        && numeroDeTarjeta.contains((String) valor));
+            case CODIGO_DE_SEGURIDAD:
+                return (valor instanceof Integer
+                        && ((Integer) valor) <= codigoDeSeguridad);
+            case FECHA_DE_VENCIMIENTO:
+                return (valor instanceof String
+                        && !valor.equals("")
+                        && fechaDeVencimiento.contains((String) valor));
+            case SALDO:
+                return (valor instanceof Double && ((Double) valor) <= saldo);
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package mx.unam.ciencias.icc.fx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.EscuchaBaseDeDatos;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+
+/**
+ * Clase para actualizar la tabla de tarjetas con los cambios de la base de
+ * datos. Los eventos de la base de datos pueden llegar desde cualquier hilo
+ * de ejecución; el actualizador sólo los encola, y los aplica a la tabla en
+ * el hilo de JavaFX una vez por cuadro, en lotes: las tarjetas agregadas
+ * seguidas se agregan juntas y las eliminadas seguidas se eliminan juntas.
+ * La tabla mantiene su orden: las tarjetas agregadas o modificadas se
+ * colocan en su lugar, sin reordenar toda la tabla. La base de datos modifica
+ * las tarjetas en su lugar, así que mientras haya modificaciones encoladas
+ * algunos renglones ya tienen sus valores nuevos fuera de su lugar, y la
+ * búsqueda binaria del lugar de un renglón no sirve; en esos cuadros las
+ * tarjetas agregadas van al final y la tabla se reordena una vez.
+ *
+ * Los eventos {@link EventoBaseDeDatos#BASE_LIMPIADA} y {@link
+ * EventoBaseDeDatos#BASE_CARGADA} descartan los cambios pendientes, que ya
+ * no importan; con el segundo la tabla se llena con todas las tarjetas de la
+ * base de datos de una vez.
+ */
+public class ActualizadorTablaTarjetas
+    implements EscuchaBaseDeDatos<Tarjeta> {
+
+    /* Máximo de cambios que se aplican en un cuadro. */
+    private static final int CAMBIOS_POR_CUADRO = 20000;
+
+    /* Clase interna privada para cambios pendientes. */
+    private static class Cambio {
+
+        /* El evento del cambio. */
+        private EventoBaseDeDatos evento;
+        /* La tarjeta del evento, o null. */
+        private Tarjeta tarjeta;
+        /* Los valores nuevos de una tarjeta modificada, o null. */
+        private Tarjeta nueva;
+        /* Las tarjetas de una carga en bloque, o null. */
+        private Lista<Tarjeta> tarjetas;
+
+        /* Construye un cambio. */
+        private Cambio(EventoBaseDeDatos evento, Tarjeta tarjeta,
+                       Tarjeta nueva, Lista<Tarjeta> tarjetas) {
+            this.evento = evento;
+            this.tarjeta = tarjeta;
+            this.nueva = nueva;
+            this.tarjetas = tarjetas;
+        }
+    }
+
+    /* La base de datos. */
+    private BaseDeDatosTarjetas bdd;
+    /* El controlador de la tabla. */
+    private ControladorTablaTarjetas tabla;
+    /* Los cambios pendientes; también es el candado del actualizador. */
+    private ArrayDeque<Cambio> pendientes;
+    /* El número de modificaciones pendientes. */
+    private int modificaciones;
+    /* Si ya se pidió aplicar los cambios pendientes. */
+    private boolean programado;
+    /* El temporizador que aplica los cambios una vez por cuadro. */
+    private AnimationTimer cuadro;
+
+    /**
+     * Construye un actualizador para la tabla y la base de datos recibidas.
+     * El actualizador no se registra como escucha de la base de datos; hay
+     * que agregarlo con {@link BaseDeDatosTarjetas#agregaEscucha}.
+     *
+     * @param bdd la base de datos.
+     * @param tabla el controlador de la tabla.
+     * @throws IllegalArgumentException si la base de datos o la tabla son
+     *                                  <code>null</code>.
+     */
+    public ActualizadorTablaTarjetas(BaseDeDatosTarjetas bdd,
+                                     ControladorTablaTarjetas tabla) {
+        if (bdd == null || tabla == null)
+            throw new IllegalArgumentException();
+        this.bdd = bdd;
+        this.tabla = tabla;
+        pendientes = new ArrayDeque<Cambio>();
+        cuadro = new AnimationTimer() {
+            @Override public void handle(long ahora) {
+                aplicaPendientes();
+            }
+        };
+    }
+
+    /**
+     * Encola el cambio en la base de datos para aplicarlo a la tabla en el
+     * siguiente cuadro.
+     *
+     * @param evento el tipo de cambio.
+     * @param tarjeta1 la tarjeta afectada, o <code>null</code>.
+     * @param tarjeta2 la tarjeta con los valores nuevos, o
+     *                 <code>null</code>.
+     */
+    @Override public void baseDeDatosModificada(EventoBaseDeDatos evento,
+                                                Tarjeta tarjeta1,
+                                                Tarjeta tarjeta2) {
+        if (tarjeta1 == null &&
+            (evento == EventoBaseDeDatos.REGISTRO_AGREGADO ||
+             evento == EventoBaseDeDatos.REGISTRO_ELIMINADO))
+            return;
+        synchronized (pendientes) {
+            switch (evento) {
+            case BASE_LIMPIADA:
+                pendientes.clear();
+                modificaciones = 0;
+                pendientes.add(new Cambio(evento, null, null, null));
+                break;
+            case BASE_CARGADA:
+                pendientes.clear();
+                modificaciones = 0;
+                pendientes.add(new Cambio(evento, null, null,
+                                          bdd.getRegistros()));
+                break;
+            case REGISTRO_MODIFICADO:
+                /* El evento llega antes de modificar la tarjeta, que puede
+                 * ser la misma que la del renglón; copiamos sus valores
+                 * anteriores para encontrar el renglón en la tabla. */
+                pendientes.add(new Cambio(evento,
+                                          new Tarjeta(tarjeta1.compacta()),
+                                          new Tarjeta(tarjeta2.compacta()),
+                                          null));
+                modificaciones++;
+                break;
+            default:
+                pendientes.add(new Cambio(evento, tarjeta1, null, null));
+            }
+            if (programado)
+                return;
+            programado = true;
+        }
+        Platform.runLater(() -> cuadro.start());
+    }
+
+    /* Aplica a la tabla un lote de los cambios pendientes; si no hay, detiene
+     * el temporizador. Si hay modificaciones pendientes, en el lote o
+     * después, la tabla puede estar desordenada: se agrega al final y se
+     * reordena al terminar. */
+    private void aplicaPendientes() {
+        ArrayList<Cambio> lote = new ArrayList<Cambio>();
+        boolean desordenada;
+        synchronized (pendientes) {
+            desordenada = modificaciones > 0;
+            while (!pendientes.isEmpty() && lote.size() < CAMBIOS_POR_CUADRO) {
+                Cambio cambio = pendientes.poll();
+                if (cambio.evento == EventoBaseDeDatos.REGISTRO_MODIFICADO)
+                    modificaciones--;
+                lote.add(cambio);
+            }
+            if (lote.isEmpty()) {
+                programado = false;
+                cuadro.stop();
+                return;
+            }
+        }
+        ArrayList<Tarjeta> agregadas = new ArrayList<Tarjeta>();
+        ArrayList<Tarjeta> eliminadas = new ArrayList<Tarjeta>();
+        for (Cambio cambio : lote) {
+            switch (cambio.evento) {
+            case BASE_LIMPIADA:
+                agregadas.clear();
+                eliminadas.clear();
+                tabla.limpiaTabla();
+                break;
+            case BASE_CARGADA:
+                agregadas.clear();
+                eliminadas.clear();
+                tabla.cargaRenglones(cambio.tarjetas);
+                break;
+            case REGISTRO_AGREGADO:
+                elimina(eliminadas);
+                agregadas.add(cambio.tarjeta);
+                break;
+            case REGISTRO_ELIMINADO:
+                agrega(agregadas, desordenada);
+                eliminadas.add(cambio.tarjeta);
+                break;
+            case REGISTRO_MODIFICADO:
+                /* Si la tabla se va a reordenar, el renglón ya tiene sus
+                 * valores nuevos y no hay que moverlo. */
+                if (desordenada)
+                    break;
+                agrega(agregadas, false);
+                elimina(eliminadas);
+                tabla.reubicaRenglon(cambio.tarjeta, cambio.nueva);
+                break;
+            }
+        }
+        agrega(agregadas, desordenada);
+        elimina(eliminadas);
+        if (desordenada)
+            tabla.reordena();
+    }
+
+    /* Agrega a la tabla las tarjetas acumuladas y vacía la lista; si la
+     * tabla está desordenada, las agrega al final. */
+    private void agrega(ArrayList<Tarjeta> agregadas, boolean desordenada) {
+        if (agregadas.isEmpty())
+            return;
+        if (desordenada)
+            tabla.agregaRenglonesAlFinal(agregadas);
+        else
+            tabla.agregaRenglones(agregadas);
+        agregadas.clear();
+    }
+
+    /* Elimina de la tabla las tarjetas acumuladas y vacía la lista. */
+    private void elimina(ArrayList<Tarjeta> eliminadas) {
+        if (eliminadas.isEmpty())
+            return;
+        tabla.eliminaRenglones(eliminadas);
+        eliminadas.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package mx.unam.ciencias.icc.fx;
+
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+
+/**
+ * Clase para búsquedas de tarjetas en un hilo de ejecución aparte del de
+ * JavaFX. La búsqueda verifica con {@link Tarjeta#caza} los candidatos que
+ * regresa {@link BaseDeDatos#getCandidatos}, así que encuentra las mismas
+ * tarjetas que {@link BaseDeDatos#buscaRegistros}, y entrega las que va
+ * encontrando por bloques en el hilo de JavaFX, mientras reporta su progreso.
+ *
+ * La búsqueda puede cancelarse con {@link #cancel}; si se cancela desde el
+ * hilo de JavaFX, no entrega ningún bloque más.
+ */
+public class BusquedaTarjetas extends Task<Integer> {
+
+    /* Número de candidatos que se verifican entre cada entrega. */
+    private static final int BLOQUE = 4096;
+
+    /* Los candidatos de la búsqueda. */
+    private Lista<Tarjeta> candidatos;
+    /* El campo por el cuál buscar. */
+    private CampoTarjeta campo;
+    /* El valor a buscar. */
+    private Object valor;
+    /* Quien recibe las tarjetas encontradas. */
+    private Consumer<Lista<Tarjeta>> encontradas;
+
+    /**
+     * Construye una búsqueda sobre los candidatos recibidos. Los candidatos
+     * deben ser una lista que nadie más modifique, como la que regresa
+     * {@link BaseDeDatos#getCandidatos}.
+     *
+     * @param candidatos los candidatos de la búsqueda.
+     * @param campo el campo por el cuál buscar.
+     * @param valor el valor a buscar.
+     * @param encontradas quien recibe, en el hilo de JavaFX, cada bloque de
+     *                    tarjetas encontradas.
+     * @throws IllegalArgumentException si los candidatos, el campo o quien
+     *                                  recibe las tarjetas son
+     *                                  <code>null</code>.
+     */
+    public BusquedaTarjetas(Lista<Tarjeta> candidatos, CampoTarjeta campo,
+                            Object valor,
+                            Consumer<Lista<Tarjeta>> encontradas) {
+        if (candidatos == null || campo == null || encontradas == null)
+            throw new IllegalArgumentException();
+        this.candidatos = candidatos;
+        this.campo = campo;
+        this.valor = valor;
+        this.encontradas = encontradas;
+    }
+
+    /**
+     * Verifica los candidatos, entregando las tarjetas encontradas por
+     * bloques de candidatos.
+     *
+     * @return el número de tarjetas encontradas.
+     */
+    @Override protected Integer call() {
+        int total = candidatos.getLongitud();
+        int revisados = 0;
+        int encontrados = 0;
+        Lista<Tarjeta> bloque = new Lista<Tarjeta>();
+        updateProgress(0, total);
+        for (Tarjeta tarjeta : candidatos) {
+            if (isCancelled())
+                return encontrados;
+            if (tarjeta.caza(campo, valor)) {
+                bloque.agregaFinal(tarjeta);
+                encontrados++;
+            }
+            if (++revisados % BLOQUE == 0) {
+                entrega(bloque);
+                bloque = new Lista<Tarjeta>();
+                updateProgress(revisados, total);
+            }
+        }
+        entrega(bloque);
+        updateProgress(total, total);
+        return encontrados;
+    }
+
+    /* Entrega un bloque de tarjetas encontradas en el hilo de JavaFX, si la
+     * búsqueda no se ha cancelado para entonces. */
+    private void entrega(Lista<Tarjeta> bloque) {
+        if (bloque.esVacia())
+            return;
+        Platform.runLater(() -> {
+            if (!isCancelled())
+                encontradas.accept(bloque);
+        });
+    }
+}
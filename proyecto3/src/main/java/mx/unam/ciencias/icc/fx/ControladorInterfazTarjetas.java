@@ -3,6 +3,8 @@ package mx.unam.ciencias.icc.fx;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -14,18 +16,32 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.CampoTarjeta;
 import mx.unam.ciencias.icc.Tarjeta;
-import mx.unam.ciencias.icc.EventoBaseDeDatos;
 import mx.unam.ciencias.icc.Lista;
 import mx.unam.ciencias.icc.red.Conexion;
 import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.Operacion;
+import mx.unam.ciencias.icc.red.PoliticaDeSaturacion;
 
 /**
  * Clase para el controlador de la ventana principal de la aplicación.
+ *
+ * Lo que el cliente envía al servidor pasa por la cola de salida de la
+ * conexión, que un solo hilo escritor vacía; cada acción del usuario se
+ * encola como una sola escritura, y el hilo de JavaFX nunca espera al
+ * servidor. Si el escritor falla, la conexión se cierra y el error se
+ * reporta cuando la conexión termina.
+ *
+ * La base de datos la modifican el hilo de JavaFX y el hilo que recibe los
+ * mensajes de la conexión. Todas sus modificaciones, y las copias que se
+ * llevan a otros hilos, se hacen con el candado del objeto de la base de
+ * datos, el mismo que usa {@link Conexion#recibeBaseDeDatos}.
  */
 public class ControladorInterfazTarjetas {
 
@@ -35,6 +51,8 @@ public class ControladorInterfazTarjetas {
     private static final String BUSQUEDA_TARJETAS_FXML = "fxml/forma-busqueda-tarjetas.fxml";
     /* Vista de la forma para agregar/editar tarjetas. */
     private static final String TARJETA_FXML = "fxml/forma-tarjeta.fxml";
+    /* Máximo de envíos pendientes en la cola de salida. */
+    private static final int CAPACIDAD_SALIDA = 4096;
 
     /* Opción de menu para conectar. */
     @FXML
@@ -66,6 +84,9 @@ public class ControladorInterfazTarjetas {
     /* El botón de buscar. */
     @FXML
     private Button botonBuscar;
+    /* La barra de progreso de las búsquedas. */
+    @FXML
+    private ProgressBar barraBusqueda;
 
     /* La ventana. */
     private Stage escenario;
@@ -79,6 +100,25 @@ public class ControladorInterfazTarjetas {
     private boolean conectado;
     /* Número de tarjetas seleccionadas. */
     private int seleccionados;
+    /* Si el servidor nos envía los cambios con versión, incluyendo los
+     * nuestros. */
+    private boolean versionada;
+    /* La época de la base de datos del servidor; 0 si no la conocemos. */
+    private volatile long epoca;
+    /* La versión de la base de datos del servidor. */
+    private volatile long version;
+    /* Las tarjetas de la última conexión, para sincronizar sólo los cambios
+     * al reconectarnos al mismo servidor; null si no hay. */
+    private Lista<Tarjeta> copia;
+    /* El servidor y el puerto de las tarjetas de la última conexión. */
+    private String servidorCopia;
+    private int puertoCopia;
+    /* El ejecutor de las búsquedas. */
+    private ExecutorService busquedas;
+    /* La última búsqueda; null si no ha habido ninguna. */
+    private BusquedaTarjetas busqueda;
+    /* El ejecutor del escritor de la cola de salida. */
+    private ExecutorService escritor;
 
     /* Inicializa el controlador. */
     @FXML
@@ -86,7 +126,17 @@ public class ControladorInterfazTarjetas {
         setSeleccionados(0);
         setConectado(false);
         bdd = new BaseDeDatosTarjetas();
-        bdd.agregaEscucha((e, r1, r2) -> manejaEventoBaseDeDatos(e, r1, r2));
+        bdd.indexaSubcadenas();
+        busquedas = Executors.newSingleThreadExecutor(r -> {
+            Thread hilo = new Thread(r, "Búsquedas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        escritor = Executors.newSingleThreadExecutor(r -> {
+            Thread hilo = new Thread(r, "Escritor");
+            hilo.setDaemon(true);
+            return hilo;
+        });
     }
 
     /* Conecta el cliente con el servidor. */
@@ -134,9 +184,43 @@ public class ControladorInterfazTarjetas {
         try {
             Socket enchufe = new Socket(servidor, puerto);
             conexion = new Conexion<Tarjeta>(bdd, enchufe);
+            versionada = true;
+            try {
+                conexion.activaProtocoloBinario();
+                conexion.activaCompresion();
+            } catch (IOException ioe) {
+                /* El servidor no conoce el protocolo binario y cerró la
+                 * conexión; nos reconectamos con el protocolo de texto. */
+                enchufe = new Socket(servidor, puerto);
+                conexion = new Conexion<Tarjeta>(bdd, enchufe);
+                versionada = false;
+            }
+            /* Un servidor lento no debe detener a la interfaz; si la cola se
+             * llena, el servidor no está leyendo y nos desconectamos. */
+            conexion.activaColaDeSalida(CAPACIDAD_SALIDA,
+                                        PoliticaDeSaturacion.DESCONECTAR,
+                                        escritor);
+            /* Los servidores que no aceptaron el protocolo binario tampoco
+             * conocen la sincronización incremental. */
+            long e = 0, v = 0;
+            if (versionada && copia != null && servidor.equals(servidorCopia)
+                && puerto == puertoCopia) {
+                synchronized (bdd) {
+                    bdd.cargaMasiva(copia);
+                }
+                e = epoca;
+                v = version;
+            }
+            copia = null;
+            epoca = 0;
             new Thread(() -> conexion.recibeMensajes()).start();
             conexion.agregaEscucha((c, m) -> mensajeRecibido(c, m));
-            conexion.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            if (versionada)
+                conexion.enviaCambios(e, v, new Lista<Operacion<Tarjeta>>());
+            else
+                conexion.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            servidorCopia = servidor;
+            puertoCopia = puerto;
         } catch (IOException ioe) {
             conexion = null;
             String mensaje = String.format("Ocurrió un error al tratar de " +
@@ -153,9 +237,17 @@ public class ControladorInterfazTarjetas {
         if (!conectado)
             return;
         setConectado(false);
+        if (busqueda != null)
+            busqueda.cancel();
         conexion.desconecta();
         conexion = null;
-        bdd.limpia();
+        /* Si conocemos la versión de las tarjetas, las guardamos para pedir
+         * sólo los cambios al reconectarnos. */
+        synchronized (bdd) {
+            if (versionada && epoca != 0)
+                copia = bdd.getRegistros();
+            bdd.limpia();
+        }
     }
 
     /* Cambia la interfaz gráfica dependiendo de hay o no conexión. */
@@ -191,10 +283,16 @@ public class ControladorInterfazTarjetas {
         controladorTablaTarjetas.enfocaTabla();
         if (!controlador.isAceptado())
             return;
-        bdd.agregaRegistro(controlador.getTarjeta());
+        /* Si el servidor nos envía nuestros cambios, los aplicamos cuando
+         * lleguen, en el orden en que él los aplica. */
+        if (!versionada) {
+            synchronized (bdd) {
+                bdd.agregaRegistro(controlador.getTarjeta());
+            }
+        }
         try {
-            conexion.enviaMensaje(Mensaje.REGISTRO_AGREGADO);
-            conexion.enviaRegistro(controlador.getTarjeta());
+            conexion.enviaOperacion(new Operacion<Tarjeta>(
+                    Mensaje.REGISTRO_AGREGADO, controlador.getTarjeta()));
         } catch (IOException ioe) {
             dialogoError("Error con el servidor",
                     "No se pudo enviar una tarjeta a agregar.");
@@ -214,14 +312,17 @@ public class ControladorInterfazTarjetas {
         if (!controlador.isAceptado())
             return;
         try {
-            conexion.enviaMensaje(Mensaje.REGISTRO_MODIFICADO);
-            conexion.enviaRegistro(tarjeta);
-            conexion.enviaRegistro(controlador.getTarjeta());
+            conexion.enviaOperacion(new Operacion<Tarjeta>(
+                    tarjeta, controlador.getTarjeta()));
         } catch (IOException ioe) {
             dialogoError("Error con el servidor",
                     "No se pudieron enviar tarjetas a modificar.");
         }
-        bdd.modificaRegistro(tarjeta, controlador.getTarjeta());
+        if (!versionada) {
+            synchronized (bdd) {
+                bdd.modificaRegistro(tarjeta, controlador.getTarjeta());
+            }
+        }
     }
 
     /* Elimina una o varias tarjetas. */
@@ -235,16 +336,31 @@ public class ControladorInterfazTarjetas {
                 "Eliminar " + sujeto,
                 "Conservar " + sujeto))
             return;
-        for (Tarjeta tarjeta : controladorTablaTarjetas.getSeleccion()) {
-            bdd.eliminaRegistro(tarjeta);
-            try {
-                conexion.enviaMensaje(Mensaje.REGISTRO_ELIMINADO);
-                conexion.enviaRegistro(tarjeta);
-            } catch (IOException ioe) {
-                dialogoError("Error con el servidor",
-                        "No se pudo enviar una tarjeta a eliminar.");
+        Lista<Tarjeta> seleccion = controladorTablaTarjetas.getSeleccion();
+        if (!versionada) {
+            synchronized (bdd) {
+                for (Tarjeta tarjeta : seleccion)
+                    bdd.eliminaRegistro(tarjeta);
             }
         }
+        try {
+            /* Los servidores que no aceptaron el protocolo binario tampoco
+             * conocen los mensajes de lotes. */
+            if (conexion.isBinaria()) {
+                conexion.enviaRegistros(Mensaje.REGISTROS_ELIMINADOS,
+                                        seleccion);
+            } else {
+                Lista<Operacion<Tarjeta>> operaciones =
+                        new Lista<Operacion<Tarjeta>>();
+                for (Tarjeta tarjeta : seleccion)
+                    operaciones.agregaFinal(new Operacion<Tarjeta>(
+                            Mensaje.REGISTRO_ELIMINADO, tarjeta));
+                conexion.enviaOperaciones(operaciones);
+            }
+        } catch (IOException ioe) {
+            dialogoError("Error con el servidor",
+                    "No se pudieron enviar las tarjetas a eliminar.");
+        }
     }
 
     /* Busca tarjetas. */
@@ -273,10 +389,7 @@ public class ControladorInterfazTarjetas {
             if (!controlador.isAceptado())
                 return;
 
-            Lista<Tarjeta> resultados = bdd.buscaRegistros(controlador.getCampo(),
-                    controlador.getValor());
-
-            controladorTablaTarjetas.seleccionaRenglones(resultados);
+            busca(controlador.getCampo(), controlador.getValor());
         } catch (IOException | IllegalStateException e) {
             String mensaje = String.format("Ocurrió un error al tratar de " +
                     "cargar el diálogo '%s'.",
@@ -285,6 +398,28 @@ public class ControladorInterfazTarjetas {
         }
     }
 
+    /*
+     * Busca tarjetas en un hilo de ejecución aparte, cancelando la búsqueda
+     * anterior, y las selecciona en la tabla conforme las encuentra. Los
+     * candidatos se copian con el candado de la base de datos, porque el hilo
+     * de la conexión puede estar modificándola.
+     */
+    private void busca(CampoTarjeta campo, Object valor) {
+        if (busqueda != null)
+            busqueda.cancel();
+        controladorTablaTarjetas.seleccionaRenglones(new Lista<Tarjeta>());
+        Lista<Tarjeta> candidatos;
+        synchronized (bdd) {
+            candidatos = bdd.getCandidatos(campo, valor);
+        }
+        busqueda = new BusquedaTarjetas(
+                candidatos, campo, valor,
+                t -> controladorTablaTarjetas.agregaSeleccion(t));
+        barraBusqueda.progressProperty().bind(busqueda.progressProperty());
+        barraBusqueda.visibleProperty().bind(busqueda.runningProperty());
+        busquedas.execute(busqueda);
+    }
+
     /* Muestra un diálogo con información del programa. */
     @FXML
     private void acercaDe(ActionEvent evento) {
@@ -306,6 +441,10 @@ public class ControladorInterfazTarjetas {
      */
     public void setControladorTablaTarjetas(ControladorTablaTarjetas controladorTablaTarjeta) {
         this.controladorTablaTarjetas = controladorTablaTarjeta;
+        /* La tabla se actualiza en lotes una vez por cuadro, y no con un
+         * Platform.runLater por cada cambio en la base de datos. */
+        bdd.agregaEscucha(new ActualizadorTablaTarjetas(
+                bdd, controladorTablaTarjeta));
 
         controladorTablaTarjeta.agregaEscuchaSeleccion(
                 n -> setSeleccionados(n));
@@ -320,26 +459,6 @@ public class ControladorInterfazTarjetas {
         this.escenario = escenario;
     }
 
-    /* Maneja un evento de cambio en la base de datos. */
-    private void manejaEventoBaseDeDatos(EventoBaseDeDatos evento,
-            Tarjeta tarjeta1,
-            Tarjeta tarjeta2) {
-        switch (evento) {
-            case BASE_LIMPIADA:
-                Platform.runLater(() -> limpiaTabla());
-                break;
-            case REGISTRO_AGREGADO:
-                Platform.runLater(() -> agregaTarjeta(tarjeta1));
-                break;
-            case REGISTRO_ELIMINADO:
-                Platform.runLater(() -> eliminaTarjeta(tarjeta1));
-                break;
-            case REGISTRO_MODIFICADO:
-                Platform.runLater(() -> reordenaTabla());
-                break;
-        }
-    }
-
     /*
      * Actualiza la interfaz dependiendo del número de renglones
      * seleccionados.
@@ -386,7 +505,16 @@ public class ControladorInterfazTarjetas {
                 manejaRegistroModificado(conexion);
                 break;
             case DESCONECTAR:
-                Platform.runLater(() -> desconectar(null));
+                /* Con o sin error, la conexión ya terminó y hay que
+                 * desconectarse; si fue un error, además se reporta. */
+                boolean fallo = conexion.getFalloDeSalida() != null;
+                Platform.runLater(() -> {
+                    if (fallo)
+                        dialogoError("Error con el servidor",
+                                "No se pudieron enviar los cambios al " +
+                                        "servidor. Se finalizó la conexión.");
+                    desconectar(null);
+                });
                 break;
             case DETENER_SERVICIO:
                 // Se ignora.
@@ -394,6 +522,15 @@ public class ControladorInterfazTarjetas {
             case ECO:
                 // Se ignora.
                 break;
+            case REGISTROS_AGREGADOS:
+                manejaRegistros(conexion, mensaje);
+                break;
+            case REGISTROS_ELIMINADOS:
+                manejaRegistros(conexion, mensaje);
+                break;
+            case SINCRONIZA:
+                manejaSincroniza(conexion);
+                break;
             case INVALIDO:
                 Platform.runLater(() -> dialogoError("Error con el servidor",
                         "Mensaje inválido recibido. " +
@@ -404,6 +541,8 @@ public class ControladorInterfazTarjetas {
 
     /* Maneja el mensaje BASE_DE_DATOS. */
     private void manejaBaseDeDatos(Conexion<Tarjeta> conexion) {
+        /* No conocemos la versión hasta el siguiente SINCRONIZA. */
+        epoca = 0;
         try {
             conexion.recibeBaseDeDatos();
         } catch (IOException ioe) {
@@ -426,10 +565,53 @@ public class ControladorInterfazTarjetas {
             Platform.runLater(() -> dialogoError("Error con el servidor", m));
             return;
         }
-        if (mensaje == Mensaje.REGISTRO_AGREGADO)
-            bdd.agregaRegistro(e);
-        else
-            bdd.eliminaRegistro(e);
+        synchronized (bdd) {
+            if (mensaje == Mensaje.REGISTRO_AGREGADO)
+                bdd.agregaRegistro(e);
+            else
+                bdd.eliminaRegistro(e);
+        }
+    }
+
+    /* Maneja los mensajes REGISTROS_AGREGADOS y REGISTROS_ELIMINADOS. */
+    private void manejaRegistros(Conexion<Tarjeta> conexion,
+            Mensaje mensaje) {
+        Lista<Tarjeta> tarjetas;
+        try {
+            tarjetas = conexion.recibeRegistros();
+        } catch (IOException ioe) {
+            String m = "No se pudieron recibir registros. " +
+                    "Se finalizará la conexión.";
+            Platform.runLater(() -> dialogoError("Error con el servidor", m));
+            return;
+        }
+        synchronized (bdd) {
+            for (Tarjeta e : tarjetas)
+                if (mensaje == Mensaje.REGISTROS_AGREGADOS)
+                    bdd.agregaRegistro(e);
+                else
+                    bdd.eliminaRegistro(e);
+        }
+    }
+
+    /* Maneja el mensaje SINCRONIZA. */
+    private void manejaSincroniza(Conexion<Tarjeta> conexion) {
+        Lista<Operacion<Tarjeta>> operaciones;
+        try {
+            operaciones = conexion.recibeOperaciones();
+        } catch (IOException ioe) {
+            epoca = 0;
+            String m = "No se pudieron recibir los cambios. " +
+                    "Se finalizará la conexión.";
+            Platform.runLater(() -> dialogoError("Error con el servidor", m));
+            return;
+        }
+        synchronized (bdd) {
+            for (Operacion<Tarjeta> operacion : operaciones)
+                operacion.aplica(bdd);
+        }
+        version = conexion.getVersion();
+        epoca = conexion.getEpoca();
     }
 
     /* Maneja el mensaje REGISTRO_MODIFICADO. */
@@ -444,7 +626,9 @@ public class ControladorInterfazTarjetas {
             Platform.runLater(() -> dialogoError("Error con el servidor", m));
             return;
         }
-        bdd.modificaRegistro(e1, e2);
+        synchronized (bdd) {
+            bdd.modificaRegistro(e1, e2);
+        }
     }
 
     /* Construye un diálogo para crear o editar una tarjeta. */
@@ -504,21 +688,6 @@ public class ControladorInterfazTarjetas {
         controladorTablaTarjetas.enfocaTabla();
     }
 
-    /* Agrega una tarjeta a la tabla. */
-    private void agregaTarjeta(Tarjeta tarjeta) {
-        controladorTablaTarjetas.agregaRenglon(tarjeta);
-    }
-
-    /* Elimina una tarjeta de la tabla. */
-    private void eliminaTarjeta(Tarjeta tarjeta) {
-        controladorTablaTarjetas.eliminaRenglon(tarjeta);
-    }
-
-    /* Reordena la tabla. */
-    private void reordenaTabla() {
-        controladorTablaTarjetas.reordena();
-    }
-
     /* Limpia la tabla. */
     private void limpiaTabla() {
         controladorTablaTarjetas.limpiaTabla();
@@ -1,5 +1,13 @@
 package mx.unam.ciencias.icc.fx;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import javafx.collections.ListChangeListener.Change;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
@@ -17,6 +25,10 @@ import mx.unam.ciencias.icc.Lista;
  */
 public class ControladorTablaTarjetas {
 
+    /* Máximo de renglones que se insertan o eliminan uno por uno; con más,
+     * se agregan juntos y se reordena la tabla, o se eliminan juntos. */
+    private static final int INSERCIONES = 64;
+
     /* La tabla. */
     @FXML
     private TableView<Tarjeta> tabla;
@@ -45,6 +57,9 @@ public class ControladorTablaTarjetas {
     private Lista<EscuchaSeleccion> escuchas;
     /* Los renglones en la tabla. */
     private ObservableList<Tarjeta> renglones;
+    /* El índice de cada renglón en la tabla, por identidad; null si la
+     * tabla cambió desde que se construyó. */
+    private IdentityHashMap<Tarjeta, Integer> indices;
 
     /* Inicializa el controlador. */
     @FXML
@@ -55,6 +70,8 @@ public class ControladorTablaTarjetas {
         seleccion = modeloSeleccion.getSelectedCells();
         ListChangeListener<TablePosition> lcl = c -> cambioEnSeleccion();
         seleccion.addListener(lcl);
+        ListChangeListener<Tarjeta> cambio = c -> indices = null;
+        renglones.addListener(cambio);
         columnaNombre.setCellValueFactory(c -> c.getValue().nombreDelPropietarioProperty());
         columnaNumTarjeta.setCellValueFactory(c -> c.getValue().numeroDeTarjetaProperty());
         columnaCodigo.setCellValueFactory(c -> c.getValue().codigoDeSeguridadProperty());
@@ -77,14 +94,61 @@ public class ControladorTablaTarjetas {
         renglones.clear();
     }
 
+    /* Regresa la posición donde hay que insertar la tarjeta para que la
+     * tabla siga ordenada: después de los renglones iguales a ella en el
+     * orden de la tabla, o al final si la tabla no está ordenada. */
+    private int posicion(Tarjeta tarjeta) {
+        Comparator<Tarjeta> orden = tabla.getComparator();
+        if (orden == null)
+            return renglones.size();
+        int a = 0, b = renglones.size();
+        while (a < b) {
+            int m = (a + b) >>> 1;
+            if (orden.compare(renglones.get(m), tarjeta) <= 0)
+                a = m + 1;
+            else
+                b = m;
+        }
+        return a;
+    }
+
+    /* Regresa el índice del renglón igual a la tarjeta buscada, que en el
+     * orden de la tabla está donde estaría la tarjeta anterior; o -1 si no
+     * está. Si la tabla no está ordenada, lo busca en todos los renglones. */
+    private int indice(Tarjeta anterior, Tarjeta buscada) {
+        Comparator<Tarjeta> orden = tabla.getComparator();
+        if (orden == null)
+            return renglones.indexOf(buscada);
+        int a = 0, b = renglones.size();
+        while (a < b) {
+            int m = (a + b) >>> 1;
+            Tarjeta renglon = renglones.get(m);
+            /* El renglón buscado puede estar fuera de orden, si se
+             * modificó; si lo encontramos, terminamos. */
+            if (renglon.equals(buscada))
+                return m;
+            if (orden.compare(renglon, anterior) < 0)
+                a = m + 1;
+            else
+                b = m;
+        }
+        for (int i = a; i < renglones.size(); i++) {
+            Tarjeta renglon = renglones.get(i);
+            if (renglon.equals(buscada))
+                return i;
+            if (orden.compare(renglon, anterior) > 0)
+                break;
+        }
+        return renglones.indexOf(buscada);
+    }
+
     /**
-     * Agrega un renglón a la tabla.
+     * Agrega un renglón a la tabla, en su lugar en el orden de la tabla.
      * 
      * @param tarjeta el renglón a agregar.
      */
     public void agregaRenglon(Tarjeta tarjeta) {
-        renglones.add(tarjeta);
-        tabla.sort();
+        renglones.add(posicion(tarjeta), tarjeta);
     }
 
     /**
@@ -93,19 +157,169 @@ public class ControladorTablaTarjetas {
      * @param tarjeta el renglón a eliminar.
      */
     public void eliminaRenglon(Tarjeta tarjeta) {
-        renglones.remove(tarjeta);
+        int i = indice(tarjeta, tarjeta);
+        if (i != -1)
+            renglones.remove(i);
+    }
+
+    /**
+     * Mueve un renglón modificado a su nuevo lugar en el orden de la tabla.
+     * 
+     * @param anterior una tarjeta con los valores que tenía el renglón
+     *                 antes de modificarse.
+     * @param tarjeta una tarjeta con los valores nuevos del renglón.
+     */
+    public void reubicaRenglon(Tarjeta anterior, Tarjeta tarjeta) {
+        if (tabla.getComparator() == null)
+            return;
+        int i = indice(anterior, tarjeta);
+        if (i == -1)
+            return;
+        Tarjeta renglon = renglones.get(i);
+        if ((i == 0 || compara(renglones.get(i - 1), renglon) <= 0) &&
+            (i == renglones.size() - 1 ||
+             compara(renglon, renglones.get(i + 1)) <= 0))
+            return;
+        renglones.remove(i);
+        renglones.add(posicion(renglon), renglon);
+    }
+
+    /* Compara dos renglones en el orden de la tabla. */
+    private int compara(Tarjeta t1, Tarjeta t2) {
+        return tabla.getComparator().compare(t1, t2);
+    }
+
+    /**
+     * Agrega varios renglones a la tabla, en su lugar en el orden de la
+     * tabla. Si son pocos se insertan uno por uno; si son muchos se agregan
+     * en un solo cambio y la tabla se reordena una vez.
+     * 
+     * @param tarjetas los renglones a agregar.
+     */
+    public void agregaRenglones(Collection<Tarjeta> tarjetas) {
+        if (tabla.getComparator() == null) {
+            renglones.addAll(tarjetas);
+        } else if (tarjetas.size() <= INSERCIONES) {
+            for (Tarjeta tarjeta : tarjetas)
+                agregaRenglon(tarjeta);
+        } else {
+            renglones.addAll(tarjetas);
+            tabla.sort();
+        }
+    }
+
+    /**
+     * Elimina varios renglones de la tabla. Por cada tarjeta se elimina un
+     * renglón igual a ella, como en {@link #eliminaRenglon}. Si la tabla está
+     * ordenada y son pocos, cada uno se busca en el orden de la tabla y se
+     * elimina por separado; si no, se eliminan todos en un solo cambio,
+     * recorriendo la tabla una vez. Eliminar renglones no cambia el orden de
+     * la tabla.
+     * 
+     * @param tarjetas los renglones a eliminar.
+     */
+    public void eliminaRenglones(Collection<Tarjeta> tarjetas) {
+        if (tabla.getComparator() != null && tarjetas.size() <= INSERCIONES) {
+            for (Tarjeta tarjeta : tarjetas)
+                eliminaRenglon(tarjeta);
+            return;
+        }
+        HashMap<Tarjeta, Integer> cuentas = new HashMap<Tarjeta, Integer>();
+        for (Tarjeta tarjeta : tarjetas)
+            cuentas.merge(tarjeta, 1, Integer::sum);
+        /* Los renglones a eliminar se comparan por identidad, para que
+         * removeAll no elimine también otros renglones iguales. */
+        Set<Tarjeta> eliminados =
+            Collections.newSetFromMap(new IdentityHashMap<Tarjeta, Boolean>());
+        for (Tarjeta renglon : renglones) {
+            Integer n = cuentas.get(renglon);
+            if (n == null)
+                continue;
+            eliminados.add(renglon);
+            if (n == 1)
+                cuentas.remove(renglon);
+            else
+                cuentas.put(renglon, n - 1);
+            if (cuentas.isEmpty())
+                break;
+        }
+        if (!eliminados.isEmpty())
+            renglones.removeAll(eliminados);
+    }
+
+    /**
+     * Agrega varios renglones al final de la tabla en un solo cambio, sin
+     * buscar su lugar en el orden de la tabla. Sirve cuando la tabla puede
+     * tener renglones modificados fuera de su lugar; después hay que llamar
+     * a {@link #reordena}.
+     * 
+     * @param tarjetas los renglones a agregar.
+     */
+    public void agregaRenglonesAlFinal(Collection<Tarjeta> tarjetas) {
+        renglones.addAll(tarjetas);
+    }
+
+    /**
+     * Reemplaza todos los renglones de la tabla por las tarjetas recibidas
+     * en un solo cambio, y reordena la tabla una vez.
+     * 
+     * @param tarjetas las tarjetas de la tabla.
+     */
+    public void cargaRenglones(Lista<Tarjeta> tarjetas) {
+        ArrayList<Tarjeta> nuevos =
+            new ArrayList<Tarjeta>(tarjetas.getLongitud());
+        for (Tarjeta tarjeta : tarjetas)
+            nuevos.add(tarjeta);
+        renglones.setAll(nuevos);
         tabla.sort();
     }
 
+    /* Regresa el índice del renglón de la tarjeta, o -1 si no está. El
+     * índice por identidad se reconstruye, en tiempo lineal, sólo si la
+     * tabla cambió; las tarjetas que no son renglones de la tabla se buscan
+     * por igualdad. */
+    private int renglon(Tarjeta tarjeta) {
+        if (indices == null) {
+            indices = new IdentityHashMap<Tarjeta, Integer>(renglones.size());
+            for (int i = 0; i < renglones.size(); i++)
+                indices.put(renglones.get(i), i);
+        }
+        Integer i = indices.get(tarjeta);
+        return i != null ? i : renglones.indexOf(tarjeta);
+    }
+
     /**
-     * Selecciona renglones de la tabla.
+     * Selecciona renglones de la tabla, en un solo cambio de la selección.
+     * Si las tarjetas son los renglones de la tabla, como las que regresa
+     * la base de datos en una búsqueda, seleccionar k tarjetas toma tiempo
+     * O(k) mientras la tabla no cambie.
      * 
      * @param tarjetas los renglones a seleccionar.
      */
     public void seleccionaRenglones(Lista<Tarjeta> tarjetas) {
         modeloSeleccion.clearSelection();
-        for (Tarjeta tarjeta : tarjetas)
-            modeloSeleccion.select(tarjeta);
+        agregaSeleccion(tarjetas);
+    }
+
+    /**
+     * Agrega renglones a la selección de la tabla, sin quitar los que ya
+     * estaban seleccionados, en un solo cambio de la selección, como en
+     * {@link #seleccionaRenglones}.
+     * 
+     * @param tarjetas los renglones a agregar a la selección.
+     */
+    public void agregaSeleccion(Lista<Tarjeta> tarjetas) {
+        int[] seleccionados = new int[tarjetas.getLongitud()];
+        int n = 0;
+        for (Tarjeta tarjeta : tarjetas) {
+            int i = renglon(tarjeta);
+            if (i != -1)
+                seleccionados[n++] = i;
+        }
+        if (n == 0)
+            return;
+        modeloSeleccion.selectIndices(
+            seleccionados[0], Arrays.copyOfRange(seleccionados, 1, n));
     }
 
     /**
@@ -115,10 +329,8 @@ public class ControladorTablaTarjetas {
      */
     public Lista<Tarjeta> getSeleccion() {
         Lista<Tarjeta> seleccionados = new Lista<Tarjeta>();
-        for (TablePosition tp : seleccion) {
-            int r = tp.getRow();
-            seleccionados.agregaFinal(renglones.get(r));
-        }
+        for (Tarjeta tarjeta : modeloSeleccion.getSelectedItems())
+            seleccionados.agregaFinal(tarjeta);
         return seleccionados;
     }
 
@@ -142,7 +354,10 @@ public class ControladorTablaTarjetas {
     }
 
     /**
-     * Fuerza un reordenamiento de la tabla.
+     * Fuerza un reordenamiento completo de la tabla. La tabla se reordena
+     * sola cuando el usuario cambia las columnas de ordenamiento, y los
+     * métodos que la modifican mantienen el orden, así que normalmente no es
+     * necesario.
      */
     public void reordena() {
         tabla.sort();
@@ -0,0 +1,141 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * <p>Clase para agrupar en lotes las operaciones que llegan de varios hilos de
+ * ejecución. Cada hilo encola su operación con {@link #procesa} y se bloquea;
+ * un solo hilo del agrupador toma las operaciones de la cola en lotes y los
+ * entrega a un {@link ProcesadorDeLotes}, que los aplica y persiste con una
+ * sola escritura. Cuando el lote está persistido, todos los hilos que
+ * encolaron sus operaciones en él son despertados.</p>
+ *
+ * <p>Un lote se cierra cuando tiene el tamaño máximo, o cuando pasa la espera
+ * máxima desde que llegó su primera operación sin que lleguen más. Con una
+ * espera máxima de cero, un lote tiene las operaciones que ya estaban en la
+ * cola cuando se tomó la primera.</p>
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class AgrupadorDeOperaciones<R extends Registro<R, ?>> {
+
+    /* El procesador de lotes. */
+    private ProcesadorDeLotes<R> procesador;
+    /* El tamaño máximo de un lote. */
+    private int maximo;
+    /* La espera máxima por operaciones para un lote, en nanosegundos. */
+    private long espera;
+    /* La cola de operaciones. */
+    private LinkedBlockingQueue<Operacion<R>> cola;
+    /* El hilo del agrupador. */
+    private Thread hilo;
+    /* Bandera de continuación. */
+    private volatile boolean activo;
+
+    /* Cada cuánto revisa el hilo si fue detenido, en milisegundos. */
+    private static final long REVISION = 100;
+
+    /**
+     * Construye un agrupador de operaciones e inicia su hilo de ejecución.
+     * @param procesador el procesador de los lotes.
+     * @param maximo el tamaño máximo de un lote.
+     * @param espera la espera máxima por operaciones para un lote, en
+     *               milisegundos.
+     * @throws IllegalArgumentException si el procesador es <code>null</code>,
+     *         si el tamaño máximo no es positivo o si la espera es negativa.
+     */
+    public AgrupadorDeOperaciones(ProcesadorDeLotes<R> procesador,
+                                  int maximo, long espera) {
+        if (procesador == null || maximo < 1 || espera < 0)
+            throw new IllegalArgumentException();
+
+        this.procesador = procesador;
+        this.maximo = maximo;
+        this.espera = TimeUnit.MILLISECONDS.toNanos(espera);
+        cola = new LinkedBlockingQueue<Operacion<R>>();
+        activo = true;
+        hilo = new Thread(() -> agrupa(), "agrupador-de-operaciones");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Encola la operación y espera a que su lote sea aplicado y persistido.
+     * @param operacion la operación.
+     * @throws IOException si el lote de la operación no pudo persistirse, o si
+     *         el agrupador está detenido.
+     */
+    public void procesa(Operacion<R> operacion) throws IOException {
+        if (!activo)
+            throw new IOException("El agrupador está detenido.");
+        cola.add(operacion);
+        /* Si el agrupador se detuvo mientras encolábamos, es posible que ya no
+         * vea la operación. */
+        if (!activo)
+            cancelaPendientes();
+        operacion.espera();
+    }
+
+    /**
+     * Detiene el agrupador y espera a que su hilo termine. El lote que se esté
+     * procesando se termina; las operaciones que sigan en la cola terminan
+     * con un error.
+     */
+    public void detiene() {
+        activo = false;
+        try {
+            hilo.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        cancelaPendientes();
+    }
+
+    /* El ciclo del hilo del agrupador. */
+    private void agrupa() {
+        Lista<Operacion<R>> lote = new Lista<Operacion<R>>();
+        while (activo) {
+            try {
+                Operacion<R> primera = cola.poll(REVISION,
+                                                 TimeUnit.MILLISECONDS);
+                if (primera == null)
+                    continue;
+                lote.agregaFinal(primera);
+                long limite = System.nanoTime() + espera;
+                while (lote.getLongitud() < maximo) {
+                    long resta = limite - System.nanoTime();
+                    Operacion<R> operacion = resta > 0 ?
+                        cola.poll(resta, TimeUnit.NANOSECONDS) : cola.poll();
+                    if (operacion == null)
+                        break;
+                    lote.agregaFinal(operacion);
+                }
+            } catch (InterruptedException ie) {
+                if (lote.esVacia())
+                    break;
+            }
+            IOException error = null;
+            try {
+                procesador.procesa(lote);
+            } catch (IOException ioe) {
+                error = ioe;
+            } catch (RuntimeException re) {
+                error = new IOException(re);
+            }
+            for (Operacion<R> operacion : lote)
+                operacion.termina(error);
+            lote.limpia();
+        }
+    }
+
+    /* Termina con error las operaciones que quedaron en la cola. */
+    private void cancelaPendientes() {
+        Operacion<R> operacion;
+        while ((operacion = cola.poll()) != null)
+            operacion.termina(new IOException("El agrupador está detenido."));
+    }
+}
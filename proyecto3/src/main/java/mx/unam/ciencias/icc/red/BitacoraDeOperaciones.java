@@ -0,0 +1,597 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.CargadorParalelo;
+import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
+import mx.unam.ciencias.icc.Instantanea;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * <p>Clase para bitácoras de operaciones de una base de datos. En lugar de
+ * reescribir toda la base de datos después de cada modificación, la bitácora
+ * agrega la operación al final de un archivo, lo que cuesta tiempo
+ * proporcional al tamaño del registro y no al de la base de datos.</p>
+ *
+ * <p>La base de datos en el disco duro consiste de una instantánea, en el
+ * formato de {@link BaseDeDatos#guarda}, y de la bitácora con las operaciones
+ * posteriores a la instantánea, en el archivo con el nombre de la instantánea
+ * más la extensión <code>.bitacora</code>. Cada operación se escribe como el
+ * {@link Mensaje} que la describe, seguido de los registros serializados que
+ * el mensaje lleva en el protocolo de red. Al cargar, se carga la instantánea
+ * y se reproducen las operaciones de la bitácora; {@link #compacta} escribe
+ * una instantánea nueva y vacía la bitácora. Con {@link #setCompresion} las
+ * instantáneas nuevas se comprimen con GZIP.</p>
+ *
+ * <p>La compactación tiene dos partes. {@link #iniciaCompactacion} toma una
+ * instantánea de la base de datos en memoria y empieza una bitácora nueva,
+ * con la extensión <code>.bitacora.siguiente</code>, para las operaciones
+ * posteriores a ella; es rápida, y debe llamarse sin que la base de datos se
+ * modifique. {@link #terminaCompactacion} escribe la instantánea en un
+ * archivo temporal mientras se siguen registrando operaciones, retira la
+ * bitácora anterior renombrándola con la extensión <code>.vieja</code>,
+ * reemplaza la instantánea con el archivo temporal, borra la bitácora vieja y
+ * por último renombra la bitácora siguiente como la bitácora. Cada renombre
+ * se sincroniza con el directorio. Si el proceso se interrumpe en cualquier
+ * punto, {@link #carga} determina con los archivos que quedaron si la
+ * compactación alcanzó a terminar, y la completa o la deshace.</p>
+ *
+ * <p>Los métodos de la bitácora no sincronizan el acceso a la base de datos;
+ * quien la use debe garantizar que la base de datos no se modifique mientras
+ * se carga, se compacta con {@link #compacta} o se inicia una compactación,
+ * y que las operaciones se registren en el mismo orden en que se
+ * aplican.</p>
+ *
+ * @param <R> El tipo de los registros de la base de datos.
+ */
+public class BitacoraDeOperaciones<R extends Registro<R, ?>> {
+
+    /* La base de datos. */
+    private BaseDeDatos<R, ?> bdd;
+    /* El archivo de la instantánea. */
+    private File archivo;
+    /* El archivo temporal para la instantánea nueva. */
+    private File temporal;
+    /* El archivo de la bitácora. */
+    private File bitacora;
+    /* El archivo de la bitácora retirada durante una compactación. */
+    private File vieja;
+    /* El archivo de la bitácora que empieza una compactación. */
+    private File siguiente;
+    /* El directorio de los archivos. */
+    private File directorio;
+    /* El archivo de la bitácora en el que se registran las operaciones. */
+    private File actual;
+    /* La política de sincronización. */
+    private PoliticaDeSincronizacion politica;
+    /* El intervalo de sincronización, en milisegundos. */
+    private long intervalo;
+    /* El canal de la bitácora, para sincronizarla. */
+    private FileChannel canal;
+    /* La salida de la bitácora. */
+    private BufferedWriter out;
+    /* El búfer para serializar registros. */
+    private StringBuilder linea;
+    /* Las operaciones registradas desde la última instantánea. */
+    private int operaciones;
+    /* Si hay operaciones escritas sin sincronizar. */
+    private boolean pendiente;
+    /* El sincronizador periódico. */
+    private ScheduledExecutorService sincronizador;
+    /* Si las instantáneas se comprimen. */
+    private boolean compresion;
+    /* La instantánea de la compactación iniciada; null si no hay. */
+    private Instantanea<R> compactacion;
+    /* El candado de quien escribe la instantánea de una compactación. */
+    private Object escritor;
+
+    /**
+     * Construye una bitácora de operaciones para la base de datos recibida.
+     * @param bdd la base de datos.
+     * @param archivo el archivo de la instantánea de la base de datos.
+     * @param politica la política de sincronización de la bitácora.
+     * @param intervalo el intervalo de sincronización en milisegundos, para
+     *                  la política {@link PoliticaDeSincronizacion#PERIODICA};
+     *                  las otras políticas lo ignoran.
+     * @throws IllegalArgumentException si la base de datos, el archivo o la
+     *         política son <code>null</code>, o si la política es periódica y
+     *         el intervalo no es positivo.
+     */
+    public BitacoraDeOperaciones(BaseDeDatos<R, ?> bdd, String archivo,
+                                 PoliticaDeSincronizacion politica,
+                                 long intervalo) {
+        if (bdd == null || archivo == null || politica == null ||
+            (politica == PoliticaDeSincronizacion.PERIODICA && intervalo <= 0))
+            throw new IllegalArgumentException();
+
+        this.bdd = bdd;
+        this.archivo = new File(archivo);
+        this.temporal = new File(archivo + ".tmp");
+        this.bitacora = new File(archivo + ".bitacora");
+        this.vieja = new File(archivo + ".bitacora.vieja");
+        this.siguiente = new File(archivo + ".bitacora.siguiente");
+        this.directorio = this.archivo.getAbsoluteFile().getParentFile();
+        this.actual = bitacora;
+        escritor = new Object();
+        this.politica = politica;
+        this.intervalo = intervalo;
+        linea = new StringBuilder(128);
+    }
+
+    /**
+     * Carga la base de datos de la instantánea y reproduce sobre ella las
+     * operaciones de la bitácora; después la bitácora queda abierta para
+     * registrar operaciones nuevas. Si la bitácora termina con una operación
+     * incompleta o inválida, se descarta desde ella y se compacta la base de
+     * datos, para que las operaciones nuevas no se escriban después de la
+     * basura.
+     * @return el número de operaciones reproducidas de la bitácora.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public int carga() throws IOException {
+        return carga(true);
+    }
+
+    /**
+     * Carga la base de datos como {@link #carga()}, pero si no se pide cargar
+     * la instantánea, supone que la base de datos ya tiene su contenido y
+     * sólo reproduce las operaciones de la bitácora. Sirve para bases de
+     * datos que se conservan por su cuenta en el disco duro, cuando la
+     * bitácora está vacía; ver {@link #isVacia}.
+     * @param instantanea si hay que cargar la instantánea.
+     * @return el número de operaciones reproducidas de la bitácora.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public int carga(boolean instantanea) throws IOException {
+        synchronized (escritor) {
+            synchronized (this) {
+                return cargaBitacora(instantanea);
+            }
+        }
+    }
+
+    /* Carga la base de datos; quien la llama tiene los dos candados. */
+    private int cargaBitacora(boolean instantanea) throws IOException {
+        recupera();
+        if (instantanea && archivo.exists()) {
+            InputStream in = Instantaneas.abre(archivo);
+            try {
+                new CargadorParalelo<R>(bdd).carga(in);
+            } finally {
+                in.close();
+            }
+        } else if (instantanea) {
+            bdd.limpia();
+        }
+
+        operaciones = 0;
+        int n = 0;
+        if (siguiente.exists()) {
+            /* La compactación se interrumpió antes de retirar la bitácora:
+             * la bitácora lleva a la instantánea que se estaba escribiendo, y
+             * la siguiente tiene las operaciones posteriores. Se termina la
+             * compactación antes de reproducir la siguiente. */
+            reproduce(bitacora);
+            n = operaciones;
+            operaciones = 0;
+            compactacion = bdd.getInstantanea();
+            terminaCompactacion();
+        }
+        boolean completa = reproduce(bitacora);
+        n += operaciones;
+
+        if (completa) {
+            abre();
+        } else {
+            compacta();
+        }
+        if (politica == PoliticaDeSincronizacion.PERIODICA &&
+            sincronizador == null) {
+            sincronizador = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "sincronizador-bitacora");
+                    t.setDaemon(true);
+                    return t;
+                });
+            sincronizador.scheduleWithFixedDelay(() -> sincronizaPendiente(),
+                                                 intervalo, intervalo,
+                                                 TimeUnit.MILLISECONDS);
+        }
+        return n;
+    }
+
+    /**
+     * Nos dice si la bitácora no tiene operaciones posteriores a la
+     * instantánea, terminando antes una compactación interrumpida si la hay.
+     * @return <code>true</code> si la bitácora no tiene operaciones.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public synchronized boolean isVacia() throws IOException {
+        recupera();
+        return !bitacora.exists() || bitacora.length() == 0;
+    }
+
+    /**
+     * Registra una operación de un registro: {@link
+     * Mensaje#REGISTRO_AGREGADO} o {@link Mensaje#REGISTRO_ELIMINADO}.
+     * @param mensaje el mensaje de la operación.
+     * @param registro el registro de la operación.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws IllegalArgumentException si el mensaje no es una operación de un
+     *         registro.
+     */
+    public synchronized void registra(Mensaje mensaje, R registro)
+        throws IOException {
+        registra(new Operacion<R>(mensaje, registro));
+    }
+
+    /**
+     * Registra una operación {@link Mensaje#REGISTRO_MODIFICADO}.
+     * @param registro1 el registro original.
+     * @param registro2 el registro modificado.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public synchronized void registraModificacion(R registro1, R registro2)
+        throws IOException {
+        registra(new Operacion<R>(registro1, registro2));
+    }
+
+    /**
+     * Registra una operación.
+     * @param operacion la operación a registrar.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public synchronized void registra(Operacion<R> operacion)
+        throws IOException {
+        escribe(operacion);
+        termina(1);
+    }
+
+    /**
+     * Registra un lote de operaciones con una sola escritura y, si la política
+     * lo pide, una sola sincronización con el disco duro.
+     * @param lote el lote de operaciones a registrar.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public synchronized void registra(Lista<Operacion<R>> lote)
+        throws IOException {
+        for (Operacion<R> operacion : lote)
+            escribe(operacion);
+        termina(lote.getLongitud());
+    }
+
+    /**
+     * Escribe una instantánea nueva con el estado actual de la base de datos y
+     * vacía la bitácora, terminando antes la compactación iniciada si la hay.
+     * @throws IOException si ocurre un error de entrada/salida. Si el error
+     *         ocurre al escribir la instantánea nueva, la bitácora sigue como
+     *         estaba.
+     */
+    public void compacta() throws IOException {
+        synchronized (escritor) {
+            if (isCompactando())
+                terminaCompactacion();
+            iniciaCompactacion();
+            terminaCompactacion();
+        }
+    }
+
+    /**
+     * Inicia una compactación: toma una instantánea de la base de datos y
+     * empieza una bitácora nueva para las operaciones posteriores a ella. La
+     * base de datos no debe modificarse mientras se inicia la compactación;
+     * la instantánea se escribe después con {@link #terminaCompactacion}, sin
+     * detener el registro de operaciones.
+     * @throws IOException si ocurre un error de entrada/salida.
+     * @throws IllegalStateException si ya hay una compactación iniciada.
+     */
+    public synchronized void iniciaCompactacion() throws IOException {
+        if (compactacion != null)
+            throw new IllegalStateException();
+        if (out != null) {
+            out.flush();
+            canal.force(false);
+        }
+        cierraSalida();
+        actual = siguiente;
+        abre();
+        sincronizaDirectorio();
+        compactacion = bdd.getInstantanea();
+        operaciones = 0;
+    }
+
+    /**
+     * Termina la compactación iniciada: escribe su instantánea y retira la
+     * bitácora anterior. Las operaciones pueden seguirse registrando mientras
+     * la instantánea se escribe. Si no hay una compactación iniciada, no hace
+     * nada.
+     * @throws IOException si ocurre un error de entrada/salida. La
+     *         compactación sigue iniciada, y puede volver a terminarse.
+     */
+    public void terminaCompactacion() throws IOException {
+        synchronized (escritor) {
+            Instantanea<R> instantanea;
+            synchronized (this) {
+                instantanea = compactacion;
+            }
+            if (instantanea == null)
+                return;
+            escribeInstantanea(instantanea);
+            synchronized (this) {
+                if (bitacora.exists())
+                    mueve(bitacora, vieja);
+                mueve(temporal, archivo);
+                sincronizaDirectorio();
+                Files.deleteIfExists(vieja.toPath());
+                mueve(siguiente, bitacora);
+                sincronizaDirectorio();
+                actual = bitacora;
+                compactacion = null;
+            }
+        }
+    }
+
+    /**
+     * Nos dice si hay una compactación iniciada que no se ha terminado.
+     * @return <code>true</code> si hay una compactación iniciada.
+     */
+    public synchronized boolean isCompactando() {
+        return compactacion != null;
+    }
+
+    /**
+     * Define si las instantáneas nuevas se comprimen con GZIP. Al cargar, la
+     * instantánea se lee comprimida o no, sin importar esta opción.
+     * @param compresion si las instantáneas nuevas se comprimen.
+     */
+    public synchronized void setCompresion(boolean compresion) {
+        this.compresion = compresion;
+    }
+
+    /**
+     * Regresa el número de operaciones registradas desde la última
+     * instantánea.
+     * @return el número de operaciones registradas desde la última
+     *         instantánea.
+     */
+    public synchronized int getOperaciones() {
+        return operaciones;
+    }
+
+    /**
+     * Regresa la política de sincronización de la bitácora.
+     * @return la política de sincronización de la bitácora.
+     */
+    public PoliticaDeSincronizacion getPolitica() {
+        return politica;
+    }
+
+    /**
+     * Sincroniza la bitácora con el disco duro y la cierra.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    public synchronized void cierra() throws IOException {
+        if (sincronizador != null) {
+            sincronizador.shutdownNow();
+            sincronizador = null;
+        }
+        if (out == null)
+            return;
+        out.flush();
+        canal.force(false);
+        cierraSalida();
+    }
+
+    /* Completa o deshace una compactación interrumpida; si la bitácora
+     * siguiente queda junto a la bitácora, la compactación la termina
+     * carga. */
+    private void recupera() throws IOException {
+        if (temporal.exists()) {
+            /* La instantánea temporal está completa si la bitácora ya había
+             * sido retirada. */
+            if (vieja.exists())
+                mueve(temporal, archivo);
+            else
+                Files.delete(temporal.toPath());
+        }
+        Files.deleteIfExists(vieja.toPath());
+        if (siguiente.exists() && !bitacora.exists())
+            mueve(siguiente, bitacora);
+        sincronizaDirectorio();
+        actual = bitacora;
+        compactacion = null;
+    }
+
+    /* Reproduce las operaciones del archivo de bitácora, si existe, y las
+     * cuenta; regresa false si termina con una operación incompleta. */
+    private boolean reproduce(File archivo) throws IOException {
+        if (!archivo.exists())
+            return true;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(new FileInputStream(archivo)));
+        try {
+            while (reproduce(in))
+                operaciones++;
+            /* La última lectura dejó en el búfer lo que no se pudo
+             * reproducir; si está vacío, la bitácora se acabó limpiamente al
+             * inicio de una operación. */
+            return linea.length() == 0 && in.read() == -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /* Escribe la instantánea en el archivo temporal y la sincroniza con el
+     * disco duro; si falla, borra el archivo temporal. */
+    private void escribeInstantanea(Instantanea<R> instantanea)
+        throws IOException {
+        FileOutputStream fos = new FileOutputStream(temporal);
+        try {
+            OutputStream salida = Instantaneas.salida(fos, compresion);
+            BufferedWriter w = new BufferedWriter(
+                new OutputStreamWriter(salida));
+            instantanea.guarda(w);
+            w.flush();
+            Instantaneas.termina(salida);
+            fos.getFD().sync();
+        } catch (IOException ioe) {
+            fos.close();
+            temporal.delete();
+            throw ioe;
+        }
+        fos.close();
+    }
+
+    /* Reproduce una operación de la bitácora; regresa false si ya no hay
+     * operaciones completas. */
+    private boolean reproduce(BufferedReader in) throws IOException {
+        String l = leeLinea(in);
+        if (l == null)
+            return false;
+        try {
+            Mensaje mensaje = Mensaje.getMensaje(l);
+            Operacion<R> operacion;
+            switch (mensaje) {
+            case REGISTRO_AGREGADO:
+            case REGISTRO_ELIMINADO:
+                R r = leeRegistro(in);
+                if (r == null)
+                    return false;
+                operacion = new Operacion<R>(mensaje, r);
+                break;
+            case REGISTRO_MODIFICADO:
+                R r1 = leeRegistro(in);
+                R r2 = leeRegistro(in);
+                if (r1 == null || r2 == null)
+                    return false;
+                operacion = new Operacion<R>(r1, r2);
+                break;
+            default:
+                return false;
+            }
+            operacion.aplica(bdd);
+            return true;
+        } catch (ExcepcionLineaInvalida eli) {
+            return false;
+        }
+    }
+
+    /* Lee un registro de la bitácora; regresa null si está incompleto. */
+    private R leeRegistro(BufferedReader in) throws IOException {
+        String l = leeLinea(in);
+        if (l == null)
+            return null;
+        R registro = bdd.creaRegistro();
+        registro.deserializa(l);
+        return registro;
+    }
+
+    /* Lee una línea terminada en salto de línea; regresa null si la entrada
+     * se acaba antes del salto de línea, porque la escritura de la línea fue
+     * interrumpida. */
+    private String leeLinea(BufferedReader in) throws IOException {
+        linea.setLength(0);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n')
+                return linea.toString();
+            linea.append((char)c);
+        }
+        return null;
+    }
+
+    /* Escribe una operación en la bitácora. */
+    private void escribe(Operacion<R> operacion) throws IOException {
+        if (out == null)
+            throw new IOException("La bitácora está cerrada.");
+        linea.setLength(0);
+        operacion.serializa(linea);
+        out.append(linea);
+    }
+
+    /* Termina de escribir operaciones, según la política. */
+    private void termina(int n) throws IOException {
+        out.flush();
+        operaciones += n;
+        switch (politica) {
+        case CADA_OPERACION:
+            canal.force(false);
+            break;
+        case PERIODICA:
+            pendiente = true;
+            break;
+        case SISTEMA_OPERATIVO:
+            break;
+        }
+    }
+
+    /* Sincroniza las operaciones pendientes con el disco duro. */
+    private synchronized void sincronizaPendiente() {
+        if (!pendiente || canal == null)
+            return;
+        try {
+            canal.force(false);
+            pendiente = false;
+        } catch (IOException ioe) {
+            /* Se reintenta en el siguiente intervalo. */
+        }
+    }
+
+    /* Abre la bitácora actual para agregar operaciones. */
+    private void abre() throws IOException {
+        FileOutputStream fos = new FileOutputStream(actual, true);
+        canal = fos.getChannel();
+        out = new BufferedWriter(new OutputStreamWriter(fos));
+        pendiente = false;
+    }
+
+    /* Cierra la salida de la bitácora, si está abierta. */
+    private void cierraSalida() throws IOException {
+        if (out == null)
+            return;
+        BufferedWriter w = out;
+        out = null;
+        canal = null;
+        w.close();
+    }
+
+    /* Renombra atómicamente un archivo, reemplazando el destino. */
+    private static void mueve(File origen, File destino) throws IOException {
+        Files.move(origen.toPath(), destino.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /* Sincroniza el directorio con el disco duro, para que los renombres y
+     * los archivos nuevos sobrevivan a una caída del sistema. Donde un
+     * directorio no puede abrirse, como en Windows, no hace nada. */
+    private void sincronizaDirectorio() throws IOException {
+        FileChannel c;
+        try {
+            c = FileChannel.open(directorio.toPath(), StandardOpenOption.READ);
+        } catch (IOException ioe) {
+            return;
+        }
+        try {
+            c.force(true);
+        } finally {
+            c.close();
+        }
+    }
+}
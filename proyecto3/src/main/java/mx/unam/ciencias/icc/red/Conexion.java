@@ -1,31 +1,254 @@
 package mx.unam.ciencias.icc.red;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import mx.unam.ciencias.icc.EventoBaseDeDatos;
 import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
 import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.Instantanea;
 import mx.unam.ciencias.icc.Lista;
 import mx.unam.ciencias.icc.Registro;
 
 /**
  * Clase para conexiones de la base de datos.
+ *
+ * Por omisión los envíos escriben directamente en el enchufe, y el hilo que
+ * envía espera a que el otro lado lea. Con {@link #activaColaDeSalida} los
+ * envíos se encolan y un escritor los escribe en otro hilo de ejecución, de
+ * manera que un cliente lento no detiene al hilo que le envía; cuando la cola
+ * se llena, la conexión sigue una {@link PoliticaDeSaturacion}. Si un
+ * escritor no puede escribir, la conexión se cierra y {@link
+ * #getFalloDeSalida} regresa el error.
+ *
+ * Por omisión la conexión usa el protocolo de texto: cada {@link Mensaje} y
+ * cada registro viajan en una línea. Con {@link #activaProtocoloBinario} el
+ * cliente negocia con el servidor el protocolo binario, en el que todo viaja
+ * en tramas: la longitud de la trama en cuatro bytes, un byte con el tipo de
+ * la trama (el código del mensaje, o registro, o fin de la base de datos) y,
+ * en las tramas de registro, el registro escrito con {@link
+ * Registro#escribe}. Toda conexión acepta la negociación si es lo primero que
+ * recibe; las que nunca la piden siguen usando el protocolo de texto.
+ *
+ * En el protocolo binario, con {@link #activaCompresion} el cliente pide que
+ * la base de datos se le envíe comprimida: los registros se comprimen con
+ * {@link Deflater} en un solo flujo, que viaja partido en tramas de bloque.
+ * Un servidor que no conoce la compresión ignora la petición y la envía sin
+ * comprimir; el mensaje {@link Mensaje#BASE_DE_DATOS} con el que contesta
+ * indica cuál de las dos recibe el cliente.
+ *
+ * Con {@link #enviaCambios} la conexión envía una versión de la base de datos
+ * seguida de las operaciones que llevan a ella, en un mensaje {@link
+ * Mensaje#SINCRONIZA}; del otro lado se reciben con {@link #getEpoca}, {@link
+ * #getVersion} y {@link #recibeOperaciones}.
  */
 public class Conexion<R extends Registro<R, ?>> {
 
+    /* Interfaz interna privada para codificar lo que se envía. */
+    @FunctionalInterface
+    private interface Codificador {
+
+        /* Regresa los bytes a enviar, codificados en el protocolo actual. */
+        public byte[] codifica() throws IOException;
+    }
+
+    /* Clase interna privada para escribir un flujo en tramas de bloque. */
+    private static class SalidaDeBloques extends OutputStream {
+
+        /* La salida de las tramas. */
+        private DataOutputStream tramas;
+
+        /* Construye una salida de bloques. */
+        private SalidaDeBloques(DataOutputStream tramas) {
+            this.tramas = tramas;
+        }
+
+        /* Escribe un byte en su propia trama. */
+        @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        /* Escribe los bytes en una trama. */
+        @Override public void write(byte[] b, int i, int n) throws IOException {
+            if (n == 0)
+                return;
+            tramas.writeInt(1 + n);
+            tramas.writeByte(TRAMA_BLOQUE);
+            tramas.write(b, i, n);
+        }
+    }
+
+    /* Clase interna privada para leer un flujo de tramas de bloque; el flujo
+     * termina con la trama de fin. */
+    private static class EntradaDeBloques extends InputStream {
+
+        /* La entrada de las tramas. */
+        private DataInputStream tramas;
+        /* El bloque actual. */
+        private byte[] bloque;
+        /* La posición en el bloque actual. */
+        private int i;
+        /* Si ya se leyó la trama de fin. */
+        private boolean fin;
+
+        /* Construye una entrada de bloques. */
+        private EntradaDeBloques(DataInputStream tramas) {
+            this.tramas = tramas;
+            bloque = new byte[0];
+        }
+
+        /* Lee un byte. */
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        /* Lee bytes del bloque actual, o del siguiente si ya se acabó. */
+        @Override public int read(byte[] b, int j, int n) throws IOException {
+            if (n == 0)
+                return 0;
+            while (i == bloque.length) {
+                if (fin || !siguiente())
+                    return -1;
+            }
+            n = Math.min(n, bloque.length - i);
+            System.arraycopy(bloque, i, b, j, n);
+            i += n;
+            return n;
+        }
+
+        /* Lee el siguiente bloque; regresa false si es la trama de fin. */
+        private boolean siguiente() throws IOException {
+            int longitud = tramas.readInt();
+            if (longitud < 1 || longitud > MAXIMO_TRAMA)
+                throw new IOException("Trama inválida.");
+            int tipo = tramas.readByte();
+            if (tipo == TRAMA_FIN && longitud == 1) {
+                fin = true;
+                return false;
+            }
+            if (tipo != TRAMA_BLOQUE)
+                throw new IOException("Se esperaba un bloque.");
+            bloque = new byte[longitud - 1];
+            tramas.readFully(bloque);
+            i = 0;
+            return true;
+        }
+
+        /* Descarta lo que quede hasta la trama de fin. */
+        private void termina() throws IOException {
+            byte[] b = new byte[TAMANO_BLOQUE];
+            while (read(b, 0, b.length) != -1)
+                ;
+        }
+    }
+
+    /* Clase interna privada para bytes pendientes de escribir, o para una
+     * instantánea que el escritor escribe registro por registro. */
+    private static class Pendiente<R extends Registro<R, ?>> {
+
+        /* Los bytes a escribir; null si se escribe una instantánea. */
+        private byte[] bytes;
+        /* Si los bytes son una operación, que una resincronización
+         * sustituye. */
+        private boolean operacion;
+        /* La instantánea a escribir, o null. */
+        private Instantanea<R> instantanea;
+        /* Si la instantánea se escribe en el protocolo binario. */
+        private boolean binaria;
+        /* Si la instantánea se escribe comprimida. */
+        private boolean comprime;
+
+        /* Construye unos bytes pendientes. */
+        private Pendiente(byte[] bytes, boolean operacion) {
+            this.bytes = bytes;
+            this.operacion = operacion;
+        }
+
+        /* Construye una instantánea pendiente, en el protocolo recibido. */
+        private Pendiente(Instantanea<R> instantanea, boolean binaria,
+                          boolean comprime) {
+            this.instantanea = instantanea;
+            this.binaria = binaria;
+            this.comprime = comprime;
+        }
+    }
+
+    /* La línea con la que se negocia el protocolo binario. */
+    static final String SALUDO = "|=PROTOCOLO:BINARIO";
+    /* Longitud máxima de una trama del protocolo binario. */
+    static final int MAXIMO_TRAMA = 1024 * 1024;
+    /* Número máximo de registros en un mensaje de lote. */
+    static final int MAXIMO_LOTE = 1024;
+    /* Tipo de las tramas de registros. */
+    private static final byte TRAMA_REGISTRO = 0x40;
+    /* Tipo de la trama que termina una base de datos. */
+    private static final byte TRAMA_FIN = 0x41;
+    /* Tipo de las tramas de bloque de una base de datos comprimida. */
+    private static final byte TRAMA_BLOQUE = 0x42;
+    /* Tamaño de los bloques de una base de datos comprimida. */
+    private static final int TAMANO_BLOQUE = 64 * 1024;
+    /* La codificación del protocolo de texto. */
+    private static final Charset CODIFICACION = Charset.defaultCharset();
+
     /* Contador de números seriales. */
-    private static int contadorSerial;
+    private static AtomicInteger contadorSerial = new AtomicInteger();
 
-    /* La entrada de la conexión. */
+    /* La entrada del enchufe. */
+    private InputStream entrada;
+    /* La entrada de la conexión en el protocolo de texto. */
     private BufferedReader in;
+    /* La entrada de la conexión en el protocolo binario; null si se usa el
+     * protocolo de texto. */
+    private DataInputStream entradaBinaria;
+    /* Las líneas que llegaron antes de aceptarse el protocolo binario. */
+    private BufferedReader previas;
+    /* La entrada de texto del mensaje actual; null si llegó en binario. */
+    private BufferedReader texto;
+    /* El contenido de la última trama leída. */
+    private byte[] carga;
+    /* El número de registros del último mensaje de lote, o de operaciones
+     * del último mensaje de sincronización. */
+    private int cuenta;
+    /* La época del último mensaje de sincronización. */
+    private long epoca;
+    /* La versión del último mensaje de sincronización. */
+    private long version;
+    /* Si el servidor le envía los cambios a la conexión con versión. */
+    private volatile boolean versionada;
+    /* Si todavía no se lee nada de la entrada. */
+    private boolean primera;
     /* La salida de la conexión. */
-    private BufferedWriter out;
+    private BufferedOutputStream out;
+    /* Si la salida usa el protocolo binario. */
+    private volatile boolean binario;
+    /* Si el cliente pide, o el servidor sabe que el cliente acepta, la base
+     * de datos comprimida. */
+    private volatile boolean compresion;
+    /* Si la base de datos del último mensaje BASE_DE_DATOS viene
+     * comprimida. */
+    private boolean comprimida;
     /* La base de datos. */
     private BaseDeDatos<R, ?> bdd;
     /* Lista de escuchas de conexión. */
@@ -33,9 +256,29 @@ public class Conexion<R extends Registro<R, ?>> {
     /* El enchufe. */
     private Socket enchufe;
     /* Si la conexión está activa. */
-    private boolean activa;
+    private volatile boolean activa;
     /* El número serial único de la conexión. */
     private int serial;
+    /* La cola de salida; null si se escribe directamente en el enchufe. */
+    private ArrayDeque<Pendiente<R>> cola;
+    /* La capacidad de la cola de salida. */
+    private int capacidad;
+    /* La política cuando la cola de salida se llena. */
+    private PoliticaDeSaturacion politica;
+    /* El ejecutor de los escritores. */
+    private Executor escritores;
+    /* Si hay un escritor vaciando la cola. */
+    private boolean escribiendo;
+    /* Si hay que enviar toda la base de datos antes de la cola. */
+    private boolean resincroniza;
+    /* El candado con el que se modifica la base de datos y se envían las
+     * operaciones. */
+    private Object candado;
+    /* Los envíos retenidos mientras se envía una base de datos versionada;
+     * null si no se retienen. */
+    private ArrayDeque<Pendiente<R>> retenidos;
+    /* El error con el que la cola de salida cerró la conexión, o null. */
+    private volatile IOException falloDeSalida;
 
     /**
      * Define el estado inicial de una nueva conexión.
@@ -46,24 +289,24 @@ public class Conexion<R extends Registro<R, ?>> {
      */
     public Conexion(BaseDeDatos<R, ?> bdd, Socket enchufe) throws IOException {
          
-        try {
-            this.bdd = bdd;
-            this.enchufe = enchufe;
-
-            InputStreamReader isIn = new InputStreamReader(this.enchufe.getInputStream());
-            in = new BufferedReader(isIn);
-
-            OutputStreamWriter osOut = new OutputStreamWriter(this.enchufe.getOutputStream());
-            out = new BufferedWriter(osOut);
-
-            contadorSerial++;
-            serial++;
-            activa = true;
+        this(bdd, enchufe, enchufe.getInputStream(), enchufe.getOutputStream());
+    }
 
-            escuchas = new Lista<>();
-        } catch (IOException e) {
-            throw new IOException();
-        }
+    /* Define el estado inicial de una conexión que lee y escribe en los flujos
+     * recibidos en lugar de los del enchufe, que sólo se usa para cerrarla;
+     * el reactor de conexiones la usa con enchufes no bloqueantes. */
+    Conexion(BaseDeDatos<R, ?> bdd, Socket enchufe,
+             InputStream entrada, OutputStream salida) {
+        this.bdd = bdd;
+        this.enchufe = enchufe;
+        this.entrada = entrada;
+        in = new BufferedReader(new InputStreamReader(entrada, CODIFICACION));
+        texto = in;
+        primera = true;
+        out = new BufferedOutputStream(salida);
+        serial = contadorSerial.incrementAndGet();
+        activa = true;
+        escuchas = new Lista<>();
     }
 
     /**
@@ -74,16 +317,133 @@ public class Conexion<R extends Registro<R, ?>> {
     public void recibeMensajes() {
          
         try {
-            String linea = in.readLine();
-            while (linea != null) {
-                activarEscuchas(Mensaje.getMensaje(linea));
-                linea = in.readLine();
-            }
-            activa = false;
+            while (procesaMensaje())
+                ;
         } catch (IOException e) {
             if (activa)
                 activarEscuchas(Mensaje.INVALIDO);
         }
+        terminaMensajes();
+    }
+
+    /* Lee un mensaje de la entrada y lo reporta a los escuchas; regresa false
+     * si la entrada se acabó. */
+    boolean procesaMensaje() throws IOException {
+        if (entradaBinaria != null && (previas == null || !previas.ready())) {
+            texto = null;
+            int tipo = leeTrama();
+            if (tipo == -1) {
+                activa = false;
+                return false;
+            }
+            Mensaje mensaje = Mensaje.getMensaje((byte)tipo);
+            if (mensaje.isLote()) {
+                cuenta = carga.length != 4 ? -1 : cuentaDe(
+                    new DataInputStream(new ByteArrayInputStream(carga))
+                    .readInt());
+                if (cuenta == -1)
+                    mensaje = Mensaje.INVALIDO;
+            } else if (mensaje == Mensaje.SINCRONIZA &&
+                       !leeSincronizacion(carga)) {
+                mensaje = Mensaje.INVALIDO;
+            } else if (mensaje == Mensaje.BASE_DE_DATOS) {
+                comprimida = carga.length == 1 && carga[0] == 1;
+                if (comprimida)
+                    compresion = true;
+            }
+            activarEscuchas(mensaje);
+            return true;
+        }
+        texto = entradaBinaria != null ? previas : in;
+        comprimida = false;
+        String linea = texto.readLine();
+        if (linea == null) {
+            activa = false;
+            return false;
+        }
+        if (primera) {
+            primera = false;
+            if (linea.equals(SALUDO)) {
+                aceptaProtocoloBinario();
+                return true;
+            }
+        }
+        Mensaje mensaje = Mensaje.getMensaje(linea);
+        if (mensaje.isLote() && (cuenta = cuentaDe(linea)) == -1)
+            mensaje = Mensaje.INVALIDO;
+        if (mensaje == Mensaje.SINCRONIZA && !leeSincronizacion(linea))
+            mensaje = Mensaje.INVALIDO;
+        activarEscuchas(mensaje);
+        return true;
+    }
+
+    /* Regresa el número de registros de la línea de un mensaje de lote, o -1
+     * si no tiene uno válido; un mensaje sin número es un lote vacío. */
+    static int cuentaDe(String linea) {
+        String[] partes = linea.split(":");
+        if (partes.length == 2)
+            return 0;
+        if (partes.length != 3)
+            return -1;
+        try {
+            return cuentaDe(Integer.parseInt(partes[2].strip()));
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /* Regresa el número de registros de un mensaje de lote, o -1 si no es
+     * válido. */
+    static int cuentaDe(int cuenta) {
+        return (cuenta >= 0 && cuenta <= MAXIMO_LOTE) ? cuenta : -1;
+    }
+
+    /* Lee la época, la versión y el número de operaciones de la línea de un
+     * mensaje de sincronización; regresa false si no son válidos. Un mensaje
+     * sin ellos es la versión cero de la época cero, sin operaciones. */
+    private boolean leeSincronizacion(String linea) {
+        String[] partes = linea.split(":");
+        if (partes.length == 2)
+            return sincronizacion(0, 0, 0);
+        if (partes.length != 5)
+            return false;
+        try {
+            return sincronizacion(Long.parseLong(partes[2].strip()),
+                                  Long.parseLong(partes[3].strip()),
+                                  Integer.parseInt(partes[4].strip()));
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /* Lee la época, la versión y el número de operaciones de la carga de una
+     * trama de sincronización; regresa false si no son válidos. */
+    private boolean leeSincronizacion(byte[] carga) throws IOException {
+        if (carga.length == 0)
+            return sincronizacion(0, 0, 0);
+        if (carga.length != 20 && carga.length != 21)
+            return false;
+        if (carga.length == 21 && carga[20] == 1)
+            compresion = true;
+        DataInputStream datos = new DataInputStream(
+            new ByteArrayInputStream(carga));
+        return sincronizacion(datos.readLong(), datos.readLong(),
+                              datos.readInt());
+    }
+
+    /* Guarda la época, la versión y el número de operaciones de un mensaje de
+     * sincronización; regresa false si no son válidos. */
+    private boolean sincronizacion(long epoca, long version, int cuenta) {
+        if (version < 0 || cuenta < 0)
+            return false;
+        this.epoca = epoca;
+        this.version = version;
+        this.cuenta = cuenta;
+        return true;
+    }
+
+    /* Reporta a los escuchas que la entrada de la conexión terminó. */
+    void terminaMensajes() {
         activarEscuchas(Mensaje.DESCONECTAR);
     }
 
@@ -93,25 +453,455 @@ public class Conexion<R extends Registro<R, ?>> {
     }
 
     /**
-     * Recibe la base de datos del otro lado de la conexión.
+     * Negocia con el otro lado de la conexión el protocolo binario. Debe
+     * llamarse antes de enviar o recibir cualquier mensaje. Los mensajes que
+     * el otro lado envíe en texto antes de aceptar el protocolo binario se
+     * reciben normalmente.
+     * 
+     * @throws IOException si el otro lado no acepta el protocolo binario; un
+     *         servidor que no lo conoce cierra la conexión.
+     * @throws IllegalStateException si la conexión ya recibió mensajes o si
+     *         tiene cola de salida.
+     */
+    public synchronized void activaProtocoloBinario() throws IOException {
+         
+        if (!primera || cola != null)
+            throw new IllegalStateException();
+        primera = false;
+        out.write((SALUDO + "\n").getBytes(CODIFICACION));
+        out.flush();
+        /* Se lee byte por byte para no leer nada después de la respuesta. */
+        ByteArrayOutputStream lineas = new ByteArrayOutputStream();
+        ByteArrayOutputStream linea = new ByteArrayOutputStream();
+        while (true) {
+            int b = entrada.read();
+            if (b == -1) {
+                desconecta();
+                throw new IOException("No se aceptó el protocolo binario.");
+            }
+            linea.write(b);
+            if (b != '\n')
+                continue;
+            if (new String(linea.toByteArray(), CODIFICACION).strip()
+                .equals(SALUDO))
+                break;
+            linea.writeTo(lineas);
+            linea.reset();
+        }
+        if (lineas.size() > 0)
+            previas = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(lineas.toByteArray()), CODIFICACION));
+        entradaBinaria = new DataInputStream(new BufferedInputStream(entrada));
+        binario = true;
+    }
+
+    /* Acepta el protocolo binario que pidió el otro lado: responde con el
+     * saludo en texto, después de todo lo que ya se le haya enviado, y a
+     * partir de ahí lee y escribe en binario. */
+    private void aceptaProtocoloBinario() throws IOException {
+        synchronized (this) {
+            byte[] saludo = (SALUDO + "\n").getBytes(CODIFICACION);
+            if (cola == null) {
+                out.write(saludo);
+                out.flush();
+                binario = true;
+            } else if (encola(new Pendiente<R>(saludo, false))) {
+                binario = true;
+            } else {
+                saturada();
+            }
+        }
+        entradaBinaria = new DataInputStream(new BufferedInputStream(entrada));
+    }
+
+    /**
+     * Pide que la base de datos se reciba comprimida. Debe llamarse después
+     * de {@link #activaProtocoloBinario}; a partir de entonces, los mensajes
+     * {@link Mensaje#BASE_DE_DATOS} y {@link Mensaje#SINCRONIZA} que envíe
+     * la conexión llevan la petición.
+     * 
+     * @throws IllegalStateException si la conexión no usa el protocolo
+     *         binario.
+     */
+    public void activaCompresion() {
+         
+        if (!binario)
+            throw new IllegalStateException();
+        compresion = true;
+    }
+
+    /**
+     * Nos dice si la conexión usa el protocolo binario.
+     * 
+     * @return <code>true</code> si la conexión usa el protocolo binario;
+     *         <code>false</code> si usa el protocolo de texto.
+     */
+    public boolean isBinaria() {
+         
+        return binario;
+    }
+
+    /* Lee una trama de la entrada binaria y deja su contenido en la carga;
+     * regresa el tipo de la trama, o -1 si la entrada se acabó. */
+    private int leeTrama() throws IOException {
+        return leeTrama(entradaBinaria);
+    }
+
+    /* Lee una trama de la entrada recibida y deja su contenido en la carga;
+     * regresa el tipo de la trama, o -1 si la entrada se acabó. */
+    private int leeTrama(DataInputStream tramas) throws IOException {
+        int longitud;
+        try {
+            longitud = tramas.readInt();
+        } catch (EOFException eofe) {
+            return -1;
+        }
+        if (longitud < 1 || longitud > MAXIMO_TRAMA)
+            throw new IOException("Trama inválida.");
+        int tipo = tramas.readByte();
+        carga = new byte[longitud - 1];
+        tramas.readFully(carga);
+        return tipo;
+    }
+
+    /* Lee una trama de registro de la entrada binaria. */
+    private R leeRegistro() throws IOException {
+        if (leeTrama() != TRAMA_REGISTRO)
+            throw new IOException("Se esperaba un registro.");
+        R registro = bdd.creaRegistro();
+        registro.lee(new DataInputStream(new ByteArrayInputStream(carga)));
+        return registro;
+    }
+
+    /* Escribe una trama con el tipo y el registro recibidos; el registro
+     * puede ser null. */
+    private static void escribeTrama(DataOutputStream salida, byte tipo,
+                                     Registro<?, ?> registro)
+        throws IOException {
+        if (registro == null) {
+            salida.writeInt(1);
+            salida.writeByte(tipo);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        registro.escribe(new DataOutputStream(bytes));
+        salida.writeInt(1 + bytes.size());
+        salida.writeByte(tipo);
+        bytes.writeTo(salida);
+    }
+
+    /* Codifica en el protocolo actual un mensaje de lote seguido de sus
+     * registros. */
+    private byte[] codificaLote(Mensaje mensaje, Lista<R> registros)
+        throws IOException {
+        if (!binario) {
+            StringBuilder bufer = new StringBuilder();
+            bufer.append(mensaje.toString()).append(':')
+                 .append(registros.getLongitud()).append('\n');
+            for (R registro : registros)
+                registro.serializa(bufer);
+            return bufer.toString().getBytes(CODIFICACION);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream salida = new DataOutputStream(bytes);
+        salida.writeInt(5);
+        salida.writeByte(mensaje.getCodigo());
+        salida.writeInt(registros.getLongitud());
+        for (R registro : registros)
+            escribeTrama(salida, TRAMA_REGISTRO, registro);
+        return bytes.toByteArray();
+    }
+
+    /* Codifica en el protocolo actual un mensaje de sincronización seguido
+     * de sus operaciones. */
+    private byte[] codificaCambios(long epoca, long version,
+                                   Lista<Operacion<R>> operaciones)
+        throws IOException {
+        if (!binario) {
+            StringBuilder bufer = new StringBuilder();
+            bufer.append(Mensaje.SINCRONIZA.toString()).append(':')
+                 .append(epoca).append(':').append(version).append(':')
+                 .append(operaciones.getLongitud()).append('\n');
+            for (Operacion<R> operacion : operaciones)
+                operacion.serializa(bufer);
+            return bufer.toString().getBytes(CODIFICACION);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream salida = new DataOutputStream(bytes);
+        salida.writeInt(compresion ? 22 : 21);
+        salida.writeByte(Mensaje.SINCRONIZA.getCodigo());
+        salida.writeLong(epoca);
+        salida.writeLong(version);
+        salida.writeInt(operaciones.getLongitud());
+        if (compresion)
+            salida.writeByte(1);
+        for (Operacion<R> operacion : operaciones) {
+            escribeTrama(salida, operacion.getMensaje().getCodigo(), null);
+            escribeTrama(salida, TRAMA_REGISTRO, operacion.getRegistro());
+            if (operacion.getModificado() != null)
+                escribeTrama(salida, TRAMA_REGISTRO,
+                             operacion.getModificado());
+        }
+        return bytes.toByteArray();
+    }
+
+    /* Codifica en el protocolo actual operaciones seguidas. */
+    private byte[] codificaOperaciones(Lista<Operacion<R>> operaciones)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Operacion<R> operacion : operaciones)
+            bytes.write(codifica(operacion.getMensaje(),
+                                 operacion.getRegistro(),
+                                 operacion.getModificado()));
+        return bytes.toByteArray();
+    }
+
+    /* Codifica en el protocolo actual un mensaje seguido de registros; el
+     * mensaje y los registros pueden ser null. */
+    private byte[] codifica(Mensaje mensaje, R registro, R modificado)
+        throws IOException {
+        if (!binario) {
+            StringBuilder bufer = new StringBuilder();
+            if (mensaje != null)
+                bufer.append(mensaje.toString()).append('\n');
+            if (registro != null)
+                registro.serializa(bufer);
+            if (modificado != null)
+                modificado.serializa(bufer);
+            return bufer.toString().getBytes(CODIFICACION);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream salida = new DataOutputStream(bytes);
+        if (mensaje == Mensaje.BASE_DE_DATOS && compresion) {
+            salida.writeInt(2);
+            salida.writeByte(mensaje.getCodigo());
+            salida.writeByte(1);
+        } else if (mensaje != null) {
+            escribeTrama(salida, mensaje.getCodigo(), null);
+        }
+        if (registro != null)
+            escribeTrama(salida, TRAMA_REGISTRO, registro);
+        if (modificado != null)
+            escribeTrama(salida, TRAMA_REGISTRO, modificado);
+        return bytes.toByteArray();
+    }
+
+    /* Escribe la instantánea de la base de datos en la salida recibida, en el
+     * protocolo indicado y comprimida si se pide. */
+    private void escribeBaseDeDatos(OutputStream salida,
+                                    Instantanea<R> instantanea,
+                                    boolean binaria, boolean comprime)
+        throws IOException {
+        if (!binaria) {
+            BufferedWriter escritor = new BufferedWriter(
+                new OutputStreamWriter(salida, CODIFICACION));
+            instantanea.guarda(escritor);
+            escritor.newLine();
+            escritor.flush();
+            return;
+        }
+        DataOutputStream tramas = new DataOutputStream(salida);
+        if (!comprime) {
+            for (R registro : instantanea)
+                escribeTrama(tramas, TRAMA_REGISTRO, registro);
+            escribeTrama(tramas, TRAMA_FIN, null);
+            tramas.flush();
+            return;
+        }
+        /* Las tramas de los registros se comprimen en un solo flujo, que se
+         * escribe en tramas de bloque seguidas de la trama de fin. */
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream comprimido = new DeflaterOutputStream(
+                new SalidaDeBloques(tramas), deflater, TAMANO_BLOQUE);
+            DataOutputStream registros = new DataOutputStream(
+                new BufferedOutputStream(comprimido, TAMANO_BLOQUE));
+            for (R registro : instantanea)
+                escribeTrama(registros, TRAMA_REGISTRO, registro);
+            escribeTrama(registros, TRAMA_FIN, null);
+            registros.flush();
+            comprimido.finish();
+        } finally {
+            deflater.end();
+        }
+        escribeTrama(tramas, TRAMA_FIN, null);
+        tramas.flush();
+    }
+
+    /**
+     * Recibe la base de datos del otro lado de la conexión. Los registros se
+     * reciben completos antes de cargarlos en bloque con {@link
+     * BaseDeDatos#cargaMasiva}, así que los escuchas de la base de datos son
+     * notificados una vez con {@link EventoBaseDeDatos#BASE_LIMPIADA} y una
+     * vez con {@link EventoBaseDeDatos#BASE_CARGADA}, y no por cada registro.
+     * Si la base de datos no puede recibirse, la base de datos local no
+     * cambia. La carga se hace con el candado del objeto de la base de datos,
+     * pero no la recepción, para que otros hilos puedan excluir la carga sin
+     * esperar a la red.
      * 
      * @throws IOException si la base de datos no puede recibirse.
      */
     public void recibeBaseDeDatos() throws IOException {
          
-        bdd.carga(in);
+        Lista<R> registros = new Lista<R>();
+        if (texto != null) {
+            cargaLineas(registros);
+        } else if (!comprimida) {
+            cargaTramas(entradaBinaria, registros);
+        } else {
+            EntradaDeBloques bloques = new EntradaDeBloques(entradaBinaria);
+            Inflater inflater = new Inflater();
+            try {
+                cargaTramas(new DataInputStream(new InflaterInputStream(
+                    bloques, inflater, TAMANO_BLOQUE)), registros);
+                bloques.termina();
+            } finally {
+                inflater.end();
+            }
+        }
+        synchronized (bdd) {
+            bdd.cargaMasiva(registros);
+        }
+    }
+
+    /* Agrega a la lista los registros de las líneas de la entrada de texto,
+     * hasta la primera línea que no es un registro. */
+    private void cargaLineas(Lista<R> registros) throws IOException {
+        String linea;
+        while ((linea = texto.readLine()) != null) {
+            R registro = bdd.creaRegistro();
+            try {
+                registro.deserializa(linea);
+            } catch (ExcepcionLineaInvalida eli) {
+                return;
+            }
+            registros.agregaFinal(registro);
+        }
+    }
+
+    /* Agrega a la lista los registros de las tramas de la entrada, hasta la
+     * trama de fin. */
+    private void cargaTramas(DataInputStream tramas, Lista<R> registros)
+        throws IOException {
+        int tipo;
+        while ((tipo = leeTrama(tramas)) == TRAMA_REGISTRO) {
+            R registro = bdd.creaRegistro();
+            registro.lee(new DataInputStream(new ByteArrayInputStream(carga)));
+            registros.agregaFinal(registro);
+        }
+        if (tipo != TRAMA_FIN)
+            throw new IOException("Base de datos incompleta.");
     }
 
     /**
-     * Envía la base de datos al otro lado de la conexión.
+     * Envía la base de datos al otro lado de la conexión, con una instantánea
+     * que toma en este momento.
      * 
      * @throws IOException si la base de datos no puede enviarse.
      */
     public void enviaBaseDeDatos() throws IOException {
          
-        bdd.guarda(out);
-        out.newLine();
-        out.flush();
+        enviaBaseDeDatos(bdd.getInstantanea());
+    }
+
+    /**
+     * Envía la instantánea recibida de la base de datos al otro lado de la
+     * conexión. Permite tomar la instantánea con el candado de quien modifica
+     * la base de datos, y enviarla sin él. Si la conexión tiene cola de
+     * salida, se encola la instantánea y no la base de datos serializada: el
+     * escritor la serializa directamente en el enchufe, sin guardar en la
+     * memoria una copia serializada de toda la base de datos.
+     * 
+     * @param instantanea la instantánea de la base de datos.
+     * @throws IOException si la base de datos no puede enviarse.
+     * @throws IllegalArgumentException si la instantánea es
+     *                                  <code>null</code>.
+     */
+    public void enviaBaseDeDatos(Instantanea<R> instantanea)
+        throws IOException {
+         
+        if (instantanea == null)
+            throw new IllegalArgumentException();
+        synchronized (this) {
+            if (cola == null) {
+                escribeBaseDeDatos(out, instantanea, binario,
+                                   binario && compresion);
+                out.flush();
+                return;
+            }
+            /* El escritor la escribe directamente de la instantánea, sin
+             * copiar la base de datos serializada en la cola. */
+            if (encola(new Pendiente<R>(instantanea, binario,
+                                        binario && compresion)))
+                return;
+        }
+        saturada();
+    }
+
+    /* Empieza a retener los envíos, que se enviarán después de la base de
+     * datos que envíe enviaBaseDeDatos(Instantanea, long, long). Permite
+     * que quien modifica la base de datos tome la instantánea y empiece a
+     * enviarle los cambios a la conexión con su candado, y que la
+     * instantánea se envíe sin él. */
+    synchronized void retieneEnvios() {
+        retenidos = new ArrayDeque<Pendiente<R>>();
+    }
+
+    /* Envía el mensaje BASE_DE_DATOS con la instantánea, seguido de un
+     * mensaje SINCRONIZA con la época y la versión de la instantánea y sin
+     * operaciones, antes de los envíos retenidos; después deja de
+     * retenerlos. Sin cola de salida, la instantánea se escribe sin el
+     * candado de la conexión: mientras tanto, los demás envíos se
+     * retienen. */
+    void enviaBaseDeDatos(Instantanea<R> instantanea, long epoca, long version)
+        throws IOException {
+        boolean binaria;
+        synchronized (this) {
+            if (cola != null) {
+                try {
+                    if (!encola(new Pendiente<R>(
+                            codifica(Mensaje.BASE_DE_DATOS, null, null),
+                            false)) ||
+                        !encola(new Pendiente<R>(instantanea, binario,
+                                                 binario && compresion)) ||
+                        !encola(new Pendiente<R>(
+                            codificaCambios(epoca, version,
+                                            new Lista<Operacion<R>>()),
+                            false)) ||
+                        !liberaRetenidos())
+                        saturada();
+                } finally {
+                    retenidos = null;
+                }
+                return;
+            }
+            binaria = binario;
+        }
+        try {
+            out.write(codifica(Mensaje.BASE_DE_DATOS, null, null));
+            escribeBaseDeDatos(out, instantanea, binaria,
+                               binaria && compresion);
+            synchronized (this) {
+                out.write(codificaCambios(epoca, version,
+                                          new Lista<Operacion<R>>()));
+                for (Pendiente<R> pendiente : retenidos)
+                    out.write(pendiente.bytes);
+                out.flush();
+            }
+        } finally {
+            synchronized (this) {
+                retenidos = null;
+            }
+        }
+    }
+
+    /* Encola los envíos retenidos, con el candado de la conexión; regresa
+     * false si la cola se llena y hay que desconectar. */
+    private boolean liberaRetenidos() throws IOException {
+        for (Pendiente<R> pendiente : retenidos)
+            if (!encola(pendiente))
+                return false;
+        return true;
     }
 
     /**
@@ -122,10 +912,12 @@ public class Conexion<R extends Registro<R, ?>> {
      */
     public R recibeRegistro() throws IOException {
          
+        if (texto == null)
+            return leeRegistro();
         String rS = null;
         R resgistro = bdd.creaRegistro();
         try {
-            rS = in.readLine();
+            rS = texto.readLine();
             resgistro.deserializa(rS);
         } catch (IOException e) {
             throw new IOException();
@@ -133,6 +925,83 @@ public class Conexion<R extends Registro<R, ?>> {
         return resgistro;
     }
 
+    /**
+     * Recibe los registros de un mensaje de lote del otro lado de la conexión.
+     * Debe llamarse después de recibir {@link Mensaje#REGISTROS_AGREGADOS} o
+     * {@link Mensaje#REGISTROS_ELIMINADOS}.
+     * 
+     * @return los registros del lote.
+     * @throws IOException si los registros no pueden recibirse.
+     */
+    public Lista<R> recibeRegistros() throws IOException {
+         
+        Lista<R> registros = new Lista<R>();
+        for (int i = 0; i < cuenta; i++)
+            registros.agregaFinal(recibeRegistro());
+        return registros;
+    }
+
+    /**
+     * Regresa la época del último mensaje {@link Mensaje#SINCRONIZA} recibido.
+     * 
+     * @return la época del último mensaje de sincronización.
+     */
+    public long getEpoca() {
+         
+        return epoca;
+    }
+
+    /**
+     * Regresa la versión del último mensaje {@link Mensaje#SINCRONIZA}
+     * recibido.
+     * 
+     * @return la versión del último mensaje de sincronización.
+     */
+    public long getVersion() {
+         
+        return version;
+    }
+
+    /**
+     * Recibe las operaciones de un mensaje de sincronización del otro lado de
+     * la conexión. Debe llamarse después de recibir {@link
+     * Mensaje#SINCRONIZA}.
+     * 
+     * @return las operaciones del mensaje, en el orden en que hay que
+     *         aplicarlas.
+     * @throws IOException si las operaciones no pueden recibirse.
+     */
+    public Lista<Operacion<R>> recibeOperaciones() throws IOException {
+         
+        Lista<Operacion<R>> operaciones = new Lista<Operacion<R>>();
+        for (int i = 0; i < cuenta; i++)
+            operaciones.agregaFinal(recibeOperacion());
+        return operaciones;
+    }
+
+    /* Recibe una operación: su mensaje seguido de sus registros. */
+    private Operacion<R> recibeOperacion() throws IOException {
+        Mensaje mensaje;
+        if (texto == null) {
+            mensaje = Mensaje.getMensaje((byte)leeTrama());
+        } else {
+            String linea = texto.readLine();
+            if (linea == null)
+                throw new IOException("Operación incompleta.");
+            mensaje = Mensaje.getMensaje(linea);
+        }
+        switch (mensaje) {
+        case REGISTRO_AGREGADO:
+        case REGISTRO_ELIMINADO:
+            return new Operacion<R>(mensaje, recibeRegistro());
+        case REGISTRO_MODIFICADO:
+            R registro = recibeRegistro();
+            return new Operacion<R>(registro, recibeRegistro());
+        default:
+            throw new IOException("Se esperaba una operación.");
+        }
+    }
+
     /**
      * Envía un registro al otro lado de la conexión.
      * 
@@ -141,9 +1010,7 @@ public class Conexion<R extends Registro<R, ?>> {
      */
     public void enviaRegistro(R registro) throws IOException {
          
-        String rs = registro.serializa();
-        out.write(rs);
-        out.flush();
+        envia(null, registro, null, false);
     }
 
     /**
@@ -154,8 +1021,347 @@ public class Conexion<R extends Registro<R, ?>> {
      */
     public void enviaMensaje(Mensaje mensaje) throws IOException {
          
-        out.write(mensaje.toString() + "\n");
-        out.flush();
+        envia(mensaje, null, null, false);
+    }
+
+    /**
+     * Envía una operación al otro lado de la conexión: su mensaje seguido de
+     * sus registros, con una sola escritura. Si la conexión tiene cola de
+     * salida y está pendiente una resincronización, la operación se descarta,
+     * porque la base de datos que se enviará ya la incluye.
+     * 
+     * @param operacion la operación a enviar.
+     * @throws IOException si la operación no puede enviarse.
+     */
+    public void enviaOperacion(Operacion<R> operacion) throws IOException {
+         
+        envia(operacion.getMensaje(), operacion.getRegistro(),
+              operacion.getModificado(), true);
+    }
+
+    /**
+     * Envía operaciones al otro lado de la conexión, una tras otra, con una
+     * sola escritura; del otro lado se reciben como si se hubieran enviado
+     * con {@link #enviaOperacion}. Como las operaciones, si la conexión tiene
+     * cola de salida y está pendiente una resincronización, se descartan.
+     * 
+     * @param operaciones las operaciones a enviar.
+     * @throws IOException si las operaciones no pueden enviarse.
+     */
+    public void enviaOperaciones(Lista<Operacion<R>> operaciones)
+        throws IOException {
+         
+        if (operaciones.esVacia())
+            return;
+        envia(() -> codificaOperaciones(operaciones), true);
+    }
+
+    /**
+     * Envía un lote de registros al otro lado de la conexión: el mensaje con
+     * el número de registros, seguido de los registros, con una sola
+     * escritura. Los lotes de más de {@value #MAXIMO_LOTE} registros se
+     * parten en varios mensajes. Como las operaciones, si la conexión tiene
+     * cola de salida y está pendiente una resincronización, el lote se
+     * descarta.
+     * 
+     * @param mensaje el mensaje del lote: {@link Mensaje#REGISTROS_AGREGADOS}
+     *                o {@link Mensaje#REGISTROS_ELIMINADOS}.
+     * @param registros los registros del lote.
+     * @throws IOException si el lote no puede enviarse.
+     * @throws IllegalArgumentException si el mensaje no es de un lote.
+     */
+    public void enviaRegistros(Mensaje mensaje, Lista<R> registros)
+        throws IOException {
+         
+        if (!mensaje.isLote())
+            throw new IllegalArgumentException();
+        Lista<R> lote = new Lista<R>();
+        for (R registro : registros) {
+            lote.agregaFinal(registro);
+            if (lote.getLongitud() == MAXIMO_LOTE) {
+                enviaLote(mensaje, lote);
+                lote = new Lista<R>();
+            }
+        }
+        if (!lote.esVacia())
+            enviaLote(mensaje, lote);
+    }
+
+    /**
+     * Envía al otro lado de la conexión un mensaje {@link
+     * Mensaje#SINCRONIZA} con la época y la versión recibidas, seguido de las
+     * operaciones, con una sola escritura. Un cliente lo envía sin
+     * operaciones para pedir los cambios posteriores a la versión que tiene;
+     * el servidor lo envía con las operaciones que llevan a la versión. Como
+     * las operaciones, si la conexión tiene cola de salida y está pendiente
+     * una resincronización, el mensaje se descarta.
+     * 
+     * @param epoca la época de la base de datos.
+     * @param version la versión de la base de datos.
+     * @param operaciones las operaciones que llevan a la versión.
+     * @throws IOException si el mensaje no puede enviarse.
+     */
+    public void enviaCambios(long epoca, long version,
+                             Lista<Operacion<R>> operaciones)
+        throws IOException {
+         
+        envia(() -> codificaCambios(epoca, version, operaciones), true);
+    }
+
+    /* Reenvía una operación que ya se aplicó a la base de datos, sin el
+     * candado con el que se modifica; sólo sin cola de salida. La descarta si
+     * la conexión ya empezó a recibir los cambios con versión, porque la base
+     * de datos o los cambios que se le envían ya la incluyen. */
+    synchronized void reenviaOperacion(Operacion<R> operacion)
+        throws IOException {
+        if (!versionada && retenidos == null)
+            enviaOperacion(operacion);
+    }
+
+    /* Reenvía un lote de registros como reenviaOperacion. */
+    synchronized void reenviaRegistros(Mensaje mensaje, Lista<R> registros)
+        throws IOException {
+        if (!versionada && retenidos == null)
+            enviaRegistros(mensaje, registros);
+    }
+
+    /* Envía un lote de a lo más MAXIMO_LOTE registros. */
+    private void enviaLote(Mensaje mensaje, Lista<R> lote) throws IOException {
+        envia(() -> codificaLote(mensaje, lote), true);
+    }
+
+    /**
+     * Hace que los envíos de la conexión se encolen y se escriban en un hilo
+     * de ejecución del ejecutor recibido, en lugar de que el hilo que envía
+     * espere a que el otro lado lea. Cuando la cola tiene la capacidad
+     * máxima de envíos pendientes, la conexión sigue la política recibida.
+     * Las instantáneas de las resincronizaciones se toman con el candado de
+     * la conexión, así que la base de datos no debe modificarse mientras la
+     * conexión está activa; si se modifica, hay que usar {@link
+     * #activaColaDeSalida(int,PoliticaDeSaturacion,Executor,Object)}.
+     * 
+     * @param capacidad el máximo de envíos pendientes.
+     * @param politica la política para cuando la cola se llena.
+     * @param escritores el ejecutor de los escritores.
+     * @throws IllegalArgumentException si la capacidad no es positiva, o si
+     *         la política o el ejecutor son <code>null</code>.
+     */
+    public void activaColaDeSalida(int capacidad,
+                                   PoliticaDeSaturacion politica,
+                                   Executor escritores) {
+         
+        activaColaDeSalida(capacidad, politica, escritores, this);
+    }
+
+    /**
+     * Hace que los envíos de la conexión se encolen como {@link
+     * #activaColaDeSalida(int,PoliticaDeSaturacion,Executor)}, con el
+     * candado con el que se modifica la base de datos. Quien modifica la base
+     * de datos debe enviarle las operaciones a la conexión sin soltar el
+     * candado; el escritor toma con él la instantánea de una
+     * resincronización y la descarta de las operaciones pendientes, así que
+     * cada operación llega al otro lado exactamente una vez: en la
+     * instantánea, o después de ella.
+     * 
+     * @param capacidad el máximo de envíos pendientes.
+     * @param politica la política para cuando la cola se llena.
+     * @param escritores el ejecutor de los escritores.
+     * @param candado el candado con el que se modifica la base de datos.
+     * @throws IllegalArgumentException si la capacidad no es positiva, o si
+     *         la política, el ejecutor o el candado son <code>null</code>.
+     */
+    public synchronized void activaColaDeSalida(int capacidad,
+                                                PoliticaDeSaturacion politica,
+                                                Executor escritores,
+                                                Object candado) {
+         
+        if (capacidad < 1 || politica == null || escritores == null ||
+            candado == null)
+            throw new IllegalArgumentException();
+        this.capacidad = capacidad;
+        this.politica = politica;
+        this.escritores = escritores;
+        this.candado = candado;
+        if (cola == null)
+            cola = new ArrayDeque<Pendiente<R>>();
+    }
+
+    /* Escribe un mensaje seguido de registros en el enchufe, o los encola si
+     * hay cola de salida. */
+    private void envia(Mensaje mensaje, R registro, R modificado,
+                       boolean operacion) throws IOException {
+        envia(() -> codifica(mensaje, registro, modificado), operacion);
+    }
+
+    /* Escribe lo que codifica el codificador en el enchufe, o lo encola si
+     * hay cola de salida. */
+    private void envia(Codificador codificador, boolean operacion)
+        throws IOException {
+        synchronized (this) {
+            if (retenidos != null) {
+                if (!activa)
+                    throw new IOException("La conexión está cerrada.");
+                retenidos.add(new Pendiente<R>(codificador.codifica(),
+                                               operacion));
+                return;
+            }
+            if (cola == null) {
+                out.write(codificador.codifica());
+                out.flush();
+                return;
+            }
+            if (!activa)
+                throw new IOException("La conexión está cerrada.");
+            if ((operacion && resincroniza) ||
+                encola(new Pendiente<R>(codificador.codifica(), operacion)))
+                return;
+        }
+        saturada();
+    }
+
+    /* Encola lo pendiente, con el candado de la conexión; regresa false si
+     * la cola está llena y hay que desconectar. */
+    private boolean encola(Pendiente<R> pendiente) throws IOException {
+        boolean operacion = pendiente.operacion;
+        if (!activa)
+            throw new IOException("La conexión está cerrada.");
+        if (operacion && resincroniza)
+            return true;
+        if (cola.size() >= capacidad) {
+            if (politica == PoliticaDeSaturacion.RESINCRONIZAR) {
+                /* Las respuestas no se pueden sustituir; si llenan la cola,
+                 * el otro lado no está leyendo. */
+                cola.removeIf(p -> p.operacion);
+                resincroniza = true;
+            }
+            if (cola.size() >= capacidad)
+                return false;
+            if (operacion)
+                return true;
+        }
+        cola.add(pendiente);
+        programaEscritor();
+        return true;
+    }
+
+    /* Desconecta la conexión porque su cola de salida se llenó. */
+    private void saturada() throws IOException {
+        IOException ioe = new IOException("La cola de salida está llena.");
+        if (activa)
+            falloDeSalida = ioe;
+        desconecta();
+        throw ioe;
+    }
+
+    /* Programa un escritor para vaciar la cola, si no hay uno ya. */
+    private void programaEscritor() throws IOException {
+        if (escribiendo)
+            return;
+        escribiendo = true;
+        try {
+            escritores.execute(() -> escribe());
+        } catch (RejectedExecutionException ree) {
+            escribiendo = false;
+            throw new IOException("No hay escritores.");
+        }
+    }
+
+    /* Vacía la cola de salida en el enchufe; vacía el búfer sólo cuando la
+     * cola se queda vacía. La instantánea de una resincronización se toma
+     * con el candado de quien modifica la base de datos, antes que el de la
+     * conexión, en el mismo orden en que los toma quien envía las
+     * operaciones; así ninguna operación queda a la vez en la instantánea y
+     * en la cola. */
+    private void escribe() {
+        boolean sucio = false;
+        try {
+            while (true) {
+                Pendiente<R> pendiente = null;
+                byte[] encabezado = null;
+                Instantanea<R> instantanea = null;
+                boolean binaria = false;
+                boolean comprime = false;
+                boolean resincronizacion = false;
+                synchronized (this) {
+                    if (resincroniza)
+                        resincronizacion = true;
+                    else
+                        pendiente = cola.poll();
+                    if (!resincronizacion && pendiente == null && !sucio) {
+                        escribiendo = false;
+                        return;
+                    }
+                }
+                if (resincronizacion) {
+                    synchronized (candado) {
+                        synchronized (this) {
+                            /* La conexión pudo cerrarse sin el candado. */
+                            if (!resincroniza)
+                                continue;
+                            resincroniza = false;
+                            encabezado = codifica(Mensaje.BASE_DE_DATOS,
+                                                  null, null);
+                            instantanea = bdd.getInstantanea();
+                            binaria = binario;
+                            comprime = binario && compresion;
+                        }
+                    }
+                }
+                if (encabezado != null) {
+                    out.write(encabezado);
+                    escribeBaseDeDatos(out, instantanea, binaria, comprime);
+                    sucio = true;
+                } else if (pendiente != null &&
+                           pendiente.instantanea != null) {
+                    escribeBaseDeDatos(out, pendiente.instantanea,
+                                       pendiente.binaria, pendiente.comprime);
+                    sucio = true;
+                } else if (pendiente != null) {
+                    out.write(pendiente.bytes);
+                    sucio = true;
+                } else {
+                    out.flush();
+                    sucio = false;
+                }
+            }
+        } catch (IOException ioe) {
+            synchronized (this) {
+                cola.clear();
+                escribiendo = false;
+            }
+            /* Si la conexión ya se había cerrado, el error es el cierre. */
+            if (activa)
+                falloDeSalida = ioe;
+            desconecta();
+        }
+    }
+
+    /**
+     * Regresa el error con el que la cola de salida cerró la conexión: porque
+     * un escritor no pudo escribir, o porque la cola se llenó. Si la conexión
+     * no tiene cola de salida, o si se cerró por otra razón, regresa
+     * <code>null</code>. El error se registra antes de cerrar la conexión,
+     * así que los escuchas pueden consultarlo al recibir {@link
+     * Mensaje#DESCONECTAR}.
+     * 
+     * @return el error con el que la cola de salida cerró la conexión, o
+     *         <code>null</code>.
+     */
+    public IOException getFalloDeSalida() {
+         
+        return falloDeSalida;
+    }
+
+    /* Nos dice si el servidor le envía los cambios a la conexión con
+     * versión. */
+    boolean isVersionada() {
+        return versionada;
+    }
+
+    /* Define si el servidor le envía los cambios a la conexión con
+     * versión. */
+    void setVersionada(boolean versionada) {
+        this.versionada = versionada;
     }
 
     /**
@@ -165,7 +1371,17 @@ public class Conexion<R extends Registro<R, ?>> {
      */
     public int getSerial() {
          
-        return contadorSerial;
+        return serial;
+    }
+
+    /**
+     * Regresa el enchufe de la conexión.
+     * 
+     * @return el enchufe de la conexión.
+     */
+    public Socket getEnchufe() {
+         
+        return enchufe;
     }
 
     /**
@@ -174,6 +1390,11 @@ public class Conexion<R extends Registro<R, ?>> {
     public void desconecta() {
          
         activa = false;
+        if (cola != null)
+            synchronized (this) {
+                cola.clear();
+                resincroniza = false;
+            }
         try {
             enchufe.close();
         } catch (IOException e) {
@@ -0,0 +1,522 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.Tarjeta;
+
+/**
+ * Generador de carga de punta a punta para un servidor de tarjetas. Conecta
+ * varios clientes simulados, cada uno con su {@link Conexion} y su hilo de
+ * ejecución, que mandan mensajes al servidor uno detrás de otro, eligiéndolos
+ * al azar con los pesos de la mezcla. El generador mide:
+ *
+ * <ul>
+ * <li>La latencia de cada mensaje. Para {@link Mensaje#ECO} y {@link
+ * Mensaje#BASE_DE_DATOS} es el tiempo hasta recibir la respuesta. El
+ * servidor no contesta los registros agregados, eliminados o modificados, así
+ * que el cliente manda un eco detrás de cada uno y mide hasta recibirlo: el
+ * servidor procesa los mensajes de una conexión en orden.</li>
+ * <li>El retraso de propagación: el tiempo desde que un cliente manda un
+ * cambio hasta que cada uno de los demás clientes lo recibe, ya sea solo, en
+ * un lote o en un mensaje {@link Mensaje#SINCRONIZA}.</li>
+ * </ul>
+ *
+ * Cada cliente sólo elimina y modifica tarjetas que él agregó, para que los
+ * cambios de distintos clientes no choquen. Los clientes leen los cambios
+ * que les llegan pero no los aplican, para que el costo de los clientes no se
+ * mezcle con el del servidor.
+ */
+public class GeneradorDeCarga {
+
+    /* Un cambio enviado, esperando que los demás clientes lo reciban. */
+    private static class Envio {
+
+        /* El tiempo de envío, en nanosegundos. */
+        private long tiempo;
+        /* El número de clientes que faltan por recibirlo. */
+        private AtomicInteger pendientes;
+
+        /* Construye un envío. */
+        private Envio(long tiempo, int pendientes) {
+            this.tiempo = tiempo;
+            this.pendientes = new AtomicInteger(pendientes);
+        }
+    }
+
+    /* Un cliente simulado. */
+    private class Cliente {
+
+        /* El identificador del cliente. */
+        private int id;
+        /* Generador de números aleatorios. */
+        private Random random;
+        /* El enchufe. */
+        private Socket enchufe;
+        /* La conexión. */
+        private Conexion<Tarjeta> conexion;
+        /* Se libera cada vez que llega una respuesta. */
+        private Semaphore respuestas;
+        /* Las latencias por mensaje; sólo las escribe el hilo del cliente. */
+        private EnumMap<Mensaje, HistogramaDeLatencias> latencias;
+        /* Los retrasos de propagación; sólo los escribe el hilo que recibe. */
+        private HistogramaDeLatencias propagacion;
+        /* Las tarjetas del cliente en el servidor. */
+        private Tarjeta[] tarjetas;
+        /* El número de tarjetas del cliente en el servidor. */
+        private int n;
+        /* El número de tarjetas creadas por el cliente. */
+        private long creadas;
+        /* El hilo que manda los mensajes. */
+        private Thread hilo;
+        /* El hilo que recibe los mensajes. */
+        private Thread receptor;
+
+        /* Construye y conecta un cliente. */
+        private Cliente(int id) throws IOException {
+            this.id = id;
+            random = new Random(semilla + id);
+            respuestas = new Semaphore(0);
+            latencias = new EnumMap<Mensaje, HistogramaDeLatencias>(
+                Mensaje.class);
+            propagacion = new HistogramaDeLatencias();
+            tarjetas = new Tarjeta[16];
+            enchufe = new Socket(servidor, puerto);
+            enchufe.setTcpNoDelay(true);
+            conexion = new Conexion<Tarjeta>(new BaseDeDatosTarjetas(),
+                                             enchufe);
+            conexion.agregaEscucha((c, m) -> mensajeRecibido(m));
+            if (binaria)
+                conexion.activaProtocoloBinario();
+            receptor = new Thread(() -> conexion.recibeMensajes());
+            receptor.start();
+            hilo = new Thread(() -> trabaja());
+        }
+
+        /* Recibe un mensaje del servidor. */
+        private void mensajeRecibido(Mensaje mensaje) {
+            try {
+                switch (mensaje) {
+                case ECO:
+                    respuestas.release();
+                    break;
+                case BASE_DE_DATOS:
+                    conexion.recibeBaseDeDatos();
+                    respuestas.release();
+                    break;
+                case REGISTRO_AGREGADO:
+                case REGISTRO_ELIMINADO:
+                    recibido(mensaje, conexion.recibeRegistro());
+                    break;
+                case REGISTRO_MODIFICADO:
+                    conexion.recibeRegistro();
+                    recibido(mensaje, conexion.recibeRegistro());
+                    break;
+                case REGISTROS_AGREGADOS:
+                    for (Tarjeta t : conexion.recibeRegistros())
+                        recibido(Mensaje.REGISTRO_AGREGADO, t);
+                    break;
+                case REGISTROS_ELIMINADOS:
+                    for (Tarjeta t : conexion.recibeRegistros())
+                        recibido(Mensaje.REGISTRO_ELIMINADO, t);
+                    break;
+                case SINCRONIZA:
+                    for (Operacion<Tarjeta> o : conexion.recibeOperaciones())
+                        recibido(o.getMensaje(),
+                                 o.getModificado() != null ?
+                                 o.getModificado() : o.getRegistro());
+                    break;
+                default:
+                    break;
+                }
+            } catch (IOException ioe) {
+                conexion.desconecta();
+            }
+        }
+
+        /* Registra el retraso de propagación de un cambio recibido. */
+        private void recibido(Mensaje mensaje, Tarjeta tarjeta) {
+            long ahora = System.nanoTime();
+            String llave = llave(mensaje, tarjeta);
+            Envio envio = envios.get(llave);
+            if (envio == null)
+                return;
+            if (envio.pendientes.decrementAndGet() == 0)
+                envios.remove(llave);
+            if (midiendo(envio.tiempo))
+                propagacion.registra(ahora - envio.tiempo);
+        }
+
+        /* Manda mensajes mientras la carga esté corriendo. */
+        private void trabaja() {
+            try {
+                while (corriendo && conexion.isActiva())
+                    envia(eligeMensaje());
+            } catch (IOException | InterruptedException e) {
+                conexion.desconecta();
+            }
+        }
+
+        /* Elige un mensaje al azar con los pesos de la mezcla. */
+        private Mensaje eligeMensaje() {
+            int r = random.nextInt(total);
+            for (Mensaje m : pesos.keySet()) {
+                r -= pesos.get(m);
+                if (r < 0)
+                    return m;
+            }
+            return Mensaje.ECO;
+        }
+
+        /* Manda un mensaje y espera su respuesta, o la de un eco. */
+        private void envia(Mensaje mensaje)
+            throws IOException, InterruptedException {
+            if (n == 0 && (mensaje == Mensaje.REGISTRO_ELIMINADO ||
+                           mensaje == Mensaje.REGISTRO_MODIFICADO))
+                mensaje = Mensaje.REGISTRO_AGREGADO;
+            long inicio = System.nanoTime();
+            switch (mensaje) {
+            case REGISTRO_AGREGADO:
+                agrega(inicio);
+                break;
+            case REGISTRO_ELIMINADO:
+                elimina(inicio);
+                break;
+            case REGISTRO_MODIFICADO:
+                modifica(inicio);
+                break;
+            default:
+                conexion.enviaMensaje(mensaje);
+            }
+            if (mensaje != Mensaje.BASE_DE_DATOS && mensaje != Mensaje.ECO)
+                conexion.enviaMensaje(Mensaje.ECO);
+            while (!respuestas.tryAcquire(ESPERA, TimeUnit.MILLISECONDS))
+                if (!corriendo || !conexion.isActiva())
+                    return;
+            long fin = System.nanoTime();
+            if (midiendo(inicio)) {
+                latencias.computeIfAbsent(
+                    mensaje, m -> new HistogramaDeLatencias())
+                    .registra(fin - inicio);
+                operaciones.incrementAndGet();
+            }
+        }
+
+        /* Agrega una tarjeta nueva. */
+        private void agrega(long inicio) throws IOException {
+            Tarjeta t = new Tarjeta(
+                "Cliente " + id,
+                String.format("9%03d%012d", id % 1000, creadas++),
+                100 + random.nextInt(900),
+                String.format("%02d/%02d", 1 + random.nextInt(12),
+                              22 + random.nextInt(78)),
+                creadas);
+            if (n == tarjetas.length) {
+                Tarjeta[] nuevas = new Tarjeta[2 * n];
+                System.arraycopy(tarjetas, 0, nuevas, 0, n);
+                tarjetas = nuevas;
+            }
+            tarjetas[n++] = t;
+            Operacion<Tarjeta> operacion =
+                new Operacion<Tarjeta>(Mensaje.REGISTRO_AGREGADO, t);
+            registraEnvio(Mensaje.REGISTRO_AGREGADO, t, inicio);
+            conexion.enviaOperacion(operacion);
+        }
+
+        /* Elimina una de las tarjetas del cliente. */
+        private void elimina(long inicio) throws IOException {
+            int i = random.nextInt(n);
+            Tarjeta t = tarjetas[i];
+            tarjetas[i] = tarjetas[--n];
+            tarjetas[n] = null;
+            Operacion<Tarjeta> operacion =
+                new Operacion<Tarjeta>(Mensaje.REGISTRO_ELIMINADO, t);
+            registraEnvio(Mensaje.REGISTRO_ELIMINADO, t, inicio);
+            conexion.enviaOperacion(operacion);
+        }
+
+        /* Modifica el saldo de una de las tarjetas del cliente; el saldo
+         * nuevo no se repite, para distinguir cada modificación. */
+        private void modifica(long inicio) throws IOException {
+            int i = random.nextInt(n);
+            Tarjeta t = tarjetas[i];
+            Tarjeta m = new Tarjeta(t.getNombreDelPropietario(),
+                                    t.getNumeroDeTarjeta(),
+                                    t.getCodigoDeSeguridad(),
+                                    t.getFechaDeVencimiento(), ++creadas);
+            tarjetas[i] = m;
+            Operacion<Tarjeta> operacion = new Operacion<Tarjeta>(t, m);
+            registraEnvio(Mensaje.REGISTRO_MODIFICADO, m, inicio);
+            conexion.enviaOperacion(operacion);
+        }
+
+        /* Se desconecta del servidor. */
+        private void desconecta() throws InterruptedException {
+            try {
+                if (conexion.isActiva())
+                    conexion.enviaMensaje(Mensaje.DESCONECTAR);
+            } catch (IOException ioe) {}
+            conexion.desconecta();
+            receptor.join();
+        }
+    }
+
+    /* Espera máxima por cada respuesta antes de revisar si la carga sigue
+     * corriendo, en milisegundos. */
+    private static final long ESPERA = 100;
+
+    /* El servidor. */
+    private String servidor;
+    /* El puerto. */
+    private int puerto;
+    /* El número de clientes. */
+    private int clientes;
+    /* Los pesos de los mensajes en la mezcla. */
+    private EnumMap<Mensaje, Integer> pesos;
+    /* La suma de los pesos. */
+    private int total;
+    /* Si los clientes usan el protocolo binario. */
+    private boolean binaria;
+    /* La semilla de los generadores de números aleatorios. */
+    private long semilla;
+
+    /* Los cambios enviados que no han recibido todos los clientes. */
+    private ConcurrentHashMap<String, Envio> envios;
+    /* Si la carga está corriendo. */
+    private volatile boolean corriendo;
+    /* El inicio de la medición, en nanosegundos. */
+    private volatile long inicioMedicion;
+    /* El fin de la medición, en nanosegundos. */
+    private volatile long finMedicion;
+    /* El número de operaciones medidas. */
+    private AtomicInteger operaciones;
+    /* Las latencias combinadas de todos los clientes. */
+    private EnumMap<Mensaje, HistogramaDeLatencias> latencias;
+    /* Los retrasos de propagación combinados de todos los clientes. */
+    private HistogramaDeLatencias propagacion;
+
+    /**
+     * Construye un generador de carga para el servidor en el puerto
+     * recibido. La mezcla inicial tiene 40% de ecos, 25% de registros
+     * agregados, 15% de eliminados, 19% de modificados y 1% de peticiones de
+     * la base de datos completa.
+     *
+     * @param servidor el nombre o la dirección del servidor.
+     * @param puerto el puerto del servidor.
+     * @param clientes el número de clientes simulados.
+     * @throws IllegalArgumentException si el servidor es <code>null</code>,
+     *                                  el puerto no es válido o el número de
+     *                                  clientes es menor a uno.
+     */
+    public GeneradorDeCarga(String servidor, int puerto, int clientes) {
+        if (servidor == null || puerto < 1 || puerto > 65535 || clientes < 1)
+            throw new IllegalArgumentException();
+        this.servidor = servidor;
+        this.puerto = puerto;
+        this.clientes = clientes;
+        pesos = new EnumMap<Mensaje, Integer>(Mensaje.class);
+        setPeso(Mensaje.ECO, 40);
+        setPeso(Mensaje.REGISTRO_AGREGADO, 25);
+        setPeso(Mensaje.REGISTRO_ELIMINADO, 15);
+        setPeso(Mensaje.REGISTRO_MODIFICADO, 19);
+        setPeso(Mensaje.BASE_DE_DATOS, 1);
+        envios = new ConcurrentHashMap<String, Envio>();
+        operaciones = new AtomicInteger();
+        latencias = new EnumMap<Mensaje, HistogramaDeLatencias>(Mensaje.class);
+        propagacion = new HistogramaDeLatencias();
+    }
+
+    /**
+     * Define el peso de un mensaje en la mezcla. Cada cliente elige cada
+     * mensaje con probabilidad proporcional a su peso.
+     *
+     * @param mensaje el mensaje: {@link Mensaje#ECO}, {@link
+     *                Mensaje#BASE_DE_DATOS}, {@link
+     *                Mensaje#REGISTRO_AGREGADO}, {@link
+     *                Mensaje#REGISTRO_ELIMINADO} o {@link
+     *                Mensaje#REGISTRO_MODIFICADO}.
+     * @param peso el peso del mensaje; cero lo quita de la mezcla.
+     * @throws IllegalArgumentException si el mensaje no es uno de los
+     *                                  anteriores o el peso es negativo.
+     */
+    public void setPeso(Mensaje mensaje, int peso) {
+        if (mensaje == null || peso < 0)
+            throw new IllegalArgumentException();
+        switch (mensaje) {
+        case ECO:
+        case BASE_DE_DATOS:
+        case REGISTRO_AGREGADO:
+        case REGISTRO_ELIMINADO:
+        case REGISTRO_MODIFICADO:
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+        Integer anterior = pesos.remove(mensaje);
+        if (anterior != null)
+            total -= anterior;
+        if (peso > 0)
+            pesos.put(mensaje, peso);
+        total += peso;
+    }
+
+    /**
+     * Hace que los clientes usen el protocolo binario.
+     */
+    public void activaProtocoloBinario() {
+        binaria = true;
+    }
+
+    /**
+     * Define la semilla de los generadores de números aleatorios de los
+     * clientes, para repetir la misma secuencia de mensajes.
+     *
+     * @param semilla la semilla.
+     */
+    public void setSemilla(long semilla) {
+        this.semilla = semilla;
+    }
+
+    /**
+     * Conecta a los clientes y corre la carga, descartando las mediciones de
+     * cualquier corrida anterior. Los mensajes que se manden durante el
+     * calentamiento no se miden. El método no termina hasta que todos los
+     * clientes se desconectan.
+     *
+     * @param calentamiento el tiempo de calentamiento, en milisegundos.
+     * @param duracion el tiempo de medición, en milisegundos.
+     * @throws IllegalArgumentException si algún tiempo es negativo, la
+     *                                  duración es cero, o la mezcla está
+     *                                  vacía.
+     * @throws IOException si algún cliente no puede conectarse.
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    public void corre(long calentamiento, long duracion)
+        throws IOException, InterruptedException {
+        if (calentamiento < 0 || duracion <= 0 || total == 0)
+            throw new IllegalArgumentException();
+        operaciones.set(0);
+        latencias.clear();
+        propagacion = new HistogramaDeLatencias();
+        Cliente[] c = new Cliente[clientes];
+        try {
+            for (int i = 0; i < clientes; i++)
+                c[i] = new Cliente(i);
+            inicioMedicion = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(calentamiento);
+            finMedicion = inicioMedicion +
+                TimeUnit.MILLISECONDS.toNanos(duracion);
+            corriendo = true;
+            for (Cliente cliente : c)
+                cliente.hilo.start();
+            Thread.sleep(calentamiento + duracion);
+        } finally {
+            corriendo = false;
+            for (Cliente cliente : c) {
+                if (cliente == null)
+                    continue;
+                if (cliente.hilo.isAlive())
+                    cliente.hilo.join();
+                cliente.desconecta();
+            }
+        }
+        for (Cliente cliente : c) {
+            for (Mensaje m : cliente.latencias.keySet())
+                latencias.computeIfAbsent(m, k -> new HistogramaDeLatencias())
+                    .agrega(cliente.latencias.get(m));
+            propagacion.agrega(cliente.propagacion);
+        }
+        envios.clear();
+    }
+
+    /**
+     * Regresa el número de operaciones medidas.
+     *
+     * @return el número de operaciones medidas.
+     */
+    public int getOperaciones() {
+        return operaciones.get();
+    }
+
+    /**
+     * Regresa el rendimiento medido: operaciones por segundo.
+     *
+     * @return el número de operaciones por segundo.
+     */
+    public double getRendimiento() {
+        long nanos = finMedicion - inicioMedicion;
+        return nanos <= 0 ? 0 : operaciones.get() * 1e9 / nanos;
+    }
+
+    /**
+     * Regresa el histograma de latencias de un mensaje.
+     *
+     * @param mensaje el mensaje.
+     * @return el histograma de latencias del mensaje, vacío si no se midió.
+     */
+    public HistogramaDeLatencias getLatencias(Mensaje mensaje) {
+        HistogramaDeLatencias h = latencias.get(mensaje);
+        return h == null ? new HistogramaDeLatencias() : h;
+    }
+
+    /**
+     * Regresa el histograma de los retrasos de propagación.
+     *
+     * @return el histograma de los retrasos de propagación.
+     */
+    public HistogramaDeLatencias getPropagacion() {
+        return propagacion;
+    }
+
+    /**
+     * Imprime el reporte de la carga: el rendimiento, y los percentiles 50,
+     * 99 y 99.9 de la latencia de cada mensaje y de la propagación, en
+     * milisegundos.
+     *
+     * @param salida la salida donde se imprime el reporte.
+     */
+    public void imprime(PrintStream salida) {
+        salida.printf("Clientes: %d. Operaciones: %d. Rendimiento: " +
+                      "%.1f operaciones por segundo.%n", clientes,
+                      getOperaciones(), getRendimiento());
+        salida.printf("%-22s %10s %10s %10s %10s %10s%n", "Latencia (ms)",
+                      "cuenta", "p50", "p99", "p99.9", "máx");
+        for (Mensaje m : latencias.keySet())
+            imprime(salida, m.name(), latencias.get(m));
+        imprime(salida, "PROPAGACION", propagacion);
+    }
+
+    /* Imprime un renglón del reporte. */
+    private static void imprime(PrintStream salida, String nombre,
+                                HistogramaDeLatencias h) {
+        salida.printf("%-22s %10d %10.3f %10.3f %10.3f %10.3f%n", nombre,
+                      h.getCuenta(), h.getPercentil(50) / 1e6,
+                      h.getPercentil(99) / 1e6, h.getPercentil(99.9) / 1e6,
+                      h.getMaximo() / 1e6);
+    }
+
+    /* Registra el envío de un cambio, para medir su propagación. */
+    private void registraEnvio(Mensaje mensaje, Tarjeta tarjeta,
+                               long tiempo) {
+        if (clientes > 1)
+            envios.put(llave(mensaje, tarjeta),
+                       new Envio(tiempo, clientes - 1));
+    }
+
+    /* Nos dice si una operación que empezó en el tiempo se mide. */
+    private boolean midiendo(long tiempo) {
+        return tiempo >= inicioMedicion && tiempo < finMedicion;
+    }
+
+    /* Regresa la llave de un cambio: su mensaje y la tarjeta serializada. */
+    private static String llave(Mensaje mensaje, Tarjeta tarjeta) {
+        return mensaje.getCodigo() + tarjeta.serializa();
+    }
+}
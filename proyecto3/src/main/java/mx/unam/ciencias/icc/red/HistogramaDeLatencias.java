@@ -0,0 +1,154 @@
+package mx.unam.ciencias.icc.red;
+
+/**
+ * Clase para histogramas de latencias, en nanosegundos. Como en
+ * HdrHistogram, las cubetas son lineales dentro de cada potencia de dos, así
+ * que el error relativo de cualquier valor reportado es menor a 1/64 sin
+ * importar la magnitud, y registrar un valor es O(1) y no reserva memoria.
+ *
+ * Los histogramas no son seguros para varios hilos: cada hilo debe registrar
+ * en su propio histograma, y al final se combinan con {@link #agrega}.
+ */
+public class HistogramaDeLatencias {
+
+    /* Bits de precisión dentro de cada potencia de dos. */
+    private static final int BITS = 7;
+    /* Número de cubetas exactas, y de subcubetas por potencia de dos. */
+    private static final int EXACTAS = 1 << BITS;
+    /* La mitad de las subcubetas. */
+    private static final int MITAD = EXACTAS >> 1;
+    /* Número total de cubetas, para valores de hasta 2^63 - 1. */
+    private static final int CUBETAS = (63 - BITS) * MITAD + EXACTAS;
+
+    /* Las cuentas de las cubetas. */
+    private long[] cuentas;
+    /* El número de valores registrados. */
+    private long cuenta;
+    /* La suma de los valores registrados. */
+    private double suma;
+    /* El valor mínimo registrado. */
+    private long minimo;
+    /* El valor máximo registrado. */
+    private long maximo;
+
+    /**
+     * Construye un histograma vacío.
+     */
+    public HistogramaDeLatencias() {
+        cuentas = new long[CUBETAS];
+        minimo = Long.MAX_VALUE;
+    }
+
+    /* Regresa la cubeta del valor. */
+    private static int cubeta(long valor) {
+        if (valor < EXACTAS)
+            return (int)valor;
+        int corrimiento = 64 - Long.numberOfLeadingZeros(valor) - BITS;
+        return corrimiento * MITAD + (int)(valor >>> corrimiento);
+    }
+
+    /* Regresa el máximo valor que cae en la cubeta. */
+    private static long tope(int cubeta) {
+        if (cubeta < EXACTAS)
+            return cubeta;
+        int corrimiento = cubeta / MITAD - 1;
+        long mantisa = cubeta % MITAD + MITAD;
+        return ((mantisa + 1) << corrimiento) - 1;
+    }
+
+    /**
+     * Registra un valor. Los valores negativos se registran como cero.
+     *
+     * @param valor el valor, en nanosegundos.
+     */
+    public void registra(long valor) {
+        if (valor < 0)
+            valor = 0;
+        cuentas[cubeta(valor)]++;
+        cuenta++;
+        suma += valor;
+        if (valor < minimo)
+            minimo = valor;
+        if (valor > maximo)
+            maximo = valor;
+    }
+
+    /**
+     * Agrega los valores registrados en otro histograma a éste.
+     *
+     * @param histograma el otro histograma.
+     * @throws IllegalArgumentException si el histograma es
+     *                                  <code>null</code>.
+     */
+    public void agrega(HistogramaDeLatencias histograma) {
+        if (histograma == null)
+            throw new IllegalArgumentException();
+        for (int i = 0; i < CUBETAS; i++)
+            cuentas[i] += histograma.cuentas[i];
+        cuenta += histograma.cuenta;
+        suma += histograma.suma;
+        minimo = Math.min(minimo, histograma.minimo);
+        maximo = Math.max(maximo, histograma.maximo);
+    }
+
+    /**
+     * Regresa el número de valores registrados.
+     *
+     * @return el número de valores registrados.
+     */
+    public long getCuenta() {
+        return cuenta;
+    }
+
+    /**
+     * Regresa el valor mínimo registrado.
+     *
+     * @return el valor mínimo registrado, o 0 si el histograma está vacío.
+     */
+    public long getMinimo() {
+        return cuenta == 0 ? 0 : minimo;
+    }
+
+    /**
+     * Regresa el valor máximo registrado.
+     *
+     * @return el valor máximo registrado, o 0 si el histograma está vacío.
+     */
+    public long getMaximo() {
+        return maximo;
+    }
+
+    /**
+     * Regresa el promedio de los valores registrados.
+     *
+     * @return el promedio, o 0 si el histograma está vacío.
+     */
+    public double getPromedio() {
+        return cuenta == 0 ? 0 : suma / cuenta;
+    }
+
+    /**
+     * Regresa el valor en el percentil recibido: el menor valor tal que al
+     * menos ese porcentaje de los valores registrados son menores o iguales
+     * a él, con el error relativo de las cubetas, y nunca mayor al máximo.
+     *
+     * @param percentil el percentil, entre 0 y 100.
+     * @return el valor en el percentil, o 0 si el histograma está vacío.
+     * @throws IllegalArgumentException si el percentil no está entre 0 y
+     *                                  100.
+     */
+    public long getPercentil(double percentil) {
+        if (percentil < 0 || percentil > 100)
+            throw new IllegalArgumentException();
+        if (cuenta == 0)
+            return 0;
+        long objetivo = Math.max(1, (long)Math.ceil(cuenta * percentil / 100));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas[i];
+            if (acumulado >= objetivo)
+                return Math.min(tope(i), maximo);
+        }
+        return maximo;
+    }
+}
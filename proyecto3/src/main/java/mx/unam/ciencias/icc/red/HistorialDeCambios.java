@@ -0,0 +1,103 @@
+package mx.unam.ciencias.icc.red;
+
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * Clase para el historial de los últimos cambios a una base de datos. El
+ * historial guarda, en un arreglo circular de capacidad fija, las últimas
+ * operaciones que modificaron la base de datos junto con la versión en la que
+ * la dejaron; cuando se llena, las operaciones más viejas se olvidan.
+ *
+ * Con el historial, el servidor puede enviarle a un cliente sólo los cambios
+ * posteriores a la versión que ya tiene, en lugar de toda la base de datos.
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class HistorialDeCambios<R extends Registro<R, ?>> {
+
+    /* Las operaciones, en un arreglo circular. */
+    private Operacion<R>[] operaciones;
+    /* El índice de la operación más vieja. */
+    private int cabeza;
+    /* El número de operaciones en el historial. */
+    private int elementos;
+    /* La versión de la operación más reciente. */
+    private long version;
+
+    /**
+     * Construye un historial vacío.
+     * @param capacidad el máximo de operaciones que guarda el historial.
+     * @param version la versión actual de la base de datos.
+     * @throws IllegalArgumentException si la capacidad no es positiva o si la
+     *         versión es negativa.
+     */
+    @SuppressWarnings("unchecked")
+    public HistorialDeCambios(int capacidad, long version) {
+        if (capacidad < 1 || version < 0)
+            throw new IllegalArgumentException();
+        operaciones = (Operacion<R>[])new Operacion[capacidad];
+        this.version = version;
+    }
+
+    /**
+     * Registra una operación que dejó la base de datos en la versión
+     * recibida. Si la versión no es la siguiente de la última registrada, el
+     * historial olvida todas sus operaciones, porque ya no puede reconstruir
+     * los cambios anteriores.
+     * @param version la versión en la que la operación dejó la base de datos.
+     * @param operacion la operación.
+     * @throws IllegalArgumentException si la operación es <code>null</code>.
+     */
+    public void registra(long version, Operacion<R> operacion) {
+        if (operacion == null)
+            throw new IllegalArgumentException();
+        if (version != this.version + 1)
+            limpia(version - 1);
+        int i = (cabeza + elementos) % operaciones.length;
+        if (elementos == operaciones.length)
+            cabeza = (cabeza + 1) % operaciones.length;
+        else
+            elementos++;
+        operaciones[i] = operacion;
+        this.version = version;
+    }
+
+    /**
+     * Regresa las operaciones posteriores a la versión recibida, en el orden
+     * en que se aplicaron.
+     * @param version la versión.
+     * @return las operaciones posteriores a la versión, o <code>null</code> si
+     *         el historial ya no las tiene todas o si la versión es posterior
+     *         a la última registrada.
+     */
+    public Lista<Operacion<R>> desde(long version) {
+        if (version > this.version || version < this.version - elementos)
+            return null;
+        Lista<Operacion<R>> lista = new Lista<Operacion<R>>();
+        int n = (int)(this.version - version);
+        for (int i = elementos - n; i < elementos; i++)
+            lista.agregaFinal(operaciones[(cabeza + i) % operaciones.length]);
+        return lista;
+    }
+
+    /**
+     * Regresa la versión de la operación más reciente en el historial.
+     * @return la versión de la operación más reciente.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Olvida todas las operaciones del historial.
+     * @param version la versión actual de la base de datos.
+     */
+    public void limpia(long version) {
+        for (int i = 0; i < elementos; i++)
+            operaciones[(cabeza + i) % operaciones.length] = null;
+        cabeza = 0;
+        elementos = 0;
+        this.version = version;
+    }
+}
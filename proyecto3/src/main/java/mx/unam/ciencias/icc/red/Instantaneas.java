@@ -0,0 +1,60 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Clase con métodos para leer y escribir las instantáneas de la base de datos
+ * en el disco duro, en el formato de {@link
+ * mx.unam.ciencias.icc.BaseDeDatos#guarda}, comprimidas con GZIP o no. Al
+ * leer, la compresión se detecta por los primeros bytes del archivo, así que
+ * las instantáneas comprimidas y las que no lo están se cargan igual.
+ */
+class Instantaneas {
+
+    /* Tamaño de los búferes de compresión. */
+    private static final int TAMANO_BUFER = 64 * 1024;
+
+    /* Constructor privado para evitar instanciación. */
+    private Instantaneas() {}
+
+    /* Abre una instantánea para leerla, descomprimiéndola si está
+     * comprimida. */
+    static InputStream abre(File archivo) throws IOException {
+        InputStream entrada = new BufferedInputStream(
+            new FileInputStream(archivo), TAMANO_BUFER);
+        try {
+            entrada.mark(2);
+            int b0 = entrada.read();
+            int b1 = entrada.read();
+            entrada.reset();
+            if (b0 == (GZIPInputStream.GZIP_MAGIC & 0xff) &&
+                b1 == (GZIPInputStream.GZIP_MAGIC >> 8))
+                entrada = new GZIPInputStream(entrada, TAMANO_BUFER);
+        } catch (IOException ioe) {
+            entrada.close();
+            throw ioe;
+        }
+        return entrada;
+    }
+
+    /* Regresa la salida en la que hay que escribir una instantánea para que
+     * llegue al flujo recibido, comprimida si se pide. */
+    static OutputStream salida(OutputStream salida, boolean comprime)
+        throws IOException {
+        return comprime ? new GZIPOutputStream(salida, TAMANO_BUFER) : salida;
+    }
+
+    /* Termina de escribir una instantánea en su flujo, sin cerrarlo. */
+    static void termina(OutputStream salida) throws IOException {
+        if (salida instanceof GZIPOutputStream)
+            ((GZIPOutputStream)salida).finish();
+        salida.flush();
+    }
+}
@@ -11,55 +11,145 @@ public enum Mensaje {
      * datos. Si el cliente recibe este mensaje, entonces comienza a cargar la
      * base de datos.
      */
-    BASE_DE_DATOS,
+    BASE_DE_DATOS(0),
 
     /**
      * El interlocutor agregó un registro. Si este mensaje es recibido por el
      * servidor o el cliente, inmediatamente después recibirá un registro que
      * debe agregar a la base de datos.
      */
-    REGISTRO_AGREGADO,
+    REGISTRO_AGREGADO(1),
 
     /**
      * El interlocutor eliminó un registro. Si este mensaje es recibido por el
      * servidor o el cliente, inmediatamente después recibirá un registro que
      * debe eliminar de la base de datos.
      */
-    REGISTRO_ELIMINADO,
+    REGISTRO_ELIMINADO(2),
 
     /**
      * El interlocutor modificó un registro. Si este mensaje es recibido por el
      * servidor o el cliente, inmediatamente después recibirá dos registros: el
      * primero será el registro original, y el segundo el registro modificado.
      */
-    REGISTRO_MODIFICADO,
+    REGISTRO_MODIFICADO(3),
 
     /**
      * El interlocutor solicita una desconexión limpia. Tanto el servidor como
      * cliente cierran la conexión correspondiente.
      */
-    DESCONECTAR,
+    DESCONECTAR(4),
 
     /**
      * El servidor debe detenerse, desconectando a todos los clientes que
      * pudieran estar conectados. Los clientes ignoran este mensaje.
      */
-    DETENER_SERVICIO,
+    DETENER_SERVICIO(5),
 
     /**
      * Mensaje de eco. El servidor debe regresar el mensaje de eco cuando reciba
      * el mensaje de eco; el cliente debe ignorarlo. Es necesario para poder
      * probar el servidor.
      */
-    ECO,
+    ECO(6),
+
+    /**
+     * El interlocutor agregó varios registros. El mensaje lleva el número de
+     * registros; si es recibido por el servidor o el cliente, inmediatamente
+     * después recibirá ese número de registros, que debe agregar a la base de
+     * datos como un solo lote.
+     */
+    REGISTROS_AGREGADOS(7),
+
+    /**
+     * El interlocutor eliminó varios registros. El mensaje lleva el número de
+     * registros; si es recibido por el servidor o el cliente, inmediatamente
+     * después recibirá ese número de registros, que debe eliminar de la base
+     * de datos como un solo lote.
+     */
+    REGISTROS_ELIMINADOS(8),
+
+    /**
+     * Sincronización incremental. El mensaje lleva la época y la versión de
+     * una base de datos, y un número de operaciones. Si el servidor recibe
+     * este mensaje, contesta sólo con los cambios posteriores a esa versión,
+     * o con toda la base de datos si no los tiene; a partir de entonces le
+     * envía cada cambio con este mensaje. Si el cliente recibe este mensaje,
+     * inmediatamente después recibirá ese número de operaciones, cada una
+     * con su mensaje y sus registros, que debe aplicar a la base de datos
+     * para quedar en la versión del mensaje.
+     */
+    SINCRONIZA(9),
 
     /**
      * El mensaje no es reconocido.
      */
-    INVALIDO;
+    INVALIDO(10);
 
     /* El prefijo para mensajes. */
     private static final String PREFIJO = "|=MENSAJE:";
+    /* Los mensajes, indexados por su código. */
+    private static final Mensaje[] MENSAJES = new Mensaje[0x40];
+
+    static {
+        for (Mensaje mensaje : values()) {
+            if (MENSAJES[mensaje.codigo] != null)
+                throw new ExceptionInInitializerError(
+                    "Código repetido: " + mensaje.codigo);
+            MENSAJES[mensaje.codigo] = mensaje;
+        }
+    }
+
+    /* El código del mensaje en el protocolo binario. */
+    private final byte codigo;
+
+    /* Define el código del mensaje en el protocolo binario; es parte del
+     * protocolo, así que no debe cambiar aunque se reordene la enumeración.
+     * Los códigos son menores que 0x40, el primer tipo de trama que no es un
+     * mensaje. */
+    private Mensaje(int codigo) {
+        this.codigo = (byte)codigo;
+    }
+
+    /**
+     * Regresa el código del mensaje en el protocolo binario. Cada mensaje
+     * tiene un código fijo, que no depende de su posición en la
+     * enumeración.
+     * 
+     * @return el código del mensaje.
+     */
+    public byte getCodigo() {
+         
+        return codigo;
+    }
+
+    /**
+     * Traduce un código del protocolo binario a un mensaje.
+     * 
+     * @param codigo el código del mensaje.
+     * @return el mensaje correspondiente al código, o {@link #INVALIDO} si el
+     *         código no corresponde a ningún mensaje.
+     */
+    public static Mensaje getMensaje(byte codigo) {
+         
+        if (codigo < 0 || codigo >= MENSAJES.length ||
+            MENSAJES[codigo] == null)
+            return INVALIDO;
+        return MENSAJES[codigo];
+    }
+
+    /**
+     * Nos dice si el mensaje es de un lote de registros, y lleva el número de
+     * registros que lo siguen.
+     * 
+     * @return <code>true</code> si el mensaje es {@link #REGISTROS_AGREGADOS}
+     *         o {@link #REGISTROS_ELIMINADOS}; <code>false</code> en otro
+     *         caso.
+     */
+    public boolean isLote() {
+         
+        return this == REGISTROS_AGREGADOS || this == REGISTROS_ELIMINADOS;
+    }
 
     /**
      * Descifra un cadena recibida y la traduce a un mensaje.
@@ -75,6 +165,8 @@ public enum Mensaje {
         if (!mensaje.contains(PREFIJO))
             return INVALIDO;
         String[] array = mensaje.split(":");
+        if (array.length < 2)
+            return INVALIDO;
 
         switch (array[1]) {
             case "BASE_DE_DATOS":
@@ -91,6 +183,12 @@ public enum Mensaje {
                 return DETENER_SERVICIO;
             case "ECO":
                 return ECO;
+            case "REGISTROS_AGREGADOS":
+                return REGISTROS_AGREGADOS;
+            case "REGISTROS_ELIMINADOS":
+                return REGISTROS_ELIMINADOS;
+            case "SINCRONIZA":
+                return SINCRONIZA;
             default:
                 return INVALIDO;
         }
@@ -126,6 +224,15 @@ public enum Mensaje {
             case ECO:
                 cadenaFinal += "ECO";
                 break;
+            case REGISTROS_AGREGADOS:
+                cadenaFinal += "REGISTROS_AGREGADOS";
+                break;
+            case REGISTROS_ELIMINADOS:
+                cadenaFinal += "REGISTROS_ELIMINADOS";
+                break;
+            case SINCRONIZA:
+                cadenaFinal += "SINCRONIZA";
+                break;
             case INVALIDO:
                 cadenaFinal += "INVALIDO";
                 break;
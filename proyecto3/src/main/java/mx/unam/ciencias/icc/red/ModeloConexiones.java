@@ -0,0 +1,31 @@
+package mx.unam.ciencias.icc.red;
+
+/**
+ * Enumeración para los modelos con los que un {@link ServidorBaseDeDatos}
+ * atiende sus conexiones.
+ */
+public enum ModeloConexiones {
+
+    /**
+     * Cada conexión se atiende en su propio hilo de ejecución del sistema
+     * operativo, bloqueado mientras espera mensajes.
+     */
+    HILO_POR_CONEXION,
+
+    /**
+     * Cada conexión se atiende en su propio hilo virtual, que no ocupa un hilo
+     * del sistema operativo mientras espera mensajes. Los hilos virtuales
+     * existen a partir de Java 21; en versiones anteriores se usa un hilo por
+     * conexión.
+     */
+    HILOS_VIRTUALES,
+
+    /**
+     * Un solo hilo espera mensajes en todas las conexiones sin bloquearse, y
+     * un grupo pequeño de hilos trabajadores los procesa. Un mensaje que
+     * bloquea a su trabajador, como una modificación que espera su lote en
+     * {@link ServidorBaseDeDatos#agrupaOperaciones}, retrasa a todas las
+     * conexiones. Ver {@link ReactorDeConexiones}.
+     */
+    REACTOR;
+}
@@ -0,0 +1,159 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.IOException;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * Clase para operaciones que modifican una base de datos: agregar, eliminar o
+ * modificar un registro. Una operación se describe con el {@link Mensaje} del
+ * protocolo que la transmite y los registros que lo acompañan.
+ *
+ * Las operaciones que se procesan en otro hilo de ejecución, como las de un
+ * {@link AgrupadorDeOperaciones}, pueden esperarse con {@link #espera} hasta
+ * que el hilo las termine.
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class Operacion<R extends Registro<R, ?>> {
+
+    /* El mensaje de la operación. */
+    private Mensaje mensaje;
+    /* El registro de la operación. */
+    private R registro;
+    /* El registro modificado, en las modificaciones. */
+    private R modificado;
+    /* Si la operación fue terminada. */
+    private boolean terminada;
+    /* El error con el que terminó la operación. */
+    private IOException error;
+    /* La conexión que envió la operación al servidor, o null. */
+    private Conexion<R> origen;
+
+    /**
+     * Construye una operación que agrega o elimina un registro.
+     * @param mensaje el mensaje de la operación: {@link
+     *                Mensaje#REGISTRO_AGREGADO} o {@link
+     *                Mensaje#REGISTRO_ELIMINADO}.
+     * @param registro el registro a agregar o eliminar.
+     * @throws IllegalArgumentException si el mensaje no es una operación de un
+     *         registro, o si el registro es <code>null</code>.
+     */
+    public Operacion(Mensaje mensaje, R registro) {
+        if ((mensaje != Mensaje.REGISTRO_AGREGADO &&
+             mensaje != Mensaje.REGISTRO_ELIMINADO) || registro == null)
+            throw new IllegalArgumentException();
+        this.mensaje = mensaje;
+        this.registro = registro;
+    }
+
+    /**
+     * Construye una operación que modifica un registro.
+     * @param registro el registro original.
+     * @param modificado el registro modificado.
+     * @throws IllegalArgumentException si alguno de los registros es
+     *         <code>null</code>.
+     */
+    public Operacion(R registro, R modificado) {
+        if (registro == null || modificado == null)
+            throw new IllegalArgumentException();
+        this.mensaje = Mensaje.REGISTRO_MODIFICADO;
+        this.registro = registro;
+        this.modificado = modificado;
+    }
+
+    /**
+     * Regresa el mensaje de la operación.
+     * @return el mensaje de la operación.
+     */
+    public Mensaje getMensaje() {
+        return mensaje;
+    }
+
+    /**
+     * Regresa el registro de la operación; en las modificaciones, el registro
+     * original.
+     * @return el registro de la operación.
+     */
+    public R getRegistro() {
+        return registro;
+    }
+
+    /**
+     * Regresa el registro modificado, en las modificaciones.
+     * @return el registro modificado, o <code>null</code> si la operación no
+     *         es una modificación.
+     */
+    public R getModificado() {
+        return modificado;
+    }
+
+    /**
+     * Aplica la operación a la base de datos recibida.
+     * @param bdd la base de datos.
+     */
+    public void aplica(BaseDeDatos<R, ?> bdd) {
+        switch (mensaje) {
+        case REGISTRO_AGREGADO:
+            bdd.agregaRegistro(registro);
+            break;
+        case REGISTRO_ELIMINADO:
+            bdd.eliminaRegistro(registro);
+            break;
+        default:
+            bdd.modificaRegistro(registro, modificado);
+            break;
+        }
+    }
+
+    /**
+     * Agrega la operación serializada al final del búfer recibido: el mensaje
+     * en una línea, seguido de los registros serializados.
+     * @param bufer el búfer al que se agrega la operación.
+     */
+    public void serializa(StringBuilder bufer) {
+        bufer.append(mensaje.toString()).append('\n');
+        registro.serializa(bufer);
+        if (modificado != null)
+            modificado.serializa(bufer);
+    }
+
+    /* Regresa la conexión que envió la operación al servidor, o null. */
+    Conexion<R> getOrigen() {
+        return origen;
+    }
+
+    /* Define la conexión que envió la operación al servidor. */
+    void setOrigen(Conexion<R> origen) {
+        this.origen = origen;
+    }
+
+    /**
+     * Termina la operación y despierta a los hilos que la esperan.
+     * @param error el error con el que terminó la operación, o
+     *              <code>null</code> si terminó exitosamente.
+     */
+    public synchronized void termina(IOException error) {
+        this.error = error;
+        terminada = true;
+        notifyAll();
+    }
+
+    /**
+     * Espera a que la operación sea terminada.
+     * @throws IOException si la operación terminó con un error, o si el hilo
+     *         es interrumpido mientras espera.
+     */
+    public synchronized void espera() throws IOException {
+        while (!terminada) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Espera interrumpida.");
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+}
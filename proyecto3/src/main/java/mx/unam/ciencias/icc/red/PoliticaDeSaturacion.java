@@ -0,0 +1,21 @@
+package mx.unam.ciencias.icc.red;
+
+/**
+ * Enumeración para lo que hace una {@link Conexion} con cola de salida cuando
+ * el otro lado no lee lo suficientemente rápido y la cola se llena.
+ */
+public enum PoliticaDeSaturacion {
+
+    /**
+     * Se descartan los mensajes en la cola y, en su lugar, se envía toda la
+     * base de datos con el mensaje {@link Mensaje#BASE_DE_DATOS} en cuanto el
+     * otro lado vuelva a leer; la conexión no se pierde, pero se vuelve a
+     * enviar toda la base de datos.
+     */
+    RESINCRONIZAR,
+
+    /**
+     * Se descartan los mensajes en la cola y se cierra la conexión.
+     */
+    DESCONECTAR;
+}
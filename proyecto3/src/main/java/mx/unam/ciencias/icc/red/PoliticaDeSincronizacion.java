@@ -0,0 +1,28 @@
+package mx.unam.ciencias.icc.red;
+
+/**
+ * Enumeración para las políticas con las que una {@link
+ * BitacoraDeOperaciones} sincroniza sus escrituras con el disco duro.
+ */
+public enum PoliticaDeSincronizacion {
+
+    /**
+     * La bitácora se sincroniza con el disco duro después de cada operación;
+     * una operación registrada nunca se pierde, pero cada una cuesta una
+     * sincronización.
+     */
+    CADA_OPERACION,
+
+    /**
+     * La bitácora se sincroniza con el disco duro periódicamente, agrupando
+     * todas las operaciones registradas en el intervalo; si el sistema falla,
+     * se pierden a lo más las operaciones del último intervalo.
+     */
+    PERIODICA,
+
+    /**
+     * La bitácora nunca se sincroniza explícitamente, y el sistema operativo
+     * decide cuándo escribir en el disco duro.
+     */
+    SISTEMA_OPERATIVO;
+}
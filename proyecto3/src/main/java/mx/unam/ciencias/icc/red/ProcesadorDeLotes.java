@@ -0,0 +1,21 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.IOException;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * Interfaz para procesar los lotes de operaciones de un {@link
+ * AgrupadorDeOperaciones}.
+ */
+@FunctionalInterface
+public interface ProcesadorDeLotes<R extends Registro<R, ?>> {
+
+    /**
+     * Aplica y persiste un lote de operaciones. Cuando el método termina, todo
+     * el lote debe estar persistido.
+     * @param lote el lote de operaciones, en el orden en que se recibieron.
+     * @throws IOException si el lote no puede persistirse.
+     */
+    public void procesa(Lista<Operacion<R>> lote) throws IOException;
+}
@@ -0,0 +1,517 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.Registro;
+
+/**
+ * <p>Clase para atender conexiones con un reactor: un solo hilo de ejecución
+ * espera con un {@link Selector} a que lleguen conexiones o bytes en
+ * cualquiera de ellas, sin bloquearse en ninguna, y un grupo pequeño de hilos
+ * trabajadores procesa los mensajes. Así el número de hilos no depende del
+ * número de conexiones.</p>
+ *
+ * <p>El hilo del reactor parte los bytes de cada conexión en líneas, o en
+ * tramas si la conexión negoció el protocolo binario, y cuando una conexión
+ * tiene un mensaje completo (el {@link Mensaje} y los registros que lo
+ * acompañan), programa una tarea que entrega esos bloques a la {@link
+ * Conexion} y le pide procesar el mensaje, que se reporta a sus escuchas como
+ * en cualquier otra conexión. Las tareas de una misma conexión nunca se
+ * ejecutan al mismo tiempo, y sus mensajes se procesan en el orden en que
+ * llegaron.</p>
+ *
+ * @param <R> El tipo de los registros.
+ */
+public class ReactorDeConexiones<R extends Registro<R, ?>> {
+
+    /* Tamaño del búfer de lectura. */
+    private static final int TAMANO_BUFER = 64 * 1024;
+    /* Longitud máxima de una línea; las conexiones que la rebasan se
+     * cierran. */
+    private static final int MAXIMO_LINEA = 1024 * 1024;
+    /* Espera máxima por un enchufe lleno antes de revisar si sigue abierto,
+     * en milisegundos. */
+    private static final long ESPERA_ESCRITURA = 1000;
+
+    /* Clase interna privada para la entrada de una conexión, que el hilo
+     * trabajador llena con los bloques de un mensaje antes de procesarlo. */
+    private static class Entrada extends InputStream {
+
+        /* Los bloques de bytes por leer. */
+        private ArrayDeque<byte[]> bloques;
+        /* La posición en el primer bloque. */
+        private int posicion;
+        /* Los bytes por leer. */
+        private int disponibles;
+        /* Si la entrada terminó. */
+        private boolean terminada;
+
+        /* Construye una entrada vacía. */
+        private Entrada() {
+            bloques = new ArrayDeque<byte[]>();
+        }
+
+        /* Agrega un bloque de bytes a la entrada. */
+        private synchronized void agrega(byte[] bloque) {
+            bloques.add(bloque);
+            disponibles += bloque.length;
+            notifyAll();
+        }
+
+        /* Termina la entrada. */
+        private synchronized void termina() {
+            terminada = true;
+            notifyAll();
+        }
+
+        @Override public synchronized int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public synchronized int read(byte[] b, int off, int len)
+            throws IOException {
+            if (len == 0)
+                return 0;
+            while (disponibles == 0 && !terminada) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ie);
+                }
+            }
+            if (disponibles == 0)
+                return -1;
+            int n = 0;
+            while (n < len && !bloques.isEmpty()) {
+                byte[] bloque = bloques.peek();
+                int k = Math.min(len - n, bloque.length - posicion);
+                System.arraycopy(bloque, posicion, b, off + n, k);
+                n += k;
+                posicion += k;
+                if (posicion == bloque.length) {
+                    bloques.poll();
+                    posicion = 0;
+                }
+            }
+            disponibles -= n;
+            return n;
+        }
+
+        @Override public synchronized int available() {
+            return disponibles;
+        }
+    }
+
+    /* Clase interna privada para la salida de una conexión sobre un canal no
+     * bloqueante. Si el canal está lleno, la escritura espera con un selector
+     * propio a que se pueda escribir. */
+    private static class Salida extends OutputStream {
+
+        /* El canal. */
+        private SocketChannel canal;
+        /* El selector para esperar al canal; se crea sólo si hace falta. */
+        private Selector selector;
+
+        /* Construye una salida para el canal. */
+        private Salida(SocketChannel canal) {
+            this.canal = canal;
+        }
+
+        @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+            ByteBuffer bufer = ByteBuffer.wrap(b, off, len);
+            while (bufer.hasRemaining()) {
+                if (canal.write(bufer) > 0)
+                    continue;
+                if (selector == null) {
+                    selector = Selector.open();
+                    canal.register(selector, SelectionKey.OP_WRITE);
+                }
+                selector.select(ESPERA_ESCRITURA);
+                selector.selectedKeys().clear();
+                if (!canal.isOpen())
+                    throw new IOException("El canal está cerrado.");
+            }
+        }
+
+        @Override public synchronized void close() throws IOException {
+            if (selector != null)
+                selector.close();
+            canal.close();
+        }
+    }
+
+    /* Clase interna privada para el estado de una conexión en el reactor. */
+    private class Estado {
+
+        /* El canal. */
+        private SocketChannel canal;
+        /* La conexión. */
+        private Conexion<R> conexion;
+        /* La entrada de la conexión. */
+        private Entrada entrada;
+        /* La salida de la conexión. */
+        private Salida salida;
+        /* Los bloques completos recibidos y no procesados: líneas, o tramas
+         * en el protocolo binario. */
+        private ArrayDeque<byte[]> lineas;
+        /* El bloque que se está recibiendo. */
+        private ByteArrayOutputStream parcial;
+        /* Si todavía no se recibe ninguna línea. */
+        private boolean primera;
+        /* La línea con la que se negoció el protocolo binario; null si se
+         * usa el protocolo de texto. */
+        private byte[] saludo;
+        /* Los bytes que le faltan a la trama que se está recibiendo; 0 si se
+         * está recibiendo su longitud. */
+        private int faltan;
+        /* Si el canal llegó a su fin. */
+        private boolean fin;
+        /* Si hay una tarea programada para la conexión. */
+        private boolean programada;
+        /* Si la conexión ya fue terminada. */
+        private boolean terminada;
+
+        /* Construye el estado de una conexión para el canal. */
+        private Estado(SocketChannel canal) {
+            this.canal = canal;
+            entrada = new Entrada();
+            salida = new Salida(canal);
+            conexion = new Conexion<R>(bdd, canal.socket(), entrada, salida);
+            lineas = new ArrayDeque<byte[]>();
+            parcial = new ByteArrayOutputStream();
+            primera = true;
+        }
+
+        /* Parte los bytes recibidos en líneas, o en tramas si la conexión
+         * negoció el protocolo binario. */
+        private synchronized void alimenta(ByteBuffer bufer) {
+            byte[] a = bufer.array();
+            int inicio = bufer.position();
+            int limite = bufer.limit();
+            if (saludo != null) {
+                alimentaTramas(a, inicio, limite);
+                return;
+            }
+            for (int i = inicio; i < limite; i++) {
+                if (a[i] != '\n')
+                    continue;
+                parcial.write(a, inicio, i + 1 - inicio);
+                byte[] linea = parcial.toByteArray();
+                lineas.add(linea);
+                parcial.reset();
+                inicio = i + 1;
+                if (primera) {
+                    primera = false;
+                    if (esSaludo(linea)) {
+                        saludo = linea;
+                        alimentaTramas(a, inicio, limite);
+                        return;
+                    }
+                }
+            }
+            parcial.write(a, inicio, limite - inicio);
+            if (parcial.size() > MAXIMO_LINEA) {
+                parcial.reset();
+                fin = true;
+            }
+        }
+
+        /* Parte los bytes recibidos en tramas. */
+        private void alimentaTramas(byte[] a, int inicio, int limite) {
+            while (inicio < limite && !fin) {
+                if (faltan == 0) {
+                    int k = Math.min(4 - parcial.size(), limite - inicio);
+                    parcial.write(a, inicio, k);
+                    inicio += k;
+                    if (parcial.size() < 4)
+                        return;
+                    byte[] c = parcial.toByteArray();
+                    faltan = ((c[0] & 0xff) << 24) | ((c[1] & 0xff) << 16) |
+                        ((c[2] & 0xff) << 8) | (c[3] & 0xff);
+                    if (faltan < 1 || faltan > Conexion.MAXIMO_TRAMA) {
+                        parcial.reset();
+                        faltan = 0;
+                        fin = true;
+                        return;
+                    }
+                }
+                int k = Math.min(faltan, limite - inicio);
+                parcial.write(a, inicio, k);
+                inicio += k;
+                faltan -= k;
+                if (faltan == 0) {
+                    lineas.add(parcial.toByteArray());
+                    parcial.reset();
+                }
+            }
+        }
+
+        /* Regresa el número de bloques de registros que siguen al bloque de
+         * un mensaje. */
+        private int registrosDe(byte[] bloque) {
+            if (saludo == null || bloque == saludo)
+                return ReactorDeConexiones.registrosDe(bloque);
+            Mensaje mensaje = Mensaje.getMensaje(bloque[4]);
+            if (!mensaje.isLote())
+                return ReactorDeConexiones.registrosDe(mensaje);
+            if (bloque.length != 9)
+                return 0;
+            int cuenta = ((bloque[5] & 0xff) << 24) | ((bloque[6] & 0xff) << 16) |
+                ((bloque[7] & 0xff) << 8) | (bloque[8] & 0xff);
+            return Math.max(0, Conexion.cuentaDe(cuenta));
+        }
+
+        /* Marca el fin del canal. */
+        private synchronized void termina() {
+            fin = true;
+        }
+
+        /* Nos dice si hay un mensaje completo por procesar. */
+        private boolean listo() {
+            byte[] linea = lineas.peek();
+            return linea != null && lineas.size() > registrosDe(linea);
+        }
+
+        /* Programa una tarea si hay algo que procesar y no hay ya una. */
+        private synchronized void programa() {
+            if (programada || terminada || (!fin && !listo()))
+                return;
+            programada = true;
+            trabajadores.execute(() -> procesa());
+        }
+
+        /* Procesa los mensajes completos de la conexión. */
+        private void procesa() {
+            while (true) {
+                synchronized (this) {
+                    if (!conexion.isActiva() || (fin && !listo())) {
+                        terminada = true;
+                        programada = false;
+                        break;
+                    }
+                    if (!listo()) {
+                        programada = false;
+                        return;
+                    }
+                    int n = 1 + registrosDe(lineas.peek());
+                    for (int i = 0; i < n; i++)
+                        entrada.agrega(lineas.poll());
+                }
+                try {
+                    conexion.procesaMensaje();
+                } catch (IOException ioe) {
+                    /* La entrada en memoria no falla mientras tenga los
+                     * bloques del mensaje. */
+                }
+            }
+            entrada.termina();
+            try {
+                while (conexion.procesaMensaje())
+                    ;
+            } catch (IOException ioe) {}
+            conexion.terminaMensajes();
+            try {
+                salida.close();
+            } catch (IOException ioe) {}
+        }
+    }
+
+    /* La base de datos. */
+    private BaseDeDatos<R, ?> bdd;
+    /* El canal del servidor. */
+    private ServerSocketChannel servidor;
+    /* El selector. */
+    private Selector selector;
+    /* Quien registra cada conexión nueva antes de que reciba mensajes. */
+    private Consumer<Conexion<R>> registro;
+    /* Los hilos trabajadores. */
+    private ExecutorService trabajadores;
+    /* Las conexiones nuevas por registrar en el selector. */
+    private ConcurrentLinkedQueue<Estado> nuevas;
+    /* Bandera de continuación. */
+    private volatile boolean activo;
+
+    /**
+     * Construye un reactor de conexiones.
+     * @param bdd la base de datos de las conexiones.
+     * @param servidor el canal del servidor, del que se aceptan conexiones.
+     * @param registro quien registra cada conexión nueva; se invoca desde un
+     *                 hilo trabajador, antes de que la conexión reciba
+     *                 mensajes.
+     * @param trabajadores el número de hilos trabajadores.
+     * @throws IOException si no se puede abrir el selector.
+     * @throws IllegalArgumentException si el número de trabajadores no es
+     *         positivo.
+     */
+    public ReactorDeConexiones(BaseDeDatos<R, ?> bdd,
+                               ServerSocketChannel servidor,
+                               Consumer<Conexion<R>> registro,
+                               int trabajadores) throws IOException {
+        if (trabajadores < 1)
+            throw new IllegalArgumentException();
+        this.bdd = bdd;
+        this.servidor = servidor;
+        this.registro = registro;
+        this.trabajadores = Executors.newFixedThreadPool(trabajadores, r -> {
+                Thread t = new Thread(r, "trabajador-reactor");
+                t.setDaemon(true);
+                return t;
+            });
+        selector = Selector.open();
+        nuevas = new ConcurrentLinkedQueue<Estado>();
+        activo = true;
+    }
+
+    /**
+     * Ejecuta el reactor en el hilo actual. El método no termina hasta que el
+     * reactor sea detenido con {@link #detiene}, o se cierre el canal del
+     * servidor.
+     * @throws IOException si ocurre un error de entrada/salida en el canal del
+     *         servidor.
+     */
+    public void ejecuta() throws IOException {
+        servidor.configureBlocking(false);
+        servidor.register(selector, SelectionKey.OP_ACCEPT);
+        ByteBuffer bufer = ByteBuffer.allocate(TAMANO_BUFER);
+        try {
+            while (activo && servidor.isOpen()) {
+                selector.select();
+                Estado estado;
+                while ((estado = nuevas.poll()) != null)
+                    registraCanal(estado);
+                Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    SelectionKey llave = i.next();
+                    i.remove();
+                    if (!llave.isValid())
+                        continue;
+                    if (llave.isAcceptable())
+                        acepta();
+                    else if (llave.isReadable())
+                        lee(llave, bufer);
+                }
+            }
+        } catch (ClosedSelectorException cse) {
+        } finally {
+            trabajadores.shutdown();
+            try {
+                selector.close();
+            } catch (IOException ioe) {}
+        }
+    }
+
+    /**
+     * Detiene el reactor. Las conexiones deben cerrarse por separado.
+     */
+    public void detiene() {
+        activo = false;
+        selector.wakeup();
+    }
+
+    /* Acepta las conexiones pendientes; cada una se crea y registra en un hilo
+     * trabajador, para no bloquear al reactor. */
+    private void acepta() throws IOException {
+        SocketChannel canal;
+        while ((canal = servidor.accept()) != null) {
+            canal.configureBlocking(false);
+            SocketChannel c = canal;
+            trabajadores.execute(() -> {
+                    Estado estado = new Estado(c);
+                    registro.accept(estado.conexion);
+                    nuevas.add(estado);
+                    selector.wakeup();
+                });
+        }
+    }
+
+    /* Registra en el selector el canal de una conexión nueva. */
+    private void registraCanal(Estado estado) {
+        try {
+            estado.canal.register(selector, SelectionKey.OP_READ, estado);
+        } catch (IOException ioe) {
+            estado.termina();
+            estado.programa();
+        }
+    }
+
+    /* Lee los bytes disponibles de una conexión. */
+    private void lee(SelectionKey llave, ByteBuffer bufer) {
+        @SuppressWarnings("unchecked") Estado estado = (Estado)llave.attachment();
+        int n;
+        do {
+            bufer.clear();
+            try {
+                n = estado.canal.read(bufer);
+            } catch (IOException ioe) {
+                n = -1;
+            }
+            bufer.flip();
+            if (n > 0)
+                estado.alimenta(bufer);
+        } while (n == TAMANO_BUFER);
+        if (n == -1) {
+            llave.cancel();
+            estado.termina();
+        }
+        estado.programa();
+    }
+
+    /* Regresa la línea sin el salto de línea final. */
+    private static String cadena(byte[] linea) {
+        int n = linea.length;
+        while (n > 0 && (linea[n - 1] == '\n' || linea[n - 1] == '\r'))
+            n--;
+        return new String(linea, 0, n);
+    }
+
+    /* Nos dice si la línea pide el protocolo binario. */
+    private static boolean esSaludo(byte[] linea) {
+        return cadena(linea).equals(Conexion.SALUDO);
+    }
+
+    /* Regresa el número de líneas de registros que siguen a la línea de un
+     * mensaje que recibe el servidor. */
+    private static int registrosDe(byte[] linea) {
+        String cadena = cadena(linea);
+        Mensaje mensaje = Mensaje.getMensaje(cadena);
+        if (mensaje.isLote())
+            return Math.max(0, Conexion.cuentaDe(cadena));
+        return registrosDe(mensaje);
+    }
+
+    /* Regresa el número de registros que siguen a un mensaje que recibe el
+     * servidor. */
+    private static int registrosDe(Mensaje mensaje) {
+        switch (mensaje) {
+        case REGISTRO_AGREGADO:
+        case REGISTRO_ELIMINADO:
+            return 1;
+        case REGISTRO_MODIFICADO:
+            return 2;
+        default:
+            return 0;
+        }
+    }
+}
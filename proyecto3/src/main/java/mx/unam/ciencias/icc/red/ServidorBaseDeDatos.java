@@ -1,29 +1,66 @@
 package mx.unam.ciencias.icc.red;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.CargadorParalelo;
+import mx.unam.ciencias.icc.Instantanea;
 import mx.unam.ciencias.icc.Lista;
 import mx.unam.ciencias.icc.Registro;
 
 /**
  * Clase abstracta para servidores de bases de datos genéricas.
+ *
+ * Por omisión el servidor reescribe toda la base de datos en el disco duro
+ * después de cada modificación. Si se construye con una {@link
+ * PoliticaDeSincronizacion}, el servidor registra cada modificación en una
+ * {@link BitacoraDeOperaciones} y compacta la bitácora en una instantánea
+ * nueva en el fondo, cuando tiene al menos tantas operaciones como registros
+ * la base de datos.
+ *
+ * El servidor puede atender sus conexiones con cualquiera de los modelos de
+ * {@link ModeloConexiones}; ver {@link #sirve(ModeloConexiones)}. Con {@link
+ * #usaColasDeSalida}, cada conexión tiene su propia cola de salida y las
+ * modificaciones se reenvían a las demás conexiones sin esperar a que lean.
+ *
+ * El servidor guarda las últimas modificaciones en un {@link
+ * HistorialDeCambios}. Un cliente que se reconecta puede pedir con {@link
+ * Mensaje#SINCRONIZA} sólo los cambios posteriores a la versión que tiene; si
+ * el historial ya no los tiene, o si la versión es de otra época (de antes de
+ * que el servidor se reiniciara), el servidor le envía toda la base de datos.
+ * A partir de entonces, el servidor le envía al cliente cada cambio con su
+ * versión, incluyendo los que hace el mismo cliente, en el orden en que se
+ * aplican.
  */
 public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
 
     /* La base de datos. */
     private BaseDeDatos<R, ? extends Enum> bdd;
+    /* El canal del servidor de enchufes. */
+    private ServerSocketChannel canal;
     /* El servidor de enchufes. */
     private ServerSocket servidor;
+    /* El reactor de conexiones; null si no se usa. */
+    private volatile ReactorDeConexiones<R> reactor;
     /* El puerto. */
     private int puerto;
     /* El archivo donde cargar/guardar la base de datos. */
@@ -31,9 +68,40 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
     /* Lista con las conexiones. */
     private Lista<Conexion<R>> conexiones;
     /* Bandera de continuación. */
-    private Boolean continuaEjecucion;
+    private volatile boolean continuaEjecucion;
     /* Escuchas del servidor. */
     private Lista<EscuchaServidor> escuchas;
+    /* La bitácora de operaciones; null si se reescribe la base de datos. */
+    private BitacoraDeOperaciones<R> bitacora;
+    /* El compactador de la bitácora. */
+    private ScheduledExecutorService compactador;
+    /* El agrupador de operaciones; null si cada operación se persiste sola. */
+    private AgrupadorDeOperaciones<R> agrupador;
+    /* La capacidad de las colas de salida; 0 si no se usan. */
+    private int capacidadSalida;
+    /* La política cuando una cola de salida se llena. */
+    private PoliticaDeSaturacion saturacion;
+    /* El ejecutor de los escritores de las colas de salida. */
+    private ExecutorService escritores;
+    /* La época del servidor; cambia cada vez que se inicia. */
+    private long epoca;
+    /* El historial de los últimos cambios a la base de datos. */
+    private HistorialDeCambios<R> historial;
+    /* Si las instantáneas en el disco duro se comprimen. */
+    private boolean compresion;
+    /* El candado para reescribir la base de datos en el disco duro. */
+    private Object candadoArchivo;
+    /* La versión de la última base de datos reescrita; -1 si ninguna. */
+    private long guardada;
+
+    /* Mínimo de operaciones en la bitácora para compactarla. */
+    private static final int MINIMO_COMPACTACION = 1024;
+    /* Intervalo para revisar si hay que compactar la bitácora, en ms. */
+    private static final long INTERVALO_COMPACTACION = 1000;
+    /* Máximo de conexiones pendientes de aceptar. */
+    private static final int PENDIENTES = 1024;
+    /* Máximo de cambios en el historial. */
+    private static final int CAPACIDAD_HISTORIAL = 4096;
 
     /**
      * Crea un nuevo servidor usando el archivo recibido para poblar la base de
@@ -48,40 +116,245 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
     public ServidorBaseDeDatos(int puerto, String archivo)
             throws IOException {
          
+        this(puerto, archivo, null, 0);
+    }
+
+    /**
+     * Crea un nuevo servidor que registra las modificaciones a la base de
+     * datos en una bitácora de operaciones, en lugar de reescribir toda la
+     * base de datos después de cada una.
+     * 
+     * @param puerto    el puerto dónde escuchar por conexiones.
+     * @param archivo   el archivo en el disco de la instantánea de la base de
+     *                  datos; la bitácora usa el mismo nombre con la extensión
+     *                  <code>.bitacora</code>. Puede ser <code>null</code>, en
+     *                  cuyo caso se usará el nombre por omisión
+     *                  <code>base-de-datos.bd</code>.
+     * @param politica  la política de sincronización de la bitácora. Si es
+     *                  <code>null</code>, no se usa bitácora.
+     * @param intervalo el intervalo de sincronización en milisegundos, para
+     *                  la política {@link PoliticaDeSincronizacion#PERIODICA}.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatos(int puerto, String archivo,
+                               PoliticaDeSincronizacion politica,
+                               long intervalo)
+            throws IOException {
+         
         this.puerto = puerto;
         this.archivo = (archivo != null) ? archivo : "base-de-datos.db";
-        servidor = new ServerSocket(puerto);
+        canal = ServerSocketChannel.open();
+        canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        canal.bind(new InetSocketAddress(puerto), PENDIENTES);
+        servidor = canal.socket();
         conexiones = new Lista<Conexion<R>>();
         escuchas = new Lista<EscuchaServidor>();
-        bdd = creaBaseDeDatos();
+        candadoArchivo = new Object();
+        guardada = -1;
+        try {
+            bdd = creaBaseDeDatos();
+        } catch (UncheckedIOException uioe) {
+            canal.close();
+            throw uioe.getCause();
+        }
+        if (politica != null) {
+            bitacora = new BitacoraDeOperaciones<R>(bdd, this.archivo,
+                                                    politica, intervalo);
+            compactador = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "compactador-bitacora");
+                    t.setDaemon(true);
+                    return t;
+                });
+            compactador.scheduleWithFixedDelay(() -> compacta(false),
+                                               INTERVALO_COMPACTACION,
+                                               INTERVALO_COMPACTACION,
+                                               TimeUnit.MILLISECONDS);
+        }
         carga();
+        historial = new HistorialDeCambios<R>(CAPACIDAD_HISTORIAL,
+                                              bdd.getVersion());
+        do {
+            epoca = ThreadLocalRandom.current().nextLong();
+        } while (epoca == 0);
     }
 
     /**
-     * Comienza a escuchar por conexiones de clientes.
+     * Comienza a escuchar por conexiones de clientes, atendiendo cada una en
+     * su propio hilo de ejecución.
      */
     public void sirve() {
          
+        sirve(ModeloConexiones.HILO_POR_CONEXION);
+    }
+
+    /**
+     * Comienza a escuchar por conexiones de clientes, atendiéndolas con el
+     * modelo recibido. El método no termina hasta que se detenga el servicio.
+     * 
+     * @param modelo el modelo con el que se atienden las conexiones.
+     * @throws IllegalArgumentException si el modelo es <code>null</code>.
+     */
+    public void sirve(ModeloConexiones modelo) {
+         
+        if (modelo == null)
+            throw new IllegalArgumentException();
         continuaEjecucion = true;
         imprimeMensaje("Escuchando en el puerto: %d.", puerto);
+        if (modelo == ModeloConexiones.REACTOR)
+            sirveReactor();
+        else
+            sirveHilos(modelo);
+        imprimeMensaje("La ejecución del servidor ha terminado.");
+    }
+
+    /* Acepta conexiones y atiende cada una en su propio hilo. */
+    private void sirveHilos(ModeloConexiones modelo) {
+        ExecutorService hilos = null;
+        if (modelo == ModeloConexiones.HILOS_VIRTUALES) {
+            hilos = creaEjecutorVirtual();
+            if (hilos == null)
+                imprimeMensaje("No hay hilos virtuales; se usará un hilo " +
+                               "por conexión.");
+        }
         while (continuaEjecucion) {
             try {
                 Socket enchufe = servidor.accept();
                 Conexion<R> conexion = new Conexion<R>(bdd, enchufe);
-                String hostName = enchufe.getInetAddress().getCanonicalHostName();
-                imprimeMensaje("Conexión recibida de: %s.", hostName);
-                imprimeMensaje("Serial de conexión: %d.", conexion.getSerial());
-                conexion.agregaEscucha((c, m) -> mensajeRecibido(c, m));
-                new Thread(() -> conexion.recibeMensajes()).start();
-                synchronized (conexiones) {
-                    conexiones.agregaFinal(conexion);
-                }
+                registraConexion(conexion);
+                if (hilos != null)
+                    hilos.execute(() -> conexion.recibeMensajes());
+                else
+                    new Thread(() -> conexion.recibeMensajes()).start();
             } catch (IOException e) {
                 if (continuaEjecucion)
                     imprimeMensaje("Error al recibir una conexión.");
             }
         }
-        imprimeMensaje("La ejecución del servidor ha terminado.");
+        if (hilos != null)
+            hilos.shutdown();
+    }
+
+    /* Atiende las conexiones con un reactor. */
+    private void sirveReactor() {
+        int trabajadores = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try {
+            reactor = new ReactorDeConexiones<R>(bdd, canal,
+                                                 c -> registraConexion(c),
+                                                 trabajadores);
+            if (continuaEjecucion)
+                reactor.ejecuta();
+        } catch (IOException e) {
+            if (continuaEjecucion)
+                imprimeMensaje("Error en el reactor de conexiones.");
+        }
+    }
+
+    /* Regresa un ejecutor con un hilo virtual por tarea, o null si la máquina
+     * virtual no tiene hilos virtuales. */
+    private static ExecutorService creaEjecutorVirtual() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /* Reporta una conexión nueva y la agrega a las conexiones, antes de que
+     * reciba mensajes. */
+    private void registraConexion(Conexion<R> conexion) {
+        Socket enchufe = conexion.getEnchufe();
+        String hostName = enchufe.getInetAddress().getCanonicalHostName();
+        imprimeMensaje("Conexión recibida de: %s.", hostName);
+        imprimeMensaje("Serial de conexión: %d.", conexion.getSerial());
+        conexion.agregaEscucha((c, m) -> mensajeRecibido(c, m));
+        if (escritores != null)
+            conexion.activaColaDeSalida(capacidadSalida, saturacion,
+                                        escritores, this);
+        synchronized (conexiones) {
+            conexiones.agregaFinal(conexion);
+        }
+    }
+
+    /**
+     * Hace que el servidor agrupe las modificaciones de todas las conexiones
+     * en lotes, que se aplican y persisten con una sola escritura: una sola
+     * sincronización de la bitácora, o una sola reescritura de la base de
+     * datos si no hay bitácora. La conexión que envió una modificación no
+     * continúa hasta que su lote está persistido; sólo con colas de salida y
+     * sin bitácora, las demás conexiones pueden recibirla antes de que se
+     * reescriba la base de datos. Como el hilo que atiende la conexión se
+     * bloquea mientras tanto, no conviene con {@link
+     * ModeloConexiones#REACTOR}: cada modificación ocupa uno de sus pocos
+     * hilos trabajadores hasta que su lote está persistido. Debe llamarse
+     * antes de {@link #sirve}.
+     *
+     * Con bitácora, sólo se puede agrupar con la política {@link
+     * PoliticaDeSincronizacion#CADA_OPERACION}: con las demás, el lote sólo
+     * queda escrito en el búfer del sistema operativo, y la conexión
+     * continuaría con una modificación que se puede perder.
+     * 
+     * @param maximo el tamaño máximo de un lote.
+     * @param espera la espera máxima, en milisegundos, por más modificaciones
+     *               para un lote después de recibir la primera.
+     * @throws IllegalArgumentException si el tamaño máximo no es positivo o si
+     *         la espera es negativa.
+     * @throws IllegalStateException si la bitácora no se sincroniza después
+     *         de cada operación.
+     */
+    public void agrupaOperaciones(int maximo, long espera) {
+         
+        if (bitacora != null &&
+            bitacora.getPolitica() != PoliticaDeSincronizacion.CADA_OPERACION)
+            throw new IllegalStateException();
+        AgrupadorDeOperaciones<R> nuevo;
+        nuevo = new AgrupadorDeOperaciones<R>(l -> procesaLote(l),
+                                              maximo, espera);
+        if (agrupador != null)
+            agrupador.detiene();
+        agrupador = nuevo;
+    }
+
+    /**
+     * Hace que cada conexión tenga una cola de salida, que vacía un escritor
+     * en su propio hilo de ejecución; así, reenviar una modificación a las
+     * demás conexiones no espera a que cada una la lea, y un cliente lento no
+     * retrasa a los demás. Cuando la cola de una conexión se llena, se sigue
+     * la política recibida. Debe llamarse antes de {@link #sirve}.
+     * 
+     * @param capacidad el máximo de envíos pendientes por conexión.
+     * @param politica  la política para cuando una cola se llena.
+     * @throws IllegalArgumentException si la capacidad no es positiva o si la
+     *         política es <code>null</code>.
+     */
+    public void usaColasDeSalida(int capacidad, PoliticaDeSaturacion politica) {
+         
+        if (capacidad < 1 || politica == null)
+            throw new IllegalArgumentException();
+        capacidadSalida = capacidad;
+        saturacion = politica;
+        if (escritores == null)
+            escritores = creaEjecutorVirtual();
+        if (escritores == null)
+            escritores = Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "escritor-de-conexion");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Hace que el servidor comprima con GZIP la base de datos que escribe en
+     * el disco duro: el archivo que reescribe después de cada modificación, o
+     * las instantáneas de la bitácora. Al cargar, el archivo se lee
+     * comprimido o no, sin importar esta opción. Debe llamarse antes de
+     * {@link #sirve}.
+     */
+    public void comprimeInstantaneas() {
+         
+        compresion = true;
+        if (bitacora != null)
+            bitacora.setCompresion(true);
     }
 
     /**
@@ -103,47 +376,139 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
     }
 
     /**
-     * Crea la base de datos concreta.
+     * Crea la base de datos concreta. Se llama al construir el servidor; si
+     * la base de datos no puede crearse por un error de entrada/salida, el
+     * método puede lanzarlo como {@link UncheckedIOException} y el
+     * constructor del servidor lo lanza como {@link IOException}.
+     *
+     * Si la base de datos creada ya tiene registros, porque se conserva por
+     * su cuenta en el disco duro, el servidor no la carga de la instantánea,
+     * salvo que la bitácora tenga operaciones; en ese caso la base de datos
+     * debe conservar el estado en el que la dejó el servidor al detenerse.
      * 
      * @return la base de datos concreta.
      */
     public abstract BaseDeDatos<R, ? extends Enum> creaBaseDeDatos();
 
+    /**
+     * Regresa el archivo de la instantánea de la base de datos.
+     * 
+     * @return el archivo de la instantánea de la base de datos.
+     */
+    protected String getArchivo() {
+        return archivo;
+    }
+
     /* Carga la base de datos del disco duro. */
     private void carga() {
+        if (bitacora != null) {
+            cargaBitacora();
+            return;
+        }
+        if (bdd.getNumRegistros() > 0) {
+            imprimeMensaje("Base de datos conservada con %d registros.",
+                           bdd.getNumRegistros());
+            return;
+        }
         try {
             imprimeMensaje("Cargando base de datos de %s.", archivo);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            new FileInputStream(archivo)));
-            bdd.carga(in);
-            in.close();
+            InputStream in = Instantaneas.abre(new File(archivo));
+            try {
+                new CargadorParalelo<R>(bdd).carga(in);
+            } finally {
+                in.close();
+            }
             imprimeMensaje("Base de datos cargada exitosamente de %s.", archivo);
         } catch (IOException e) {
-            imprimeMensaje("Ocurrió un error al tratar de cargar $s.", archivo);
+            imprimeMensaje("Ocurrió un error al tratar de cargar %s.", archivo);
             imprimeMensaje("La base de datos estará inicialmente vacía.");
         }
     }
 
-    /* Guarda la base datos en el disco duro. */
-    private void guarda() {
+    /* Carga la base de datos de la instantánea y la bitácora. */
+    private synchronized void cargaBitacora() {
         try {
-            imprimeMensaje("Guardando base de datos en %s.", archivo);
-            BufferedWriter out = new BufferedWriter(
-                    new OutputStreamWriter(
-                            new FileOutputStream(archivo)));
-            bdd.guarda(out);
-            out.close();
-            imprimeMensaje("Base de datos guardada.");
+            if (bdd.getNumRegistros() > 0 && bitacora.isVacia()) {
+                imprimeMensaje("Base de datos conservada con %d registros.",
+                               bdd.getNumRegistros());
+                bitacora.carga(false);
+                return;
+            }
+            imprimeMensaje("Cargando base de datos de %s.", archivo);
+            int n = bitacora.carga();
+            imprimeMensaje("Base de datos cargada exitosamente de %s.", archivo);
+            imprimeMensaje("Operaciones recuperadas de la bitácora: %d.", n);
         } catch (IOException e) {
-            imprimeMensaje("Ocurrió un error al guardar la base de datos.");
+            imprimeMensaje("Ocurrió un error al tratar de cargar %s.", archivo);
+            imprimeMensaje("La base de datos estará inicialmente vacía.");
+            bdd.limpia();
+        }
+    }
+
+    /* Compacta la bitácora si tiene suficientes operaciones, o si se
+     * fuerza. Sólo la instantánea se toma con el candado del servidor; se
+     * escribe sin él, mientras las operaciones nuevas van a la bitácora
+     * siguiente. Una compactación que falló se reintenta con la misma
+     * instantánea. */
+    private void compacta(boolean forzada) {
+        try {
+            synchronized (this) {
+                if (!bitacora.isCompactando()) {
+                    int operaciones = bitacora.getOperaciones();
+                    if (operaciones == 0 ||
+                        (!forzada &&
+                         operaciones < Math.max(MINIMO_COMPACTACION,
+                                                bdd.getNumRegistros())))
+                        return;
+                    bitacora.iniciaCompactacion();
+                }
+            }
+            imprimeMensaje("Compactando bitácora en %s.", archivo);
+            bitacora.terminaCompactacion();
+            imprimeMensaje("Bitácora compactada.");
+        } catch (IOException e) {
+            imprimeMensaje("Ocurrió un error al compactar la bitácora.");
+        }
+    }
+
+    /* Guarda la base datos en el disco duro. La instantánea se toma con el
+     * candado del servidor, pero se escribe sin él, para no detener las
+     * modificaciones; si mientras tanto otro hilo ya guardó una versión
+     * posterior, no se escribe. */
+    private void guarda() {
+        Instantanea<R> instantanea;
+        synchronized (this) {
+            instantanea = bdd.getInstantanea();
+        }
+        synchronized (candadoArchivo) {
+            if (instantanea.getVersion() <= guardada)
+                return;
+            try {
+                imprimeMensaje("Guardando base de datos en %s.", archivo);
+                BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(
+                        Instantaneas.salida(new FileOutputStream(archivo),
+                                            compresion)));
+                instantanea.guarda(out);
+                out.close();
+                guardada = instantanea.getVersion();
+                imprimeMensaje("Base de datos guardada.");
+            } catch (IOException e) {
+                imprimeMensaje("Ocurrió un error al guardar la base de datos.");
+            }
         }
     }
 
     /* Recibe los mensajes de la conexion. */
     private void mensajeRecibido(Conexion<R> conexion, Mensaje mensaje) {
-        if (!conexion.isActiva())
+        if (!conexion.isActiva()) {
+            /* El otro lado cerró la conexión; sólo hay que olvidarla. */
+            if (mensaje == Mensaje.DESCONECTAR)
+                synchronized (conexiones) {
+                    conexiones.elimina(conexion);
+                }
             return;
+        }
         switch (mensaje) {
             case BASE_DE_DATOS:
                 manejaBaseDeDatos(conexion);
@@ -166,23 +531,76 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
             case ECO:
                 manejaEco(conexion);
                 break;
+            case REGISTROS_AGREGADOS:
+                manejaRegistros(conexion, mensaje);
+                break;
+            case REGISTROS_ELIMINADOS:
+                manejaRegistros(conexion, mensaje);
+                break;
+            case SINCRONIZA:
+                manejaSincroniza(conexion);
+                break;
             case INVALIDO:
                 error(conexion, "Mensaje inválido");
                 break;
         }
     }
 
-    /* Maneja el mensaje BASE_DE_DATOS */
+    /* Maneja el mensaje BASE_DE_DATOS: toma la instantánea con el candado
+     * del servidor, para que corresponda a una versión, y la envía sin él. */
     private void manejaBaseDeDatos(Conexion<R> conexion) {
+        Instantanea<R> instantanea;
+        synchronized (this) {
+            instantanea = bdd.getInstantanea();
+        }
         try {
             conexion.enviaMensaje(Mensaje.BASE_DE_DATOS);
-            conexion.enviaBaseDeDatos();
+            conexion.enviaBaseDeDatos(instantanea);
         } catch (IOException e) {
             error(conexion, "Error enviando la base de datos.");
         }
         imprimeMensaje("Base de datos pedida por %d.", conexion.getSerial());
     }
 
+    /* Maneja el mensaje SINCRONIZA: envía los cambios posteriores a la
+     * versión del cliente, o toda la base de datos seguida de su versión si
+     * el historial no los tiene. Con el candado del servidor sólo se toman
+     * los cambios, o la instantánea y su versión, y la conexión empieza a
+     * recibir los cambios con versión; la instantánea se envía sin él, y la
+     * conexión retiene los cambios que lleguen mientras tanto para enviarlos
+     * después de ella. */
+    private void manejaSincroniza(Conexion<R> conexion) {
+        Lista<Operacion<R>> cambios = null;
+        Instantanea<R> instantanea = null;
+        long epocaActual = 0, version = 0;
+        try {
+            synchronized (this) {
+                if (conexion.getEpoca() == epoca)
+                    cambios = historial.desde(conexion.getVersion());
+                if (cambios == null) {
+                    instantanea = bdd.getInstantanea();
+                    epocaActual = epoca;
+                    version = bdd.getVersion();
+                    conexion.retieneEnvios();
+                } else {
+                    conexion.enviaCambios(epoca, bdd.getVersion(), cambios);
+                }
+                conexion.setVersionada(true);
+            }
+            if (instantanea != null)
+                conexion.enviaBaseDeDatos(instantanea, epocaActual, version);
+        } catch (IOException e) {
+            error(conexion, "Error enviando los cambios.");
+            return;
+        }
+        if (cambios == null)
+            imprimeMensaje("Base de datos pedida por %d.",
+                           conexion.getSerial());
+        else
+            imprimeMensaje("Cambios pedidos por %d: %d.",
+                           conexion.getSerial(), cambios.getLongitud());
+    }
+
     /* Maneja los mensajes REGISTRO_AGREGADO y REGISTRO_MODIFICADO */
     private void manejaRegistroAlterado(Conexion<R> conexion, Mensaje mensaje) {
         R r = null;
@@ -192,26 +610,19 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
             error(conexion, "Error recibiendo registro.");
             return;
         }
-        String accion;
-        if (mensaje == Mensaje.REGISTRO_AGREGADO) {
-            agregaRegistro(r);
-            accion = "agregado";
-        } else {
-            eliminaRegistro(r);
-            accion = "eliminado";
-        }
-        for (Conexion<R> c : conexiones) {
-            if (conexion == c)
-                continue;
-            try {
-                c.enviaMensaje(mensaje);
-                c.enviaRegistro(r);
-            } catch (IOException io) {
-                error(conexion, "Error recibiendo registro.");
-            }
+        String accion = mensaje == Mensaje.REGISTRO_AGREGADO ?
+            "agregado" : "eliminado";
+        Operacion<R> operacion = new Operacion<R>(mensaje, r);
+        operacion.setOrigen(conexion);
+        try {
+            aplica(operacion);
+        } catch (IOException e) {
+            error(conexion, "Error escribiendo en la bitácora.");
+            return;
         }
         imprimeMensaje("Registro %s por %d.", accion, conexion.getSerial());
-        guarda();
+        if (bitacora == null && agrupador == null)
+            guarda();
     }
 
     /* Maneja el mensaje REGISTRO_MODIFICADO */
@@ -225,20 +636,48 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
             return;
         }
 
-        modificaRegistro(r1, r2);
-        for (Conexion<R> c : conexiones) {
-            if (c == conexion)
-                continue;
-            try {
-                c.enviaMensaje(Mensaje.REGISTRO_MODIFICADO);
-                c.enviaRegistro(r1);
-                c.enviaRegistro(r2);
-            } catch (IOException io) {
-                error(conexion, "Error recibiendo registro.");
-            }
+        Operacion<R> operacion = new Operacion<R>(r1, r2);
+        operacion.setOrigen(conexion);
+        try {
+            aplica(operacion);
+        } catch (IOException e) {
+            error(conexion, "Error escribiendo en la bitácora.");
+            return;
         }
         imprimeMensaje("Registro modifia por %d.", conexion.getSerial());
-        guarda();
+        if (bitacora == null && agrupador == null)
+            guarda();
+    }
+
+    /* Maneja los mensajes REGISTROS_AGREGADOS y REGISTROS_ELIMINADOS: aplica
+     * y persiste todos los registros como un solo lote, y lo reenvía en un
+     * solo mensaje. */
+    private void manejaRegistros(Conexion<R> conexion, Mensaje mensaje) {
+        Lista<R> registros;
+        try {
+            registros = conexion.recibeRegistros();
+        } catch (IOException e) {
+            error(conexion, "Error recibiendo registros.");
+            return;
+        }
+        Mensaje cada = mensaje == Mensaje.REGISTROS_AGREGADOS ?
+            Mensaje.REGISTRO_AGREGADO : Mensaje.REGISTRO_ELIMINADO;
+        String accion = mensaje == Mensaje.REGISTROS_AGREGADOS ?
+            "agregados" : "eliminados";
+        if (registros.esVacia())
+            return;
+        Lista<Operacion<R>> lote = new Lista<Operacion<R>>();
+        for (R r : registros)
+            lote.agregaFinal(new Operacion<R>(cada, r));
+        try {
+            procesaLote(lote, d -> reenviaRegistros(conexion, mensaje,
+                                                    registros, d));
+        } catch (IOException e) {
+            error(conexion, "Error escribiendo en la bitácora.");
+            return;
+        }
+        imprimeMensaje("Registros %s por %d: %d.", accion,
+                       conexion.getSerial(), registros.getLongitud());
     }
 
     /* Maneja el mensaje DESCONECTAR */
@@ -251,12 +690,44 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
     private void manejaDetenerServidor(Conexion<R> conexion) {
         imprimeMensaje("Solicitud de detener servicio de %d.", conexion.getSerial());
         continuaEjecucion = false;
-        for (Conexion<R> c : conexiones)
+        conexion.desconecta();
+        for (Conexion<R> c : copiaConexiones())
             c.desconecta();
         try {
             servidor.close();
         } catch (IOException io) {
         }
+        if (reactor != null)
+            reactor.detiene();
+        if (agrupador != null)
+            agrupador.detiene();
+        if (escritores != null)
+            escritores.shutdown();
+        if (bitacora != null)
+            detenBitacora();
+        if (bdd instanceof Closeable)
+            cierraBaseDeDatos();
+    }
+
+    /* Cierra la base de datos al detener el servicio, después de la última
+     * modificación. */
+    private synchronized void cierraBaseDeDatos() {
+        try {
+            ((Closeable)bdd).close();
+        } catch (IOException e) {
+            imprimeMensaje("Ocurrió un error al cerrar la base de datos.");
+        }
+    }
+
+    /* Compacta y cierra la bitácora al detener el servicio. */
+    private synchronized void detenBitacora() {
+        compactador.shutdownNow();
+        compacta(true);
+        try {
+            bitacora.cierra();
+        } catch (IOException e) {
+            imprimeMensaje("Ocurrió un error al cerrar la bitácora.");
+        }
     }
 
     /* Maneja el mensaje ECO */
@@ -288,19 +759,147 @@ public abstract class ServidorBaseDeDatos<R extends Registro<R, ?>> {
                         conexion.getSerial());
     }
 
-    /* Agrega el registro a la base de datos */
-    private synchronized void agregaRegistro(R registro) {
-        bdd.agregaRegistro(registro);
+    /* Regresa una copia de la lista de conexiones, para recorrerla sin
+     * bloquear las conexiones nuevas. */
+    private Lista<Conexion<R>> copiaConexiones() {
+        synchronized (conexiones) {
+            return conexiones.copia();
+        }
+    }
+
+    /* Aplica la operación a la base de datos; si se agrupan las operaciones,
+     * espera a que su lote sea aplicado y persistido. */
+    private void aplica(Operacion<R> operacion) throws IOException {
+        if (agrupador != null)
+            agrupador.procesa(operacion);
+        else
+            aplicaOperacion(operacion);
+    }
+
+    /* Registra la operación en la bitácora, la aplica a la base de datos y
+     * la envía a las demás conexiones. */
+    private void aplicaOperacion(Operacion<R> operacion)
+        throws IOException {
+        Lista<Conexion<R>> destinos;
+        synchronized (this) {
+            if (bitacora != null)
+                bitacora.registra(operacion);
+            Lista<Operacion<R>> aplicadas = new Lista<Operacion<R>>();
+            aplicaCambio(operacion, aplicadas);
+            enviaCambios(aplicadas);
+            destinos = copiaConexiones();
+            if (escritores != null)
+                reenvia(operacion, destinos);
+        }
+        if (escritores == null)
+            reenvia(operacion, destinos);
+    }
+
+    /* Aplica la operación a la base de datos con el candado del servidor; si
+     * la modificó, la registra en el historial y la agrega a las
+     * aplicadas. */
+    private void aplicaCambio(Operacion<R> operacion,
+                              Lista<Operacion<R>> aplicadas) {
+        long version = bdd.getVersion();
+        operacion.aplica(bdd);
+        if (bdd.getVersion() == version)
+            return;
+        historial.registra(bdd.getVersion(), operacion);
+        aplicadas.agregaFinal(operacion);
+    }
+
+    /* Envía las operaciones aplicadas, con la nueva versión, a las conexiones
+     * que reciben los cambios con versión; con el candado del servidor, para
+     * que los reciban en el orden en que se aplicaron. */
+    private void enviaCambios(Lista<Operacion<R>> aplicadas) {
+        if (aplicadas.esVacia())
+            return;
+        for (Conexion<R> c : copiaConexiones()) {
+            if (!c.isVersionada())
+                continue;
+            try {
+                c.enviaCambios(epoca, bdd.getVersion(), aplicadas);
+            } catch (IOException io) {
+                error(c, "Error enviando los cambios.");
+            }
+        }
     }
 
-    /* Elimina el registro de la base de datos */
-    private synchronized void eliminaRegistro(R registro) {
-        bdd.eliminaRegistro(registro);
+    /* Reenvía la operación a los destinos que no reciben los cambios con
+     * versión, menos a la conexión que la envió. Con colas de salida se
+     * reenvía con el candado del servidor, que es el que usan para tomar las
+     * instantáneas de las resincronizaciones; sin ellas, se reenvía sin él,
+     * para que un cliente lento no detenga al servidor. */
+    private void reenvia(Operacion<R> operacion,
+                         Lista<Conexion<R>> destinos) {
+        for (Conexion<R> c : destinos) {
+            if (c == operacion.getOrigen() || c.isVersionada())
+                continue;
+            try {
+                if (escritores != null)
+                    c.enviaOperacion(operacion);
+                else
+                    c.reenviaOperacion(operacion);
+            } catch (IOException io) {
+                error(c, "Error enviando registro.");
+            }
+        }
     }
 
-    /* Modifica el registro en la base de datos */
-    private synchronized void modificaRegistro(R registro1, R registro2) {
-        bdd.modificaRegistro(registro1, registro2);
+    /* Reenvía el lote de registros en un solo mensaje a los destinos que no
+     * reciben los cambios con versión, menos a la conexión que lo envió;
+     * como reenvia. */
+    private void reenviaRegistros(Conexion<R> origen, Mensaje mensaje,
+                                  Lista<R> registros,
+                                  Lista<Conexion<R>> destinos) {
+        for (Conexion<R> c : destinos) {
+            if (c == origen || c.isVersionada())
+                continue;
+            try {
+                if (escritores != null)
+                    c.enviaRegistros(mensaje, registros);
+                else
+                    c.reenviaRegistros(mensaje, registros);
+            } catch (IOException io) {
+                error(c, "Error enviando registros.");
+            }
+        }
+    }
+
+    /* Registra un lote de operaciones en la bitácora con una sola escritura,
+     * lo aplica a la base de datos y reenvía cada operación a las demás
+     * conexiones; sin bitácora, guarda la base de datos una vez por lote. */
+    private void procesaLote(Lista<Operacion<R>> lote) throws IOException {
+        procesaLote(lote, d -> {
+                for (Operacion<R> operacion : lote)
+                    reenvia(operacion, d);
+            });
+    }
+
+    /* Registra un lote de operaciones en la bitácora con una sola escritura y
+     * lo aplica a la base de datos con el candado del servidor; sin bitácora,
+     * guarda la base de datos una vez por lote, sin el candado. Con colas de
+     * salida el reenvío se hace con el candado, como en reenvia; sin ellas,
+     * después de persistir el lote. */
+    private void procesaLote(Lista<Operacion<R>> lote,
+                             Consumer<Lista<Conexion<R>>> reenvio)
+        throws IOException {
+        Lista<Conexion<R>> destinos;
+        synchronized (this) {
+            if (bitacora != null)
+                bitacora.registra(lote);
+            Lista<Operacion<R>> aplicadas = new Lista<Operacion<R>>();
+            for (Operacion<R> operacion : lote)
+                aplicaCambio(operacion, aplicadas);
+            enviaCambios(aplicadas);
+            destinos = copiaConexiones();
+            if (escritores != null)
+                reenvio.accept(destinos);
+        }
+        if (bitacora == null)
+            guarda();
+        if (escritores == null)
+            reenvio.accept(destinos);
     }
 
     /* Procesa los mensajes de todos los escuchas */
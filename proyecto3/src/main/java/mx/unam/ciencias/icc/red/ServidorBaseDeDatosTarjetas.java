@@ -1,16 +1,20 @@
 package mx.unam.ciencias.icc.red;
 
 import java.io.IOException;
+import mx.unam.ciencias.icc.Almacenamiento;
 import mx.unam.ciencias.icc.BaseDeDatos;
-import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasCompactas;
 import mx.unam.ciencias.icc.CampoTarjeta;
-import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
 
 /**
- * Clase para servidores de bases de datos de tarjetas bancarias de débito.
+ * Clase para servidores de bases de datos de tarjetas bancarias de débito. El
+ * servidor guarda las tarjetas como {@link TarjetaCompacta}, sin las
+ * propiedades de JavaFX; los clientes las reciben con la misma serialización
+ * que {@link mx.unam.ciencias.icc.Tarjeta}.
  */
 public class ServidorBaseDeDatosTarjetas
-    extends ServidorBaseDeDatos<Tarjeta> {
+    extends ServidorBaseDeDatos<TarjetaCompacta> {
 
     /**
      * Construye un servidor de base de datos de tarjetas.
@@ -26,12 +30,33 @@ public class ServidorBaseDeDatosTarjetas
     }
 
     /**
-     * Crea una base de datos de tarjetas.
-     * @return una base de datos de tarjetas.
+     * Construye un servidor de base de datos de tarjetas que registra las
+     * modificaciones en una bitácora de operaciones.
+     * @param puerto el puerto dónde escuchar por conexiones.
+     * @param archivo el archivo en el disco de la instantánea de la base de
+     *                datos.
+     * @param politica la política de sincronización de la bitácora.
+     * @param intervalo el intervalo de sincronización en milisegundos, para
+     *                  la política {@link PoliticaDeSincronizacion#PERIODICA}.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatosTarjetas(int puerto, String archivo,
+                                       PoliticaDeSincronizacion politica,
+                                       long intervalo)
+        throws IOException {
+         
+        super(puerto, archivo, politica, intervalo);
+    }
+
+    /**
+     * Crea una base de datos de tarjetas compactas con almacenamiento {@link
+     * Almacenamiento#PERSISTENTE}, para que las conexiones que piden la base
+     * de datos la lean de una instantánea mientras el servidor la modifica.
+     * @return una base de datos de tarjetas compactas.
      */
     @Override public
-    BaseDeDatos<Tarjeta, CampoTarjeta> creaBaseDeDatos() {
+    BaseDeDatos<TarjetaCompacta, CampoTarjeta> creaBaseDeDatos() {
          
-        return new BaseDeDatosTarjetas();
+        return new BaseDeDatosTarjetasCompactas(Almacenamiento.PERSISTENTE);
     }
 }
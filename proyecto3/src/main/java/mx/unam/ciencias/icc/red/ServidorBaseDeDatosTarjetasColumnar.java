@@ -0,0 +1,73 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasColumnar;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+
+/**
+ * Clase para servidores de bases de datos de tarjetas que guardan las
+ * tarjetas en columnas mapeadas en memoria, con {@link
+ * BaseDeDatosTarjetasColumnar}. Las columnas se guardan en el archivo de la
+ * instantánea con la extensión <code>.columnas</code>; si el servidor se
+ * detuvo limpiamente, al arrancar conserva las tarjetas de las columnas sin
+ * cargar la instantánea.
+ */
+public class ServidorBaseDeDatosTarjetasColumnar
+    extends ServidorBaseDeDatosTarjetas {
+
+    /** Extensión del archivo de las columnas. */
+    public static final String EXTENSION = ".columnas";
+
+    /**
+     * Construye un servidor de base de datos columnar de tarjetas.
+     * @param puerto el puerto dónde escuchar por conexiones.
+     * @param archivo el archivo en el disco del cual cargar/guardar la base de
+     *                datos.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatosTarjetasColumnar(int puerto, String archivo)
+        throws IOException {
+         
+        super(puerto, archivo);
+    }
+
+    /**
+     * Construye un servidor de base de datos columnar de tarjetas que
+     * registra las modificaciones en una bitácora de operaciones.
+     * @param puerto el puerto dónde escuchar por conexiones.
+     * @param archivo el archivo en el disco de la instantánea de la base de
+     *                datos.
+     * @param politica la política de sincronización de la bitácora.
+     * @param intervalo el intervalo de sincronización en milisegundos, para
+     *                  la política {@link PoliticaDeSincronizacion#PERIODICA}.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatosTarjetasColumnar(int puerto, String archivo,
+                                               PoliticaDeSincronizacion politica,
+                                               long intervalo)
+        throws IOException {
+         
+        super(puerto, archivo, politica, intervalo);
+    }
+
+    /**
+     * Crea una base de datos columnar de tarjetas.
+     * @return una base de datos columnar de tarjetas.
+     * @throws UncheckedIOException si no se puede abrir el archivo de las
+     *         columnas.
+     */
+    @Override public
+    BaseDeDatos<TarjetaCompacta, CampoTarjeta> creaBaseDeDatos() {
+         
+        try {
+            return new BaseDeDatosTarjetasColumnar(
+                new File(getArchivo() + EXTENSION));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mx.unam.ciencias.icc.red;
+
+import java.io.IOException;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasConcurrente;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+
+/**
+ * Clase para servidores de bases de datos de tarjetas que guardan las
+ * tarjetas en una {@link BaseDeDatosTarjetasConcurrente}. Lo único que gana
+ * el servidor son lecturas sin candados: las conexiones que piden la base de
+ * datos la leen mientras el servidor aplica operaciones de otras conexiones,
+ * y cada tarjeta que reciben está completa. Las modificaciones no ocurren en
+ * paralelo aunque caigan en franjas distintas: el servidor aplica las
+ * operaciones una por una, bajo su propio candado, porque la bitácora y el
+ * historial de cambios necesitan un orden total, y porque reenvía cada
+ * operación a las demás conexiones en ese mismo orden.
+ */
+public class ServidorBaseDeDatosTarjetasConcurrente
+    extends ServidorBaseDeDatosTarjetas {
+
+    /**
+     * Construye un servidor de base de datos concurrente de tarjetas.
+     * @param puerto el puerto dónde escuchar por conexiones.
+     * @param archivo el archivo en el disco del cual cargar/guardar la base de
+     *                datos.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatosTarjetasConcurrente(int puerto, String archivo)
+        throws IOException {
+         
+        super(puerto, archivo);
+    }
+
+    /**
+     * Construye un servidor de base de datos concurrente de tarjetas que
+     * registra las modificaciones en una bitácora de operaciones.
+     * @param puerto el puerto dónde escuchar por conexiones.
+     * @param archivo el archivo en el disco de la instantánea de la base de
+     *                datos.
+     * @param politica la política de sincronización de la bitácora.
+     * @param intervalo el intervalo de sincronización en milisegundos, para
+     *                  la política {@link PoliticaDeSincronizacion#PERIODICA}.
+     * @throws IOException si ocurre un error de entrada o salida.
+     */
+    public ServidorBaseDeDatosTarjetasConcurrente(int puerto, String archivo,
+                                                  PoliticaDeSincronizacion politica,
+                                                  long intervalo)
+        throws IOException {
+         
+        super(puerto, archivo, politica, intervalo);
+    }
+
+    /**
+     * Crea una base de datos concurrente de tarjetas.
+     * @return una base de datos concurrente de tarjetas.
+     */
+    @Override public
+    BaseDeDatos<TarjetaCompacta, CampoTarjeta> creaBaseDeDatos() {
+         
+        return new BaseDeDatosTarjetasConcurrente();
+    }
+}
@@ -0,0 +1,130 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.io.IOException;
+import java.util.Random;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.red.AgrupadorDeOperaciones;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.Operacion;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link AgrupadorDeOperaciones}.
+ */
+public class TestAgrupadorDeOperaciones {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El total de operaciones. */
+    private int total;
+    /* El tamaño máximo de los lotes. */
+    private int maximo;
+    /* Los lotes procesados. */
+    private Lista<Lista<Operacion<Tarjeta>>> lotes;
+
+    /**
+     * Crea un generador de números aleatorios para cada prueba.
+     */
+    public TestAgrupadorDeOperaciones() {
+        random = new Random();
+        total = 10 + random.nextInt(40);
+        maximo = 2 + random.nextInt(8);
+        lotes = new Lista<Lista<Operacion<Tarjeta>>>();
+    }
+
+    /* Registra una copia del lote. */
+    private void procesa(Lista<Operacion<Tarjeta>> lote) {
+        synchronized (lotes) {
+            lotes.agregaFinal(lote.copia());
+        }
+    }
+
+    /* Nos dice si la operación está en algún lote procesado. */
+    private boolean procesada(Operacion<Tarjeta> operacion) {
+        synchronized (lotes) {
+            for (Lista<Operacion<Tarjeta>> lote : lotes)
+                for (Operacion<Tarjeta> o : lote)
+                    if (o == operacion)
+                        return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prueba unitaria para {@link AgrupadorDeOperaciones#procesa}.
+     * @throws InterruptedException si se interrumpe la espera de los hilos.
+     */
+    @Test public void testProcesa() throws InterruptedException {
+        AgrupadorDeOperaciones<Tarjeta> agrupador =
+            new AgrupadorDeOperaciones<Tarjeta>(l -> procesa(l), maximo, 50);
+        Thread[] hilos = new Thread[total];
+        boolean[] correctas = new boolean[total];
+        for (int i = 0; i < total; i++) {
+            int j = i;
+            hilos[i] = new Thread(() -> {
+                    Operacion<Tarjeta> o = new Operacion<Tarjeta>(
+                        Mensaje.REGISTRO_AGREGADO, UtilRed.tarjetaAleatoria(total));
+                    try {
+                        agrupador.procesa(o);
+                        correctas[j] = procesada(o);
+                    } catch (IOException ioe) {}
+                });
+            hilos[i].start();
+        }
+        for (Thread hilo : hilos)
+            hilo.join();
+        agrupador.detiene();
+
+        for (boolean correcta : correctas)
+            Assert.assertTrue(correcta);
+        int n = 0;
+        for (Lista<Operacion<Tarjeta>> lote : lotes) {
+            Assert.assertTrue(lote.getLongitud() > 0);
+            Assert.assertTrue(lote.getLongitud() <= maximo);
+            n += lote.getLongitud();
+        }
+        Assert.assertTrue(n == total);
+        Assert.assertTrue(lotes.getLongitud() < total);
+    }
+
+    /**
+     * Prueba unitaria para {@link AgrupadorDeOperaciones#procesa} cuando el
+     * lote no puede persistirse.
+     */
+    @Test public void testProcesaError() {
+        AgrupadorDeOperaciones<Tarjeta> agrupador =
+            new AgrupadorDeOperaciones<Tarjeta>(l -> {
+                    throw new IOException();
+                }, maximo, 0);
+        Operacion<Tarjeta> o = new Operacion<Tarjeta>(
+            Mensaje.REGISTRO_ELIMINADO, UtilRed.tarjetaAleatoria(total));
+        try {
+            agrupador.procesa(o);
+            Assert.fail();
+        } catch (IOException ioe) {}
+        agrupador.detiene();
+    }
+
+    /**
+     * Prueba unitaria para {@link AgrupadorDeOperaciones#detiene}.
+     */
+    @Test public void testDetiene() {
+        AgrupadorDeOperaciones<Tarjeta> agrupador =
+            new AgrupadorDeOperaciones<Tarjeta>(l -> procesa(l), maximo, 0);
+        agrupador.detiene();
+        Operacion<Tarjeta> o = new Operacion<Tarjeta>(
+            Mensaje.REGISTRO_AGREGADO, UtilRed.tarjetaAleatoria(total));
+        try {
+            agrupador.procesa(o);
+            Assert.fail();
+        } catch (IOException ioe) {}
+        Assert.assertTrue(lotes.esVacia());
+    }
+}
@@ -0,0 +1,262 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.red.BitacoraDeOperaciones;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.PoliticaDeSincronizacion;
+import mx.unam.ciencias.icc.test.TestTarjeta;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link BitacoraDeOperaciones}.
+ */
+public class TestBitacoraDeOperaciones {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+    /** Directorio para archivos temporales. */
+    @Rule public TemporaryFolder directorio = new TemporaryFolder();
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El total de tarjetas. */
+    private int total;
+    /* La base de datos. */
+    private BaseDeDatosTarjetas bdd;
+    /* La bitácora. */
+    private BitacoraDeOperaciones<Tarjeta> bitacora;
+    /* El archivo de la instantánea. */
+    private String archivo;
+
+    /**
+     * Crea un generador de números aleatorios para cada prueba.
+     */
+    public TestBitacoraDeOperaciones() {
+        random = new Random();
+        total = 10 + random.nextInt(100);
+    }
+
+    /**
+     * Método que se ejecuta antes de cada prueba unitaria; crea la base de
+     * datos y su bitácora en un directorio temporal.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Before public void arma() throws IOException {
+        archivo = new File(directorio.getRoot(), "bitacora.db").getPath();
+        bdd = new BaseDeDatosTarjetas();
+        bitacora = nuevaBitacora(bdd);
+        bitacora.carga();
+    }
+
+    /* Crea una bitácora nueva para la base de datos. */
+    private BitacoraDeOperaciones<Tarjeta> nuevaBitacora(BaseDeDatosTarjetas b) {
+        PoliticaDeSincronizacion[] politicas =
+            PoliticaDeSincronizacion.values();
+        PoliticaDeSincronizacion p = politicas[random.nextInt(politicas.length)];
+        return new BitacoraDeOperaciones<Tarjeta>(b, archivo, p, 10);
+    }
+
+    /* Agrega y registra tarjetas aleatorias, eliminando y modificando
+     * algunas. */
+    private void operaciones() throws IOException {
+        for (int i = 0; i < total; i++) {
+            Tarjeta t = UtilRed.tarjetaAleatoria(total);
+            bitacora.registra(Mensaje.REGISTRO_AGREGADO, t);
+            bdd.agregaRegistro(t);
+            if (random.nextInt(4) == 0) {
+                bitacora.registra(Mensaje.REGISTRO_ELIMINADO, t);
+                bdd.eliminaRegistro(t);
+            } else if (random.nextInt(4) == 0) {
+                Tarjeta m = new Tarjeta(null, null, 0, null, 0);
+                m.actualiza(t);
+                m.setSaldo(TestTarjeta.saldoAleatorio());
+                bitacora.registraModificacion(t, m);
+                bdd.modificaRegistro(t, m);
+            }
+        }
+    }
+
+    /* Agrega y registra tarjetas aleatorias, eliminando algunas; no las
+     * modifica, para no cambiar los registros de una instantánea. */
+    private void agregaYElimina() throws IOException {
+        for (int i = 0; i < total; i++) {
+            Tarjeta t = UtilRed.tarjetaAleatoria(total);
+            bitacora.registra(Mensaje.REGISTRO_AGREGADO, t);
+            bdd.agregaRegistro(t);
+            if (random.nextInt(4) == 0) {
+                bitacora.registra(Mensaje.REGISTRO_ELIMINADO, t);
+                bdd.eliminaRegistro(t);
+            }
+        }
+    }
+
+    /* Carga una base de datos nueva del disco y regresa sus registros. */
+    private Lista<Tarjeta> recarga() throws IOException {
+        BaseDeDatosTarjetas b = new BaseDeDatosTarjetas();
+        BitacoraDeOperaciones<Tarjeta> otra = nuevaBitacora(b);
+        otra.carga();
+        otra.cierra();
+        return b.getRegistros();
+    }
+
+    /* Agrega bytes al final de un archivo. */
+    private void agrega(String nombre, String contenido) throws IOException {
+        FileOutputStream out = new FileOutputStream(nombre, true);
+        out.write(contenido.getBytes());
+        out.close();
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#registra} y {@link
+     * BitacoraDeOperaciones#carga}.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testRegistraCarga() throws IOException {
+        operaciones();
+        Assert.assertTrue(bitacora.getOperaciones() >= total);
+        bitacora.cierra();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#compacta}.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testCompacta() throws IOException {
+        operaciones();
+        bitacora.compacta();
+        Assert.assertTrue(bitacora.getOperaciones() == 0);
+        Assert.assertTrue(new File(archivo + ".bitacora").length() == 0);
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+        operaciones();
+        bitacora.cierra();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#iniciaCompactacion} y
+     * {@link BitacoraDeOperaciones#terminaCompactacion}.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testCompactacionEnDosPartes() throws IOException {
+        File siguiente = new File(archivo + ".bitacora.siguiente");
+        operaciones();
+        bitacora.iniciaCompactacion();
+        Assert.assertTrue(bitacora.isCompactando());
+        Assert.assertTrue(bitacora.getOperaciones() == 0);
+        Assert.assertTrue(siguiente.exists());
+        try {
+            bitacora.iniciaCompactacion();
+            Assert.fail();
+        } catch (IllegalStateException ise) {}
+        agregaYElimina();
+        Assert.assertTrue(bitacora.getOperaciones() >= total);
+        bitacora.terminaCompactacion();
+        Assert.assertFalse(bitacora.isCompactando());
+        Assert.assertFalse(siguiente.exists());
+        Assert.assertTrue(new File(archivo + ".bitacora").length() > 0);
+        agregaYElimina();
+        bitacora.cierra();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#carga} cuando una
+     * compactación se inició y no se terminó.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testCargaCompactacionSinTerminar() throws IOException {
+        operaciones();
+        bitacora.iniciaCompactacion();
+        agregaYElimina();
+        bitacora.cierra();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+        Assert.assertFalse(new File(archivo + ".bitacora.siguiente").exists());
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#setCompresion}.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testSetCompresion() throws IOException {
+        operaciones();
+        bitacora.setCompresion(true);
+        bitacora.compacta();
+        FileInputStream in = new FileInputStream(archivo);
+        Assert.assertTrue(in.read() == 0x1f);
+        Assert.assertTrue(in.read() == 0x8b);
+        in.close();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+        operaciones();
+        bitacora.setCompresion(false);
+        bitacora.compacta();
+        bitacora.cierra();
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#carga} con una
+     * bitácora que termina con una operación incompleta.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testCargaOperacionIncompleta() throws IOException {
+        operaciones();
+        bitacora.cierra();
+        Tarjeta t = UtilRed.tarjetaAleatoria(total);
+        String s = t.serializa();
+        agrega(archivo + ".bitacora", Mensaje.REGISTRO_AGREGADO + "\n" +
+               s.substring(0, s.length() - 1));
+
+        BaseDeDatosTarjetas b = new BaseDeDatosTarjetas();
+        BitacoraDeOperaciones<Tarjeta> otra = nuevaBitacora(b);
+        Assert.assertTrue(otra.carga() == bitacora.getOperaciones());
+        Assert.assertTrue(b.getRegistros().equals(bdd.getRegistros()));
+        Assert.assertTrue(new File(archivo + ".bitacora").length() == 0);
+        otra.registra(Mensaje.REGISTRO_AGREGADO, t);
+        otra.cierra();
+        bdd.agregaRegistro(t);
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+    }
+
+    /**
+     * Prueba unitaria para {@link BitacoraDeOperaciones#carga} después de una
+     * compactación interrumpida.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testCargaCompactacionInterrumpida() throws IOException {
+        operaciones();
+        bitacora.cierra();
+        /* Antes de retirar la bitácora: la instantánea temporal se descarta. */
+        agrega(archivo + ".tmp", "basura");
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+        Assert.assertFalse(new File(archivo + ".tmp").exists());
+
+        /* Después de retirar la bitácora: la instantánea temporal está
+         * completa y la compactación se termina. */
+        BitacoraDeOperaciones<Tarjeta> otra = nuevaBitacora(bdd);
+        otra.compacta();
+        otra.cierra();
+        File instantanea = new File(archivo);
+        Assert.assertTrue(instantanea.renameTo(new File(archivo + ".tmp")));
+        Assert.assertTrue(new File(archivo + ".bitacora").renameTo(
+                              new File(archivo + ".bitacora.vieja")));
+        agrega(archivo + ".bitacora.vieja", Mensaje.REGISTRO_ELIMINADO + "\n" +
+               bdd.getRegistros().getPrimero().serializa());
+        Assert.assertTrue(recarga().equals(bdd.getRegistros()));
+        Assert.assertFalse(new File(archivo + ".bitacora.vieja").exists());
+        Assert.assertFalse(new File(archivo + ".tmp").exists());
+    }
+}
@@ -10,9 +10,14 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Random;
 import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
+import mx.unam.ciencias.icc.Lista;
 import mx.unam.ciencias.icc.Tarjeta;
 import mx.unam.ciencias.icc.red.Conexion;
 import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.Operacion;
+import mx.unam.ciencias.icc.red.PoliticaDeSaturacion;
 import mx.unam.ciencias.icc.test.TestTarjeta;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -143,8 +148,18 @@ public class TestConexion {
             out.flush();
             UtilRed.espera(10);
 
+            int[] eventos = new int[EventoBaseDeDatos.values().length];
+            bdd.agregaEscucha((e, r1, r2) -> eventos[e.ordinal()]++);
             conexion.recibeBaseDeDatos();
             Assert.assertTrue(this.bdd.getRegistros().equals(bdd.getRegistros()));
+            /* La base de datos se carga en bloque: sin un evento por
+             * registro. */
+            for (EventoBaseDeDatos e : EventoBaseDeDatos.values())
+                if (e == EventoBaseDeDatos.BASE_LIMPIADA ||
+                    e == EventoBaseDeDatos.BASE_CARGADA)
+                    Assert.assertTrue(eventos[e.ordinal()] == 1);
+                else
+                    Assert.assertTrue(eventos[e.ordinal()] == 0);
         } catch (IOException ioe) {
             Assert.fail();
         }
@@ -245,6 +260,430 @@ public class TestConexion {
         }
     }
 
+    /**
+     * Prueba unitaria para {@link Conexion#enviaOperacion}.
+     */
+    @Test public void testEnviaOperacion() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            UtilRed.espera(10);
+
+            Tarjeta t1 = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + 12345678);
+            Tarjeta t2 = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + 87654321);
+            conexion.enviaOperacion(new Operacion<Tarjeta>(t1, t2));
+            UtilRed.espera(10);
+
+            Assert.assertTrue(in.readLine().equals(
+                                  Mensaje.REGISTRO_MODIFICADO.toString()));
+            Assert.assertTrue(t1.serializa().equals(in.readLine() + "\n"));
+            Assert.assertTrue(t2.serializa().equals(in.readLine() + "\n"));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#enviaOperaciones}.
+     */
+    @Test public void testEnviaOperaciones() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            UtilRed.espera(10);
+
+            Lista<Operacion<Tarjeta>> operaciones =
+                new Lista<Operacion<Tarjeta>>();
+            for (Tarjeta t : bdd.getRegistros())
+                operaciones.agregaFinal(
+                    new Operacion<Tarjeta>(Mensaje.REGISTRO_ELIMINADO, t));
+            conexion.enviaOperaciones(operaciones);
+            UtilRed.espera(10);
+
+            for (Tarjeta t : bdd.getRegistros()) {
+                Assert.assertTrue(in.readLine().equals(
+                                      Mensaje.REGISTRO_ELIMINADO.toString()));
+                Assert.assertTrue(t.serializa().equals(in.readLine() + "\n"));
+            }
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#enviaRegistros}.
+     */
+    @Test public void testEnviaRegistros() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            UtilRed.espera(10);
+
+            Lista<Tarjeta> tarjetas = bdd.getRegistros();
+            conexion.enviaRegistros(Mensaje.REGISTROS_AGREGADOS, tarjetas);
+            UtilRed.espera(10);
+
+            String linea = in.readLine();
+            Assert.assertTrue(linea.equals(Mensaje.REGISTROS_AGREGADOS +
+                                           ":" + total));
+            for (Tarjeta t : tarjetas)
+                Assert.assertTrue(t.serializa().equals(in.readLine() + "\n"));
+
+            try {
+                conexion.enviaRegistros(Mensaje.REGISTRO_AGREGADO, tarjetas);
+                Assert.fail();
+            } catch (IllegalArgumentException iae) {}
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#recibeRegistros}.
+     */
+    @Test public void testRecibeRegistros() {
+        Lista<Lista<Tarjeta>> recibidos = new Lista<Lista<Tarjeta>>();
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(new BaseDeDatosTarjetas(), enchufe);
+            conexion.agregaEscucha((c, m) -> {
+                    if (m != Mensaje.REGISTROS_ELIMINADOS)
+                        return;
+                    try {
+                        recibidos.agregaFinal(c.recibeRegistros());
+                    } catch (IOException ioe) {}
+                });
+            new Thread(() -> conexion.recibeMensajes()).start();
+            UtilRed.espera(10);
+
+            out.write(Mensaje.REGISTROS_ELIMINADOS + ":" + total);
+            out.newLine();
+            this.bdd.guarda(out);
+            out.flush();
+            UtilRed.espera(10);
+
+            while (recibidos.esVacia())
+                UtilRed.espera(10);
+            Assert.assertTrue(recibidos.getPrimero().equals(
+                                  this.bdd.getRegistros()));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#enviaCambios}.
+     */
+    @Test public void testEnviaCambios() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            UtilRed.espera(10);
+
+            Tarjeta t1 = bdd.getRegistros().getPrimero();
+            Tarjeta t2 = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + 12345678);
+            Lista<Operacion<Tarjeta>> operaciones =
+                new Lista<Operacion<Tarjeta>>();
+            operaciones.agregaFinal(
+                new Operacion<Tarjeta>(Mensaje.REGISTRO_ELIMINADO, t1));
+            operaciones.agregaFinal(new Operacion<Tarjeta>(t1, t2));
+            long epoca = random.nextLong();
+            long version = random.nextInt(1000);
+            conexion.enviaCambios(epoca, version, operaciones);
+            UtilRed.espera(10);
+
+            String linea = in.readLine();
+            Assert.assertTrue(linea.equals(Mensaje.SINCRONIZA + ":" + epoca +
+                                           ":" + version + ":2"));
+            Assert.assertTrue(Mensaje.getMensaje(in.readLine()) ==
+                              Mensaje.REGISTRO_ELIMINADO);
+            Assert.assertTrue(t1.serializa().equals(in.readLine() + "\n"));
+            Assert.assertTrue(Mensaje.getMensaje(in.readLine()) ==
+                              Mensaje.REGISTRO_MODIFICADO);
+            Assert.assertTrue(t1.serializa().equals(in.readLine() + "\n"));
+            Assert.assertTrue(t2.serializa().equals(in.readLine() + "\n"));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#recibeOperaciones}.
+     */
+    @Test public void testRecibeOperaciones() {
+        BaseDeDatosTarjetas recibida = new BaseDeDatosTarjetas();
+        boolean[] recibidas = { false };
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(new BaseDeDatosTarjetas(), enchufe);
+            conexion.agregaEscucha((c, m) -> {
+                    if (m != Mensaje.SINCRONIZA)
+                        return;
+                    try {
+                        for (Operacion<Tarjeta> o : c.recibeOperaciones())
+                            o.aplica(recibida);
+                        recibidas[0] = true;
+                    } catch (IOException ioe) {}
+                });
+            new Thread(() -> conexion.recibeMensajes()).start();
+            UtilRed.espera(10);
+
+            out.write(Mensaje.SINCRONIZA + ":7:" + total + ":" + total);
+            out.newLine();
+            for (Tarjeta t : bdd.getRegistros()) {
+                out.write(Mensaje.REGISTRO_AGREGADO.toString());
+                out.newLine();
+                out.write(t.serializa());
+            }
+            out.flush();
+
+            while (!recibidas[0])
+                UtilRed.espera(10);
+            Assert.assertTrue(conexion.getEpoca() == 7);
+            Assert.assertTrue(conexion.getVersion() == total);
+            Assert.assertTrue(recibida.getRegistros().equals(
+                                  bdd.getRegistros()));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#activaColaDeSalida}.
+     */
+    @Test public void testActivaColaDeSalida() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            conexion.activaColaDeSalida(total, PoliticaDeSaturacion.DESCONECTAR,
+                                        r -> new Thread(r).start());
+            UtilRed.espera(10);
+
+            Tarjeta t = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + 12345678);
+            conexion.enviaOperacion(
+                new Operacion<Tarjeta>(Mensaje.REGISTRO_AGREGADO, t));
+            conexion.enviaMensaje(Mensaje.ECO);
+
+            Assert.assertTrue(in.readLine().equals(
+                                  Mensaje.REGISTRO_AGREGADO.toString()));
+            Assert.assertTrue(t.serializa().equals(in.readLine() + "\n"));
+            Assert.assertTrue(in.readLine().equals(Mensaje.ECO.toString()));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            conexion.activaColaDeSalida(0, PoliticaDeSaturacion.DESCONECTAR,
+                                        r -> r.run());
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#activaColaDeSalida} cuando la cola
+     * se llena y la política es desconectar.
+     */
+    @Test public void testSaturacionDesconecta() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            /* Un ejecutor que nunca ejecuta: la cola nunca se vacía. */
+            conexion.activaColaDeSalida(total, PoliticaDeSaturacion.DESCONECTAR,
+                                        r -> {});
+            UtilRed.espera(10);
+
+            for (int i = 0; i < total; i++)
+                conexion.enviaMensaje(Mensaje.ECO);
+            Assert.assertTrue(conexion.isActiva());
+            try {
+                conexion.enviaMensaje(Mensaje.ECO);
+                Assert.fail();
+            } catch (IOException ioe) {}
+            Assert.assertFalse(conexion.isActiva());
+            Assert.assertTrue(in.readLine() == null);
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#activaColaDeSalida} cuando la cola
+     * se llena y la política es resincronizar.
+     */
+    @Test public void testSaturacionResincroniza() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            /* Un ejecutor que guarda al escritor para ejecutarlo después. */
+            Lista<Runnable> escritores = new Lista<Runnable>();
+            conexion.activaColaDeSalida(total,
+                                        PoliticaDeSaturacion.RESINCRONIZAR,
+                                        r -> escritores.agregaFinal(r));
+            UtilRed.espera(10);
+
+            for (int i = 0; i <= 2 * total; i++) {
+                Tarjeta t = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + i);
+                conexion.enviaOperacion(
+                    new Operacion<Tarjeta>(Mensaje.REGISTRO_AGREGADO, t));
+            }
+            conexion.enviaMensaje(Mensaje.ECO);
+            Assert.assertTrue(conexion.isActiva());
+            Assert.assertTrue(escritores.getLongitud() == 1);
+            new Thread(escritores.getPrimero()).start();
+
+            Assert.assertTrue(in.readLine().equals(
+                                  Mensaje.BASE_DE_DATOS.toString()));
+            BaseDeDatosTarjetas copia = new BaseDeDatosTarjetas();
+            copia.carga(in);
+            Assert.assertTrue(copia.getRegistros().equals(bdd.getRegistros()));
+            Assert.assertTrue(in.readLine().equals(Mensaje.ECO.toString()));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#activaColaDeSalida} cuando la cola
+     * se resincroniza mientras otro hilo modifica la base de datos con el
+     * candado: cada operación llega exactamente una vez, en la instantánea o
+     * después de ella.
+     */
+    @Test public void testResincronizaConcurrente() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            Object candado = new Object();
+            /* Los escritores tardan en empezar, para que la cola se llene y
+             * se resincronice. */
+            conexion.activaColaDeSalida(8, PoliticaDeSaturacion.RESINCRONIZAR,
+                                        r -> new Thread(() -> {
+                                                UtilRed.espera(2);
+                                                r.run();
+                                            }).start(),
+                                        candado);
+            UtilRed.espera(10);
+
+            /* Cada grupo de tarjetas se agrega a la base de datos un rato
+             * antes de enviar sus operaciones, como un lote del servidor. */
+            int n = 200 + random.nextInt(200);
+            Thread modificador = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < n; i += 4) {
+                            Lista<Tarjeta> grupo = new Lista<Tarjeta>();
+                            for (int j = i; j < i + 4; j++)
+                                grupo.agregaFinal(
+                                    TestTarjeta.tarjetaAleatoriaNumTarjeta(
+                                        "" + j));
+                            synchronized (candado) {
+                                for (Tarjeta t : grupo)
+                                    bdd.agregaRegistro(t);
+                                UtilRed.espera(1);
+                                for (Tarjeta t : grupo)
+                                    conexion.enviaOperacion(
+                                        new Operacion<Tarjeta>(
+                                            Mensaje.REGISTRO_AGREGADO, t));
+                            }
+                        }
+                        synchronized (candado) {
+                            conexion.enviaMensaje(Mensaje.ECO);
+                        }
+                    } catch (IOException ioe) {}
+                });
+            BaseDeDatosTarjetas copia = new BaseDeDatosTarjetas();
+            for (Tarjeta t : bdd.getRegistros())
+                copia.agregaRegistro(t);
+            modificador.start();
+
+            String linea;
+            while (!(linea = in.readLine()).equals(Mensaje.ECO.toString())) {
+                if (linea.equals(Mensaje.BASE_DE_DATOS.toString())) {
+                    copia = new BaseDeDatosTarjetas();
+                    copia.carga(in);
+                    continue;
+                }
+                Assert.assertTrue(linea.equals(
+                                      Mensaje.REGISTRO_AGREGADO.toString()));
+                Tarjeta t = new Tarjeta(null, null, 0, null, 0);
+                t.deserializa(in.readLine());
+                copia.agregaRegistro(t);
+            }
+            Assert.assertTrue(conexion.isActiva());
+            Assert.assertTrue(copia.getRegistros().equals(bdd.getRegistros()));
+        } catch (ExcepcionLineaInvalida | IOException e) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Conexion#getFalloDeSalida}.
+     */
+    @Test public void testGetFalloDeSalida() {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            conexion.activaColaDeSalida(1, PoliticaDeSaturacion.DESCONECTAR,
+                                        r -> {});
+            Mensaje[] mensaje = { null };
+            IOException[] fallo = { null };
+            conexion.agregaEscucha((c, m) -> {
+                    mensaje[0] = m;
+                    fallo[0] = c.getFalloDeSalida();
+                });
+            new Thread(() -> conexion.recibeMensajes()).start();
+            UtilRed.espera(10);
+
+            conexion.enviaMensaje(Mensaje.ECO);
+            Assert.assertTrue(conexion.getFalloDeSalida() == null);
+            try {
+                conexion.enviaMensaje(Mensaje.ECO);
+                Assert.fail();
+            } catch (IOException ioe) {
+                Assert.assertTrue(conexion.getFalloDeSalida() == ioe);
+            }
+            UtilRed.espera(10);
+            Assert.assertTrue(mensaje[0] == Mensaje.DESCONECTAR);
+            Assert.assertTrue(fallo[0] == conexion.getFalloDeSalida());
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion =
+                new Conexion<Tarjeta>(bdd, enchufe);
+            conexion.activaColaDeSalida(1, PoliticaDeSaturacion.DESCONECTAR,
+                                        r -> {});
+            UtilRed.espera(10);
+
+            conexion.enviaMensaje(Mensaje.ECO);
+            conexion.desconecta();
+            try {
+                conexion.enviaMensaje(Mensaje.ECO);
+                Assert.fail();
+            } catch (IOException ioe) {}
+            Assert.assertTrue(conexion.getFalloDeSalida() == null);
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
     /**
      * Prueba unitaria para {@link Conexion#getSerial}.
      */
@@ -0,0 +1,226 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.red.GeneradorDeCarga;
+import mx.unam.ciencias.icc.red.HistogramaDeLatencias;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link GeneradorDeCarga}.
+ */
+public class TestGeneradorDeCarga {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+    /** Directorio para archivos temporales. */
+    @Rule public TemporaryFolder directorio = new TemporaryFolder();
+
+    /* Duración de las corridas, en milisegundos. */
+    private static final long DURACION = 500;
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El número de clientes. */
+    private int clientes;
+    /* El puerto. */
+    private int puerto;
+    /* El generador de carga. */
+    private GeneradorDeCarga carga;
+
+    /**
+     * Crea un generador de números aleatorios y un generador de carga para
+     * cada prueba.
+     */
+    public TestGeneradorDeCarga() {
+        random = new Random();
+        clientes = 2 + random.nextInt(4);
+        puerto = obtenPuerto();
+        carga = new GeneradorDeCarga("localhost", puerto, clientes);
+    }
+
+    /* Obtiene el puerto. */
+    private int obtenPuerto() {
+        int p = -1;
+        while (p < 1024) {
+            try {
+                p = 1024 + random.nextInt(64500);
+                ServerSocket s = new ServerSocket(p);
+                s.close();
+            } catch (BindException be) {
+                p = -1;
+                UtilRed.espera(10);
+            } catch (IOException ioe) {
+                Assert.fail();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Método que se ejecuta antes de cada prueba unitaria; crea el archivo de
+     * la base de datos y hace servir el servidor.
+     */
+    @Before public void arma() {
+        try {
+            BaseDeDatosTarjetas bdd = new BaseDeDatosTarjetas();
+            UtilRed.llenaBaseDeDatos(bdd, 10 + random.nextInt(100));
+            File f = directorio.newFile("test-carga.db");
+            BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(f)));
+            bdd.guarda(out);
+            out.close();
+            ServidorBaseDeDatosTarjetas sbdd =
+                new ServidorBaseDeDatosTarjetas(puerto, f.getAbsolutePath());
+            new Thread(() -> sbdd.sirve()).start();
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Método que se ejecuta después de cada prueba unitaria; detiene el
+     * servidor.
+     */
+    @After public void desarma() {
+        try {
+            Socket s = new Socket("localhost", puerto);
+            BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(s.getOutputStream()));
+            out.write(Mensaje.DETENER_SERVICIO.toString());
+            out.newLine();
+            out.flush();
+            s.close();
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link GeneradorDeCarga#GeneradorDeCarga}.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(carga.getOperaciones() == 0);
+        Assert.assertTrue(carga.getRendimiento() == 0);
+        Assert.assertTrue(carga.getPropagacion().getCuenta() == 0);
+        Assert.assertTrue(carga.getLatencias(Mensaje.ECO).getCuenta() == 0);
+        try {
+            new GeneradorDeCarga(null, puerto, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            new GeneradorDeCarga("localhost", 0, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            new GeneradorDeCarga("localhost", 65536, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            new GeneradorDeCarga("localhost", puerto, 0);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link GeneradorDeCarga#setPeso}.
+     */
+    @Test public void testSetPeso() {
+        try {
+            carga.setPeso(Mensaje.DETENER_SERVICIO, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            carga.setPeso(Mensaje.ECO, -1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            carga.setPeso(null, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        carga.setPeso(Mensaje.ECO, 0);
+        carga.setPeso(Mensaje.BASE_DE_DATOS, 0);
+        carga.setPeso(Mensaje.REGISTRO_AGREGADO, 0);
+        carga.setPeso(Mensaje.REGISTRO_ELIMINADO, 0);
+        carga.setPeso(Mensaje.REGISTRO_MODIFICADO, 0);
+        try {
+            carga.corre(0, DURACION);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+        } catch (IOException | InterruptedException e) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link GeneradorDeCarga#corre}.
+     */
+    @Test public void testCorre() {
+        try {
+            carga.corre(-1, DURACION);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+        } catch (IOException | InterruptedException e) {
+            Assert.fail();
+        }
+        try {
+            carga.corre(0, DURACION);
+        } catch (IOException | InterruptedException e) {
+            Assert.fail();
+        }
+        Assert.assertTrue(carga.getOperaciones() > 0);
+        Assert.assertTrue(carga.getRendimiento() > 0);
+        long medidas = 0;
+        for (Mensaje m : Mensaje.values()) {
+            HistogramaDeLatencias h = carga.getLatencias(m);
+            medidas += h.getCuenta();
+            Assert.assertTrue(h.getPercentil(50) <= h.getMaximo());
+        }
+        Assert.assertTrue(medidas == carga.getOperaciones());
+        Assert.assertTrue(carga.getLatencias(Mensaje.ECO).getCuenta() > 0);
+        Assert.assertTrue(carga.getPropagacion().getCuenta() > 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        carga.imprime(new PrintStream(bytes));
+        String reporte = bytes.toString();
+        Assert.assertTrue(reporte.contains("ECO"));
+        Assert.assertTrue(reporte.contains("PROPAGACION"));
+    }
+
+    /**
+     * Prueba unitaria para {@link GeneradorDeCarga#corre} con sólo
+     * modificaciones y el protocolo binario.
+     */
+    @Test public void testCorreBinario() {
+        carga.activaProtocoloBinario();
+        carga.setSemilla(random.nextLong());
+        carga.setPeso(Mensaje.ECO, 0);
+        carga.setPeso(Mensaje.BASE_DE_DATOS, 0);
+        try {
+            carga.corre(0, DURACION);
+        } catch (IOException | InterruptedException e) {
+            Assert.fail();
+        }
+        Assert.assertTrue(carga.getOperaciones() > 0);
+        Assert.assertTrue(carga.getLatencias(Mensaje.ECO).getCuenta() == 0);
+        Assert.assertTrue(carga.getPropagacion().getCuenta() > 0);
+    }
+}
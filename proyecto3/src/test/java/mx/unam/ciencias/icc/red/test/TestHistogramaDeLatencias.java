@@ -0,0 +1,151 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import mx.unam.ciencias.icc.red.HistogramaDeLatencias;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link HistogramaDeLatencias}.
+ */
+public class TestHistogramaDeLatencias {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El número de valores. */
+    private int total;
+    /* El histograma. */
+    private HistogramaDeLatencias histograma;
+
+    /**
+     * Crea un generador de números aleatorios y un histograma para cada
+     * prueba.
+     */
+    public TestHistogramaDeLatencias() {
+        random = new Random();
+        total = 1000 + random.nextInt(9000);
+        histograma = new HistogramaDeLatencias();
+    }
+
+    /* Regresa una latencia aleatoria, de nanosegundos a segundos. */
+    private long latencia() {
+        return (long)Math.pow(10, random.nextDouble() * 9);
+    }
+
+    /* Regresa el valor exacto en el percentil de los valores ordenados. */
+    private static long percentil(long[] valores, double percentil) {
+        int i = (int)Math.ceil(valores.length * percentil / 100);
+        return valores[Math.max(1, i) - 1];
+    }
+
+    /* Nos dice si el valor aproximado está dentro del error relativo. */
+    private static boolean cercano(long aproximado, long exacto) {
+        return aproximado >= exacto &&
+            aproximado - exacto <= exacto / 64;
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * HistogramaDeLatencias#HistogramaDeLatencias}.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(histograma.getCuenta() == 0);
+        Assert.assertTrue(histograma.getMinimo() == 0);
+        Assert.assertTrue(histograma.getMaximo() == 0);
+        Assert.assertTrue(histograma.getPromedio() == 0);
+        Assert.assertTrue(histograma.getPercentil(50) == 0);
+        Assert.assertTrue(histograma.getPercentil(100) == 0);
+    }
+
+    /**
+     * Prueba unitaria para {@link HistogramaDeLatencias#registra}.
+     */
+    @Test public void testRegistra() {
+        long[] valores = new long[total];
+        long suma = 0;
+        for (int i = 0; i < total; i++) {
+            valores[i] = latencia();
+            suma += valores[i];
+            histograma.registra(valores[i]);
+            Assert.assertTrue(histograma.getCuenta() == i + 1);
+        }
+        Arrays.sort(valores);
+        Assert.assertTrue(histograma.getMinimo() == valores[0]);
+        Assert.assertTrue(histograma.getMaximo() == valores[total - 1]);
+        Assert.assertTrue(Math.abs(histograma.getPromedio() -
+                                   (double)suma / total) < 1e-3 * suma);
+        histograma.registra(-1);
+        Assert.assertTrue(histograma.getMinimo() == 0);
+        Assert.assertTrue(histograma.getCuenta() == total + 1);
+    }
+
+    /**
+     * Prueba unitaria para {@link HistogramaDeLatencias#getPercentil}.
+     */
+    @Test public void testGetPercentil() {
+        for (int i = 0; i < 128; i++)
+            histograma.registra(i);
+        Assert.assertTrue(histograma.getPercentil(0) == 0);
+        Assert.assertTrue(histograma.getPercentil(50) == 63);
+        Assert.assertTrue(histograma.getPercentil(100) == 127);
+
+        histograma = new HistogramaDeLatencias();
+        long[] valores = new long[total];
+        for (int i = 0; i < total; i++) {
+            valores[i] = latencia();
+            histograma.registra(valores[i]);
+        }
+        Arrays.sort(valores);
+        double[] percentiles = { 0, 1, 25, 50, 90, 99, 99.9, 100 };
+        for (double p : percentiles)
+            Assert.assertTrue(cercano(histograma.getPercentil(p),
+                                      percentil(valores, p)));
+        Assert.assertTrue(histograma.getPercentil(100) == valores[total - 1]);
+
+        try {
+            histograma.getPercentil(-0.1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            histograma.getPercentil(100.1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link HistogramaDeLatencias#agrega}.
+     */
+    @Test public void testAgrega() {
+        HistogramaDeLatencias otro = new HistogramaDeLatencias();
+        HistogramaDeLatencias todos = new HistogramaDeLatencias();
+        for (int i = 0; i < total; i++) {
+            long valor = latencia();
+            if (random.nextBoolean())
+                histograma.registra(valor);
+            else
+                otro.registra(valor);
+            todos.registra(valor);
+        }
+        histograma.agrega(otro);
+        Assert.assertTrue(histograma.getCuenta() == todos.getCuenta());
+        Assert.assertTrue(histograma.getMinimo() == todos.getMinimo());
+        Assert.assertTrue(histograma.getMaximo() == todos.getMaximo());
+        double[] percentiles = { 0, 50, 99, 99.9, 100 };
+        for (double p : percentiles)
+            Assert.assertTrue(histograma.getPercentil(p) ==
+                              todos.getPercentil(p));
+        histograma.agrega(new HistogramaDeLatencias());
+        Assert.assertTrue(histograma.getCuenta() == todos.getCuenta());
+        Assert.assertTrue(histograma.getMinimo() == todos.getMinimo());
+        try {
+            histograma.agrega(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+}
@@ -0,0 +1,114 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.util.Random;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.red.HistorialDeCambios;
+import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.Operacion;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link HistorialDeCambios}.
+ */
+public class TestHistorialDeCambios {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* La capacidad del historial. */
+    private int capacidad;
+    /* La versión inicial. */
+    private long inicial;
+    /* El historial. */
+    private HistorialDeCambios<Tarjeta> historial;
+
+    /**
+     * Crea un generador de números aleatorios y un historial para cada
+     * prueba.
+     */
+    public TestHistorialDeCambios() {
+        random = new Random();
+        capacidad = 5 + random.nextInt(20);
+        inicial = random.nextInt(1000);
+        historial = new HistorialDeCambios<Tarjeta>(capacidad, inicial);
+    }
+
+    /* Regresa una operación aleatoria. */
+    private Operacion<Tarjeta> operacion() {
+        return new Operacion<Tarjeta>(Mensaje.REGISTRO_AGREGADO,
+                                      UtilRed.tarjetaAleatoria(capacidad));
+    }
+
+    /**
+     * Prueba unitaria para {@link HistorialDeCambios#HistorialDeCambios}.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(historial.getVersion() == inicial);
+        Assert.assertTrue(historial.desde(inicial).esVacia());
+        Assert.assertTrue(historial.desde(inicial - 1) == null);
+        Assert.assertTrue(historial.desde(inicial + 1) == null);
+        try {
+            new HistorialDeCambios<Tarjeta>(0, 0);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link HistorialDeCambios#registra} y {@link
+     * HistorialDeCambios#desde}.
+     */
+    @Test public void testRegistraDesde() {
+        int n = capacidad + random.nextInt(capacidad);
+        Lista<Operacion<Tarjeta>> operaciones =
+            new Lista<Operacion<Tarjeta>>();
+        for (int i = 1; i <= n; i++) {
+            Operacion<Tarjeta> o = operacion();
+            operaciones.agregaFinal(o);
+            historial.registra(inicial + i, o);
+            Assert.assertTrue(historial.getVersion() == inicial + i);
+        }
+        long ultima = inicial + n;
+        Assert.assertTrue(historial.desde(ultima - capacidad - 1) == null);
+        for (int k = 0; k <= capacidad; k++) {
+            Lista<Operacion<Tarjeta>> l = historial.desde(ultima - k);
+            Assert.assertTrue(l.getLongitud() == k);
+            int i = n - k;
+            for (Operacion<Tarjeta> o : l)
+                Assert.assertTrue(o == operaciones.get(i++));
+        }
+        Assert.assertTrue(historial.desde(ultima + 1) == null);
+    }
+
+    /**
+     * Prueba unitaria para {@link HistorialDeCambios#registra} con una
+     * versión que no es la siguiente.
+     */
+    @Test public void testRegistraSalto() {
+        historial.registra(inicial + 1, operacion());
+        Operacion<Tarjeta> o = operacion();
+        historial.registra(inicial + 3, o);
+        Assert.assertTrue(historial.getVersion() == inicial + 3);
+        Assert.assertTrue(historial.desde(inicial + 1) == null);
+        Lista<Operacion<Tarjeta>> l = historial.desde(inicial + 2);
+        Assert.assertTrue(l.getLongitud() == 1);
+        Assert.assertTrue(l.getPrimero() == o);
+    }
+
+    /**
+     * Prueba unitaria para {@link HistorialDeCambios#limpia}.
+     */
+    @Test public void testLimpia() {
+        for (int i = 1; i <= capacidad; i++)
+            historial.registra(inicial + i, operacion());
+        historial.limpia(inicial);
+        Assert.assertTrue(historial.getVersion() == inicial);
+        Assert.assertTrue(historial.desde(inicial).esVacia());
+        Assert.assertTrue(historial.desde(inicial - 1) == null);
+    }
+}
@@ -40,6 +40,11 @@ public class TestMensaje {
             case DESCONECTAR:         s += "DESCONECTAR";         break;
             case DETENER_SERVICIO:    s += "DETENER_SERVICIO";    break;
             case ECO:                 s += "ECO";                 break;
+            case REGISTROS_AGREGADOS: s += "REGISTROS_AGREGADOS"; break;
+            case REGISTROS_ELIMINADOS:
+                s += "REGISTROS_ELIMINADOS";
+                break;
+            case SINCRONIZA:          s += "SINCRONIZA";          break;
             case INVALIDO:            s += "INVALIDO";            break;
             }
             Assert.assertTrue(e  == Mensaje.getMensaje(s));
@@ -47,6 +52,47 @@ public class TestMensaje {
         Assert.assertTrue(Mensaje.INVALIDO == Mensaje.getMensaje(""));
     }
 
+    /**
+     * Prueba unitaria para {@link Mensaje#isLote}.
+     */
+    @Test public void testIsLote() {
+        for (Mensaje e : Mensaje.values())
+            Assert.assertTrue(e.isLote() ==
+                              (e == Mensaje.REGISTROS_AGREGADOS ||
+                               e == Mensaje.REGISTROS_ELIMINADOS));
+        int n = random.nextInt(100);
+        Mensaje m = Mensaje.getMensaje("|=MENSAJE:REGISTROS_ELIMINADOS:" + n);
+        Assert.assertTrue(m == Mensaje.REGISTROS_ELIMINADOS);
+    }
+
+    /**
+     * Prueba unitaria para {@link Mensaje#getCodigo} y {@link
+     * Mensaje#getMensaje(byte)}.
+     */
+    @Test public void testGetCodigo() {
+        for (Mensaje e : Mensaje.values()) {
+            for (Mensaje f : Mensaje.values())
+                if (e != f)
+                    Assert.assertTrue(e.getCodigo() != f.getCodigo());
+            Assert.assertTrue(e == Mensaje.getMensaje(e.getCodigo()));
+        }
+        Assert.assertTrue(Mensaje.INVALIDO == Mensaje.getMensaje((byte)-1));
+        Assert.assertTrue(Mensaje.INVALIDO == Mensaje.getMensaje((byte)0x3f));
+        Assert.assertTrue(Mensaje.INVALIDO == Mensaje.getMensaje((byte)0x40));
+        /* Los códigos son parte del protocolo y no deben cambiar. */
+        Assert.assertTrue(Mensaje.BASE_DE_DATOS.getCodigo() == 0);
+        Assert.assertTrue(Mensaje.REGISTRO_AGREGADO.getCodigo() == 1);
+        Assert.assertTrue(Mensaje.REGISTRO_ELIMINADO.getCodigo() == 2);
+        Assert.assertTrue(Mensaje.REGISTRO_MODIFICADO.getCodigo() == 3);
+        Assert.assertTrue(Mensaje.DESCONECTAR.getCodigo() == 4);
+        Assert.assertTrue(Mensaje.DETENER_SERVICIO.getCodigo() == 5);
+        Assert.assertTrue(Mensaje.ECO.getCodigo() == 6);
+        Assert.assertTrue(Mensaje.REGISTROS_AGREGADOS.getCodigo() == 7);
+        Assert.assertTrue(Mensaje.REGISTROS_ELIMINADOS.getCodigo() == 8);
+        Assert.assertTrue(Mensaje.SINCRONIZA.getCodigo() == 9);
+        Assert.assertTrue(Mensaje.INVALIDO.getCodigo() == 10);
+    }
+
     /**
      * Prueba unitaria para {@link Mensaje#toString}.
      */
@@ -76,6 +122,15 @@ public class TestMensaje {
             case ECO:
                 Assert.assertTrue(s.equals(p + "ECO"));
                 break;
+            case REGISTROS_AGREGADOS:
+                Assert.assertTrue(s.equals(p + "REGISTROS_AGREGADOS"));
+                break;
+            case REGISTROS_ELIMINADOS:
+                Assert.assertTrue(s.equals(p + "REGISTROS_ELIMINADOS"));
+                break;
+            case SINCRONIZA:
+                Assert.assertTrue(s.equals(p + "SINCRONIZA"));
+                break;
             case INVALIDO:
                 Assert.assertTrue(s.equals(p + "INVALIDO"));
                 break;
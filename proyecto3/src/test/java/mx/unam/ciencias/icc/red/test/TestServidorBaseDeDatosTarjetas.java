@@ -2,6 +2,8 @@ package mx.unam.ciencias.icc.red.test;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -15,11 +17,17 @@ import java.util.Iterator;
 import java.util.Random;
 import mx.unam.ciencias.icc.BaseDeDatos;
 import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasCompactas;
 import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
 import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
 import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
 import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.red.Conexion;
 import mx.unam.ciencias.icc.red.Mensaje;
+import mx.unam.ciencias.icc.red.Operacion;
+import mx.unam.ciencias.icc.red.PoliticaDeSincronizacion;
 import mx.unam.ciencias.icc.red.ServidorBaseDeDatos;
 import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
 import mx.unam.ciencias.icc.test.TestTarjeta;
@@ -120,6 +128,27 @@ public class TestServidorBaseDeDatosTarjetas {
             return Mensaje.getMensaje(recibeCadena());
         }
 
+        /* Recibe el siguiente mensaje que no sea un cambio que el servidor
+         * reenvía de otra conexión; los cambios se descartan con sus
+         * tarjetas. */
+        public Mensaje recibeMensajeSinCambios() {
+            while (true) {
+                Mensaje mensaje = recibeMensaje();
+                switch (mensaje) {
+                case REGISTRO_AGREGADO:
+                case REGISTRO_ELIMINADO:
+                    recibeCadena();
+                    break;
+                case REGISTRO_MODIFICADO:
+                    recibeCadena();
+                    recibeCadena();
+                    break;
+                default:
+                    return mensaje;
+                }
+            }
+        }
+
         /* Recibe una cadena por la conexión. */
         public String recibeCadena() {
             try {
@@ -255,13 +284,36 @@ public class TestServidorBaseDeDatosTarjetas {
                             new FileOutputStream(archivo)));
             bdd.guarda(out);
             out.close();
-            sbdd = new ServidorBaseDeDatosTarjetas(puerto, archivo);
-            new Thread(() -> sbdd.sirve()).start();
+            sbdd = creaServidor(puerto, archivo);
+            new Thread(() -> sirve(sbdd)).start();
         } catch (IOException ioe) {
             Assert.fail();
         }
     }
 
+    /**
+     * Crea el servidor. Las subclases lo sobrecargan para probar otros
+     * servidores de tarjetas.
+     * @param puerto el puerto del servidor.
+     * @param archivo el archivo de la base de datos.
+     * @return el servidor.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    protected ServidorBaseDeDatosTarjetas creaServidor(int puerto,
+                                                       String archivo)
+        throws IOException {
+        return new ServidorBaseDeDatosTarjetas(puerto, archivo);
+    }
+
+    /**
+     * Hace servir el servidor. Las subclases lo sobrecargan para probar el
+     * servidor con otros modelos de conexiones.
+     * @param servidor el servidor.
+     */
+    protected void sirve(ServidorBaseDeDatosTarjetas servidor) {
+        servidor.sirve();
+    }
+
     /**
      * Método que se ejecuta despué de cada prueba unitaria; elimina el archivo
      * de la base de datos y detiene el servidor. Esto hace un método
@@ -278,12 +330,13 @@ public class TestServidorBaseDeDatosTarjetas {
 
     /*
      * Crea una nueva conexión, enviando y recibiendo un eco para probarla de
-     * inmediato.
+     * inmediato. Antes del eco pueden llegar cambios de otras conexiones que
+     * el servidor sigue aplicando.
      */
     private Cliente nuevoCliente() {
         Cliente c = new Cliente(puerto);
         c.enviaMensaje(Mensaje.ECO);
-        Assert.assertTrue(c.recibeMensaje() == Mensaje.ECO);
+        Assert.assertTrue(c.recibeMensajeSinCambios() == Mensaje.ECO);
         return c;
     }
 
@@ -383,6 +436,278 @@ public class TestServidorBaseDeDatosTarjetas {
         validaArchivo(bdd);
     }
 
+    /**
+     * Prueba unitaria para los mensajes {@link Mensaje#REGISTROS_AGREGADOS} y
+     * {@link Mensaje#REGISTROS_ELIMINADOS} en el método {@link
+     * ServidorBaseDeDatos#sirve}.
+     */
+    @Test
+    public void testSirveRegistros() {
+        Cliente c1 = nuevoCliente();
+        Cliente c2 = nuevoCliente();
+        Tarjeta[] nuevas = new Tarjeta[total];
+        c1.enviaCadena(Mensaje.REGISTROS_AGREGADOS + ":" + total);
+        for (int i = 0; i < total; i++) {
+            nuevas[i] = new Tarjeta("A", "A" + i, 1, "A", 1);
+            c1.enviaTarjeta(nuevas[i]);
+        }
+        c1.enviaCadena(Mensaje.REGISTROS_ELIMINADOS + ":" + total);
+        for (Tarjeta t : tarjetas)
+            c1.enviaTarjeta(t);
+
+        c1.enviaMensaje(Mensaje.BASE_DE_DATOS);
+        Assert.assertTrue(c1.recibeMensaje() == Mensaje.BASE_DE_DATOS);
+        BaseDeDatosTarjetas bdd = c1.recibeBaseDeDatos();
+        Lista<Tarjeta> l = bdd.getRegistros();
+        Assert.assertTrue(l.getLongitud() == total);
+        for (int i = 0; i < total; i++)
+            Assert.assertTrue(l.contiene(nuevas[i]));
+
+        Assert.assertTrue(c2.recibeMensaje() == Mensaje.REGISTROS_AGREGADOS);
+        for (int i = 0; i < total; i++)
+            Assert.assertTrue(c2.recibeTarjeta().equals(nuevas[i]));
+        Assert.assertTrue(c2.recibeMensaje() == Mensaje.REGISTROS_ELIMINADOS);
+        for (int i = 0; i < total; i++)
+            Assert.assertTrue(c2.recibeTarjeta().equals(tarjetas[i]));
+        validaArchivo(bdd);
+    }
+
+    /**
+     * Prueba unitaria para el mensaje {@link Mensaje#SINCRONIZA} en el método
+     * {@link ServidorBaseDeDatos#sirve}.
+     */
+    @Test
+    public void testSirveSincroniza() {
+        Cliente c1 = nuevoCliente();
+        Cliente c2 = nuevoCliente();
+        c1.enviaCadena(Mensaje.SINCRONIZA + ":0:0:0");
+        Assert.assertTrue(c1.recibeMensaje() == Mensaje.BASE_DE_DATOS);
+        BaseDeDatosTarjetas bdd = c1.recibeBaseDeDatos();
+        Assert.assertTrue(bdd.getNumRegistros() == total);
+        String[] partes = c1.recibeCadena().split(":");
+        Assert.assertTrue(partes.length == 5);
+        Assert.assertTrue(partes[1].equals("SINCRONIZA"));
+        Assert.assertTrue(partes[4].equals("0"));
+        long epoca = Long.parseLong(partes[2]);
+        long version = Long.parseLong(partes[3]);
+        String prefijo = Mensaje.SINCRONIZA + ":" + epoca + ":";
+
+        Tarjeta tarjeta = new Tarjeta("Ñandú", "A", 1, "A", 1.5);
+        c2.enviaMensaje(Mensaje.REGISTRO_AGREGADO);
+        c2.enviaTarjeta(tarjeta);
+        Assert.assertTrue(c1.recibeCadena().equals(
+                              prefijo + (version + 1) + ":1"));
+        Assert.assertTrue(c1.recibeMensaje() == Mensaje.REGISTRO_AGREGADO);
+        Assert.assertTrue(c1.recibeTarjeta().equals(tarjeta));
+
+        /* La conexión con versión recibe también sus propios cambios. */
+        c1.enviaMensaje(Mensaje.REGISTRO_ELIMINADO);
+        c1.enviaTarjeta(tarjeta);
+        Assert.assertTrue(c1.recibeCadena().equals(
+                              prefijo + (version + 2) + ":1"));
+        Assert.assertTrue(c1.recibeMensaje() == Mensaje.REGISTRO_ELIMINADO);
+        Assert.assertTrue(c1.recibeTarjeta().equals(tarjeta));
+        Assert.assertTrue(c2.recibeMensaje() == Mensaje.REGISTRO_ELIMINADO);
+        Assert.assertTrue(c2.recibeTarjeta().equals(tarjeta));
+
+        Cliente c3 = nuevoCliente();
+        c3.enviaCadena(prefijo + version + ":0");
+        Assert.assertTrue(c3.recibeCadena().equals(
+                              prefijo + (version + 2) + ":2"));
+        Assert.assertTrue(c3.recibeMensaje() == Mensaje.REGISTRO_AGREGADO);
+        Assert.assertTrue(c3.recibeTarjeta().equals(tarjeta));
+        Assert.assertTrue(c3.recibeMensaje() == Mensaje.REGISTRO_ELIMINADO);
+        Assert.assertTrue(c3.recibeTarjeta().equals(tarjeta));
+
+        /* Una versión de otra época recibe toda la base de datos. */
+        Cliente c4 = nuevoCliente();
+        c4.enviaCadena(Mensaje.SINCRONIZA + ":" + (epoca + 1) + ":" +
+                       version + ":0");
+        Assert.assertTrue(c4.recibeMensaje() == Mensaje.BASE_DE_DATOS);
+        bdd = c4.recibeBaseDeDatos();
+        Assert.assertTrue(bdd.getNumRegistros() == total);
+        Assert.assertTrue(c4.recibeCadena().equals(
+                              prefijo + (version + 2) + ":0"));
+        validaArchivo(bdd);
+    }
+
+    /* Crea una conexión que negocia el protocolo binario, y que carga la base
+     * de datos y los registros agregados que recibe. */
+    private Conexion<Tarjeta> nuevaConexionBinaria(BaseDeDatosTarjetas bdd) {
+        try {
+            Socket enchufe = new Socket("localhost", puerto);
+            Conexion<Tarjeta> conexion = new Conexion<Tarjeta>(bdd, enchufe);
+            conexion.activaProtocoloBinario();
+            conexion.agregaEscucha((c, m) -> {
+                    try {
+                        if (m == Mensaje.BASE_DE_DATOS)
+                            c.recibeBaseDeDatos();
+                        else if (m == Mensaje.REGISTRO_AGREGADO)
+                            bdd.agregaRegistro(c.recibeRegistro());
+                    } catch (IOException ioe) {
+                        Assert.fail();
+                    }
+                });
+            new Thread(() -> conexion.recibeMensajes()).start();
+            return conexion;
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        /* Inalcanzable. */
+        return null;
+    }
+
+    /**
+     * Prueba unitaria para conexiones que negocian el protocolo binario en el
+     * método {@link ServidorBaseDeDatos#sirve}, junto con conexiones que usan
+     * el protocolo de texto.
+     */
+    @Test
+    public void testSirveProtocoloBinario() {
+        BaseDeDatosTarjetas bdd1 = new BaseDeDatosTarjetas();
+        BaseDeDatosTarjetas bdd2 = new BaseDeDatosTarjetas();
+        Conexion<Tarjeta> c1 = nuevaConexionBinaria(bdd1);
+        Conexion<Tarjeta> c2 = nuevaConexionBinaria(bdd2);
+        Cliente c3 = nuevoCliente();
+        Assert.assertTrue(c1.isBinaria());
+
+        try {
+            c1.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            while (bdd1.getNumRegistros() < total)
+                UtilRed.espera(10);
+            Lista<Tarjeta> l = bdd1.getRegistros();
+            int i = 0;
+            for (Tarjeta t : l)
+                Assert.assertTrue(t.equals(tarjetas[i++]));
+
+            Tarjeta tarjeta = new Tarjeta("Ñandú", "A", 1, "A", 1.5);
+            c1.enviaMensaje(Mensaje.REGISTRO_AGREGADO);
+            c1.enviaRegistro(tarjeta);
+            while (bdd2.getNumRegistros() < 1)
+                UtilRed.espera(10);
+            Assert.assertTrue(bdd2.getRegistros().getPrimero().equals(tarjeta));
+            Assert.assertTrue(c3.recibeMensaje() == Mensaje.REGISTRO_AGREGADO);
+            Assert.assertTrue(c3.recibeTarjeta().equals(tarjeta));
+
+            c2.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            while (bdd2.getNumRegistros() < total + 1)
+                UtilRed.espera(10);
+            Assert.assertTrue(bdd2.getRegistros().contiene(tarjeta));
+
+            Lista<Tarjeta> lote = new Lista<Tarjeta>();
+            lote.agregaFinal(tarjeta);
+            lote.agregaFinal(tarjetas[0]);
+            c2.enviaRegistros(Mensaje.REGISTROS_ELIMINADOS, lote);
+            Assert.assertTrue(c3.recibeMensaje() ==
+                              Mensaje.REGISTROS_ELIMINADOS);
+            Assert.assertTrue(c3.recibeTarjeta().equals(tarjeta));
+            Assert.assertTrue(c3.recibeTarjeta().equals(tarjetas[0]));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        c1.desconecta();
+        c2.desconecta();
+    }
+
+    /**
+     * Prueba unitaria para el mensaje {@link Mensaje#SINCRONIZA} en el método
+     * {@link ServidorBaseDeDatos#sirve}, con el protocolo binario.
+     */
+    @Test
+    public void testSirveSincronizaBinaria() {
+        BaseDeDatosTarjetas bdd = new BaseDeDatosTarjetas();
+        Conexion<Tarjeta> c1 = nuevaConexionBinaria(bdd);
+        long[] version = { -1 };
+        c1.agregaEscucha((c, m) -> {
+                if (m != Mensaje.SINCRONIZA)
+                    return;
+                try {
+                    for (Operacion<Tarjeta> o : c.recibeOperaciones())
+                        o.aplica(bdd);
+                    version[0] = c.getVersion();
+                } catch (IOException ioe) {
+                    Assert.fail();
+                }
+            });
+        try {
+            c1.enviaCambios(0, 0, new Lista<Operacion<Tarjeta>>());
+            while (version[0] == -1)
+                UtilRed.espera(10);
+            Assert.assertTrue(bdd.getNumRegistros() == total);
+            long inicial = version[0];
+
+            Tarjeta tarjeta = new Tarjeta("Ñandú", "A", 1, "A", 1.5);
+            Cliente c2 = nuevoCliente();
+            c2.enviaMensaje(Mensaje.REGISTRO_AGREGADO);
+            c2.enviaTarjeta(tarjeta);
+            c1.enviaMensaje(Mensaje.REGISTRO_ELIMINADO);
+            c1.enviaRegistro(tarjetas[0]);
+            while (version[0] < inicial + 2)
+                UtilRed.espera(10);
+            Assert.assertTrue(bdd.getNumRegistros() == total);
+            Assert.assertTrue(bdd.getRegistros().contiene(tarjeta));
+            Assert.assertFalse(bdd.getRegistros().contiene(tarjetas[0]));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        c1.desconecta();
+    }
+
+    /**
+     * Prueba unitaria para el mensaje {@link Mensaje#BASE_DE_DATOS} con la
+     * base de datos comprimida en el método {@link ServidorBaseDeDatos#sirve}.
+     */
+    @Test
+    public void testSirveBaseDeDatosComprimida() {
+        BaseDeDatosTarjetas bdd = new BaseDeDatosTarjetas();
+        Conexion<Tarjeta> c1 = nuevaConexionBinaria(bdd);
+        try {
+            c1.activaCompresion();
+            c1.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            while (bdd.getNumRegistros() < total)
+                UtilRed.espera(10);
+            Lista<Tarjeta> l = bdd.getRegistros();
+            int i = 0;
+            for (Tarjeta t : l)
+                Assert.assertTrue(t.equals(tarjetas[i++]));
+            /* La conexión sigue sincronizada después de la base de datos. */
+            int[] limpiadas = { 0 };
+            bdd.agregaEscucha((e, t1, t2) -> {
+                    if (e == EventoBaseDeDatos.BASE_LIMPIADA)
+                        limpiadas[0]++;
+                });
+            c1.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            while (limpiadas[0] == 0 || bdd.getNumRegistros() < total)
+                UtilRed.espera(10);
+            Assert.assertTrue(bdd.getNumRegistros() == total);
+            Assert.assertTrue(c1.isActiva());
+
+            /* Con la petición, la base de datos llega en tramas de bloque. */
+            Socket enchufe = new Socket("localhost", puerto);
+            DataOutputStream out = new DataOutputStream(
+                enchufe.getOutputStream());
+            DataInputStream in = new DataInputStream(
+                enchufe.getInputStream());
+            out.write("|=PROTOCOLO:BINARIO\n".getBytes());
+            out.flush();
+            while (in.readByte() != '\n')
+                ;
+            out.writeInt(2);
+            out.writeByte(Mensaje.BASE_DE_DATOS.getCodigo());
+            out.writeByte(1);
+            out.flush();
+            Assert.assertTrue(in.readInt() == 2);
+            Assert.assertTrue(in.readByte() == Mensaje.BASE_DE_DATOS.getCodigo());
+            Assert.assertTrue(in.readByte() == 1);
+            in.readInt();
+            Assert.assertTrue(in.readByte() == 0x42);
+            enchufe.close();
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        c1.desconecta();
+    }
+
     /**
      * Prueba unitaria para el mensaje {@link Mensaje#DESCONECTAR}
      * en el método {@link ServidorBaseDeDatos#sirve}.
@@ -496,14 +821,126 @@ public class TestServidorBaseDeDatosTarjetas {
         sbdd.limpiaEscuchas();
     }
 
+    /**
+     * Prueba de estrés del método {@link ServidorBaseDeDatos#sirve}: varias
+     * conexiones agregan, modifican y eliminan tarjetas a la vez, y al final
+     * la base de datos y el archivo tienen exactamente las tarjetas
+     * esperadas.
+     */
+    @Test
+    public void testSirveConcurrente() {
+        int conexiones = 8;
+        Lista<Tarjeta> esperadas = new Lista<Tarjeta>();
+        for (Tarjeta t : tarjetas)
+            esperadas.agregaFinal(t);
+        Tarjeta[][] agregadas = new Tarjeta[conexiones][6];
+        Tarjeta[][] modificadas = new Tarjeta[conexiones][3];
+        for (int k = 0; k < conexiones; k++) {
+            for (int i = 0; i < 6; i++)
+                agregadas[k][i] =
+                    TestTarjeta.tarjetaAleatoriaNumTarjeta(k + "-" + i);
+            for (int i = 0; i < 3; i++) {
+                modificadas[k][i] = new Tarjeta(null, null, 0, null, 0);
+                modificadas[k][i].actualiza(agregadas[k][i]);
+                modificadas[k][i].setSaldo(agregadas[k][i].getSaldo() + 1);
+                esperadas.agregaFinal(modificadas[k][i]);
+            }
+            esperadas.agregaFinal(agregadas[k][5]);
+        }
+        boolean[] error = { false };
+        Thread[] hilos = new Thread[conexiones];
+        for (int k = 0; k < conexiones; k++) {
+            Tarjeta[] a = agregadas[k];
+            Tarjeta[] m = modificadas[k];
+            hilos[k] = new Thread(() -> {
+                    try {
+                        Cliente c = nuevoCliente();
+                        for (Tarjeta t : a) {
+                            c.enviaMensaje(Mensaje.REGISTRO_AGREGADO);
+                            c.enviaTarjeta(t);
+                        }
+                        for (int i = 0; i < m.length; i++) {
+                            c.enviaMensaje(Mensaje.REGISTRO_MODIFICADO);
+                            c.enviaTarjeta(a[i]);
+                            c.enviaTarjeta(m[i]);
+                        }
+                        for (int i = 3; i < 5; i++) {
+                            c.enviaMensaje(Mensaje.REGISTRO_ELIMINADO);
+                            c.enviaTarjeta(a[i]);
+                        }
+                    } catch (Throwable t) {
+                        error[0] = true;
+                    }
+                });
+            hilos[k].start();
+        }
+        try {
+            for (Thread hilo : hilos)
+                hilo.join();
+        } catch (InterruptedException ie) {
+            Assert.fail();
+        }
+        Assert.assertFalse(error[0]);
+
+        /* El servidor puede seguir aplicando los cambios de las otras
+         * conexiones, y reenviándolos a ésta. */
+        Cliente c = nuevoCliente();
+        BaseDeDatosTarjetas bdd;
+        do {
+            UtilRed.espera(10);
+            c.enviaMensaje(Mensaje.BASE_DE_DATOS);
+            Assert.assertTrue(
+                c.recibeMensajeSinCambios() == Mensaje.BASE_DE_DATOS);
+            bdd = c.recibeBaseDeDatos();
+        } while (bdd.getNumRegistros() != esperadas.getLongitud());
+        Lista<Tarjeta> l = bdd.getRegistros();
+        for (Tarjeta t : esperadas)
+            Assert.assertTrue(l.contiene(t));
+        validaArchivo(bdd);
+    }
+
+    /**
+     * Prueba unitaria para {@link ServidorBaseDeDatos#agrupaOperaciones}.
+     */
+    @Test
+    public void testAgrupaOperaciones() {
+        for (PoliticaDeSincronizacion politica :
+                 PoliticaDeSincronizacion.values()) {
+            int p = obtenPuerto();
+            String a = new File(directorio.getRoot(),
+                                politica.name() + ".db").getPath();
+            ServidorBaseDeDatosTarjetas servidor = null;
+            try {
+                servidor = new ServidorBaseDeDatosTarjetas(p, a, politica,
+                                                           1000);
+            } catch (IOException ioe) {
+                Assert.fail();
+            }
+            try {
+                servidor.agrupaOperaciones(8, 0);
+                Assert.assertTrue(politica ==
+                                  PoliticaDeSincronizacion.CADA_OPERACION);
+            } catch (IllegalStateException ise) {
+                Assert.assertFalse(politica ==
+                                   PoliticaDeSincronizacion.CADA_OPERACION);
+            }
+            ServidorBaseDeDatosTarjetas s = servidor;
+            new Thread(() -> s.sirve()).start();
+            Cliente c = new Cliente(p);
+            c.enviaMensaje(Mensaje.DETENER_SERVICIO);
+            Assert.assertTrue(c.recibeCadena() == null);
+        }
+    }
+
     /**
      * Prueba unitaria para {@link
      * ServidorBaseDeDatosTarjetas#creaBaseDeDatos}.
      */
     @Test
     public void testCreaBaseDeDatos() {
-        BaseDeDatos<Tarjeta, CampoTarjeta> bdd = sbdd.creaBaseDeDatos();
-        Assert.assertTrue(bdd instanceof BaseDeDatosTarjetas);
+        BaseDeDatos<TarjetaCompacta, CampoTarjeta> bdd =
+            sbdd.creaBaseDeDatos();
+        Assert.assertTrue(bdd instanceof BaseDeDatosTarjetasCompactas);
         Assert.assertTrue(bdd.getNumRegistros() == 0);
     }
 }
@@ -0,0 +1,21 @@
+package mx.unam.ciencias.icc.red.test;
+
+import mx.unam.ciencias.icc.red.PoliticaDeSaturacion;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * ServidorBaseDeDatosTarjetas}, con colas de salida en las conexiones.
+ */
+public class TestServidorBaseDeDatosTarjetasColasDeSalida
+    extends TestServidorBaseDeDatosTarjetas {
+
+    /**
+     * Hace servir el servidor con colas de salida en las conexiones.
+     * @param servidor el servidor.
+     */
+    @Override protected void sirve(ServidorBaseDeDatosTarjetas servidor) {
+        servidor.usaColasDeSalida(1024, PoliticaDeSaturacion.RESINCRONIZAR);
+        servidor.sirve();
+    }
+}
@@ -0,0 +1,47 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetasColumnar;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * ServidorBaseDeDatosTarjetasColumnar}: el servidor debe comportarse igual
+ * que {@link ServidorBaseDeDatosTarjetas}.
+ */
+public class TestServidorBaseDeDatosTarjetasColumnar
+    extends TestServidorBaseDeDatosTarjetas {
+
+    /* El servidor columnar. */
+    private ServidorBaseDeDatosTarjetasColumnar servidor;
+
+    /**
+     * Crea un servidor columnar de tarjetas.
+     * @param puerto el puerto del servidor.
+     * @param archivo el archivo de la base de datos.
+     * @return el servidor.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override protected ServidorBaseDeDatosTarjetas
+    creaServidor(int puerto, String archivo) throws IOException {
+        servidor = new ServidorBaseDeDatosTarjetasColumnar(puerto, archivo);
+        return servidor;
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * ServidorBaseDeDatosTarjetasColumnar#creaBaseDeDatos}: mientras el
+     * servidor tiene abiertas las columnas, no puede crearse otra base de
+     * datos sobre ellas.
+     */
+    @Test
+    @Override public void testCreaBaseDeDatos() {
+        try {
+            servidor.creaBaseDeDatos();
+            Assert.fail();
+        } catch (UncheckedIOException uioe) {}
+    }
+}
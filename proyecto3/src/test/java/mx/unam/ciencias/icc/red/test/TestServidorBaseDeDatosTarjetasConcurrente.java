@@ -0,0 +1,48 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.io.IOException;
+import mx.unam.ciencias.icc.BaseDeDatos;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasConcurrente;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetasConcurrente;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * ServidorBaseDeDatosTarjetasConcurrente}: el servidor debe comportarse igual
+ * que {@link ServidorBaseDeDatosTarjetas}.
+ */
+public class TestServidorBaseDeDatosTarjetasConcurrente
+    extends TestServidorBaseDeDatosTarjetas {
+
+    /* El servidor concurrente. */
+    private ServidorBaseDeDatosTarjetasConcurrente servidor;
+
+    /**
+     * Crea un servidor concurrente de tarjetas.
+     * @param puerto el puerto del servidor.
+     * @param archivo el archivo de la base de datos.
+     * @return el servidor.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Override protected ServidorBaseDeDatosTarjetas
+    creaServidor(int puerto, String archivo) throws IOException {
+        servidor = new ServidorBaseDeDatosTarjetasConcurrente(puerto, archivo);
+        return servidor;
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * ServidorBaseDeDatosTarjetasConcurrente#creaBaseDeDatos}.
+     */
+    @Test
+    @Override public void testCreaBaseDeDatos() {
+        BaseDeDatos<TarjetaCompacta, CampoTarjeta> bdd =
+            servidor.creaBaseDeDatos();
+        Assert.assertTrue(bdd instanceof BaseDeDatosTarjetasConcurrente);
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+    }
+}
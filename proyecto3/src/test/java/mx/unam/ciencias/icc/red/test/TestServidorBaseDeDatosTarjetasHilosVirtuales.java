@@ -0,0 +1,41 @@
+package mx.unam.ciencias.icc.red.test;
+
+import java.util.concurrent.Executors;
+import mx.unam.ciencias.icc.red.ModeloConexiones;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * ServidorBaseDeDatosTarjetas}, atendiendo las conexiones con hilos virtuales.
+ * Si la máquina virtual no tiene hilos virtuales, el servidor usaría un hilo
+ * por conexión, que ya se prueba en {@link TestServidorBaseDeDatosTarjetas};
+ * en ese caso las pruebas se omiten.
+ */
+public class TestServidorBaseDeDatosTarjetasHilosVirtuales
+    extends TestServidorBaseDeDatosTarjetas {
+
+    /**
+     * Omite las pruebas si la máquina virtual no tiene hilos virtuales.
+     */
+    @BeforeClass public static void hilosVirtuales() {
+        boolean disponibles;
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            disponibles = true;
+        } catch (NoSuchMethodException nsme) {
+            disponibles = false;
+        }
+        Assume.assumeTrue("No hay hilos virtuales.", disponibles);
+    }
+
+    /**
+     * Hace servir el servidor con el modelo {@link
+     * ModeloConexiones#HILOS_VIRTUALES}.
+     * @param servidor el servidor.
+     */
+    @Override protected void sirve(ServidorBaseDeDatosTarjetas servidor) {
+        servidor.sirve(ModeloConexiones.HILOS_VIRTUALES);
+    }
+}
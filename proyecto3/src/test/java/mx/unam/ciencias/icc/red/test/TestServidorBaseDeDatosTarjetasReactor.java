@@ -0,0 +1,21 @@
+package mx.unam.ciencias.icc.red.test;
+
+import mx.unam.ciencias.icc.red.ModeloConexiones;
+import mx.unam.ciencias.icc.red.ServidorBaseDeDatosTarjetas;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * ServidorBaseDeDatosTarjetas}, atendiendo las conexiones con un reactor de conexiones.
+ */
+public class TestServidorBaseDeDatosTarjetasReactor
+    extends TestServidorBaseDeDatosTarjetas {
+
+    /**
+     * Hace servir el servidor con el modelo {@link
+     * ModeloConexiones#REACTOR}.
+     * @param servidor el servidor.
+     */
+    @Override protected void sirve(ServidorBaseDeDatosTarjetas servidor) {
+        servidor.sirve(ModeloConexiones.REACTOR);
+    }
+}
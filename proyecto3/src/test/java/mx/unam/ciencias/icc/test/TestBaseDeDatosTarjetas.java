@@ -12,6 +12,7 @@ import mx.unam.ciencias.icc.CampoTarjeta;
 import mx.unam.ciencias.icc.Tarjeta;
 import mx.unam.ciencias.icc.EscuchaBaseDeDatos;
 import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.Instantanea;
 import mx.unam.ciencias.icc.Lista;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -40,10 +41,31 @@ public class TestBaseDeDatosTarjetas {
      */
     public TestBaseDeDatosTarjetas() {
         random = new Random();
-        bdd = new BaseDeDatosTarjetas();
+        bdd = creaBaseDeDatos();
         total = 1 + random.nextInt(100);
     }
 
+    /**
+     * Crea la base de datos de tarjetas de las pruebas. Las clases que
+     * extiendan a esta prueba pueden sobrecargarlo para probar otra
+     * construcción de la base de datos.
+     *
+     * @return una base de datos de tarjetas vacía.
+     */
+    protected BaseDeDatosTarjetas creaBaseDeDatos() {
+        return new BaseDeDatosTarjetas();
+    }
+
+    /**
+     * Nos dice si la base de datos de las pruebas modifica los registros en
+     * su lugar, o si los reemplaza por registros nuevos.
+     *
+     * @return <code>true</code> si modifica los registros en su lugar.
+     */
+    protected boolean modificaEnSuLugar() {
+        return true;
+    }
+
     /**
      * Prueba unitaria para {@link
      * BaseDeDatosTarjetas#BaseDeDatosTarjetas}.
@@ -72,6 +94,40 @@ public class TestBaseDeDatosTarjetas {
         Assert.assertTrue(bdd.getNumRegistros() == total);
     }
 
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#getVersion}.
+     */
+    @Test
+    public void testGetVersion() {
+        Assert.assertTrue(bdd.getVersion() == 0);
+        Tarjeta t = null;
+        for (int i = 0; i < total; i++) {
+            t = TestTarjeta.tarjetaAleatoria();
+            bdd.agregaRegistro(t);
+            Assert.assertTrue(bdd.getVersion() == i + 1);
+        }
+        Tarjeta o = new Tarjeta(t.getNombreDelPropietario(),
+                                t.getNumeroDeTarjeta(),
+                                t.getCodigoDeSeguridad(),
+                                t.getFechaDeVencimiento(),
+                                t.getSaldo());
+        Tarjeta m = new Tarjeta(t.getNombreDelPropietario(),
+                                t.getNumeroDeTarjeta(),
+                                t.getCodigoDeSeguridad(),
+                                t.getFechaDeVencimiento(),
+                                t.getSaldo() + 1.0);
+        bdd.modificaRegistro(o, m);
+        Assert.assertTrue(bdd.getVersion() == total + 1);
+        bdd.modificaRegistro(o, m);
+        Assert.assertTrue(bdd.getVersion() == total + 1);
+        bdd.eliminaRegistro(m);
+        Assert.assertTrue(bdd.getVersion() == total + 2);
+        bdd.eliminaRegistro(m);
+        Assert.assertTrue(bdd.getVersion() == total + 2);
+        bdd.limpia();
+        Assert.assertTrue(bdd.getVersion() == total + 3);
+    }
+
     /**
      * Prueba unitaria para {@link BaseDeDatos#getRegistros}.
      */
@@ -147,7 +203,7 @@ public class TestBaseDeDatosTarjetas {
         });
         bdd.eliminaRegistro(tarjeta);
         Assert.assertTrue(llamado[0]);
-        bdd = new BaseDeDatosTarjetas();
+        bdd = creaBaseDeDatos();
         llamado[0] = false;
         bdd.agregaEscucha((e, r1, r2) -> {
             Assert.assertTrue(e == EventoBaseDeDatos.REGISTRO_ELIMINADO);
@@ -194,7 +250,7 @@ public class TestBaseDeDatosTarjetas {
         }
         Assert.assertTrue(ca == 0);
         Assert.assertTrue(cb == 1);
-        bdd = new BaseDeDatosTarjetas();
+        bdd = creaBaseDeDatos();
         a = new Tarjeta("A", "A", 1, "A", 1);
         b = new Tarjeta("B", "B", 2, "B", 2);
         bdd.agregaRegistro(a);
@@ -205,9 +261,13 @@ public class TestBaseDeDatosTarjetas {
             llamado[0] = true;
         });
         bdd.modificaRegistro(a, b);
-        Assert.assertTrue(a.equals(b));
+        if (modificaEnSuLugar())
+            Assert.assertTrue(a.equals(b));
+        else
+            Assert.assertTrue(a.equals(new Tarjeta("A", "A", 1, "A", 1)));
+        Assert.assertTrue(bdd.getRegistros().contiene(b));
         Assert.assertTrue(llamado[0]);
-        bdd = new BaseDeDatosTarjetas();
+        bdd = creaBaseDeDatos();
         llamado[0] = false;
         bdd.agregaEscucha((e, r1, r2) -> {
             Assert.assertTrue(e == EventoBaseDeDatos.REGISTRO_MODIFICADO);
@@ -278,6 +338,58 @@ public class TestBaseDeDatosTarjetas {
         }
     }
 
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#getInstantanea}: la
+     * instantánea no cambia cuando la base de datos se modifica después.
+     */
+    @Test
+    public void testGetInstantanea() {
+        Tarjeta[] tarjetas = new Tarjeta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = TestTarjeta.tarjetaAleatoria();
+            bdd.agregaRegistro(tarjetas[i]);
+        }
+        Instantanea<Tarjeta> instantanea = bdd.getInstantanea();
+        Assert.assertTrue(instantanea.getVersion() == bdd.getVersion());
+        Assert.assertTrue(instantanea.getLongitud() == total);
+        String guardado = "";
+        try {
+            StringWriter swOut = new StringWriter();
+            BufferedWriter out = new BufferedWriter(swOut);
+            bdd.guarda(out);
+            out.close();
+            guardado = swOut.toString();
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        bdd.eliminaRegistro(tarjetas[0]);
+        bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+        bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+        Assert.assertTrue(instantanea.getVersion() + 3 == bdd.getVersion());
+        int c = 0;
+        for (Tarjeta t : instantanea)
+            Assert.assertTrue(t == tarjetas[c++]);
+        Assert.assertTrue(c == total);
+        try {
+            StringWriter swOut = new StringWriter();
+            BufferedWriter out = new BufferedWriter(swOut);
+            instantanea.guarda(out);
+            out.close();
+            Assert.assertTrue(swOut.toString().equals(guardado));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        Instantanea<Tarjeta> nueva = bdd.getInstantanea();
+        Assert.assertTrue(nueva.getVersion() == bdd.getVersion());
+        Assert.assertTrue(nueva.getLongitud() == total + 1);
+        bdd.limpia();
+        c = 0;
+        for (Tarjeta t : nueva)
+            c++;
+        Assert.assertTrue(c == total + 1);
+        Assert.assertFalse(bdd.getInstantanea().iterator().hasNext());
+    }
+
     /**
      * Prueba unitaria para {@link BaseDeDatos#carga}.
      */
@@ -360,6 +472,43 @@ public class TestBaseDeDatosTarjetas {
         Assert.assertTrue(bdd.getNumRegistros() == 0);
     }
 
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#cargaMasiva}.
+     */
+    @Test
+    public void testCargaMasiva() {
+        for (int i = 0; i < total; i++)
+            bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+        Lista<Tarjeta> tarjetas = new Lista<Tarjeta>();
+        int n = 1 + random.nextInt(100);
+        for (int i = 0; i < n; i++)
+            tarjetas.agregaFinal(TestTarjeta.tarjetaAleatoriaNumTarjeta("" + i));
+        long version = bdd.getVersion();
+        int[] limpiada = { 0 };
+        int[] cargada = { 0 };
+        bdd.agregaEscucha((e, r1, r2) -> {
+            Assert.assertTrue(r1 == null);
+            Assert.assertTrue(r2 == null);
+            if (e == EventoBaseDeDatos.BASE_LIMPIADA)
+                limpiada[0]++;
+            else if (e == EventoBaseDeDatos.BASE_CARGADA)
+                cargada[0]++;
+            else
+                Assert.fail();
+        });
+        bdd.cargaMasiva(tarjetas);
+        Assert.assertTrue(limpiada[0] == 1);
+        Assert.assertTrue(cargada[0] == 1);
+        Assert.assertTrue(bdd.getRegistros().equals(tarjetas));
+        Assert.assertTrue(bdd.getVersion() == version + 1 + n);
+        for (Tarjeta t : tarjetas)
+            Assert.assertTrue(bdd.buscaRegistro(t.getNumeroDeTarjeta()) == t);
+        try {
+            bdd.cargaMasiva(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
     /**
      * Prueba unitaria para {@link BaseDeDatosTarjetas#creaRegistro}.
      */
@@ -521,6 +670,147 @@ public class TestBaseDeDatosTarjetas {
         }
     }
 
+    /* Busca registros recorriendo toda la base de datos. */
+    private Lista<Tarjeta> buscaRecorriendo(CampoTarjeta campo, Object valor) {
+        Lista<Tarjeta> l = new Lista<Tarjeta>();
+        for (Tarjeta t : bdd.getRegistros())
+            if (t.caza(campo, valor))
+                l.agregaFinal(t);
+        return l;
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#getCandidatos}.
+     */
+    @Test
+    public void testGetCandidatos() {
+        bdd.indexaSubcadenas();
+        for (int i = 0; i < total; i++)
+            bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+        Lista<Tarjeta> registros = bdd.getRegistros();
+        Tarjeta t = registros.get(random.nextInt(total));
+        String nombre = t.getNombreDelPropietario();
+        Object[][] busquedas = {
+            { CampoTarjeta.NOMBRE_DEL_PROPIETARIO, nombre },
+            { CampoTarjeta.NOMBRE_DEL_PROPIETARIO, nombre.substring(0, 1) },
+            { CampoTarjeta.NUMERO_DE_TARJETA, t.getNumeroDeTarjeta() },
+            { CampoTarjeta.FECHA_DE_VENCIMIENTO, t.getFechaDeVencimiento() },
+            { CampoTarjeta.CODIGO_DE_SEGURIDAD,
+              Integer.valueOf(t.getCodigoDeSeguridad()) },
+            { CampoTarjeta.SALDO, Double.valueOf(t.getSaldo()) },
+            { CampoTarjeta.NOMBRE_DEL_PROPIETARIO, "XXXXXXXX" }
+        };
+        for (Object[] busqueda : busquedas) {
+            CampoTarjeta campo = (CampoTarjeta)busqueda[0];
+            Lista<Tarjeta> candidatos = bdd.getCandidatos(campo, busqueda[1]);
+            Lista<Tarjeta> l = new Lista<Tarjeta>();
+            for (Tarjeta c : candidatos)
+                if (c.caza(campo, busqueda[1]))
+                    l.agregaFinal(c);
+            Assert.assertTrue(l.equals(bdd.buscaRegistros(campo, busqueda[1])));
+            candidatos.limpia();
+            Assert.assertTrue(bdd.getNumRegistros() == total);
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#buscaRegistros} con los índices,
+     * incluyendo los de subcadenas agregados con {@link
+     * BaseDeDatosTarjetas#indexaSubcadenas} a una base de datos con
+     * registros, después de agregar, eliminar y modificar registros: encuentra
+     * los mismos registros que recorrer la base de datos, en el mismo orden.
+     */
+    @Test
+    public void testBuscaRegistrosIndices() {
+        int ini = random.nextInt(1000000);
+        for (int i = 0; i < total; i++)
+            bdd.agregaRegistro(TestTarjeta.tarjetaAleatoriaNumTarjeta("" + ini + i));
+        bdd.indexaSubcadenas();
+        for (int i = 0; i < total; i++) {
+            Lista<Tarjeta> l = bdd.getRegistros();
+            Tarjeta t = l.get(random.nextInt(l.getLongitud()));
+            switch (random.nextInt(3)) {
+            case 0:
+                bdd.eliminaRegistro(t);
+                break;
+            case 1:
+                Tarjeta m = TestTarjeta.tarjetaAleatoriaNumTarjeta(
+                    t.getNumeroDeTarjeta());
+                bdd.modificaRegistro(t, m);
+                break;
+            default:
+                bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+            }
+            Double saldo = Double.valueOf(random.nextInt(20000));
+            Assert.assertTrue(
+                bdd.buscaRegistros(CampoTarjeta.SALDO, saldo).equals(
+                    buscaRecorriendo(CampoTarjeta.SALDO, saldo)));
+            Integer codigo = Integer.valueOf(100 + random.nextInt(100));
+            Assert.assertTrue(
+                bdd.buscaRegistros(CampoTarjeta.CODIGO_DE_SEGURIDAD,
+                                   codigo).equals(
+                    buscaRecorriendo(CampoTarjeta.CODIGO_DE_SEGURIDAD,
+                                     codigo)));
+            String nombre = t.getNombreDelPropietario().substring(0, 3);
+            Assert.assertTrue(
+                bdd.buscaRegistros(CampoTarjeta.NOMBRE_DEL_PROPIETARIO,
+                                   nombre).equals(
+                    buscaRecorriendo(CampoTarjeta.NOMBRE_DEL_PROPIETARIO,
+                                     nombre)));
+        }
+        Assert.assertTrue(bdd.buscaRegistros(CampoTarjeta.SALDO,
+                                             Integer.valueOf(0)).esVacia());
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatos#buscaRegistro}.
+     */
+    @Test
+    public void testBuscaRegistro() {
+        int ini = random.nextInt(1000000);
+        Tarjeta[] tarjetas = new Tarjeta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = TestTarjeta.tarjetaAleatoriaNumTarjeta("" + ini + i);
+            bdd.agregaRegistro(tarjetas[i]);
+        }
+        for (int i = 0; i < total; i++) {
+            Tarjeta t = bdd.buscaRegistro(tarjetas[i].getNumeroDeTarjeta());
+            Assert.assertTrue(t == tarjetas[i]);
+        }
+        Assert.assertTrue(bdd.buscaRegistro("XXX") == null);
+        Assert.assertTrue(bdd.buscaRegistro(null) == null);
+
+        Tarjeta t = tarjetas[random.nextInt(total)];
+        String num = t.getNumeroDeTarjeta();
+        Tarjeta m = new Tarjeta("A", "XXX", 1, "A", 1);
+        bdd.modificaRegistro(new Tarjeta(null, null, 0, null, 0), m);
+        Assert.assertTrue(bdd.buscaRegistro("XXX") == null);
+        bdd.modificaRegistro(t, m);
+        Assert.assertTrue(bdd.buscaRegistro(num) == null);
+        if (modificaEnSuLugar()) {
+            Assert.assertTrue(bdd.buscaRegistro("XXX") == t);
+        } else {
+            Assert.assertTrue(bdd.buscaRegistro("XXX") != t);
+            t = bdd.buscaRegistro("XXX");
+        }
+        Assert.assertTrue(t.equals(m));
+
+        Tarjeta d = new Tarjeta("B", "XXX", 2, "B", 2);
+        bdd.agregaRegistro(d);
+        Assert.assertTrue(bdd.buscaRegistro("XXX") == t);
+        bdd.eliminaRegistro(new Tarjeta("A", "XXX", 1, "A", 1));
+        Assert.assertTrue(bdd.buscaRegistro("XXX") == d);
+        Assert.assertFalse(bdd.getRegistros().contiene(m));
+        bdd.eliminaRegistro(d);
+        Assert.assertTrue(bdd.buscaRegistro("XXX") == null);
+        Assert.assertTrue(bdd.getNumRegistros() == total - 1);
+
+        bdd.limpia();
+        for (int i = 0; i < total; i++)
+            Assert.assertTrue(bdd.buscaRegistro(tarjetas[i].getNumeroDeTarjeta())
+                              == null);
+    }
+
     /**
      * Prueba unitaria para {@link BaseDeDatos#agregaEscucha}.
      */
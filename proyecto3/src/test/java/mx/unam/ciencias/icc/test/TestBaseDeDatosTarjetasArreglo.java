@@ -0,0 +1,36 @@
+package mx.unam.ciencias.icc.test;
+
+import mx.unam.ciencias.icc.Almacenamiento;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link BaseDeDatosTarjetas} con
+ * los registros guardados en un arreglo. Corre todas las pruebas de {@link
+ * TestBaseDeDatosTarjetas}.
+ */
+public class TestBaseDeDatosTarjetasArreglo extends TestBaseDeDatosTarjetas {
+
+    /**
+     * Crea una base de datos de tarjetas con almacenamiento {@link
+     * Almacenamiento#ARREGLO}.
+     *
+     * @return una base de datos de tarjetas vacía.
+     */
+    @Override protected BaseDeDatosTarjetas creaBaseDeDatos() {
+        return new BaseDeDatosTarjetas(Almacenamiento.ARREGLO);
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetas#BaseDeDatosTarjetas(Almacenamiento)} con un
+     * almacenamiento <code>null</code>.
+     */
+    @Test public void testConstructorAlmacenamientoNulo() {
+        try {
+            new BaseDeDatosTarjetas(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+}
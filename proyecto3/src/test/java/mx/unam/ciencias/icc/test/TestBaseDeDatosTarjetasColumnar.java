@@ -0,0 +1,447 @@
+package mx.unam.ciencias.icc.test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasCompactas;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasColumnar;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.Instantanea;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * BaseDeDatosTarjetasColumnar}. Cada prueba compara la base de datos
+ * columnar con una {@link BaseDeDatosTarjetasCompactas} a la que se le hacen
+ * las mismas operaciones.
+ */
+public class TestBaseDeDatosTarjetasColumnar {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+    /** Directorio para archivos temporales. */
+    @Rule public TemporaryFolder directorio = new TemporaryFolder();
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* El archivo de las columnas. */
+    private File archivo;
+    /* Base de datos columnar de tarjetas. */
+    private BaseDeDatosTarjetasColumnar bdd;
+    /* Base de datos de tarjetas de referencia. */
+    private BaseDeDatosTarjetasCompactas referencia;
+    /* Número total de tarjetas. */
+    private int total;
+    /* El siguiente número de tarjeta único. */
+    private int siguiente;
+
+    /**
+     * Crea un generador de números aleatorios, la base de datos de
+     * referencia y la base de datos columnar en un archivo temporal.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Before public void arma() throws IOException {
+        random = new Random();
+        archivo = new File(directorio.getRoot(), "tarjetas.columnas");
+        bdd = new BaseDeDatosTarjetasColumnar(archivo);
+        referencia = new BaseDeDatosTarjetasCompactas();
+        total = 10 + random.nextInt(100);
+    }
+
+    /**
+     * Cierra la base de datos columnar.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @After public void desarma() throws IOException {
+        bdd.close();
+    }
+
+    /* Agrega n tarjetas aleatorias con números únicos a ambas bases. */
+    private void agrega(int n) {
+        for (int i = 0; i < n; i++) {
+            TarjetaCompacta t =
+                TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta("" + siguiente++);
+            bdd.agregaRegistro(t);
+            referencia.agregaRegistro(t);
+        }
+    }
+
+    /* Regresa lo que guarda la base de datos. */
+    private static String guarda(BaseDeDatosTarjetasCompactas bdd) {
+        try {
+            StringWriter cadena = new StringWriter();
+            BufferedWriter out = new BufferedWriter(cadena);
+            bdd.guarda(out);
+            out.close();
+            return cadena.toString();
+        } catch (IOException ioe) {
+            Assert.fail();
+            return null;
+        }
+    }
+
+    /* Regresa lo que guarda la base de datos columnar. */
+    private static String guarda(BaseDeDatosTarjetasColumnar bdd) {
+        try {
+            StringWriter cadena = new StringWriter();
+            BufferedWriter out = new BufferedWriter(cadena);
+            bdd.guarda(out);
+            out.close();
+            return cadena.toString();
+        } catch (IOException ioe) {
+            Assert.fail();
+            return null;
+        }
+    }
+
+    /* Nos dice si ambas bases tienen las mismas tarjetas. */
+    private boolean iguales() {
+        return bdd.getNumRegistros() == referencia.getNumRegistros() &&
+            bdd.getRegistros().equals(referencia.getRegistros());
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasColumnar#BaseDeDatosTarjetasColumnar}.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+        Assert.assertTrue(bdd.getRegistros().getLongitud() == 0);
+        Assert.assertTrue(bdd.getVersion() == 0);
+        try {
+            new BaseDeDatosTarjetasColumnar(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#agregaRegistro}.
+     */
+    @Test public void testAgregaRegistro() {
+        int[] agregadas = { 0 };
+        bdd.agregaEscucha((e, r1, r2) -> {
+                Assert.assertTrue(e == EventoBaseDeDatos.REGISTRO_AGREGADO);
+                agregadas[0]++;
+            });
+        agrega(total);
+        Assert.assertTrue(agregadas[0] == total);
+        Assert.assertTrue(bdd.getVersion() == total);
+        Assert.assertTrue(iguales());
+        try {
+            bdd.agregaRegistro(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            bdd.agregaRegistro(
+                new TarjetaCompacta(null, "1", 100, "01/30", 1.0));
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        Assert.assertTrue(bdd.getNumRegistros() == total);
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#agregaRegistro}
+     * con más tarjetas que la capacidad inicial, para que las columnas
+     * crezcan.
+     */
+    @Test public void testAgregaRegistroCrece() {
+        agrega(3000 + random.nextInt(1000));
+        Assert.assertTrue(iguales());
+        Assert.assertTrue(guarda(bdd).equals(guarda(referencia)));
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#eliminaRegistro}.
+     */
+    @Test public void testEliminaRegistro() {
+        agrega(total);
+        Lista<TarjetaCompacta> tarjetas = referencia.getRegistros();
+        for (TarjetaCompacta t : tarjetas) {
+            if (random.nextBoolean())
+                continue;
+            bdd.eliminaRegistro(t);
+            referencia.eliminaRegistro(t);
+            Assert.assertTrue(
+                bdd.buscaRegistro(t.getNumeroDeTarjeta()) == null);
+        }
+        Assert.assertTrue(iguales());
+        long version = bdd.getVersion();
+        bdd.eliminaRegistro(
+            TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta("-1"));
+        Assert.assertTrue(bdd.getVersion() == version);
+        Assert.assertTrue(iguales());
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#eliminaRegistro}
+     * con suficientes tarjetas eliminadas para que las filas se compacten.
+     */
+    @Test public void testEliminaRegistroCompacta() {
+        agrega(3000);
+        Lista<TarjetaCompacta> tarjetas = referencia.getRegistros();
+        int i = 0;
+        for (TarjetaCompacta t : tarjetas) {
+            if (i++ % 3 == 0)
+                continue;
+            bdd.eliminaRegistro(t);
+            referencia.eliminaRegistro(t);
+        }
+        Assert.assertTrue(iguales());
+        agrega(100);
+        Assert.assertTrue(iguales());
+        for (TarjetaCompacta t : referencia.getRegistros())
+            Assert.assertTrue(bdd.buscaRegistro(t.getNumeroDeTarjeta())
+                              .equals(t));
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#eliminaRegistro}
+     * cuando las filas se compactan: el diccionario se queda sólo con las
+     * cadenas de las filas vivas, y las instantáneas anteriores no cambian.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testEliminaRegistroCompactaDiccionario()
+        throws IOException {
+        /* Nombres únicos y números que no caben en su columna, para que
+         * cada tarjeta agregue cadenas al diccionario. */
+        for (int i = 0; i < 3000; i++) {
+            TarjetaCompacta t = new TarjetaCompacta(
+                "Propietario " + i, "1234567890123456789012345678901234-" + i,
+                100 + i % 900, "01/30", i);
+            bdd.agregaRegistro(t);
+            referencia.agregaRegistro(t);
+        }
+        File diccionario = new File(archivo.getPath() + ".diccionario");
+        long antes = diccionario.length();
+        Instantanea<TarjetaCompacta> instantanea = bdd.getInstantanea();
+        Lista<TarjetaCompacta> tarjetas = referencia.getRegistros();
+        int i = 0;
+        for (TarjetaCompacta t : tarjetas) {
+            if (i++ % 3 == 0)
+                continue;
+            bdd.eliminaRegistro(t);
+            referencia.eliminaRegistro(t);
+        }
+        Assert.assertTrue(iguales());
+        Assert.assertTrue(diccionario.length() < antes / 2);
+        Lista<TarjetaCompacta> copia = new Lista<TarjetaCompacta>();
+        for (TarjetaCompacta t : instantanea)
+            copia.agregaFinal(t);
+        Assert.assertTrue(copia.equals(tarjetas));
+
+        agrega(100);
+        bdd.close();
+        bdd = new BaseDeDatosTarjetasColumnar(archivo);
+        Assert.assertTrue(iguales());
+        for (TarjetaCompacta t : referencia.getRegistros())
+            Assert.assertTrue(bdd.buscaRegistro(t.getNumeroDeTarjeta())
+                              .equals(t));
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasColumnar#modificaRegistro}.
+     */
+    @Test public void testModificaRegistro() {
+        agrega(total);
+        for (TarjetaCompacta t : referencia.getRegistros()) {
+            if (random.nextBoolean())
+                continue;
+            TarjetaCompacta m = TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta(
+                random.nextBoolean() ? t.getNumeroDeTarjeta() :
+                "m" + t.getNumeroDeTarjeta());
+            bdd.modificaRegistro(t, m);
+            referencia.modificaRegistro(t, m);
+            Assert.assertTrue(bdd.buscaRegistro(m.getNumeroDeTarjeta())
+                              .equals(m));
+        }
+        Assert.assertTrue(iguales());
+        try {
+            bdd.modificaRegistro(null, TestTarjetaCompacta.tarjetaAleatoria());
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        long version = bdd.getVersion();
+        bdd.modificaRegistro(
+            TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta("-1"),
+            TestTarjetaCompacta.tarjetaAleatoria());
+        Assert.assertTrue(bdd.getVersion() == version);
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#guarda} y
+     * {@link BaseDeDatosTarjetasColumnar#carga}.
+     */
+    @Test public void testGuardaCarga() {
+        agrega(total);
+        String s = guarda(referencia);
+        Assert.assertTrue(guarda(bdd).equals(s));
+        bdd.limpia();
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+        try {
+            bdd.carga(new BufferedReader(new StringReader(s)));
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+        Assert.assertTrue(iguales());
+        bdd.cargaMasiva(referencia.getRegistros());
+        Assert.assertTrue(iguales());
+        Assert.assertTrue(guarda(bdd).equals(s));
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#getInstantanea}:
+     * la instantánea conserva las tarjetas que había al tomarla.
+     */
+    @Test public void testGetInstantanea() {
+        agrega(total);
+        referencia.eliminaRegistro(referencia.getRegistros().getPrimero());
+        bdd.eliminaRegistro(bdd.getRegistros().getPrimero());
+        Lista<TarjetaCompacta> tarjetas = referencia.getRegistros();
+        Instantanea<TarjetaCompacta> instantanea = bdd.getInstantanea();
+        Assert.assertTrue(instantanea.getVersion() == bdd.getVersion());
+        Assert.assertTrue(instantanea.getLongitud() == total - 1);
+        bdd.modificaRegistro(tarjetas.getUltimo(),
+                             TestTarjetaCompacta.tarjetaAleatoria());
+        bdd.eliminaRegistro(tarjetas.get(random.nextInt(total - 1)));
+        agrega(3000);
+        Lista<TarjetaCompacta> l = new Lista<TarjetaCompacta>();
+        for (TarjetaCompacta t : instantanea)
+            l.agregaFinal(t);
+        Assert.assertTrue(l.equals(tarjetas));
+        bdd.limpia();
+        Assert.assertTrue(bdd.getInstantanea().getLongitud() == 0);
+        Assert.assertFalse(bdd.getInstantanea().iterator().hasNext());
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#buscaRegistros}.
+     */
+    @Test public void testBuscaRegistros() {
+        agrega(total);
+        for (CampoTarjeta campo : CampoTarjeta.values()) {
+            TarjetaCompacta t =
+                referencia.getRegistros().get(random.nextInt(total));
+            Object valor = null;
+            switch (campo) {
+            case NOMBRE_DEL_PROPIETARIO:
+                valor = t.getNombreDelPropietario().substring(0, 3);
+                break;
+            case NUMERO_DE_TARJETA:
+                valor = t.getNumeroDeTarjeta();
+                break;
+            case CODIGO_DE_SEGURIDAD:
+                valor = t.getCodigoDeSeguridad();
+                break;
+            case FECHA_DE_VENCIMIENTO:
+                valor = t.getFechaDeVencimiento();
+                break;
+            case SALDO:
+                valor = t.getSaldo();
+                break;
+            }
+            /* Los índices de la referencia pueden regresar las tarjetas en
+             * otro orden. */
+            Lista<TarjetaCompacta> l1 = bdd.buscaRegistros(campo, valor);
+            Lista<TarjetaCompacta> l2 = referencia.buscaRegistros(campo, valor);
+            Assert.assertTrue(l1.getLongitud() == l2.getLongitud());
+            for (TarjetaCompacta c : l2)
+                Assert.assertTrue(l1.contiene(c));
+        }
+        try {
+            bdd.buscaRegistros(null, "");
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#buscaRegistro}
+     * con números de tarjeta que no caben en su columna.
+     */
+    @Test public void testBuscaRegistroDesbordado() {
+        String largo = "12345678901234567890123456789012345";
+        TarjetaCompacta t1 =
+            TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta(largo);
+        TarjetaCompacta t2 =
+            TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta("ñ1234");
+        bdd.agregaRegistro(t1);
+        bdd.agregaRegistro(t2);
+        Assert.assertTrue(bdd.buscaRegistro(largo).equals(t1));
+        Assert.assertTrue(bdd.buscaRegistro("ñ1234").equals(t2));
+        Assert.assertTrue(bdd.buscaRegistro("1234") == null);
+        Assert.assertTrue(bdd.buscaRegistro(1234) == null);
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasColumnar#close}: al
+     * abrir de nuevo la base de datos tiene las mismas tarjetas y la misma
+     * versión.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testClose() throws IOException {
+        agrega(total);
+        for (TarjetaCompacta t : referencia.getRegistros()) {
+            if (random.nextInt(4) != 0)
+                continue;
+            bdd.eliminaRegistro(t);
+            referencia.eliminaRegistro(t);
+        }
+        long version = bdd.getVersion();
+        bdd.close();
+        bdd.close();
+        bdd = new BaseDeDatosTarjetasColumnar(archivo);
+        Assert.assertTrue(iguales());
+        Assert.assertTrue(bdd.getVersion() == version);
+        agrega(total);
+        Assert.assertTrue(iguales());
+        TarjetaCompacta t = referencia.getRegistros().get(0);
+        Assert.assertTrue(bdd.buscaRegistro(t.getNumeroDeTarjeta()).equals(t));
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasColumnar#BaseDeDatosTarjetasColumnar}, cuando la
+     * base de datos no se cerró: se abre vacía.
+     * @throws IOException si ocurre un error de entrada/salida.
+     */
+    @Test public void testAbreSinCerrar() throws IOException {
+        agrega(total);
+        File copia = new File(directorio.getRoot(), "copia.columnas");
+        bdd.close();
+        bdd = new BaseDeDatosTarjetasColumnar(archivo);
+        /* Copia el archivo abierto, como si el proceso se hubiera caído. */
+        RandomAccessFile in = new RandomAccessFile(archivo, "r");
+        byte[] bytes = new byte[(int)in.length()];
+        in.readFully(bytes);
+        in.close();
+        RandomAccessFile out = new RandomAccessFile(copia, "rw");
+        out.write(bytes);
+        out.close();
+        new File(archivo.getPath() + ".diccionario")
+            .renameTo(new File(copia.getPath() + ".diccionario"));
+
+        BaseDeDatosTarjetasColumnar caida =
+            new BaseDeDatosTarjetasColumnar(copia);
+        Assert.assertTrue(caida.getNumRegistros() == 0);
+        Assert.assertTrue(caida.getRegistros().getLongitud() == 0);
+        caida.agregaRegistro(TestTarjetaCompacta.tarjetaAleatoria());
+        Assert.assertTrue(caida.getNumRegistros() == 1);
+        caida.close();
+    }
+}
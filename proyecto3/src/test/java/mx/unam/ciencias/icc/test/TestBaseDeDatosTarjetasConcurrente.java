@@ -0,0 +1,345 @@
+package mx.unam.ciencias.icc.test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetasConcurrente;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.Instantanea;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link
+ * BaseDeDatosTarjetasConcurrente}.
+ */
+public class TestBaseDeDatosTarjetasConcurrente {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Número de hilos en la prueba de estrés. */
+    private static final int HILOS = 8;
+    /* Número de operaciones por hilo en la prueba de estrés. */
+    private static final int OPERACIONES = 5000;
+    /* Número de llaves compartidas por todos los hilos. */
+    private static final int COMPARTIDAS = 4;
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* La base de datos. */
+    private BaseDeDatosTarjetasConcurrente bdd;
+    /* Número total de tarjetas. */
+    private int total;
+
+    /**
+     * Crea un generador de números aleatorios y una base de datos
+     * concurrente con pocas franjas, para que las llaves compartan candados.
+     */
+    public TestBaseDeDatosTarjetasConcurrente() {
+        random = new Random();
+        bdd = new BaseDeDatosTarjetasConcurrente(4);
+        total = 1 + random.nextInt(100);
+    }
+
+    /* Regresa una tarjeta igual a la recibida con otro saldo. */
+    private static TarjetaCompacta conSaldo(TarjetaCompacta t, double saldo) {
+        return new TarjetaCompacta(t.getNombreDelPropietario(),
+                                   t.getNumeroDeTarjeta(),
+                                   t.getCodigoDeSeguridad(),
+                                   t.getFechaDeVencimiento(), saldo);
+    }
+
+    /* Agrega total tarjetas con números distintos y las regresa. */
+    private TarjetaCompacta[] agregaTarjetas() {
+        TarjetaCompacta[] tarjetas = new TarjetaCompacta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta(
+                String.format("%016d", i));
+            bdd.agregaRegistro(tarjetas[i]);
+        }
+        return tarjetas;
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#BaseDeDatosTarjetasConcurrente}.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+        Assert.assertTrue(bdd.getRegistros().esVacia());
+        Assert.assertTrue(bdd.getVersion() == 0);
+        new BaseDeDatosTarjetasConcurrente(3);
+        try {
+            new BaseDeDatosTarjetasConcurrente(0);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#agregaRegistro} y {@link
+     * BaseDeDatosTarjetasConcurrente#getRegistros}: los registros quedan en
+     * el orden en que se agregaron.
+     */
+    @Test public void testAgregaRegistro() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        Assert.assertTrue(bdd.getNumRegistros() == total);
+        Assert.assertTrue(bdd.getVersion() == total);
+        int i = 0;
+        for (TarjetaCompacta t : bdd.getRegistros())
+            Assert.assertTrue(t.equals(tarjetas[i++]));
+        Assert.assertTrue(i == total);
+        TarjetaCompacta repetida = conSaldo(tarjetas[0], -1);
+        bdd.agregaRegistro(repetida);
+        Assert.assertTrue(bdd.getNumRegistros() == total + 1);
+        Assert.assertTrue(bdd.getRegistros().getUltimo().equals(repetida));
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#eliminaRegistro}.
+     */
+    @Test public void testEliminaRegistro() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        int[] eliminados = { 0 };
+        bdd.agregaEscucha((e, r1, r2) -> {
+                Assert.assertTrue(e == EventoBaseDeDatos.REGISTRO_ELIMINADO);
+                eliminados[0]++;
+            });
+        bdd.eliminaRegistro(conSaldo(tarjetas[0], -1));
+        Assert.assertTrue(bdd.getNumRegistros() == total);
+        Assert.assertTrue(bdd.getVersion() == total);
+        for (int i = 0; i < total; i++) {
+            bdd.eliminaRegistro(tarjetas[i]);
+            Assert.assertTrue(bdd.getNumRegistros() == total - i - 1);
+            Assert.assertFalse(bdd.getRegistros().contiene(tarjetas[i]));
+            Assert.assertTrue(bdd.buscaRegistro(
+                                  tarjetas[i].getNumeroDeTarjeta()) == null);
+        }
+        Assert.assertTrue(bdd.getVersion() == 2 * total);
+        Assert.assertTrue(eliminados[0] == total + 1);
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#modificaRegistro}: el registro se
+     * reemplaza en la misma posición, y el registro que estaba en la base de
+     * datos no cambia.
+     */
+    @Test public void testModificaRegistro() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        int m = random.nextInt(total);
+        TarjetaCompacta original = tarjetas[m];
+        TarjetaCompacta copia = conSaldo(original, original.getSaldo());
+        TarjetaCompacta modificada =
+            TestTarjetaCompacta.tarjetaAleatoriaNumTarjeta("otra");
+        boolean[] llamado = { false };
+        bdd.agregaEscucha((e, r1, r2) -> {
+                Assert.assertTrue(e == EventoBaseDeDatos.REGISTRO_MODIFICADO);
+                Assert.assertTrue(r1 == copia);
+                Assert.assertTrue(r2 == modificada);
+                llamado[0] = true;
+            });
+        bdd.modificaRegistro(copia, modificada);
+        Assert.assertTrue(llamado[0]);
+        Assert.assertTrue(original.equals(copia));
+        Assert.assertTrue(bdd.getVersion() == total + 1);
+        Assert.assertTrue(bdd.getRegistros().get(m).equals(modificada));
+        Assert.assertFalse(bdd.getRegistros().get(m) == modificada);
+        Assert.assertTrue(bdd.buscaRegistro("otra").equals(modificada));
+        Assert.assertTrue(bdd.buscaRegistro(original.getNumeroDeTarjeta())
+                          == null);
+        llamado[0] = false;
+        bdd.modificaRegistro(copia, modificada);
+        Assert.assertFalse(llamado[0]);
+        Assert.assertTrue(bdd.getVersion() == total + 1);
+        try {
+            bdd.modificaRegistro(null, modificada);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#buscaRegistro} y {@link
+     * BaseDeDatosTarjetasConcurrente#buscaRegistros}.
+     */
+    @Test public void testBusca() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        for (TarjetaCompacta t : tarjetas)
+            Assert.assertTrue(bdd.buscaRegistro(t.getNumeroDeTarjeta()) == t);
+        Assert.assertTrue(bdd.buscaRegistro("no") == null);
+        Assert.assertTrue(bdd.buscaRegistro(null) == null);
+        TarjetaCompacta t = tarjetas[random.nextInt(total)];
+        Lista<TarjetaCompacta> l =
+            bdd.buscaRegistros(CampoTarjeta.NUMERO_DE_TARJETA,
+                               t.getNumeroDeTarjeta());
+        Assert.assertTrue(l.getLongitud() == 1);
+        Assert.assertTrue(l.getPrimero() == t);
+        try {
+            bdd.buscaRegistros(null, "");
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasConcurrente#guarda} y
+     * {@link BaseDeDatosTarjetasConcurrente#carga}.
+     */
+    @Test public void testGuardaCarga() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        try {
+            StringWriter cadena = new StringWriter();
+            BufferedWriter out = new BufferedWriter(cadena);
+            bdd.guarda(out);
+            out.close();
+            BaseDeDatosTarjetasConcurrente otra =
+                new BaseDeDatosTarjetasConcurrente();
+            otra.agregaRegistro(TestTarjetaCompacta.tarjetaAleatoria());
+            otra.carga(new BufferedReader(
+                           new StringReader(cadena.toString())));
+            Assert.assertTrue(otra.getRegistros().equals(bdd.getRegistros()));
+            Assert.assertTrue(otra.getNumRegistros() == total);
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetasConcurrente#limpia} y
+     * {@link BaseDeDatosTarjetasConcurrente#cargaMasiva}.
+     */
+    @Test public void testLimpiaCargaMasiva() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        Lista<TarjetaCompacta> l = bdd.getRegistros();
+        bdd.limpia();
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+        Assert.assertTrue(bdd.getVersion() == total + 1);
+        Assert.assertTrue(bdd.buscaRegistro(tarjetas[0].getNumeroDeTarjeta())
+                          == null);
+        bdd.cargaMasiva(l);
+        Assert.assertTrue(bdd.getRegistros().equals(l));
+        Assert.assertTrue(bdd.getVersion() == 2 * total + 2);
+        Assert.assertTrue(bdd.buscaRegistro(tarjetas[0].getNumeroDeTarjeta())
+                          == tarjetas[0]);
+    }
+
+    /**
+     * Prueba unitaria para {@link
+     * BaseDeDatosTarjetasConcurrente#getInstantanea}: la instantánea
+     * conserva los registros que había al tomarla.
+     */
+    @Test public void testGetInstantanea() {
+        TarjetaCompacta[] tarjetas = agregaTarjetas();
+        Instantanea<TarjetaCompacta> instantanea = bdd.getInstantanea();
+        Assert.assertTrue(instantanea.getVersion() == total);
+        Assert.assertTrue(instantanea.getLongitud() == total);
+        bdd.modificaRegistro(tarjetas[0], conSaldo(tarjetas[0], -1));
+        bdd.eliminaRegistro(tarjetas[total - 1]);
+        bdd.agregaRegistro(TestTarjetaCompacta.tarjetaAleatoria());
+        int i = 0;
+        for (TarjetaCompacta t : instantanea)
+            Assert.assertTrue(t == tarjetas[i++]);
+        Assert.assertTrue(i == total);
+        Assert.assertTrue(bdd.getInstantanea().getVersion() == total + 3);
+    }
+
+    /**
+     * Prueba de estrés: varios hilos agregan, modifican y eliminan tarjetas a
+     * la vez, mientras otro hilo lee la base de datos sin detenerse. Cada hilo
+     * tiene sus propias llaves, cuyo contenido final se conoce, y además
+     * agrega y elimina tarjetas con llaves compartidas por todos los hilos.
+     */
+    @Test public void testEstres() throws InterruptedException {
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        AtomicInteger modificaciones = new AtomicInteger();
+        TarjetaCompacta[][] finales = new TarjetaCompacta[HILOS][];
+        Thread[] hilos = new Thread[HILOS];
+        for (int h = 0; h < HILOS; h++) {
+            int hilo = h;
+            hilos[h] = new Thread(() -> {
+                    Random r = new Random(hilo);
+                    TarjetaCompacta[] propias = new TarjetaCompacta[64];
+                    int cambios = 0;
+                    for (int i = 0; i < OPERACIONES; i++) {
+                        int k = r.nextInt(propias.length);
+                        TarjetaCompacta t = propias[k];
+                        if (t == null) {
+                            t = new TarjetaCompacta("H" + hilo,
+                                                    hilo + "-" + k, k,
+                                                    "01/30", i);
+                            bdd.agregaRegistro(t);
+                            propias[k] = t;
+                        } else if (r.nextBoolean()) {
+                            TarjetaCompacta m = conSaldo(t, i);
+                            bdd.modificaRegistro(t, m);
+                            propias[k] = m;
+                        } else {
+                            bdd.eliminaRegistro(t);
+                            propias[k] = null;
+                        }
+                        cambios++;
+                        TarjetaCompacta c = new TarjetaCompacta(
+                            "H" + hilo, "c" + r.nextInt(COMPARTIDAS), i,
+                            "01/30", i);
+                        bdd.agregaRegistro(c);
+                        bdd.eliminaRegistro(c);
+                        cambios += 2;
+                    }
+                    modificaciones.addAndGet(cambios);
+                    finales[hilo] = propias;
+                });
+        }
+        Thread lector = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        for (TarjetaCompacta t : bdd.getRegistros())
+                            Assert.assertTrue(t.getNombreDelPropietario()
+                                              .startsWith("H"));
+                        bdd.guarda(new BufferedWriter(new StringWriter()));
+                        bdd.buscaRegistro("c0");
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+        lector.start();
+        for (Thread hilo : hilos)
+            hilo.start();
+        for (Thread hilo : hilos)
+            hilo.join();
+        lector.interrupt();
+        lector.join();
+        Assert.assertTrue(error.get() == null);
+
+        Assert.assertTrue(bdd.getVersion() == modificaciones.get());
+        int vivas = 0;
+        for (int h = 0; h < HILOS; h++) {
+            for (int k = 0; k < finales[h].length; k++) {
+                TarjetaCompacta t = finales[h][k];
+                TarjetaCompacta e = bdd.buscaRegistro(h + "-" + k);
+                if (t == null) {
+                    Assert.assertTrue(e == null);
+                } else {
+                    Assert.assertTrue(t.equals(e));
+                    vivas++;
+                }
+            }
+        }
+        for (int c = 0; c < COMPARTIDAS; c++)
+            Assert.assertTrue(bdd.buscaRegistro("c" + c) == null);
+        Assert.assertTrue(bdd.getNumRegistros() == vivas);
+        Assert.assertTrue(bdd.getRegistros().getLongitud() == vivas);
+    }
+}
@@ -0,0 +1,123 @@
+package mx.unam.ciencias.icc.test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import mx.unam.ciencias.icc.Almacenamiento;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.Instantanea;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link BaseDeDatosTarjetas} con
+ * los registros guardados en un almacén persistente. Corre todas las
+ * pruebas de {@link TestBaseDeDatosTarjetas}.
+ */
+public class TestBaseDeDatosTarjetasPersistente
+    extends TestBaseDeDatosTarjetas {
+
+    /* Número de modificaciones en las pruebas de instantáneas. */
+    private static final int MODIFICACIONES = 5000;
+
+    /**
+     * Crea una base de datos de tarjetas con almacenamiento {@link
+     * Almacenamiento#PERSISTENTE}.
+     *
+     * @return una base de datos de tarjetas vacía.
+     */
+    @Override protected BaseDeDatosTarjetas creaBaseDeDatos() {
+        return new BaseDeDatosTarjetas(Almacenamiento.PERSISTENTE);
+    }
+
+    /**
+     * Con almacenamiento {@link Almacenamiento#PERSISTENTE} los registros
+     * modificados se reemplazan por registros nuevos.
+     *
+     * @return <code>false</code>.
+     */
+    @Override protected boolean modificaEnSuLugar() {
+        return false;
+    }
+
+    /* Regresa una tarjeta con el número recibido y el saldo recibido. */
+    private static Tarjeta tarjeta(int numero, double saldo) {
+        return new Tarjeta("A", numero(numero), 100, "01/30", saldo);
+    }
+
+    /* Regresa el número de tarjeta con el número recibido. */
+    private static String numero(int numero) {
+        return String.format("%016d", numero);
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetas#getInstantanea}: la
+     * instantánea conserva los registros originales aunque se modifiquen
+     * después de tomarla, y sigue igual cuando el almacén se compacta.
+     */
+    @Test public void testInstantaneaModificaCompacta() {
+        BaseDeDatosTarjetas bdd = creaBaseDeDatos();
+        for (int i = 0; i < 10; i++)
+            bdd.agregaRegistro(tarjeta(i, 0));
+        Instantanea<Tarjeta> instantanea = bdd.getInstantanea();
+        for (int j = 1; j <= MODIFICACIONES; j++) {
+            int i = j % 10;
+            bdd.modificaRegistro(bdd.buscaRegistro(numero(i)),
+                                 tarjeta(i, j));
+        }
+        int c = 0;
+        for (Tarjeta t : instantanea)
+            Assert.assertTrue(t.equals(tarjeta(c++, 0)));
+        Assert.assertTrue(c == 10);
+        Assert.assertTrue(bdd.getNumRegistros() == 10);
+        for (int i = 0; i < 10; i++) {
+            Tarjeta t = bdd.buscaRegistro(numero(i));
+            Assert.assertTrue(t.getSaldo() ==
+                              MODIFICACIONES - (MODIFICACIONES - i) % 10);
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link BaseDeDatosTarjetas#getInstantanea}: un
+     * hilo recorre instantáneas mientras otro modifica la base de datos, y
+     * cada instantánea tiene todos sus registros, en orden.
+     *
+     * @throws InterruptedException si se interrumpe la prueba.
+     */
+    @Test public void testInstantaneaConcurrente()
+        throws InterruptedException {
+        BaseDeDatosTarjetas bdd = creaBaseDeDatos();
+        for (int i = 0; i < 100; i++)
+            bdd.agregaRegistro(tarjeta(i, 0));
+        AtomicReference<Instantanea<Tarjeta>> ultima =
+            new AtomicReference<Instantanea<Tarjeta>>(bdd.getInstantanea());
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        AtomicBoolean termina = new AtomicBoolean();
+        Thread lector = new Thread(() -> {
+            try {
+                while (!termina.get()) {
+                    Instantanea<Tarjeta> instantanea = ultima.get();
+                    int c = 0;
+                    for (Tarjeta t : instantanea)
+                        if (!t.getNumeroDeTarjeta().equals(numero(c++)))
+                            throw new AssertionError();
+                    if (c != instantanea.getLongitud())
+                        throw new AssertionError();
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        lector.start();
+        for (int j = 1; j <= MODIFICACIONES; j++) {
+            int i = j % 100;
+            bdd.modificaRegistro(bdd.buscaRegistro(numero(i)),
+                                 tarjeta(i, j));
+            if (j % 100 == 0)
+                ultima.set(bdd.getInstantanea());
+        }
+        termina.set(true);
+        lector.join();
+        Assert.assertTrue(error.get() == null);
+    }
+}
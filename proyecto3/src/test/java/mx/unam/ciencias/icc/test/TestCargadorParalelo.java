@@ -0,0 +1,152 @@
+package mx.unam.ciencias.icc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import mx.unam.ciencias.icc.BaseDeDatosTarjetas;
+import mx.unam.ciencias.icc.CargadorParalelo;
+import mx.unam.ciencias.icc.EventoBaseDeDatos;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link CargadorParalelo}.
+ */
+public class TestCargadorParalelo {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* Base de datos de tarjetas. */
+    private BaseDeDatosTarjetas bdd;
+    /* La alberca de hilos. */
+    private ForkJoinPool alberca;
+    /* Número total de tarjetas. */
+    private int total;
+
+    /**
+     * Crea un generador de números aleatorios, una base de datos de tarjetas
+     * y una alberca de hilos para cada prueba.
+     */
+    public TestCargadorParalelo() {
+        random = new Random();
+        bdd = new BaseDeDatosTarjetas();
+        alberca = new ForkJoinPool(2 + random.nextInt(3));
+        total = 100 + random.nextInt(500);
+    }
+
+    /**
+     * Apaga la alberca de hilos.
+     */
+    @After public void apaga() {
+        alberca.shutdownNow();
+    }
+
+    /* Regresa las tarjetas serializadas, una por línea. */
+    private static String serializa(Lista<Tarjeta> tarjetas) {
+        StringBuilder sb = new StringBuilder();
+        for (Tarjeta t : tarjetas)
+            t.serializa(sb);
+        return sb.toString();
+    }
+
+    /* Regresa una lista de tarjetas aleatorias con números únicos. */
+    private Lista<Tarjeta> tarjetas(int n) {
+        Lista<Tarjeta> tarjetas = new Lista<Tarjeta>();
+        for (int i = 0; i < n; i++)
+            tarjetas.agregaFinal(TestTarjeta.tarjetaAleatoriaNumTarjeta("" + i));
+        return tarjetas;
+    }
+
+    /* Carga la cadena en la base de datos con bloques del tamaño recibido. */
+    private int carga(String s, int tamanoBloque) {
+        CargadorParalelo<Tarjeta> cargador =
+            new CargadorParalelo<Tarjeta>(bdd, alberca, tamanoBloque);
+        try {
+            return cargador.carga(new ByteArrayInputStream(s.getBytes()));
+        } catch (IOException ioe) {
+            Assert.fail();
+            return -1;
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link CargadorParalelo#CargadorParalelo}.
+     */
+    @Test public void testConstructor() {
+        try {
+            new CargadorParalelo<Tarjeta>(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            new CargadorParalelo<Tarjeta>(bdd, null, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+        try {
+            new CargadorParalelo<Tarjeta>(bdd, alberca, 0);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link CargadorParalelo#carga}. Los bloques son
+     * tan pequeños que hay muchos, y algunos más pequeños que una línea.
+     */
+    @Test public void testCarga() {
+        Lista<Tarjeta> tarjetas = tarjetas(total);
+        for (int i = 0; i < 10; i++)
+            bdd.agregaRegistro(TestTarjeta.tarjetaAleatoria());
+        int[] limpiada = { 0 };
+        int[] cargada = { 0 };
+        bdd.agregaEscucha((e, r1, r2) -> {
+            if (e == EventoBaseDeDatos.BASE_LIMPIADA)
+                limpiada[0]++;
+            else if (e == EventoBaseDeDatos.BASE_CARGADA)
+                cargada[0]++;
+            else
+                Assert.fail();
+        });
+        String s = serializa(tarjetas);
+        int n = carga(s, 1 + random.nextInt(200));
+        Assert.assertTrue(n == total);
+        Assert.assertTrue(bdd.getRegistros().equals(tarjetas));
+        Assert.assertTrue(limpiada[0] == 1);
+        Assert.assertTrue(cargada[0] == 1);
+
+        /* La última línea puede no terminar en salto de línea. */
+        n = carga(s.substring(0, s.length() - 1), 1 + random.nextInt(200));
+        Assert.assertTrue(n == total);
+        Assert.assertTrue(bdd.getRegistros().equals(tarjetas));
+
+        n = carga("", 1 + random.nextInt(200));
+        Assert.assertTrue(n == 0);
+        Assert.assertTrue(bdd.getNumRegistros() == 0);
+    }
+
+    /**
+     * Prueba unitaria para {@link CargadorParalelo#carga} con una línea
+     * inválida: como {@link mx.unam.ciencias.icc.BaseDeDatos#carga}, la
+     * carga se detiene en ella.
+     */
+    @Test public void testCargaLineaInvalida() {
+        Lista<Tarjeta> tarjetas = tarjetas(total);
+        int m = random.nextInt(total);
+        Lista<Tarjeta> antes = new Lista<Tarjeta>();
+        Lista<Tarjeta> despues = new Lista<Tarjeta>();
+        int i = 0;
+        for (Tarjeta t : tarjetas)
+            (i++ < m ? antes : despues).agregaFinal(t);
+        String s = serializa(antes) + " \n" + serializa(despues);
+        int n = carga(s, 1 + random.nextInt(200));
+        Assert.assertTrue(n == m);
+        Assert.assertTrue(bdd.getRegistros().equals(antes));
+    }
+}
@@ -0,0 +1,133 @@
+package mx.unam.ciencias.icc.test;
+
+import java.util.Random;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.IndiceOrdenado;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link IndiceOrdenado}.
+ */
+public class TestIndiceOrdenado {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* Número total de tarjetas. */
+    private int total;
+    /* El índice. */
+    private IndiceOrdenado<Tarjeta> indice;
+
+    /**
+     * Crea un generador de números aleatorios para cada prueba y un índice
+     * ordenado por saldo.
+     */
+    public TestIndiceOrdenado() {
+        random = new Random();
+        total = 10 + random.nextInt(100);
+        indice = new IndiceOrdenado<Tarjeta>(Double.class);
+    }
+
+    /* Cuenta las tarjetas con saldo mayor o igual al recibido. */
+    private int cuenta(Tarjeta[] tarjetas, double saldo) {
+        int c = 0;
+        for (Tarjeta t : tarjetas)
+            if (t != null && t.getSaldo() >= saldo)
+                c++;
+        return c;
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceOrdenado#agrega} y {@link
+     * IndiceOrdenado#candidatos}.
+     */
+    @Test public void testAgrega() {
+        Tarjeta[] tarjetas = new Tarjeta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = TestTarjeta.tarjetaAleatoria();
+            tarjetas[i].setSaldo(random.nextInt(10));
+            indice.agrega(tarjetas[i].getSaldo(), tarjetas[i]);
+        }
+        for (int s = -1; s <= 10; s++) {
+            Lista<Tarjeta> l = indice.candidatos(Double.valueOf(s));
+            Assert.assertTrue(l.getLongitud() == cuenta(tarjetas, s));
+            double anterior = Double.NEGATIVE_INFINITY;
+            for (Tarjeta t : l) {
+                Assert.assertTrue(t.getSaldo() >= s);
+                Assert.assertTrue(t.getSaldo() >= anterior);
+                anterior = t.getSaldo();
+            }
+        }
+        Assert.assertTrue(indice.candidatos(Integer.valueOf(1)) == null);
+        Assert.assertTrue(indice.candidatos(null) == null);
+        Assert.assertTrue(indice.candidatos(Double.valueOf(11)).esVacia());
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceOrdenado#elimina}.
+     */
+    @Test public void testElimina() {
+        Tarjeta[] tarjetas = new Tarjeta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = new Tarjeta("A", "A", 1, "A", 1);
+            indice.agrega(tarjetas[i].getSaldo(), tarjetas[i]);
+        }
+        for (int i = 0; i < total; i++) {
+            Tarjeta t = tarjetas[i];
+            indice.elimina(t.getSaldo(), new Tarjeta("A", "A", 1, "A", 1));
+            Lista<Tarjeta> l = indice.candidatos(Double.valueOf(0));
+            Assert.assertTrue(l.getLongitud() == total - i);
+            indice.elimina(t.getSaldo(), t);
+            l = indice.candidatos(Double.valueOf(0));
+            Assert.assertTrue(l.getLongitud() == total - i - 1);
+            for (Tarjeta e : l)
+                Assert.assertFalse(e == t);
+        }
+        indice.elimina(null, null);
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceOrdenado#candidatos} con saldos
+     * <code>-0.0</code> y <code>0.0</code>, que {@link Tarjeta#caza}
+     * considera iguales.
+     */
+    @Test public void testCeroNegativo() {
+        Tarjeta negativa = new Tarjeta("A", "A", 1, "A", -0.0);
+        Tarjeta positiva = new Tarjeta("B", "B", 1, "B", 0.0);
+        indice.agrega(negativa.getSaldo(), negativa);
+        indice.agrega(positiva.getSaldo(), positiva);
+        for (double cero : new double[] { 0.0, -0.0 }) {
+            Lista<Tarjeta> l = indice.candidatos(Double.valueOf(cero));
+            Assert.assertTrue(l.getLongitud() == 2);
+            Assert.assertTrue(l.contiene(negativa));
+            Assert.assertTrue(l.contiene(positiva));
+            Assert.assertTrue(negativa.caza(CampoTarjeta.SALDO, cero));
+        }
+        indice.elimina(0.0, negativa);
+        Lista<Tarjeta> l = indice.candidatos(Double.valueOf(0.0));
+        Assert.assertTrue(l.getLongitud() == 1);
+        Assert.assertTrue(l.getPrimero() == positiva);
+        indice.elimina(-0.0, positiva);
+        Assert.assertTrue(indice.candidatos(Double.valueOf(0.0)).esVacia());
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceOrdenado#limpia}.
+     */
+    @Test public void testLimpia() {
+        for (int i = 0; i < total; i++) {
+            Tarjeta t = TestTarjeta.tarjetaAleatoria();
+            indice.agrega(t.getSaldo(), t);
+        }
+        Assert.assertFalse(indice.candidatos(Double.valueOf(0)).esVacia());
+        indice.limpia();
+        Assert.assertTrue(indice.candidatos(Double.valueOf(0)).esVacia());
+    }
+}
@@ -0,0 +1,98 @@
+package mx.unam.ciencias.icc.test;
+
+import java.util.Random;
+import mx.unam.ciencias.icc.IndiceSubcadenas;
+import mx.unam.ciencias.icc.Lista;
+import mx.unam.ciencias.icc.Tarjeta;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link IndiceSubcadenas}.
+ */
+public class TestIndiceSubcadenas {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* Número total de tarjetas. */
+    private int total;
+    /* Las tarjetas. */
+    private Tarjeta[] tarjetas;
+    /* El índice. */
+    private IndiceSubcadenas<Tarjeta> indice;
+
+    /**
+     * Crea un generador de números aleatorios para cada prueba y un índice de
+     * subcadenas por nombre del propietario con tarjetas aleatorias.
+     */
+    public TestIndiceSubcadenas() {
+        random = new Random();
+        total = 10 + random.nextInt(100);
+        indice = new IndiceSubcadenas<Tarjeta>();
+        tarjetas = new Tarjeta[total];
+        for (int i = 0; i < total; i++) {
+            tarjetas[i] = TestTarjeta.tarjetaAleatoria();
+            indice.agrega(tarjetas[i].getNombreDelPropietario(), tarjetas[i]);
+        }
+    }
+
+    /* Nos dice si la tarjeta está en la lista, por identidad. */
+    private boolean contiene(Lista<Tarjeta> l, Tarjeta tarjeta) {
+        for (Tarjeta t : l)
+            if (t == tarjeta)
+                return true;
+        return false;
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceSubcadenas#candidatos}.
+     */
+    @Test public void testCandidatos() {
+        for (int k = 0; k < total; k++) {
+            Tarjeta tarjeta = tarjetas[random.nextInt(total)];
+            String nombre = tarjeta.getNombreDelPropietario();
+            int i = random.nextInt(nombre.length() - 3);
+            int j = i + 3 + random.nextInt(nombre.length() - i - 2);
+            String subcadena = nombre.substring(i, j);
+            Lista<Tarjeta> l = indice.candidatos(subcadena);
+            Assert.assertTrue(contiene(l, tarjeta));
+            for (Tarjeta t : tarjetas)
+                if (t.getNombreDelPropietario().contains(subcadena))
+                    Assert.assertTrue(contiene(l, t));
+        }
+        Assert.assertTrue(indice.candidatos("xxx-nombre").esVacia());
+        Assert.assertTrue(indice.candidatos("Jo") == null);
+        Assert.assertTrue(indice.candidatos("") == null);
+        Assert.assertTrue(indice.candidatos(null) == null);
+        Assert.assertTrue(indice.candidatos(Integer.valueOf(100)) == null);
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceSubcadenas#elimina}.
+     */
+    @Test public void testElimina() {
+        for (Tarjeta t : tarjetas) {
+            String nombre = t.getNombreDelPropietario();
+            Assert.assertTrue(contiene(indice.candidatos(nombre), t));
+            indice.elimina(nombre, t);
+            Assert.assertFalse(contiene(indice.candidatos(nombre), t));
+        }
+        indice.elimina(null, null);
+        indice.elimina("ab", null);
+    }
+
+    /**
+     * Prueba unitaria para {@link IndiceSubcadenas#limpia}.
+     */
+    @Test public void testLimpia() {
+        String nombre = tarjetas[0].getNombreDelPropietario();
+        Assert.assertFalse(indice.candidatos(nombre).esVacia());
+        indice.limpia();
+        Assert.assertTrue(indice.candidatos(nombre).esVacia());
+    }
+}
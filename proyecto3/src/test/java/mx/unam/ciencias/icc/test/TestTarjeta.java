@@ -1,8 +1,14 @@
 package mx.unam.ciencias.icc.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
 import mx.unam.ciencias.icc.CampoTarjeta;
 import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
 import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -135,6 +141,25 @@ public class TestTarjeta {
         Assert.assertTrue(tarjeta.getSaldo() == saldo);
     }
 
+    /**
+     * Prueba unitaria para {@link Tarjeta#Tarjeta(TarjetaCompacta)} y {@link
+     * Tarjeta#compacta}.
+     */
+    @Test
+    public void testCompacta() {
+        tarjeta = tarjetaAleatoria();
+        TarjetaCompacta compacta = tarjeta.compacta();
+        Assert.assertTrue(compacta.serializa().equals(tarjeta.serializa()));
+        Tarjeta copia = new Tarjeta(compacta);
+        Assert.assertTrue(copia.equals(tarjeta));
+        copia.setSaldo(copia.getSaldo() + 1);
+        Assert.assertTrue(tarjeta.compacta().equals(compacta));
+        try {
+            new Tarjeta((TarjetaCompacta)null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
     /**
      * Prueba unitaria para {@link Tarjeta#getNombreDelPropietario}.
      */
@@ -417,6 +442,7 @@ public class TestTarjeta {
                                             new String(num), codigo
                                             , new String(fecha), saldo);
         Assert.assertTrue(tarjeta.equals(igual));
+        Assert.assertTrue(tarjeta.hashCode() == igual.hashCode());
         String otroNombre = nombre + " Segundo";
         String otroNum = num + " 800";
         int otroCodigo = codigo + 1;
@@ -454,6 +480,58 @@ public class TestTarjeta {
         Assert.assertTrue(tarjeta.serializa().equals(linea));
     }
 
+    /**
+     * Prueba unitaria para {@link Tarjeta#serializa(StringBuilder)}.
+     */
+    @Test public void testSerializaBufer() {
+        double[] saldos = { 0, -0.0, 0.5, 0.05, 1.005, 2.675, 10.999, -3.25,
+                            123456.78, 1e15, Double.MAX_VALUE, Double.NaN,
+                            random.nextDouble() * 1000 };
+        StringBuilder bufer = new StringBuilder("x");
+        for (double saldo : saldos) {
+            String nombre = nombreAleatorio();
+            String num = numeroDeTarjetaAleatorio();
+            int codigo = codigoDeSeguridadAleatorio();
+            String fecha = fechaAleatoria();
+            tarjeta = new Tarjeta(nombre, num, codigo, fecha, saldo);
+            String linea = String.format("%s\t%s\t%d\t%s\t%2.2f\n",
+                                         nombre, num, codigo, fecha, saldo);
+            bufer.setLength(1);
+            tarjeta.serializa(bufer);
+            Assert.assertTrue(bufer.toString().equals("x" + linea));
+            Assert.assertTrue(tarjeta.serializa().equals(linea));
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link Tarjeta#escribe} y {@link Tarjeta#lee}.
+     */
+    @Test public void testEscribeLee() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream salida = new DataOutputStream(bytes);
+            Tarjeta[] tarjetas = new Tarjeta[10];
+            for (int i = 0; i < tarjetas.length; i++) {
+                tarjetas[i] = new Tarjeta(nombreAleatorio(),
+                                          numeroDeTarjetaAleatorio(),
+                                          codigoDeSeguridadAleatorio(),
+                                          fechaAleatoria(),
+                                          random.nextDouble() * 1000);
+                tarjetas[i].escribe(salida);
+            }
+            DataInputStream entrada = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+            for (Tarjeta t : tarjetas) {
+                tarjeta = new Tarjeta(null, null, 0, null, 0);
+                tarjeta.lee(entrada);
+                Assert.assertTrue(tarjeta.equals(t));
+            }
+            Assert.assertTrue(entrada.read() == -1);
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
     /**
      * Prueba unitaria para {@link Tarjeta#deserializa}.
      */
@@ -519,6 +597,32 @@ public class TestTarjeta {
         }
     }
 
+    /**
+     * Prueba unitaria para {@link Tarjeta#getValor}.
+     */
+    @Test public void testGetValor() {
+        String nombre = nombreAleatorio();
+        String num = numeroDeTarjetaAleatorio();
+        int codigo = codigoDeSeguridadAleatorio();
+        String fecha = fechaAleatoria();
+        double saldo = saldoAleatorio();
+        tarjeta = new Tarjeta(nombre, num, codigo, fecha, saldo);
+        Assert.assertTrue(tarjeta.getValor(CampoTarjeta.NOMBRE_DEL_PROPIETARIO)
+                          .equals(nombre));
+        Assert.assertTrue(tarjeta.getValor(CampoTarjeta.NUMERO_DE_TARJETA)
+                          .equals(num));
+        Assert.assertTrue(tarjeta.getValor(CampoTarjeta.CODIGO_DE_SEGURIDAD)
+                          .equals(Integer.valueOf(codigo)));
+        Assert.assertTrue(tarjeta.getValor(CampoTarjeta.FECHA_DE_VENCIMIENTO)
+                          .equals(fecha));
+        Assert.assertTrue(tarjeta.getValor(CampoTarjeta.SALDO)
+                          .equals(Double.valueOf(saldo)));
+        try {
+            tarjeta.getValor(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
     /**
      * Prueba unitaria para {@link Tarjeta#caza}.
      */
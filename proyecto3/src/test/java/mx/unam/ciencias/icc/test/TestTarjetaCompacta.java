@@ -0,0 +1,247 @@
+package mx.unam.ciencias.icc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import mx.unam.ciencias.icc.CampoTarjeta;
+import mx.unam.ciencias.icc.ExcepcionLineaInvalida;
+import mx.unam.ciencias.icc.Tarjeta;
+import mx.unam.ciencias.icc.TarjetaCompacta;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Clase para pruebas unitarias de la clase {@link TarjetaCompacta}. Como la
+ * tarjeta compacta debe comportarse igual que {@link Tarjeta}, casi todas las
+ * pruebas comparan ambas clases con los mismos campos.
+ */
+public class TestTarjetaCompacta {
+
+    /** Expiración para que ninguna prueba tarde más de 5 segundos. */
+    @Rule public Timeout expiracion = Timeout.seconds(5);
+
+    /* Generador de números aleatorios. */
+    private Random random;
+    /* La tarjeta compacta. */
+    private TarjetaCompacta compacta;
+    /* La tarjeta con los mismos campos. */
+    private Tarjeta tarjeta;
+
+    /**
+     * Genera una tarjeta compacta aleatoria.
+     *
+     * @return una tarjeta compacta aleatoria.
+     */
+    public static TarjetaCompacta tarjetaAleatoria() {
+        return TestTarjeta.tarjetaAleatoria().compacta();
+    }
+
+    /**
+     * Genera una tarjeta compacta aleatoria con un número de tarjeta dado.
+     *
+     * @param numeroDeTarjeta el número de tarjeta de la nueva tarjeta.
+     * @return una tarjeta compacta aleatoria.
+     */
+    public static TarjetaCompacta
+    tarjetaAleatoriaNumTarjeta(String numeroDeTarjeta) {
+        return TestTarjeta.tarjetaAleatoriaNumTarjeta(numeroDeTarjeta)
+            .compacta();
+    }
+
+    /**
+     * Crea una tarjeta compacta aleatoria y una tarjeta igual para cada
+     * prueba.
+     */
+    public TestTarjetaCompacta() {
+        random = new Random();
+        tarjeta = TestTarjeta.tarjetaAleatoria();
+        compacta = new TarjetaCompacta(tarjeta.getNombreDelPropietario(),
+                                       tarjeta.getNumeroDeTarjeta(),
+                                       tarjeta.getCodigoDeSeguridad(),
+                                       tarjeta.getFechaDeVencimiento(),
+                                       tarjeta.getSaldo());
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#TarjetaCompacta} y sus
+     * métodos de acceso.
+     */
+    @Test public void testConstructor() {
+        Assert.assertTrue(compacta.getNombreDelPropietario()
+                          .equals(tarjeta.getNombreDelPropietario()));
+        Assert.assertTrue(compacta.getNumeroDeTarjeta()
+                          .equals(tarjeta.getNumeroDeTarjeta()));
+        Assert.assertTrue(compacta.getCodigoDeSeguridad() ==
+                          tarjeta.getCodigoDeSeguridad());
+        Assert.assertTrue(compacta.getFechaDeVencimiento()
+                          .equals(tarjeta.getFechaDeVencimiento()));
+        Assert.assertTrue(compacta.getSaldo() == tarjeta.getSaldo());
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#toString}.
+     */
+    @Test public void testToString() {
+        Assert.assertTrue(compacta.toString().equals(tarjeta.toString()));
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#equals} y {@link
+     * TarjetaCompacta#hashCode}.
+     */
+    @Test public void testEquals() {
+        TarjetaCompacta igual = tarjeta.compacta();
+        Assert.assertTrue(compacta.equals(igual));
+        Assert.assertTrue(compacta.hashCode() == igual.hashCode());
+        Assert.assertFalse(compacta.equals(tarjeta));
+        Assert.assertFalse(compacta.equals(null));
+        TarjetaCompacta distinta =
+            new TarjetaCompacta(compacta.getNombreDelPropietario(),
+                                compacta.getNumeroDeTarjeta(),
+                                compacta.getCodigoDeSeguridad(),
+                                compacta.getFechaDeVencimiento(),
+                                compacta.getSaldo() + 1);
+        Assert.assertFalse(compacta.equals(distinta));
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#serializa}: la línea es la
+     * misma que la de {@link Tarjeta#serializa}, también para saldos que no
+     * tienen exactamente dos decimales.
+     */
+    @Test public void testSerializa() {
+        Assert.assertTrue(compacta.serializa().equals(tarjeta.serializa()));
+        double[] saldos = { -0.0, 2.675, -3.25, 1e15, Double.NaN,
+                            random.nextDouble() * 1000 };
+        StringBuilder bufer = new StringBuilder("x");
+        for (double saldo : saldos) {
+            tarjeta.setSaldo(saldo);
+            compacta = tarjeta.compacta();
+            bufer.setLength(1);
+            compacta.serializa(bufer);
+            Assert.assertTrue(bufer.toString()
+                              .equals("x" + tarjeta.serializa()));
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#serializa} cuando cambia el
+     * lugar de formato por omisión.
+     */
+    @Test public void testSerializaLugar() {
+        Locale original = Locale.getDefault(Locale.Category.FORMAT);
+        Locale[] lugares = { Locale.GERMANY, Locale.US,
+                             Locale.forLanguageTag("ar-EG"), original };
+        try {
+            for (Locale lugar : lugares) {
+                Locale.setDefault(Locale.Category.FORMAT, lugar);
+                tarjeta.setSaldo(12.5);
+                compacta = tarjeta.compacta();
+                Assert.assertTrue(compacta.serializa()
+                                  .equals(tarjeta.serializa()));
+            }
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, original);
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#deserializa}.
+     */
+    @Test public void testDeserializa() {
+        TarjetaCompacta t = new TarjetaCompacta(null, null, 0, null, 0);
+        t.deserializa(tarjeta.serializa());
+        Assert.assertTrue(new Tarjeta(t).equals(tarjeta));
+        String[] invalidas = { null, "", " ", "a\tb", "a\tb\tc\td\te",
+                               "a\t1\t2\td\t3\tf", "a\tb\tc\td\t1.0" };
+        for (String linea : invalidas) {
+            try {
+                t.deserializa(linea);
+                Assert.fail();
+            } catch (ExcepcionLineaInvalida eli) {}
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#escribe} y {@link
+     * TarjetaCompacta#lee}: lo que escribe una clase lo lee la otra.
+     */
+    @Test public void testEscribeLee() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream salida = new DataOutputStream(bytes);
+            compacta.escribe(salida);
+            tarjeta.escribe(salida);
+            salida.close();
+            DataInputStream entrada = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+            Tarjeta t = new Tarjeta(null, null, 0, null, 0);
+            t.lee(entrada);
+            Assert.assertTrue(t.equals(tarjeta));
+            TarjetaCompacta c = new TarjetaCompacta(null, null, 0, null, 0);
+            c.lee(entrada);
+            Assert.assertTrue(c.equals(compacta));
+            Assert.assertTrue(entrada.read() == -1);
+        } catch (IOException ioe) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#actualiza}.
+     */
+    @Test public void testActualiza() {
+        TarjetaCompacta otra = tarjetaAleatoria();
+        compacta.actualiza(otra);
+        Assert.assertTrue(compacta.equals(otra));
+        try {
+            compacta.actualiza(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#getValor}.
+     */
+    @Test public void testGetValor() {
+        for (CampoTarjeta campo : CampoTarjeta.values())
+            Assert.assertTrue(compacta.getValor(campo)
+                              .equals(tarjeta.getValor(campo)));
+        try {
+            compacta.getValor(null);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     * Prueba unitaria para {@link TarjetaCompacta#caza}: caza los mismos
+     * valores que {@link Tarjeta#caza}.
+     */
+    @Test public void testCaza() {
+        String nombre = tarjeta.getNombreDelPropietario();
+        String numero = tarjeta.getNumeroDeTarjeta();
+        String fecha = tarjeta.getFechaDeVencimiento();
+        int codigo = tarjeta.getCodigoDeSeguridad();
+        double saldo = tarjeta.getSaldo();
+        Object[] valores = {
+            nombre, nombre.substring(1), numero, numero.substring(2, 5),
+            fecha, fecha.substring(0, 2), "", "XXX", null,
+            codigo, codigo - 1, codigo + 1, saldo, saldo - 1.0, saldo + 1.0,
+            Integer.valueOf(1000), Double.valueOf(-1)
+        };
+        for (CampoTarjeta campo : CampoTarjeta.values())
+            for (Object valor : valores)
+                Assert.assertTrue(compacta.caza(campo, valor) ==
+                                  tarjeta.caza(campo, valor));
+        try {
+            compacta.caza(null, nombre);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {}
+    }
+}